@@ -0,0 +1,159 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of nzilbb.ag.
+//
+//    nzilbb.ag is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    nzilbb.ag is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with nzilbb.ag; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import nzilbb.ag.Schema;
+import nzilbb.ag.ql.AGQLException;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks translation of AGQL expressions into SQL by {@link GraphAgqlToSql},
+ * {@link ParticipantAgqlToSql}, and {@link AnnotationAgqlToSql}.
+ * <p> Expressions are typical of those generated by the user interface and API clients,
+ * including the long <tt>id IN (...)</tt> lists that <tt>/api/search</tt> builds from
+ * <var>participant_id</var> parameters, whose length is set by
+ * {@link IdLists#count}.
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AgqlToSqlBenchmark {
+
+  Schema schema;
+  GraphAgqlToSql graphs;
+  ParticipantAgqlToSql participants;
+  AnnotationAgqlToSql annotations;
+
+  @Setup public void setup() {
+    schema = BenchmarkSchema.Create();
+    graphs = new GraphAgqlToSql(schema);
+    participants = new ParticipantAgqlToSql(schema);
+    annotations = new AnnotationAgqlToSql(schema);
+  }
+
+  /** Expressions that list IDs. */
+  @State(Scope.Benchmark)
+  public static class IdLists {
+    /** The number of IDs in each list. */
+    @Param({"10", "100", "1000"})
+    public int count;
+
+    /** Participant IDs, as built by <tt>/api/search</tt>. */
+    String participantIdIn;
+    /** Transcript IDs, as built by the transcripts page. */
+    String transcriptIdIncludes;
+    /** Annotation IDs, as built when exporting selected matches. */
+    String annotationIdIncludes;
+
+    @Setup public void setup() {
+      participantIdIn = "id IN ("
+        + IntStream.range(0, count)
+        .mapToObj(i -> "'participant-" + i + "'")
+        .collect(Collectors.joining(","))
+        + ")";
+      transcriptIdIncludes = "["
+        + IntStream.range(0, count)
+        .mapToObj(i -> "'transcript-" + i + ".eaf'")
+        .collect(Collectors.joining(","))
+        + "].includes(id)";
+      annotationIdIncludes = "["
+        + IntStream.range(0, count)
+        .mapToObj(i -> "'ew_0_" + (100000 + i) + "'")
+        .collect(Collectors.joining(","))
+        + "].includes(id)";
+    }
+  } // end of class IdLists
+
+  // transcripts
+  
+  @Benchmark public GraphAgqlToSql.Query graphIdPattern() throws AGQLException {
+    return graphs.sqlFor(
+      "/Ada.+/.test(id)", "transcript.transcript_id, transcript.ag_id", null, null, null);
+  }
+  
+  @Benchmark public GraphAgqlToSql.Query graphAttributes() throws AGQLException {
+    return graphs.sqlFor(
+      "['CC','IA','MU'].includes(first('corpus').label)"
+      +" && first('transcript_language').label == 'en'"
+      +" && labels('who').includes('someone')"
+      +" && /.*bell.*/.test(first('noise').label)",
+      "transcript.transcript_id, transcript.ag_id", null,
+      "first('corpus').label ASC, first('episode').label DESC, ordinal ASC", "LIMIT 0,20");
+  }
+
+  @Benchmark public GraphAgqlToSql.Query graphIdList(IdLists lists) throws AGQLException {
+    return graphs.sqlFor(
+      lists.transcriptIdIncludes, "transcript.transcript_id", null, null, null);
+  }
+
+  // participants
+
+  @Benchmark public ParticipantAgqlToSql.Query participantIdPattern() throws AGQLException {
+    return participants.sqlFor(
+      "/Ada.+/.test(id)", "speaker_number, name", null, false, "ORDER BY speaker.name");
+  }
+
+  @Benchmark public ParticipantAgqlToSql.Query participantAttributes()
+    throws AGQLException {
+    return participants.sqlFor(
+      "labels('participant_gender').includes('NA')"
+      +" && ['en','es'].includesAny(labels('participant_languages'))"
+      +" && labels('corpus').includes('CC')"
+      +" && all('transcript_rating').length > 2",
+      "speaker_number, name", null, false, "ORDER BY speaker.name");
+  }
+
+  @Benchmark public ParticipantAgqlToSql.Query participantIdList(IdLists lists)
+    throws AGQLException {
+    // as used by OneQuerySearch to resolve participant_id parameters to participants
+    return participants.sqlFor(
+      lists.participantIdIn, "speaker.name", null, false, "ORDER BY speaker.name");
+  }
+
+  // annotations
+
+  @Benchmark public AnnotationAgqlToSql.Query annotationLabel() throws AGQLException {
+    return annotations.sqlFor(
+      "layerId == 'orthography' && !/th[aeiou].*/.test(label)",
+      "DISTINCT annotation.*", null, null);
+  }
+
+  @Benchmark public AnnotationAgqlToSql.Query annotationParticipant() throws AGQLException {
+    return annotations.sqlFor(
+      "layer.id == 'orthography' && first('who').label == 'Robert'",
+      "DISTINCT annotation.*, graph.transcript_id AS graph", null, "LIMIT 0,100");
+  }
+
+  @Benchmark public AnnotationAgqlToSql.Query annotationIdList(IdLists lists)
+    throws AGQLException {
+    return annotations.sqlFor(
+      lists.annotationIdIncludes, "DISTINCT annotation.*", null, null);
+  }
+
+} // end of class AgqlToSqlBenchmark
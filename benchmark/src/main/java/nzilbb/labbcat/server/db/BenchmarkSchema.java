@@ -0,0 +1,164 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of nzilbb.ag.
+//
+//    nzilbb.ag is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    nzilbb.ag is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with nzilbb.ag; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+import nzilbb.ag.Constants;
+import nzilbb.ag.Layer;
+import nzilbb.ag.Schema;
+
+/**
+ * A plausible layer schema, including the SQL attributes that the AGQL and search SQL
+ * generators need, so that they can be benchmarked without a database.
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+public class BenchmarkSchema {
+
+  /**
+   * Creates the schema.
+   * @return A new schema.
+   */
+  public static Schema Create() {
+    return new Schema(
+      "who", "turn", "utterance", "word",
+      
+      (Layer)(new Layer("transcript_language", "Language").setAlignment(Constants.ALIGNMENT_NONE)
+              .setPeers(false).setPeersOverlap(false).setSaturated(true))
+      .with("class_id", "transcript").with("attribute", "language"),
+      
+      (Layer)(new Layer("transcript_scribe", "Scribe").setAlignment(Constants.ALIGNMENT_NONE)
+              .setPeers(false).setPeersOverlap(false).setSaturated(true))
+      .with("class_id", "transcript").with("attribute", "scribe"),
+      
+      new Layer("transcript_type", "Type").setAlignment(Constants.ALIGNMENT_NONE)
+      .setPeers(false).setPeersOverlap(false).setSaturated(true),
+      
+      (Layer)(new Layer("transcript_rating", "Ratings").setAlignment(Constants.ALIGNMENT_NONE)
+              .setPeers(true).setPeersOverlap(true).setSaturated(true))
+      .with("class_id", "transcript").with("attribute", "rating"),
+      
+      (Layer)(new Layer("corpus", "Corpus").setAlignment(Constants.ALIGNMENT_NONE)
+              .setPeers(false).setPeersOverlap(false).setSaturated(true))
+      .with("layer_id", SqlConstants.LAYER_CORPUS),
+      
+      (Layer)(new Layer("episode", "Episode").setAlignment(Constants.ALIGNMENT_NONE)
+              .setPeers(false).setPeersOverlap(false).setSaturated(true))
+      .with("layer_id", SqlConstants.LAYER_SERIES),
+      
+      (Layer)(new Layer("recording_date", "Recording Date").setAlignment(Constants.ALIGNMENT_NONE)
+              .setPeers(false).setPeersOverlap(false).setSaturated(true).setParentId("episode")),
+      
+      (Layer)(new Layer("who", "Participants").setAlignment(Constants.ALIGNMENT_NONE)
+              .setPeers(true).setPeersOverlap(true).setSaturated(true))
+      .with("layer_id", SqlConstants.LAYER_PARTICIPANT),
+      
+      (Layer)(new Layer("main_participant", "Main Participant").setAlignment(Constants.ALIGNMENT_NONE)
+              .setPeers(true).setPeersOverlap(true).setSaturated(true).setParentId("who"))
+      .with("layer_id", SqlConstants.LAYER_MAIN_PARTICIPANT),
+      
+      (Layer)(new Layer("participant_gender", "Gender").setAlignment(Constants.ALIGNMENT_NONE)
+              .setPeers(true).setPeersOverlap(true).setSaturated(true).setParentId("who"))
+      .with("class_id", "speaker").with("attribute", "gender"),
+      
+      (Layer)(new Layer("participant_age", "Age").setAlignment(Constants.ALIGNMENT_NONE)
+              .setPeers(true).setPeersOverlap(true).setSaturated(true).setParentId("who"))
+      .with("class_id", "speaker").with("attribute", "age"),
+      
+      (Layer)(new Layer("participant_languages", "Languages").setAlignment(Constants.ALIGNMENT_NONE)
+              .setPeers(true).setPeersOverlap(true).setSaturated(true).setParentId("who"))
+      .with("class_id", "speaker").with("attribute", "languages"),
+      
+      (Layer)(new Layer("comment", "Comment").setAlignment(Constants.ALIGNMENT_INTERVAL)
+              .setPeers(true).setPeersOverlap(false).setSaturated(false))
+      .with("layer_id", 31).with("scope", "F"),
+      
+      (Layer)(new Layer("noise", "Noise")
+              .setAlignment(2).setPeers(true).setPeersOverlap(false).setSaturated(false))
+      .with("layer_id", 32).with("scope", "F"),
+      
+      (Layer)(new Layer("topic", "Topic").setAlignment(Constants.ALIGNMENT_INTERVAL)
+              .setPeers(true).setPeersOverlap(false).setSaturated(false))
+      .with("layer_id", 30).with("scope", "F"),
+      
+      (Layer)(new Layer("turn", "Speaker turns").setAlignment(Constants.ALIGNMENT_INTERVAL)
+              .setPeers(true).setPeersOverlap(false).setSaturated(false)
+              .setParentId("who").setParentIncludes(true))
+      .with("layer_id", SqlConstants.LAYER_TURN).with("scope", "M"),
+      
+      (Layer)(new Layer("utterance", "Utterances").setAlignment(Constants.ALIGNMENT_INTERVAL)
+              .setPeers(true).setPeersOverlap(false).setSaturated(true)
+              .setParentId("turn").setParentIncludes(true))
+      .with("layer_id", SqlConstants.LAYER_UTTERANCE).with("scope", "M"),
+      
+      (Layer)(new Layer("language", "Other Language").setAlignment(Constants.ALIGNMENT_INTERVAL)
+              .setPeers(true).setPeersOverlap(false).setSaturated(false)
+              .setParentId("turn").setParentIncludes(true))
+      .with("layer_id", 20).with("scope", "M"),
+      
+      (Layer)(new Layer("word", "Words").setAlignment(Constants.ALIGNMENT_INTERVAL)
+              .setPeers(true).setPeersOverlap(false).setSaturated(false)
+              .setParentId("turn").setParentIncludes(true))
+      .with("layer_id", SqlConstants.LAYER_TRANSCRIPTION).with("scope", "W"),
+      
+      (Layer)(new Layer("orthography", "Orthography").setAlignment(Constants.ALIGNMENT_NONE)
+              .setPeers(false).setPeersOverlap(false).setSaturated(true)
+              .setParentId("word").setParentIncludes(true))
+      .with("layer_id", SqlConstants.LAYER_ORTHOGRAPHY).with("scope", "W"),
+      
+      (Layer)(new Layer("phonemes", "Pronunciation").setAlignment(Constants.ALIGNMENT_NONE)
+              .setPeers(true).setPeersOverlap(false).setSaturated(true)
+              .setParentId("word").setParentIncludes(true)
+              .setType(Constants.TYPE_IPA))
+      .with("layer_id", 52).with("scope", "W"),
+      
+      (Layer)(new Layer("syllableCount", "Syllable Count").setAlignment(Constants.ALIGNMENT_NONE)
+              .setPeers(false).setPeersOverlap(false).setSaturated(true)
+              .setParentId("word").setParentIncludes(true)
+              .setType(Constants.TYPE_NUMBER))
+      .with("layer_id", 186).with("scope", "W"),
+      
+      (Layer)(new Layer("syllable", "Aligned syllable").setAlignment(Constants.ALIGNMENT_INTERVAL)
+              .setPeers(true).setPeersOverlap(false).setSaturated(true)
+              .setParentId("word").setParentIncludes(true)
+              .setType(Constants.TYPE_IPA))
+      .with("layer_id", 187).with("scope", "W"),
+      
+      (Layer)(new Layer("segment", "Phones").setAlignment(Constants.ALIGNMENT_INTERVAL)
+              .setPeers(true).setPeersOverlap(false).setSaturated(true)
+              .setParentId("word").setParentIncludes(true)
+              .setType(Constants.TYPE_IPA))
+      .with("layer_id", SqlConstants.LAYER_SEGMENT).with("scope", "S"),
+      
+      (Layer)(new Layer("ARPABET", "ARPABET Segment label").setAlignment(Constants.ALIGNMENT_NONE)
+              .setPeers(false).setPeersOverlap(false).setSaturated(true)
+              .setParentId("segment").setParentIncludes(true))
+      .with("layer_id", 200).with("scope", "S"),
+      
+      (Layer)(new Layer("pronounce", "Pronounce").setAlignment(Constants.ALIGNMENT_NONE)
+              .setPeers(false).setPeersOverlap(false).setSaturated(true)
+              .setParentId("word").setParentIncludes(true))
+      .with("layer_id", 23).with("scope", "W"))
+
+      .setEpisodeLayerId("episode")
+      .setCorpusLayerId("corpus");
+  } // end of Create()
+
+} // end of class BenchmarkSchema
@@ -0,0 +1,64 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of nzilbb.ag.
+//
+//    nzilbb.ag is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    nzilbb.ag is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with nzilbb.ag; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks parsing and formatting of match and utterance IDs by {@link IdMatch} and
+ * {@link IdUtterance}, which happens for every row of exported search results.
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IdParsingBenchmark {
+
+  /** Match IDs, from simplest to most complex. */
+  @Param({
+      "g_243;em_12_20035",
+      "g_243;n_72700-n_72709;p_123",
+      "g_243;n_72700-n_72709;p_123;prefix=099-;#=es_1_987;[first]=ew_0_876;[second]=ew_2_765"
+    })
+  public String id;
+
+  @Benchmark public IdMatch parseIdMatch() {
+    return new IdMatch(id);
+  }
+
+  @Benchmark public String roundTripIdMatch() {
+    return new IdMatch(id).getId();
+  }
+
+  @Benchmark public IdUtterance parseIdUtterance() {
+    return new IdUtterance(id);
+  }
+
+  @Benchmark public String roundTripIdUtterance() {
+    return new IdUtterance(id).getId();
+  }
+
+} // end of class IdParsingBenchmark
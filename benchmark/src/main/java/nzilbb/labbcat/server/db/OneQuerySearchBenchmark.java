@@ -0,0 +1,211 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of nzilbb.ag.
+//
+//    nzilbb.ag is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    nzilbb.ag is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with nzilbb.ag; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import nzilbb.ag.Layer;
+import nzilbb.ag.Schema;
+import nzilbb.labbcat.server.search.Column;
+import nzilbb.labbcat.server.search.LayerMatch;
+import nzilbb.labbcat.server.search.Matrix;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks generation of search SQL from search matrices by
+ * {@link OneQuerySearch#generateSql}, {@link OneQuerySearch#generateOrthographySql}, and
+ * {@link OneQuerySearch#generateOneSpanSql}.
+ * <p> Each invocation includes building the matrix and normalizing it, as the search
+ * does, because normalization changes the matrix.
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OneQuerySearchBenchmark {
+
+  /**
+   * The kind of matrix searched by {@link #generateSql(MatrixShape)}:
+   * <dl>
+   *  <dt> word </dt><dd> One word pattern. </dd>
+   *  <dt> columns </dt><dd> Three columns with word, orthography, and phonemes patterns,
+   *       the second up to two words after the first. </dd>
+   *  <dt> segment </dt><dd> A segment target within a word in the second column. </dd>
+   *  <dt> numeric </dt><dd> A numeric range on a word layer, anchored to the start of
+   *       an utterance. </dd>
+   * </dl>
+   */
+  @State(Scope.Benchmark)
+  public static class MatrixShape {
+    @Param({"word", "columns", "segment", "numeric"})
+    public String shape;
+    
+    Supplier<Matrix> matrix;
+    
+    @Setup public void setup() {
+      switch (shape) {
+        case "word":
+          matrix = () -> new Matrix().addColumn(
+            new Column().addLayerMatch(
+              new LayerMatch().setId("word").setPattern("needle").setTarget(true)));
+          break;
+        case "columns":
+          matrix = () -> new Matrix()
+            .addColumn(new Column().setAdj(2)
+                       .addLayerMatch(new LayerMatch().setId("word").setPattern("the")))
+            .addColumn(new Column()
+                       .addLayerMatch(
+                         new LayerMatch().setId("orthography").setPattern("qu.*")
+                         .setTarget(true))
+                       .addLayerMatch(
+                         new LayerMatch().setId("phonemes").setPattern(".*k.*")))
+            .addColumn(new Column()
+                       .addLayerMatch(
+                         new LayerMatch().setId("orthography").setPattern("(a|an)")
+                         .setNot(true)));
+          break;
+        case "segment":
+          matrix = () -> new Matrix()
+            .addColumn(new Column()
+                       .addLayerMatch(new LayerMatch().setId("orthography").setPattern("the")))
+            .addColumn(new Column()
+                       .addLayerMatch(new LayerMatch().setId("orthography").setPattern("kit"))
+                       .addLayerMatch(
+                         new LayerMatch().setId("segment").setPattern("I").setTarget(true)));
+          break;
+        case "numeric":
+          matrix = () -> new Matrix().addColumn(
+            new Column()
+            .addLayerMatch(
+              new LayerMatch().setId("syllableCount").setMin(2.0).setMax(4.0)
+              .setTarget(true))
+            .addLayerMatch(new LayerMatch().setId("utterance").setAnchorStart(true)));
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown shape: " + shape);
+      }
+    }
+  } // end of class MatrixShape
+
+  /** Participant ID lists, as built by <tt>/api/search</tt>. */
+  @State(Scope.Benchmark)
+  public static class Participants {
+    /** The number of participants. */
+    @Param({"10", "100", "1000"})
+    public int count;
+
+    String participantQuery;
+
+    @Setup public void setup() {
+      participantQuery = "id IN ("
+        + IntStream.range(0, count)
+        .mapToObj(i -> "'participant-" + i + "'")
+        .collect(Collectors.joining(","))
+        + ")";
+    }
+  } // end of class Participants
+
+  Schema schema;
+  ParticipantAgqlToSql participants;
+
+  @Setup public void setup() {
+    schema = BenchmarkSchema.Create();
+    participants = new ParticipantAgqlToSql(schema);
+  }
+
+  /**
+   * Creates a search for the given matrix, normalized as it would be by the search.
+   * @param matrix The search matrix.
+   * @return The search.
+   */
+  OneQuerySearch search(Matrix matrix) {
+    OneQuerySearch search = new OneQuerySearch();
+    search.setMatrix(matrix);
+    search.normalizeMatrix(schema);
+    return search;
+  } // end of search()
+
+  @Benchmark public String generateSql(MatrixShape shape) throws Exception {
+    Vector<Object> parameters = new Vector<Object>();
+    return search(shape.matrix.get()).generateSql(
+      parameters, schema, l -> false, p -> "", t -> "");
+  }
+
+  @Benchmark public String generateOrthographySql() throws Exception {
+    Vector<Object> parameters = new Vector<Object>();
+    return search(
+      new Matrix()
+      .addColumn(new Column()
+                 .addLayerMatch(new LayerMatch().setId("orthography").setPattern("the")))
+      .addColumn(new Column()
+                 .addLayerMatch(new LayerMatch().setId("orthography").setPattern("qu.*"))))
+      .generateOrthographySql(parameters, schema);
+  }
+
+  @Benchmark public String generateOneSpanSql() throws Exception {
+    Vector<Object> parameters = new Vector<Object>();
+    Layer spanLayer = schema.getLayer("topic");
+    LayerMatch match = new LayerMatch()
+      .setId(spanLayer.getId()).setPattern("needle").setTarget(true);
+    match.setNullBooleans();
+    match.ensurePatternAnchored();
+    return search(new Matrix().addColumn(new Column().addLayerMatch(match)))
+      .generateOneSpanSql(parameters, schema, spanLayer, match);
+  }
+
+  /**
+   * Generates SQL for a word search restricted to a list of participants. The participant
+   * condition is built as the search builds it - translating the participant query, and
+   * listing the resulting speaker numbers - except that speaker numbers are assumed rather
+   * than looked up.
+   */
+  @Benchmark public String generateSqlForParticipants(Participants list) throws Exception {
+    Vector<Object> parameters = new Vector<Object>();
+    Matrix matrix = new Matrix().addColumn(
+      new Column().addLayerMatch(
+        new LayerMatch().setId("word").setPattern("needle").setTarget(true)));
+    matrix.setParticipantQuery(list.participantQuery);
+    return search(matrix).generateSql(
+      parameters, schema, l -> false,
+      participantQuery -> {
+        try {
+          participants.sqlFor(
+            participantQuery, "speaker.name", null, false, "ORDER BY speaker.name");
+        } catch(Exception exception) {
+          throw new RuntimeException(exception);
+        }
+        return " AND turn.label REGEXP '^[0-9]+$' AND CAST(turn.label AS SIGNED) IN ("
+          + IntStream.range(0, list.count)
+          .mapToObj(String::valueOf)
+          .collect(Collectors.joining(","))
+          + ")";
+      },
+      t -> "");
+  }
+
+} // end of class OneQuerySearchBenchmark
@@ -0,0 +1,629 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.load;
+
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Vector;
+import nzilbb.ag.Anchor;
+import nzilbb.ag.Annotation;
+import nzilbb.ag.Constants;
+import nzilbb.ag.Graph;
+import nzilbb.ag.Layer;
+import nzilbb.ag.Schema;
+import nzilbb.labbcat.server.db.SqlGraphStoreAdministration;
+import nzilbb.sql.mysql.MySQLConnectionFactory;
+import nzilbb.util.CommandLineProgram;
+import nzilbb.util.ProgramDescription;
+import nzilbb.util.Switch;
+
+/**
+ * Generates a synthetic corpus of configurable size in a LaBB-CAT database, so that
+ * performance problems can be reproduced without access to real (and usually
+ * confidential) corpus data.
+ * <p> Transcripts are saved with
+ * {@link SqlGraphStoreAdministration#saveTranscript(Graph)}, so they are normalized,
+ * validated, and stored exactly as uploaded transcripts are. Each transcript has:
+ * <ul>
+ *  <li> a topic transcript attribute, </li>
+ *  <li> a number of participants drawn from a fixed pool, the first of whom is the main
+ *       participant, </li>
+ *  <li> alternating turns, divided into utterances, </li>
+ *  <li> words drawn from a pseudo-word vocabulary with a Zipf-like frequency
+ *       distribution, </li>
+ *  <li> a part-of-speech tag on each word, </li>
+ *  <li> a segment for each character of each word, and </li>
+ *  <li> phrases spanning groups of words. </li>
+ * </ul>
+ * <p> Participants also have group and age attributes. Any layers that don't already exist
+ * are created. Generation is deterministic for a given random seed, so the same corpus
+ * can be generated in different databases.
+ * <p> e.g.
+ * <pre>java -cp benchmarks.jar nzilbb.labbcat.server.load.CorpusGenerator \
+ *   --connectionURL=jdbc:mysql://localhost/labbcat --user=labbcat --password=labbcat \
+ *   --transcripts=500 --participants=200 --words=2000</pre>
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+@ProgramDescription(
+  value="Generates a synthetic corpus in a LaBB-CAT database for load testing")
+public class CorpusGenerator extends CommandLineProgram {
+
+  /** Consonants for building pseudo-words. */
+  public static final String[] ONSETS = {
+    "b", "d", "f", "g", "h", "k", "l", "m", "n", "p", "r", "s", "t", "v", "w", "z" };
+  /** Vowels for building pseudo-words. */
+  public static final String[] VOWELS = { "a", "e", "i", "o", "u" };
+  /** Part-of-speech tags. */
+  public static final String[] POS = { "N", "V", "ADJ", "ADV", "DET", "PREP", "PRON", "CONJ" };
+  /** Phrase labels. */
+  public static final String[] PHRASES = { "NP", "VP", "PP", "AP" };
+  /** Transcript topics. */
+  public static final String[] TOPICS = { "family", "work", "school", "travel", "sport" };
+  /** Participant groups. */
+  public static final String[] GROUPS = { "A", "B", "C", "D" };
+
+  public static void main(String argv[]) {
+    CorpusGenerator generator = new CorpusGenerator();
+    if (generator.processArguments(argv)) {
+      generator.start();
+    }
+  }
+
+  /**
+   * JDBC URL of the database.
+   * @see #getConnectionURL()
+   * @see #setConnectionURL(String)
+   */
+  protected String connectionURL = "jdbc:mysql://localhost/labbcat";
+  /**
+   * Getter for {@link #connectionURL}: JDBC URL of the database.
+   * @return JDBC URL of the database.
+   */
+  public String getConnectionURL() { return connectionURL; }
+  /**
+   * Setter for {@link #connectionURL}: JDBC URL of the database.
+   * @param newConnectionURL JDBC URL of the database.
+   */
+  @Switch("JDBC URL of the database - default jdbc:mysql://localhost/labbcat")
+  public CorpusGenerator setConnectionURL(String newConnectionURL) { connectionURL = newConnectionURL; return this; }
+
+  /**
+   * Database user name.
+   * @see #getUser()
+   * @see #setUser(String)
+   */
+  protected String user = "labbcat";
+  /**
+   * Getter for {@link #user}: Database user name.
+   * @return Database user name.
+   */
+  public String getUser() { return user; }
+  /**
+   * Setter for {@link #user}: Database user name.
+   * @param newUser Database user name.
+   */
+  @Switch("Database user name - default labbcat")
+  public CorpusGenerator setUser(String newUser) { user = newUser; return this; }
+
+  /**
+   * Database password.
+   * @see #getPassword()
+   * @see #setPassword(String)
+   */
+  protected String password = "labbcat";
+  /**
+   * Getter for {@link #password}: Database password.
+   * @return Database password.
+   */
+  public String getPassword() { return password; }
+  /**
+   * Setter for {@link #password}: Database password.
+   * @param newPassword Database password.
+   */
+  @Switch("Database password - default labbcat")
+  public CorpusGenerator setPassword(String newPassword) { password = newPassword; return this; }
+
+  /**
+   * Prefix for transcript and participant names.
+   * @see #getPrefix()
+   * @see #setPrefix(String)
+   */
+  protected String prefix = "synthetic-";
+  /**
+   * Getter for {@link #prefix}: Prefix for transcript and participant names.
+   * @return Prefix for transcript and participant names.
+   */
+  public String getPrefix() { return prefix; }
+  /**
+   * Setter for {@link #prefix}: Prefix for transcript and participant names.
+   * @param newPrefix Prefix for transcript and participant names.
+   */
+  @Switch("Prefix for transcript and participant names - default synthetic-")
+  public CorpusGenerator setPrefix(String newPrefix) { prefix = newPrefix; return this; }
+
+  /**
+   * Corpus to add transcripts to, or null for the first corpus.
+   * @see #getCorpus()
+   * @see #setCorpus(String)
+   */
+  protected String corpus;
+  /**
+   * Getter for {@link #corpus}: Corpus to add transcripts to, or null for the first corpus.
+   * @return Corpus to add transcripts to, or null for the first corpus.
+   */
+  public String getCorpus() { return corpus; }
+  /**
+   * Setter for {@link #corpus}: Corpus to add transcripts to, or null for the first corpus.
+   * @param newCorpus Corpus to add transcripts to, or null for the first corpus.
+   */
+  @Switch("Existing corpus to add transcripts to - default is the first corpus")
+  public CorpusGenerator setCorpus(String newCorpus) { corpus = newCorpus; return this; }
+
+  /**
+   * Number of transcripts to generate.
+   * @see #getTranscripts()
+   * @see #setTranscripts(Integer)
+   */
+  protected Integer transcripts = 10;
+  /**
+   * Getter for {@link #transcripts}: Number of transcripts to generate.
+   * @return Number of transcripts to generate.
+   */
+  public Integer getTranscripts() { return transcripts; }
+  /**
+   * Setter for {@link #transcripts}: Number of transcripts to generate.
+   * @param newTranscripts Number of transcripts to generate.
+   */
+  @Switch("Number of transcripts to generate - default 10")
+  public CorpusGenerator setTranscripts(Integer newTranscripts) { transcripts = newTranscripts; return this; }
+
+  /**
+   * Number of participants in the pool that transcript participants are drawn from.
+   * @see #getParticipants()
+   * @see #setParticipants(Integer)
+   */
+  protected Integer participants = 20;
+  /**
+   * Getter for {@link #participants}: Number of participants in the pool that transcript
+   * participants are drawn from.
+   * @return Number of participants in the pool that transcript participants are drawn from.
+   */
+  public Integer getParticipants() { return participants; }
+  /**
+   * Setter for {@link #participants}: Number of participants in the pool that transcript
+   * participants are drawn from.
+   * @param newParticipants Number of participants in the pool that transcript
+   * participants are drawn from.
+   */
+  @Switch("Number of distinct participants - default 20")
+  public CorpusGenerator setParticipants(Integer newParticipants) { participants = newParticipants; return this; }
+
+  /**
+   * Number of participants in each transcript.
+   * @see #getParticipantsPerTranscript()
+   * @see #setParticipantsPerTranscript(Integer)
+   */
+  protected Integer participantsPerTranscript = 2;
+  /**
+   * Getter for {@link #participantsPerTranscript}: Number of participants in each transcript.
+   * @return Number of participants in each transcript.
+   */
+  public Integer getParticipantsPerTranscript() { return participantsPerTranscript; }
+  /**
+   * Setter for {@link #participantsPerTranscript}: Number of participants in each transcript.
+   * @param newParticipantsPerTranscript Number of participants in each transcript.
+   */
+  @Switch("Number of participants in each transcript - default 2")
+  public CorpusGenerator setParticipantsPerTranscript(Integer newParticipantsPerTranscript) { participantsPerTranscript = newParticipantsPerTranscript; return this; }
+
+  /**
+   * Number of words in each transcript.
+   * @see #getWords()
+   * @see #setWords(Integer)
+   */
+  protected Integer words = 1000;
+  /**
+   * Getter for {@link #words}: Number of words in each transcript.
+   * @return Number of words in each transcript.
+   */
+  public Integer getWords() { return words; }
+  /**
+   * Setter for {@link #words}: Number of words in each transcript.
+   * @param newWords Number of words in each transcript.
+   */
+  @Switch("Number of words in each transcript - default 1000")
+  public CorpusGenerator setWords(Integer newWords) { words = newWords; return this; }
+
+  /**
+   * Number of distinct word types.
+   * @see #getVocabulary()
+   * @see #setVocabulary(Integer)
+   */
+  protected Integer vocabulary = 5000;
+  /**
+   * Getter for {@link #vocabulary}: Number of distinct word types.
+   * @return Number of distinct word types.
+   */
+  public Integer getVocabulary() { return vocabulary; }
+  /**
+   * Setter for {@link #vocabulary}: Number of distinct word types.
+   * @param newVocabulary Number of distinct word types.
+   */
+  @Switch("Number of distinct word types - default 5000")
+  public CorpusGenerator setVocabulary(Integer newVocabulary) { vocabulary = newVocabulary; return this; }
+
+  /**
+   * Seed for random number generation.
+   * @see #getSeed()
+   * @see #setSeed(Integer)
+   */
+  protected Integer seed = 1;
+  /**
+   * Getter for {@link #seed}: Seed for random number generation.
+   * @return Seed for random number generation.
+   */
+  public Integer getSeed() { return seed; }
+  /**
+   * Setter for {@link #seed}: Seed for random number generation.
+   * @param newSeed Seed for random number generation.
+   */
+  @Switch("Seed for random number generation - default 1")
+  public CorpusGenerator setSeed(Integer newSeed) { seed = newSeed; return this; }
+
+  /**
+   * Word tag layer ID.
+   * @see #getPosLayerId()
+   * @see #setPosLayerId(String)
+   */
+  protected String posLayerId = "synthetic_pos";
+  /**
+   * Getter for {@link #posLayerId}: Word tag layer ID.
+   * @return Word tag layer ID.
+   */
+  public String getPosLayerId() { return posLayerId; }
+  /**
+   * Setter for {@link #posLayerId}: Word tag layer ID.
+   * @param newPosLayerId Word tag layer ID.
+   */
+  @Switch("Word tag layer ID - default synthetic_pos")
+  public CorpusGenerator setPosLayerId(String newPosLayerId) { posLayerId = newPosLayerId; return this; }
+
+  /**
+   * Segment layer ID.
+   * @see #getSegmentLayerId()
+   * @see #setSegmentLayerId(String)
+   */
+  protected String segmentLayerId = "segment";
+  /**
+   * Getter for {@link #segmentLayerId}: Segment layer ID.
+   * @return Segment layer ID.
+   */
+  public String getSegmentLayerId() { return segmentLayerId; }
+  /**
+   * Setter for {@link #segmentLayerId}: Segment layer ID.
+   * @param newSegmentLayerId Segment layer ID.
+   */
+  @Switch("Segment layer ID - default segment")
+  public CorpusGenerator setSegmentLayerId(String newSegmentLayerId) { segmentLayerId = newSegmentLayerId; return this; }
+
+  /**
+   * Phrase layer ID.
+   * @see #getPhraseLayerId()
+   * @see #setPhraseLayerId(String)
+   */
+  protected String phraseLayerId = "synthetic_phrase";
+  /**
+   * Getter for {@link #phraseLayerId}: Phrase layer ID.
+   * @return Phrase layer ID.
+   */
+  public String getPhraseLayerId() { return phraseLayerId; }
+  /**
+   * Setter for {@link #phraseLayerId}: Phrase layer ID.
+   * @param newPhraseLayerId Phrase layer ID.
+   */
+  @Switch("Phrase layer ID - default synthetic_phrase")
+  public CorpusGenerator setPhraseLayerId(String newPhraseLayerId) { phraseLayerId = newPhraseLayerId; return this; }
+
+  /** Transcript topic attribute layer ID. */
+  protected String topicLayerId = "transcript_synthetic_topic";
+  /** Participant group attribute layer ID. */
+  protected String groupLayerId = "participant_synthetic_group";
+  /** Participant age attribute layer ID. */
+  protected String ageLayerId = "participant_synthetic_age";
+
+  /**
+   * Default constructor.
+   */
+  public CorpusGenerator() {
+  } // end of constructor
+
+  /**
+   * Generates the corpus.
+   */
+  public void start() {
+    try {
+      SqlGraphStoreAdministration store = new SqlGraphStoreAdministration(
+        "http://localhost/labbcat/",
+        new MySQLConnectionFactory(connectionURL, user, password), null);
+      try {
+        ensureLayers(store);
+        Schema schema = store.getSchema();
+        Random random = new Random(seed);
+        Vector<String> lexicon = Vocabulary(vocabulary, random);
+        LinkedHashSet<String> speakers = new LinkedHashSet<String>();
+        long started = System.currentTimeMillis();
+        int annotationCount = 0;
+        for (int t = 0; t < transcripts; t++) {
+          Graph graph = transcript(t, store, lexicon, new Random(seed * 31L + t));
+          for (Annotation participant : graph.all(schema.getParticipantLayerId())) {
+            speakers.add(participant.getLabel());
+          }
+          annotationCount += graph.getAnnotationsById().size();
+          store.saveTranscript(graph);
+          if ((t + 1) % 10 == 0 || t + 1 == transcripts) {
+            long elapsed = System.currentTimeMillis() - started;
+            System.out.println(
+              (t + 1) + "/" + transcripts + " transcripts, " + annotationCount
+              + " annotations, " + elapsed + "ms ("
+              + (annotationCount * 1000L / Math.max(1, elapsed)) + " annotations/s)");
+          }
+        } // next transcript
+        for (String name : speakers) {
+          saveParticipantAttributes(store, name);
+        } // next participant
+        System.out.println(speakers.size() + " participants");
+      } finally {
+        store.getConnection().close();
+      }
+    } catch(Exception exception) {
+      System.err.println("Could not generate corpus: " + exception);
+      exception.printStackTrace(System.err);
+    }
+  } // end of start()
+
+  /**
+   * Creates the layers that synthetic annotations go on, if they don't already exist.
+   * @param store The graph store.
+   * @throws Exception If the layers can't be created.
+   */
+  public void ensureLayers(SqlGraphStoreAdministration store) throws Exception {
+    Schema schema = store.getSchema();
+    if (schema.getLayer(topicLayerId) == null) {
+      store.newLayer(
+        new Layer(topicLayerId, "Synthetic topic")
+        .setAlignment(Constants.ALIGNMENT_NONE)
+        .setPeers(false).setPeersOverlap(false).setSaturated(true)
+        .setParentId(schema.getRoot().getId()));
+    }
+    if (schema.getLayer(groupLayerId) == null) {
+      store.newLayer(
+        new Layer(groupLayerId, "Synthetic group")
+        .setAlignment(Constants.ALIGNMENT_NONE)
+        .setPeers(false).setPeersOverlap(false).setSaturated(true)
+        .setParentId(schema.getParticipantLayerId()));
+    }
+    if (schema.getLayer(ageLayerId) == null) {
+      store.newLayer(
+        new Layer(ageLayerId, "Synthetic age")
+        .setAlignment(Constants.ALIGNMENT_NONE)
+        .setPeers(false).setPeersOverlap(false).setSaturated(true)
+        .setParentId(schema.getParticipantLayerId())
+        .setType(Constants.TYPE_NUMBER));
+    }
+    if (schema.getLayer(posLayerId) == null) {
+      store.newLayer(
+        new Layer(posLayerId, "Synthetic part of speech")
+        .setAlignment(Constants.ALIGNMENT_NONE)
+        .setPeers(false).setPeersOverlap(false).setSaturated(true)
+        .setParentId(schema.getWordLayerId()));
+    }
+    if (schema.getLayer(segmentLayerId) == null) {
+      store.newLayer(
+        new Layer(segmentLayerId, "Phones")
+        .setAlignment(Constants.ALIGNMENT_INTERVAL)
+        .setPeers(true).setPeersOverlap(false).setSaturated(true)
+        .setParentId(schema.getWordLayerId())
+        .setType(Constants.TYPE_IPA));
+    }
+    if (schema.getLayer(phraseLayerId) == null) {
+      store.newLayer(
+        new Layer(phraseLayerId, "Synthetic phrases")
+        .setAlignment(Constants.ALIGNMENT_INTERVAL)
+        .setPeers(true).setPeersOverlap(false).setSaturated(false)
+        .setParentId(schema.getTurnLayerId()));
+    }
+  } // end of ensureLayers()
+
+  /**
+   * Generates a transcript.
+   * @param t The transcript's index.
+   * @param store The graph store.
+   * @param lexicon The word types to draw words from.
+   * @param random Random number generator.
+   * @return A new graph, marked for creation.
+   * @throws Exception If the schema can't be read.
+   */
+  public Graph transcript(
+    int t, SqlGraphStoreAdministration store, Vector<String> lexicon, Random random)
+    throws Exception {
+    Schema schema = store.getSchema();
+    Graph graph = new Graph();
+    graph.setId(prefix + String.format("%06d", t) + ".txt");
+    graph.setOffsetUnits(Constants.UNIT_SECONDS);
+    graph.getSchema().setParticipantLayerId(schema.getParticipantLayerId());
+    graph.getSchema().setTurnLayerId(schema.getTurnLayerId());
+    graph.getSchema().setUtteranceLayerId(schema.getUtteranceLayerId());
+    graph.getSchema().setWordLayerId(schema.getWordLayerId());
+    graph.getSchema().setEpisodeLayerId(schema.getEpisodeLayerId());
+    graph.getSchema().setCorpusLayerId(schema.getCorpusLayerId());
+    for (String layerId : new String[] {
+        schema.getCorpusLayerId(), topicLayerId,
+        schema.getParticipantLayerId(), "main_participant",
+        schema.getTurnLayerId(), schema.getUtteranceLayerId(), phraseLayerId,
+        schema.getWordLayerId(), posLayerId, segmentLayerId }) {
+      graph.addLayer(store.getLayer(layerId));
+    } // next layer
+    if (corpus != null) graph.createTag(graph, schema.getCorpusLayerId(), corpus);
+    graph.createTag(graph, topicLayerId, TOPICS[random.nextInt(TOPICS.length)]);
+
+    // participants
+    Vector<Annotation> speakers = new Vector<Annotation>();
+    LinkedHashSet<String> names = new LinkedHashSet<String>();
+    while (names.size() < Math.min(participantsPerTranscript, participants)) {
+      names.add(participantName(random.nextInt(participants)));
+    }
+    for (String name : names) {
+      Annotation participant = graph.createTag(graph, schema.getParticipantLayerId(), name);
+      if (speakers.size() == 0) graph.createTag(participant, "main_participant", name);
+      speakers.add(participant);
+    } // next participant
+
+    // turns, utterances, and words
+    double offset = 0.0;
+    int w = 0;
+    int s = 0;
+    while (w < words) {
+      Annotation speaker = speakers.get(s++ % speakers.size());
+      int turnLength = Math.min(words - w, 5 + random.nextInt(60));
+      Anchor turnStart = graph.getOrCreateAnchorAt(offset);
+      turnStart.setConfidence(Constants.CONFIDENCE_AUTOMATIC);
+      Annotation turn = graph.createAnnotation(
+        turnStart, turnStart, schema.getTurnLayerId(), speaker.getLabel(), speaker);
+      Anchor utteranceStart = turnStart;
+      Anchor phraseStart = turnStart;
+      int utteranceLength = 0;
+      int phraseLength = 0;
+      Anchor end = turnStart;
+      for (int i = 0; i < turnLength; i++) {
+        String label = lexicon.get(Zipf(lexicon.size(), random));
+        Anchor start = end;
+        offset += 0.1 * label.length() + 0.05 * random.nextInt(5);
+        end = graph.getOrCreateAnchorAt(offset);
+        end.setConfidence(Constants.CONFIDENCE_AUTOMATIC);
+        Annotation word = graph.createAnnotation(
+          start, end, schema.getWordLayerId(), label, turn);
+        graph.createTag(word, posLayerId, POS[random.nextInt(POS.length)]);
+        // a segment for each letter
+        double segmentDuration = (end.getOffset() - start.getOffset()) / label.length();
+        Anchor segmentStart = start;
+        for (int c = 0; c < label.length(); c++) {
+          Anchor segmentEnd = c == label.length() - 1? end
+            : graph.getOrCreateAnchorAt(start.getOffset() + segmentDuration * (c + 1));
+          segmentEnd.setConfidence(Constants.CONFIDENCE_AUTOMATIC);
+          graph.createAnnotation(
+            segmentStart, segmentEnd, segmentLayerId, label.substring(c, c + 1), word);
+          segmentStart = segmentEnd;
+        } // next letter
+        // phrases of two to five words
+        if (++phraseLength >= 2 + random.nextInt(4) || i == turnLength - 1) {
+          graph.createAnnotation(
+            phraseStart, end, phraseLayerId, PHRASES[random.nextInt(PHRASES.length)], turn);
+          phraseStart = end;
+          phraseLength = 0;
+        }
+        // utterances of up to fifteen words
+        if (++utteranceLength >= 15 || i == turnLength - 1) {
+          graph.createAnnotation(
+            utteranceStart, end, schema.getUtteranceLayerId(), speaker.getLabel(), turn);
+          utteranceStart = end;
+          utteranceLength = 0;
+        }
+      } // next word
+      turn.setEnd(end);
+      w += turnLength;
+      offset += 0.5; // pause between turns
+    } // next turn
+    graph.create();
+    return graph;
+  } // end of transcript()
+
+  /**
+   * Saves attributes for the given participant, if they don't already have them.
+   * @param store The graph store.
+   * @param name The participant's name.
+   * @throws Exception If the participant can't be saved.
+   */
+  public void saveParticipantAttributes(SqlGraphStoreAdministration store, String name)
+    throws Exception {
+    Annotation participant = store.getParticipant(
+      name, new String[] { groupLayerId, ageLayerId });
+    if (participant == null) return;
+    // attribute values depend only on the participant, not the order they're saved in
+    Random random = new Random(name.hashCode() ^ seed);
+    boolean changed = false;
+    if (participant.first(groupLayerId) == null) {
+      participant.addAnnotation(
+        new Annotation(null, GROUPS[random.nextInt(GROUPS.length)], groupLayerId))
+        .create();
+      changed = true;
+    }
+    if (participant.first(ageLayerId) == null) {
+      participant.addAnnotation(
+        new Annotation(null, "" + (18 + random.nextInt(70)), ageLayerId))
+        .create();
+      changed = true;
+    }
+    if (changed) store.saveParticipant(participant);
+  } // end of saveParticipantAttributes()
+
+  /**
+   * Generates the name of the given participant.
+   * @param p The index of the participant.
+   * @return The participant's name.
+   */
+  public String participantName(int p) {
+    return prefix + "speaker-" + String.format("%04d", p);
+  } // end of participantName()
+
+  /**
+   * Generates a vocabulary of distinct pseudo-words, each composed of one to four
+   * consonant-vowel syllables.
+   * @param size The number of word types.
+   * @param random Random number generator.
+   * @return The word types.
+   */
+  public static Vector<String> Vocabulary(int size, Random random) {
+    LinkedHashSet<String> words = new LinkedHashSet<String>();
+    while (words.size() < size) {
+      StringBuilder word = new StringBuilder();
+      int syllables = 1 + random.nextInt(4);
+      for (int s = 0; s < syllables; s++) {
+        word.append(ONSETS[random.nextInt(ONSETS.length)]);
+        word.append(VOWELS[random.nextInt(VOWELS.length)]);
+      } // next syllable
+      words.add(word.toString());
+    } // next word
+    return new Vector<String>(words);
+  } // end of Vocabulary()
+
+  /**
+   * Picks an index with an approximately Zipfian distribution, so that a few word types
+   * are very frequent, and most are rare.
+   * @param size The number of items.
+   * @param random Random number generator.
+   * @return An index between 0 and <var>size</var> - 1.
+   */
+  public static int Zipf(int size, Random random) {
+    return Math.min(size - 1, (int)Math.pow(size + 1, random.nextDouble()) - 1);
+  } // end of Zipf()
+
+} // end of class CorpusGenerator
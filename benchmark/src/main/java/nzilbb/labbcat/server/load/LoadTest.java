@@ -0,0 +1,715 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.load;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
+import nzilbb.labbcat.server.api.RequestParameters;
+import nzilbb.labbcat.server.api.Results;
+import nzilbb.labbcat.server.api.Search;
+import nzilbb.labbcat.server.api.Store;
+import nzilbb.labbcat.server.api.serialize.Fragments;
+import nzilbb.labbcat.server.db.InstrumentedConnectionFactory;
+import nzilbb.labbcat.server.db.SqlStatistics;
+import nzilbb.labbcat.server.metrics.MetricRegistry;
+import nzilbb.labbcat.server.task.Task;
+import nzilbb.sql.mysql.MySQLConnectionFactory;
+import nzilbb.util.CommandLineProgram;
+import nzilbb.util.ProgramDescription;
+import nzilbb.util.Switch;
+
+/**
+ * Drives the API request handlers concurrently against a LaBB-CAT database - e.g. one
+ * populated by {@link CorpusGenerator} - and reports throughput and latency percentiles
+ * for each type of request.
+ * <p> Handlers are invoked directly with a {@link LoadTestContext}, so the measurements
+ * include everything the server does except the servlet container's own HTTP
+ * handling. Each worker thread repeatedly picks one of these operations at random:
+ * <dl>
+ *  <dt> search </dt><dd> <tt>/api/search</tt> for a random pattern on the word, tag, or
+ *       segment layers, waiting until the search task finishes. </dd>
+ *  <dt> page </dt><dd> <tt>/api/results</tt> - the first page of a previous search's
+ *       results, as JSON, as displayed by the search results page. </dd>
+ *  <dt> export </dt><dd> <tt>/api/results</tt> - all of a previous search's results,
+ *       as CSV. </dd>
+ *  <dt> fragments </dt><dd> <tt>/api/serialize/fragments</tt> - fragments for a few
+ *       previous matches. </dd>
+ *  <dt> transcriptIds </dt><dd> <tt>/api/store/getMatchingTranscriptIds</tt> for a
+ *       random transcript attribute value. </dd>
+ *  <dt> transcript </dt><dd> <tt>/api/store/getTranscript</tt> for a random
+ *       transcript. </dd>
+ * </dl>
+ * <p> e.g.
+ * <pre>java -cp benchmarks.jar nzilbb.labbcat.server.load.LoadTest \
+ *   --connectionURL=jdbc:mysql://localhost/labbcat --threads=8 --seconds=120</pre>
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+@ProgramDescription(
+  value="Load-tests LaBB-CAT request handlers with concurrent requests")
+public class LoadTest extends CommandLineProgram {
+
+  /** The operations, in the order they're reported. */
+  public static final String[] OPERATIONS = {
+    "search", "page", "export", "fragments", "transcriptIds", "transcript" };
+
+  public static void main(String argv[]) {
+    LoadTest test = new LoadTest();
+    if (test.processArguments(argv)) {
+      test.start();
+    }
+  }
+
+  /**
+   * JDBC URL of the database.
+   * @see #getConnectionURL()
+   * @see #setConnectionURL(String)
+   */
+  protected String connectionURL = "jdbc:mysql://localhost/labbcat";
+  /**
+   * Getter for {@link #connectionURL}: JDBC URL of the database.
+   * @return JDBC URL of the database.
+   */
+  public String getConnectionURL() { return connectionURL; }
+  /**
+   * Setter for {@link #connectionURL}: JDBC URL of the database.
+   * @param newConnectionURL JDBC URL of the database.
+   */
+  @Switch("JDBC URL of the database - default jdbc:mysql://localhost/labbcat")
+  public LoadTest setConnectionURL(String newConnectionURL) { connectionURL = newConnectionURL; return this; }
+
+  /**
+   * Database user name.
+   * @see #getUser()
+   * @see #setUser(String)
+   */
+  protected String user = "labbcat";
+  /**
+   * Getter for {@link #user}: Database user name.
+   * @return Database user name.
+   */
+  public String getUser() { return user; }
+  /**
+   * Setter for {@link #user}: Database user name.
+   * @param newUser Database user name.
+   */
+  @Switch("Database user name - default labbcat")
+  public LoadTest setUser(String newUser) { user = newUser; return this; }
+
+  /**
+   * Database password.
+   * @see #getPassword()
+   * @see #setPassword(String)
+   */
+  protected String password = "labbcat";
+  /**
+   * Getter for {@link #password}: Database password.
+   * @return Database password.
+   */
+  public String getPassword() { return password; }
+  /**
+   * Setter for {@link #password}: Database password.
+   * @param newPassword Database password.
+   */
+  @Switch("Database password - default labbcat")
+  public LoadTest setPassword(String newPassword) { password = newPassword; return this; }
+
+  /**
+   * Prefix of the names of transcripts to test with.
+   * @see #getPrefix()
+   * @see #setPrefix(String)
+   */
+  protected String prefix = "synthetic-";
+  /**
+   * Getter for {@link #prefix}: Prefix of the names of transcripts to test with.
+   * @return Prefix of the names of transcripts to test with.
+   */
+  public String getPrefix() { return prefix; }
+  /**
+   * Setter for {@link #prefix}: Prefix of the names of transcripts to test with.
+   * @param newPrefix Prefix of the names of transcripts to test with.
+   */
+  @Switch("Prefix of the names of transcripts to test with - default synthetic-")
+  public LoadTest setPrefix(String newPrefix) { prefix = newPrefix; return this; }
+
+  /**
+   * Number of concurrent worker threads.
+   * @see #getThreads()
+   * @see #setThreads(Integer)
+   */
+  protected Integer threads = 4;
+  /**
+   * Getter for {@link #threads}: Number of concurrent worker threads.
+   * @return Number of concurrent worker threads.
+   */
+  public Integer getThreads() { return threads; }
+  /**
+   * Setter for {@link #threads}: Number of concurrent worker threads.
+   * @param newThreads Number of concurrent worker threads.
+   */
+  @Switch("Number of concurrent worker threads - default 4")
+  public LoadTest setThreads(Integer newThreads) { threads = newThreads; return this; }
+
+  /**
+   * Number of seconds to run the test for.
+   * @see #getSeconds()
+   * @see #setSeconds(Integer)
+   */
+  protected Integer seconds = 60;
+  /**
+   * Getter for {@link #seconds}: Number of seconds to run the test for.
+   * @return Number of seconds to run the test for.
+   */
+  public Integer getSeconds() { return seconds; }
+  /**
+   * Setter for {@link #seconds}: Number of seconds to run the test for.
+   * @param newSeconds Number of seconds to run the test for.
+   */
+  @Switch("Number of seconds to run the test for - default 60")
+  public LoadTest setSeconds(Integer newSeconds) { seconds = newSeconds; return this; }
+
+  /**
+   * Number of seconds to run before measurements start.
+   * @see #getWarmup()
+   * @see #setWarmup(Integer)
+   */
+  protected Integer warmup = 10;
+  /**
+   * Getter for {@link #warmup}: Number of seconds to run before measurements start.
+   * @return Number of seconds to run before measurements start.
+   */
+  public Integer getWarmup() { return warmup; }
+  /**
+   * Setter for {@link #warmup}: Number of seconds to run before measurements start.
+   * @param newWarmup Number of seconds to run before measurements start.
+   */
+  @Switch("Number of seconds to run before measurements start - default 10")
+  public LoadTest setWarmup(Integer newWarmup) { warmup = newWarmup; return this; }
+
+  /**
+   * MIME type for fragments.
+   * @see #getFragmentMimeType()
+   * @see #setFragmentMimeType(String)
+   */
+  protected String fragmentMimeType = "text/praat-textgrid";
+  /**
+   * Getter for {@link #fragmentMimeType}: MIME type for fragments.
+   * @return MIME type for fragments.
+   */
+  public String getFragmentMimeType() { return fragmentMimeType; }
+  /**
+   * Setter for {@link #fragmentMimeType}: MIME type for fragments.
+   * @param newFragmentMimeType MIME type for fragments.
+   */
+  @Switch("MIME type for fragments, which must have a serializer installed - default text/praat-textgrid")
+  public LoadTest setFragmentMimeType(String newFragmentMimeType) { fragmentMimeType = newFragmentMimeType; return this; }
+
+  /**
+   * Word tag layer ID.
+   * @see #getPosLayerId()
+   * @see #setPosLayerId(String)
+   */
+  protected String posLayerId = "synthetic_pos";
+  /**
+   * Getter for {@link #posLayerId}: Word tag layer ID.
+   * @return Word tag layer ID.
+   */
+  public String getPosLayerId() { return posLayerId; }
+  /**
+   * Setter for {@link #posLayerId}: Word tag layer ID.
+   * @param newPosLayerId Word tag layer ID.
+   */
+  @Switch("Word tag layer ID - default synthetic_pos")
+  public LoadTest setPosLayerId(String newPosLayerId) { posLayerId = newPosLayerId; return this; }
+
+  /**
+   * Segment layer ID.
+   * @see #getSegmentLayerId()
+   * @see #setSegmentLayerId(String)
+   */
+  protected String segmentLayerId = "segment";
+  /**
+   * Getter for {@link #segmentLayerId}: Segment layer ID.
+   * @return Segment layer ID.
+   */
+  public String getSegmentLayerId() { return segmentLayerId; }
+  /**
+   * Setter for {@link #segmentLayerId}: Segment layer ID.
+   * @param newSegmentLayerId Segment layer ID.
+   */
+  @Switch("Segment layer ID - default segment")
+  public LoadTest setSegmentLayerId(String newSegmentLayerId) { segmentLayerId = newSegmentLayerId; return this; }
+
+  /**
+   * Whether to print server metrics, in Prometheus text format, at the end of the test.
+   * @see #getMetrics()
+   * @see #setMetrics(Boolean)
+   */
+  protected Boolean metrics = Boolean.FALSE;
+  /**
+   * Getter for {@link #metrics}: Whether to print server metrics, in Prometheus text
+   * format, at the end of the test.
+   * @return Whether to print server metrics, in Prometheus text format, at the end of
+   * the test.
+   */
+  public Boolean getMetrics() { return metrics; }
+  /**
+   * Setter for {@link #metrics}: Whether to print server metrics, in Prometheus text
+   * format, at the end of the test.
+   * @param newMetrics Whether to print server metrics, in Prometheus text format, at the
+   * end of the test.
+   */
+  @Switch("Print server metrics (e.g. SQL statements by operation) at the end")
+  public LoadTest setMetrics(Boolean newMetrics) { metrics = newMetrics; return this; }
+
+  /** Request context for the handlers. */
+  protected LoadTestContext context;
+
+  /** IDs of the transcripts to test with. */
+  protected String[] transcriptIds;
+
+  /** Completed search tasks, whose results can be paged, exported, and serialized. */
+  protected ConcurrentLinkedDeque<Long> searches = new ConcurrentLinkedDeque<Long>();
+
+  /** Number of searches in {@link #searches}. */
+  protected AtomicInteger searchCount = new AtomicInteger();
+
+  /** Match IDs from result pages, for fragment requests. */
+  protected ConcurrentLinkedDeque<String> matchIds = new ConcurrentLinkedDeque<String>();
+
+  /** Number of match IDs in {@link #matchIds}. */
+  protected AtomicInteger matchIdCount = new AtomicInteger();
+
+  /** Measurements for each operation. */
+  protected LinkedHashMap<String,Measurements> measurements
+  = new LinkedHashMap<String,Measurements>();
+
+  /** Whether measurements are being recorded. */
+  protected volatile boolean measuring = false;
+
+  /**
+   * Default constructor.
+   */
+  public LoadTest() {
+  } // end of constructor
+
+  /**
+   * Runs the test.
+   */
+  public void start() {
+    try {
+      context = new LoadTestContext(
+        "http://localhost/labbcat/",
+        new InstrumentedConnectionFactory(
+          new MySQLConnectionFactory(connectionURL, user, password)));
+      for (String operation : OPERATIONS) measurements.put(operation, new Measurements());
+
+      transcriptIds = transcriptIds("/^" + prefix + ".+/.test(id)");
+      if (transcriptIds.length == 0) {
+        System.err.println("No transcripts match prefix: " + prefix);
+        return;
+      }
+      System.out.println(
+        transcriptIds.length + " transcripts, " + threads + " threads, "
+        + warmup + "s warmup, " + seconds + "s test");
+
+      long end = System.currentTimeMillis() + (warmup + seconds) * 1000L;
+      Vector<Thread> workers = new Vector<Thread>();
+      for (int t = 0; t < threads; t++) {
+        final Random random = new Random(t);
+        Thread worker = new Thread(() -> {
+            while (System.currentTimeMillis() < end) {
+              operation(OPERATIONS[random.nextInt(OPERATIONS.length)], random);
+            }
+          }, "LoadTest-" + t);
+        workers.add(worker);
+        worker.start();
+      } // next worker
+      Thread.sleep(warmup * 1000L);
+      measuring = true;
+      long started = System.nanoTime();
+      for (Thread worker : workers) worker.join();
+      measuring = false;
+      report((System.nanoTime() - started) / 1e9);
+
+      // release remaining search tasks
+      for (Long threadId : searches) release(threadId);
+      if (metrics) {
+        OutputStreamWriter writer = new OutputStreamWriter(System.out, "UTF-8");
+        MetricRegistry.Write(writer);
+        writer.flush();
+      }
+    } catch(Exception exception) {
+      System.err.println("Load test failed: " + exception);
+      exception.printStackTrace(System.err);
+    }
+  } // end of start()
+
+  /**
+   * Executes the given operation, recording its latency and outcome.
+   * @param operation The name of the operation.
+   * @param random Random number generator.
+   */
+  public void operation(String operation, Random random) {
+    // statements executed for the operation are tagged with its name
+    SqlStatistics.SetTag(operation);
+    long start = System.nanoTime();
+    long bytes = 0;
+    boolean ok = false;
+    try {
+      switch (operation) {
+        case "search": ok = search(random); break;
+        case "page": bytes = page(random); ok = bytes >= 0; break;
+        case "export": bytes = export(random); ok = bytes >= 0; break;
+        case "fragments": bytes = fragments(random); ok = bytes >= 0; break;
+        case "transcriptIds": ok = transcriptIdsForAttribute(random); break;
+        case "transcript": bytes = transcript(random); ok = bytes >= 0; break;
+      }
+    } catch(Exception exception) {
+      context.servletLog(operation + ": " + exception);
+    } finally {
+      SqlStatistics.SetTag(null);
+    }
+    if (measuring) {
+      measurements.get(operation).add(System.nanoTime() - start, Math.max(0, bytes), ok);
+    }
+  } // end of operation()
+
+  /**
+   * Starts a search for a random pattern, and waits for it to finish.
+   * @param random Random number generator.
+   * @return true if the search succeeded, false otherwise.
+   * @throws Exception If the search task can't be monitored.
+   */
+  public boolean search(Random random) throws Exception {
+    String syllable = CorpusGenerator.ONSETS[random.nextInt(CorpusGenerator.ONSETS.length)]
+      + CorpusGenerator.VOWELS[random.nextInt(CorpusGenerator.VOWELS.length)];
+    String matrix = null;
+    switch (random.nextInt(4)) {
+      case 0: // a word starting with the syllable
+        matrix = "word:" + syllable + ".*";
+        break;
+      case 1: // a tagged word ending with the syllable
+        matrix = "word:.*" + syllable + "\n" + posLayerId
+          + ":" + CorpusGenerator.POS[random.nextInt(CorpusGenerator.POS.length)];
+        break;
+      case 2: // a word containing the given segment
+        matrix = segmentLayerId + ":"
+          + CorpusGenerator.VOWELS[random.nextInt(CorpusGenerator.VOWELS.length)];
+        break;
+      default: // a two-word sequence
+        matrix = "word:" + syllable + ".*\tword:.*"
+          + CorpusGenerator.VOWELS[random.nextInt(CorpusGenerator.VOWELS.length)];
+    }
+    RequestParameters parameters = new RequestParameters();
+    parameters.put("search", matrix);
+    parameters.put("transcriptQuery", "/^" + prefix + ".+/.test(id)");
+    if (random.nextBoolean()) parameters.put("mainParticipantOnly", "true");
+    Search handler = new Search();
+    handler.init(context);
+    JsonObject response = handler.get(parameters, status -> {});
+    if (response.getInt("code") != 0) {
+      context.servletLog("search: " + response.getJsonArray("errors"));
+      return false;
+    }
+    long threadId = Long.parseLong(response.getJsonObject("model").getString("threadId"));
+    Task task = Task.findTask(threadId);
+    if (task == null) return false;
+    while (task.getRunning()) Thread.sleep(10);
+    if (task.getLastException() != null) {
+      context.servletLog("search: " + task.getLastException());
+      release(threadId);
+      return false;
+    }
+    searches.add(threadId);
+    // keep only recent searches
+    if (searchCount.incrementAndGet() > 50) {
+      Long oldest = searches.poll();
+      if (oldest != null) {
+        searchCount.decrementAndGet();
+        release(oldest);
+      }
+    }
+    return true;
+  } // end of search()
+
+  /**
+   * Gets the first page of a recent search's results as JSON, recording the match IDs
+   * for fragment requests.
+   * @param random Random number generator.
+   * @return The number of bytes in the response, or -1 if it failed.
+   * @throws Exception If a search is required and fails.
+   */
+  public long page(Random random) throws Exception {
+    long threadId = recentSearch(random);
+    if (threadId < 0) return -1;
+    RequestParameters parameters = new RequestParameters();
+    parameters.put("threadId", "" + threadId);
+    parameters.put("words_context", "4");
+    parameters.put("pageLength", "20");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int[] status = { 200 };
+    Results handler = new Results();
+    handler.init(context);
+    handler.get(parameters, header -> "Accept".equals(header)? "application/json" : null,
+                out, contentType -> {}, fileName -> {}, s -> status[0] = s);
+    if (status[0] != 200) return -1;
+    JsonObject response = Json.createReader(
+      new ByteArrayInputStream(out.toByteArray())).readObject();
+    JsonArray matches = response.getJsonObject("model").getJsonArray("matches");
+    for (JsonValue match : matches) {
+      matchIds.add(((JsonObject)match).getString("MatchId"));
+      // keep only recent matches
+      if (matchIdCount.incrementAndGet() > 1000 && matchIds.poll() != null) {
+        matchIdCount.decrementAndGet();
+      }
+    } // next match
+    return out.size();
+  } // end of page()
+
+  /**
+   * Exports all of a recent search's results as CSV.
+   * @param random Random number generator.
+   * @return The number of bytes in the response, or -1 if it failed.
+   * @throws Exception If a search is required and fails.
+   */
+  public long export(Random random) throws Exception {
+    long threadId = recentSearch(random);
+    if (threadId < 0) return -1;
+    RequestParameters parameters = new RequestParameters();
+    parameters.put("threadId", "" + threadId);
+    parameters.put("words_context", "4");
+    CountingStream out = new CountingStream();
+    int[] status = { 200 };
+    Results handler = new Results();
+    handler.init(context);
+    handler.get(parameters, header -> "Accept".equals(header)? "text/csv" : null,
+                out, contentType -> {}, fileName -> {}, s -> status[0] = s);
+    return status[0] == 200? out.count : -1;
+  } // end of export()
+
+  /**
+   * Serializes fragments for a few recent matches.
+   * @param random Random number generator.
+   * @return The number of bytes in the response, or -1 if it failed.
+   * @throws Exception If a search is required and fails.
+   */
+  public long fragments(Random random) throws Exception {
+    if (matchIds.isEmpty()) page(random);
+    String[] recent = matchIds.toArray(new String[0]);
+    if (recent.length == 0) return -1;
+    String[] utterances = new String[Math.min(recent.length, 1 + random.nextInt(5))];
+    for (int u = 0; u < utterances.length; u++) {
+      utterances[u] = recent[random.nextInt(recent.length)];
+    }
+    RequestParameters parameters = new RequestParameters();
+    parameters.put("mimeType", fragmentMimeType);
+    parameters.put("layerId", new String[] { "word", segmentLayerId });
+    parameters.put("utterance", utterances);
+    CountingStream out = new CountingStream();
+    int[] status = { 200 };
+    Fragments handler = new Fragments();
+    handler.init(context);
+    handler.get(parameters, out, contentType -> {}, fileName -> {}, s -> status[0] = s);
+    return status[0] == 200? out.count : -1;
+  } // end of fragments()
+
+  /**
+   * Lists the transcripts with a random topic.
+   * @param random Random number generator.
+   * @return true if the request succeeded, false otherwise.
+   */
+  public boolean transcriptIdsForAttribute(Random random) {
+    String topic = CorpusGenerator.TOPICS[random.nextInt(CorpusGenerator.TOPICS.length)];
+    return transcriptIds("first('transcript_synthetic_topic').label == '" + topic + "'")
+      != null;
+  } // end of transcriptIdsForAttribute()
+
+  /**
+   * Gets a random transcript with its word and segment annotations.
+   * @param random Random number generator.
+   * @return The number of bytes in the response, or -1 if it failed.
+   * @throws Exception If the response can't be written.
+   */
+  public long transcript(Random random) throws Exception {
+    RequestParameters parameters = new RequestParameters();
+    parameters.put("id", transcriptIds[random.nextInt(transcriptIds.length)]);
+    parameters.put("layerIds", new String[] { "word", segmentLayerId });
+    CountingStream out = new CountingStream();
+    int[] status = { 200 };
+    JsonGenerator generator = Json.createGenerator(out);
+    Store handler = new Store();
+    handler.init(context);
+    JsonObject response = handler.get(
+      "http://localhost/labbcat/api/store/getTranscript", "GET", "/getTranscript", null,
+      parameters, null, generator, s -> status[0] = s, url -> {});
+    generator.flush();
+    return status[0] == 200 && response == null? out.count : -1;
+  } // end of transcript()
+
+  /**
+   * Lists transcripts that match the given expression.
+   * @param expression An AGQL transcript expression.
+   * @return The matching transcript IDs, or null if the request failed.
+   */
+  protected String[] transcriptIds(String expression) {
+    RequestParameters parameters = new RequestParameters();
+    parameters.put("expression", expression);
+    int[] status = { 200 };
+    Store handler = new Store();
+    handler.init(context);
+    JsonObject response = handler.get(
+      "http://localhost/labbcat/api/store/getMatchingTranscriptIds", "GET",
+      "/getMatchingTranscriptIds", null, parameters, null, s -> status[0] = s, url -> {});
+    if (status[0] != 200 || response.getInt("code") != 0) return null;
+    return response.getJsonArray("model").getValuesAs(JsonString.class).stream()
+      .map(id -> id.getString())
+      .toArray(String[]::new);
+  } // end of transcriptIds()
+
+  /**
+   * Picks a recent completed search, running a new one if there are none.
+   * @param random Random number generator.
+   * @return The search task's ID, or -1 if no search is available.
+   * @throws Exception If a search is required and fails.
+   */
+  protected long recentSearch(Random random) throws Exception {
+    Long[] recent = searches.toArray(new Long[0]);
+    if (recent.length == 0) {
+      if (!search(random)) return -1;
+      recent = searches.toArray(new Long[0]);
+      if (recent.length == 0) return -1;
+    }
+    Long threadId = recent[random.nextInt(recent.length)];
+    Task task = Task.findTask(threadId);
+    if (task == null) return -1;
+    task.keepAlive();
+    return threadId;
+  } // end of recentSearch()
+
+  /**
+   * Releases the given search task.
+   * @param threadId The task's ID.
+   */
+  protected void release(long threadId) {
+    Task task = Task.findTask(threadId);
+    if (task != null) task.release();
+  } // end of release()
+
+  /**
+   * Prints throughput and latency percentiles for each operation.
+   * @param elapsedSeconds The duration of the measurement period.
+   */
+  public void report(double elapsedSeconds) {
+    System.out.println(String.format(
+                         "%-14s %8s %8s %8s %9s %9s %9s %9s %9s %12s",
+                         "operation", "count", "errors", "req/s",
+                         "p50 ms", "p90 ms", "p95 ms", "p99 ms", "max ms", "KB/req"));
+    for (String operation : measurements.keySet()) {
+      Measurements m = measurements.get(operation);
+      long[] latencies = m.latencies();
+      System.out.println(String.format(
+                           "%-14s %8d %8d %8.2f %9.1f %9.1f %9.1f %9.1f %9.1f %12.1f",
+                           operation, latencies.length, m.errors.get(),
+                           latencies.length / elapsedSeconds,
+                           Percentile(latencies, 50) / 1e6, Percentile(latencies, 90) / 1e6,
+                           Percentile(latencies, 95) / 1e6, Percentile(latencies, 99) / 1e6,
+                           Percentile(latencies, 100) / 1e6,
+                           latencies.length == 0? 0.0
+                           : m.bytes.get() / 1024.0 / latencies.length));
+    } // next operation
+  } // end of report()
+
+  /**
+   * Gets the given percentile of a sorted array of values, by the nearest-rank method.
+   * @param sorted Values, in ascending order.
+   * @param percentile The percentile, between 0 and 100.
+   * @return The value at the given percentile, or 0 if there are no values.
+   */
+  public static long Percentile(long[] sorted, double percentile) {
+    if (sorted.length == 0) return 0;
+    int rank = (int)Math.ceil(percentile / 100.0 * sorted.length);
+    return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+  } // end of Percentile()
+
+  /**
+   * Latencies and outcomes of one type of operation.
+   */
+  static class Measurements {
+    /** Latencies in nanoseconds. */
+    private long[] nanos = new long[1024];
+    /** Number of latencies recorded. */
+    private int count = 0;
+    /** Number of failed operations. */
+    final AtomicInteger errors = new AtomicInteger();
+    /** Total response size. */
+    final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * Records an operation.
+     * @param latency The operation's latency in nanoseconds.
+     * @param responseBytes The size of the response.
+     * @param ok Whether the operation succeeded.
+     */
+    synchronized void add(long latency, long responseBytes, boolean ok) {
+      if (count == nanos.length) nanos = Arrays.copyOf(nanos, count * 2);
+      nanos[count++] = latency;
+      bytes.addAndGet(responseBytes);
+      if (!ok) errors.incrementAndGet();
+    }
+
+    /**
+     * Gets the recorded latencies.
+     * @return The latencies in nanoseconds, in ascending order.
+     */
+    synchronized long[] latencies() {
+      long[] sorted = Arrays.copyOf(nanos, count);
+      Arrays.sort(sorted);
+      return sorted;
+    }
+  } // end of class Measurements
+
+  /**
+   * Output stream that discards what's written to it, counting the bytes.
+   */
+  static class CountingStream extends OutputStream {
+    /** Number of bytes written. */
+    long count = 0;
+    @Override public void write(int b) { count++; }
+    @Override public void write(byte[] b, int off, int len) { count += len; }
+  } // end of class CountingStream
+
+} // end of class LoadTest
@@ -0,0 +1,141 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.load;
+
+import java.util.Locale;
+import java.util.ResourceBundle;
+import nzilbb.labbcat.server.api.APIRequestContext;
+import nzilbb.sql.ConnectionFactory;
+
+/**
+ * Request context for invoking API request handlers directly, without a servlet
+ * container.
+ * <p> There is no logged-in user, so handlers have access to everything, as they do when
+ * LaBB-CAT is installed without user authentication.
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+public class LoadTestContext implements APIRequestContext {
+
+  /**
+   * The base URL of the server.
+   * @see #getBaseUrl()
+   */
+  protected String baseUrl;
+  /**
+   * Getter for {@link #baseUrl}: The base URL of the server.
+   * @return The base URL of the server.
+   */
+  public String getBaseUrl() { return baseUrl; }
+
+  /**
+   * Source of database connections.
+   * @see #getConnectionFactory()
+   */
+  protected ConnectionFactory connectionFactory;
+  /**
+   * Getter for {@link #connectionFactory}: Source of database connections.
+   * @return Source of database connections.
+   */
+  public ConnectionFactory getConnectionFactory() { return connectionFactory; }
+
+  /** Localization resources. */
+  protected ResourceBundle resources = ResourceBundle.getBundle(
+    "nzilbb.labbcat.server.locale.Resources", Locale.UK);
+
+  /**
+   * Constructor.
+   * @param baseUrl The base URL of the server.
+   * @param connectionFactory Source of database connections.
+   */
+  public LoadTestContext(String baseUrl, ConnectionFactory connectionFactory) {
+    this.baseUrl = baseUrl;
+    this.connectionFactory = connectionFactory;
+  } // end of constructor
+
+  /**
+   * The title of the request.
+   * @return "load-test".
+   */
+  public String getTitle() { return "load-test"; }
+
+  /**
+   * The version of the server.
+   * @return The version of the server classes, if known, or an empty string.
+   */
+  public String getVersion() {
+    String version = APIRequestContext.class.getPackage().getImplementationVersion();
+    return version == null? "" : version;
+  }
+
+  /**
+   * The servlet path of the request.
+   * @return An empty string.
+   */
+  public String getServletPath() { return ""; }
+
+  /**
+   * The ID of the logged-in user.
+   * @return null, as there is no user authentication.
+   */
+  public String getUser() { return null; }
+
+  /**
+   * The host of the user's connection.
+   * @return "localhost".
+   */
+  public String getUserHost() { return "localhost"; }
+
+  /**
+   * Determines whether the logged-in user is in the given role.
+   * @param role The desired role.
+   * @return true, as there is no user authentication.
+   */
+  public boolean isUserInRole(String role) { return true; }
+
+  /**
+   * Access the value of an instance-wide named parameter.
+   * @param name The name of the parameter.
+   * @return The value of the given system property, or null.
+   */
+  public String getInitParameter(String name) { return System.getProperty(name); }
+
+  /**
+   * Cache notifications are ignored, as there are no other servlets to notify.
+   * @param name Name of the object that has been updated.
+   */
+  public void cacheNotification(String name) {}
+
+  /**
+   * Access the localization resources.
+   * @return English localization resources.
+   */
+  public ResourceBundle getResourceBundle() { return resources; }
+
+  /**
+   * Logs the given message to stderr.
+   * @param message The message to log.
+   */
+  public void servletLog(String message) {
+    System.err.println(message);
+  }
+
+} // end of class LoadTestContext
@@ -127,19 +127,7 @@ public class APIRequestHandler {
    * @throws SQLException
    */
   public static String GetSystemAttribute(String name, Connection db) throws SQLException {
-    PreparedStatement sql = db.prepareStatement(
-      "SELECT value FROM system_attribute WHERE name = ?");
-    sql.setString(1, name);
-    ResultSet rs = sql.executeQuery();
-    try {
-      if (rs.next()) {
-        return rs.getString(1);
-      }
-      return null;
-    } finally {
-      rs.close();
-      sql.close();
-    }
+    return SystemAttributeCache.Get(name, db);
   } // end of getSystemAttribute()
   
   /**
@@ -463,6 +451,23 @@ public class APIRequestHandler {
     return writer;
   } // end of endFailureResult()
   
+  /**
+   * Write a complete result, e.g. one created by {@link #failureResult(Collection)}, to
+   * the given generator.
+   * @param writer The object to write to.
+   * @param result The result to write.
+   * @return The given writer.
+   */
+  protected JsonGenerator writeResult(JsonGenerator writer, JsonObject result) {
+    writer.writeStartObject();
+    for (Map.Entry<String,JsonValue> member : result.entrySet()) {
+      writer.write(member.getKey(), member.getValue());
+    }
+    writer.writeEnd(); // object
+    writer.flush();
+    return writer;
+  } // end of writeResult()
+  
   /**
    * Write a given JSON response to a given OutputStream.
    * @param out Output stream to write to.
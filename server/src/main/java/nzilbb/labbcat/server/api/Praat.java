@@ -228,6 +228,14 @@ import org.xml.sax.*;
  *   <dt> attributes (multiple values) </dt>
  *       <dd> A list of participant attribute layer IDs to include as variables for the
  *       custom Praat <var>script</var>. </dd>  
+ *   <dt> useCache ("true" or "false") </dt>
+ *       <dd> Whether to reuse measurements previously made on the same intervals with the
+ *       same settings, instead of running Praat again. (default: true) </dd>
+ *   <dt> useNativeMeasurements ("true" or "false") </dt>
+ *       <dd> Whether to measure maximum intensity and centre of gravity without Praat,
+ *       when they are the only measurements requested and the default intensity and
+ *       spectrum commands are used. This is experimental; the results have not yet
+ *       been validated against Praat's. (default: false) </dd>
  *  </dl>
  * <p><b>Output</b>: A JSON-encoded response containing the threadId of a task that is
  * processing the request. The task, when finished, will output a CSV files with one line
@@ -770,6 +778,13 @@ public class Praat extends APIRequestHandler {
       for (String value : parameters.getStrings("attributes")) {
         task.getAttributes().add(value);
       }
+      if (parameters.getString("useCache") != null
+          && parameters.getString("useCache").equalsIgnoreCase("false")) {
+        task.setUseMeasurementCache(false);
+      }
+      if ("true".equalsIgnoreCase(parameters.getString("useNativeMeasurements"))) {
+        task.setUseNativeMeasurements(true);
+      }
 
       // ensure number of patterns match values
       if (task.getFormantOtherPattern().size() != task.getFormantCeilingOther().size()) {
@@ -31,6 +31,7 @@ import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import nzilbb.ag.Schema;
 import nzilbb.labbcat.server.db.OneQuerySearch;
+import nzilbb.labbcat.server.db.SearchResultsCache;
 import nzilbb.labbcat.server.db.SqlGraphStore;
 import nzilbb.labbcat.server.db.SqlGraphStoreAdministration;
 import nzilbb.labbcat.server.db.StoreCache;
@@ -64,6 +65,9 @@ import nzilbb.labbcat.server.search.Matrix;
  *  <li><i>maxMatches</i> - Optional maximum number of transcripts to include results for.</li>
  *  <li><i>suppressResults</i> - Optional: Specify a value (e.g. "true") to return a
  *      summary of results only, instead of listing specific matches.</li>
+ *  <li><i>estimatePercent</i> - Optional: with <i>suppressResults</i>, the percentage of
+ *      transcripts to sample in order to quickly estimate the number of matches, instead of
+ *      counting them exactly.</li>
  *  <li><i>participantQuery</i> - Optional AGQL expression for defining which
  *      participants to search the utterances of,
  *      e.g. <q>first('participant_gender').label == 'NB'</q></li>
@@ -152,6 +156,16 @@ public class Search extends APIRequestHandler {
         || parameters.getString("suppress_results") != null) {
       task.setSuppressResults(true);
     }
+    String estimatePercent = parameters.getString("estimatePercent");
+    if (estimatePercent != null) {
+      try {
+        task.setEstimatePercent(Integer.parseInt(estimatePercent));
+      } catch(NumberFormatException exception) {
+        return failureResult(
+          "Invalid estimate percentage \"{0}\": {1}",
+          estimatePercent, exception.getMessage());
+      }
+    }
     String offsetThreshold = parameters.getString("offsetThreshold");
     if (offsetThreshold == null && parameters.getString("only_aligned") != null) {
       offsetThreshold = "50";
@@ -202,6 +216,26 @@ public class Search extends APIRequestHandler {
       }
     }
     
+    // the server may be configured to split searches across multiple connections
+    String searchPartitions = context.getInitParameter("searchPartitions");
+    if (searchPartitions != null) {
+      try {
+        task.setPartitions(Integer.parseInt(searchPartitions));
+      } catch(NumberFormatException exception) {
+        context.servletLog("Search: invalid searchPartitions \""+searchPartitions+"\"");
+      }
+    }
+
+    // the server may be configured to cache more or fewer searches for reuse
+    String searchCacheSize = context.getInitParameter("searchCacheSize");
+    if (searchCacheSize != null) {
+      try {
+        SearchResultsCache.SetMaxEntries(Integer.parseInt(searchCacheSize));
+      } catch(NumberFormatException exception) {
+        context.servletLog("Search: invalid searchCacheSize \""+searchCacheSize+"\"");
+      }
+    }
+    
     try {
       final SqlGraphStoreAdministration store = getStore();
       task.setStoreCache(new StoreCache() {
@@ -31,6 +31,7 @@ import java.net.URL;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -40,6 +41,8 @@ import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
 import javax.json.JsonWriter;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -57,6 +60,7 @@ import nzilbb.ag.serialize.util.NamedStream;
 import nzilbb.ag.serialize.util.Utility;
 import nzilbb.configure.ParameterSet;
 import nzilbb.labbcat.server.db.*;
+import nzilbb.util.CloneableBean;
 import nzilbb.util.IO;
 import org.w3c.dom.*;
 import org.xml.sax.*;
@@ -883,10 +887,42 @@ public class Store extends APIRequestHandler {
     String url, String method, String pathInfo,
     String queryString, RequestParameters parameters, InputStream requestBody,
     Consumer<Integer> httpStatus, Consumer<String> redirectUrl) {
+    return get(url, method, pathInfo, queryString, parameters, requestBody,
+               null, httpStatus, redirectUrl);
+  }
+  
+  /**
+   * GET handler that streams potentially large responses.
+   * <p> Functions that may return a large amount of data - getMatchingTranscriptIds,
+   * getMatchingAnnotations, aggregateMatchingAnnotations, getAnnotations, getTranscript,
+   * and getFragment - write their response to <var>jsonOut</var> as results are read
+   * from the database, rather than building the whole response in memory first. The
+   * response envelope is the same either way.
+   * @param url The URI of the request. 
+   * @param method The HTTP request method, e.g. "GET".
+   * @param pathInfo The URL path.
+   * @param queryString The URL's query string.
+   * @param parameters Request parameter map.
+   * @param requestBody For access to the request body.
+   * @param jsonOut A JSON generator for writing streamed responses to, or null if all
+   * responses should be returned as a JSON object.
+   * @param httpStatus Receives the response status code, in case of error.
+   * @param redirectUrl Receives a URL for the request to be redirected to.
+   * @return JSON-encoded object representing the response, or null if the response has
+   * already been written to <var>jsonOut</var>, or the request is being redirected.
+   */
+  public JsonObject get(
+    String url, String method, String pathInfo,
+    String queryString, RequestParameters parameters, InputStream requestBody,
+    JsonGenerator jsonOut, Consumer<Integer> httpStatus, Consumer<String> redirectUrl) {
     
     try {
       SqlGraphStoreAdministration store = getStore();
       try {
+        if (jsonOut != null
+            && streamFunction(pathInfo, parameters, jsonOut, httpStatus, store)) {
+          return null; // response already written
+        }
         JsonObject json = invokeFunction(
           url, method, pathInfo, queryString, parameters, requestBody,
           httpStatus, redirectUrl, store);
@@ -1033,6 +1069,236 @@ public class Store extends APIRequestHandler {
     }
     return null;
   } // end of invokeFunction()
+  
+  /**
+   * Interprets the URL path, and if it identifies a function that may return a large
+   * amount of data, executes the function on the store, writing the response to the
+   * given generator as results are read from the database.
+   * @param pathInfo The URL path.
+   * @param parameters Request parameter map.
+   * @param jsonOut A JSON generator for writing the response to.
+   * @param httpStatus Receives the response status code, in case of error.
+   * @param store A graph store object.
+   * @return true if the response has been written, false if the path doesn't identify a
+   * streamed function, in which case
+   * {@link #invokeFunction(String,String,String,String,RequestParameters,InputStream,Consumer,Consumer,SqlGraphStoreAdministration)}
+   * should be used instead.
+   */
+  protected boolean streamFunction(String pathInfo, RequestParameters parameters, JsonGenerator jsonOut, Consumer<Integer> httpStatus, SqlGraphStoreAdministration store)
+    throws IOException, StoreException, PermissionException, GraphNotFoundException {
+    if (pathInfo == null) return false;
+    pathInfo = pathInfo.toLowerCase(); // case-insensitive
+    if (pathInfo.endsWith("getmatchingtranscriptids")
+        // support deprecated name
+        || pathInfo.endsWith("getmatchinggraphids")) {
+      getMatchingTranscriptIds(parameters, jsonOut, httpStatus, store);
+    } else if (pathInfo.endsWith("getmatchingannotations")) {
+      getMatchingAnnotations(parameters, jsonOut, httpStatus, store);
+    } else if (pathInfo.endsWith("aggregatematchingannotations")) {
+      aggregateMatchingAnnotations(parameters, jsonOut, httpStatus, store);
+    } else if (pathInfo.endsWith("getannotations")) {
+      getAnnotations(parameters, jsonOut, httpStatus, store);
+    } else if (pathInfo.endsWith("gettranscript")
+               // support deprecated name
+               || pathInfo.endsWith("getgraph")) {
+      getTranscript(parameters, jsonOut, httpStatus, store);
+    } else if (pathInfo.endsWith("getfragment")) {
+      getFragment(parameters, jsonOut, httpStatus, store);
+    } else {
+      return false;
+    }
+    return true;
+  } // end of streamFunction()
+  
+  /**
+   * A store function that passes its results to a consumer as they're read from the
+   * database, for use with {@link #streamArrayResult(JsonGenerator,String,StreamedFunction)}.
+   */
+  @FunctionalInterface
+  protected interface StreamedFunction {
+    /**
+     * Executes the function.
+     * @param consumer Receives each result, which may be a {@link CloneableBean} or a
+     * value whose string representation is returned.
+     */
+    void apply(Consumer<Object> consumer)
+      throws IOException, StoreException, PermissionException, GraphNotFoundException;
+  }
+  
+  /**
+   * Writes a standard response whose model is an array of the results of the given
+   * function, writing each element as soon as the function produces it.
+   * <p> The envelope is started when the first element is produced, so if the function
+   * fails before that, its exception is thrown so that the caller can return a failure
+   * result with the appropriate status, as for unstreamed responses. If it fails after
+   * that, the model is closed and the error is included in the response.
+   * @param jsonOut A JSON generator for writing the response to.
+   * @param emptyMessage The message to return if the function produces no results.
+   * @param function The function that produces the results.
+   */
+  protected void streamArrayResult(
+    JsonGenerator jsonOut, String emptyMessage, StreamedFunction function)
+    throws IOException, StoreException, PermissionException, GraphNotFoundException {
+    int[] count = { 0 };
+    try {
+      function.apply(element -> {
+          if (count[0]++ == 0) startResult(jsonOut, true);
+          if (element instanceof CloneableBean) {
+            jsonOut.write(((CloneableBean)element).toJson());
+          } else {
+            jsonOut.write(element.toString());
+          }
+        });
+    } catch(IOException|StoreException|PermissionException|GraphNotFoundException
+            |RuntimeException exception) {
+      if (count[0] == 0) throw exception; // nothing written yet
+      jsonOut.writeEnd(); // model
+      endFailureResult(jsonOut, exception);
+      return;
+    }
+    if (count[0] == 0) startResult(jsonOut, true);
+    endSuccessResult(jsonOut, count[0] == 0?emptyMessage:null);
+  } // end of streamArrayResult()
+  
+  /**
+   * Writes a standard response whose model is the given graph, serialized with
+   * {@link JSONSerialization}, without building a JSON object from the serialization
+   * first.
+   * @param jsonOut A JSON generator for writing the response to.
+   * @param graph The graph to return.
+   */
+  protected void streamGraphResult(JsonGenerator jsonOut, Graph graph)
+    throws IOException, StoreException {
+    // serialize with JSON serialization
+    JSONSerialization s = new JSONSerialization();
+    s.configure(s.configure(new ParameterSet(), graph.getSchema()), graph.getSchema());
+    final Vector<SerializationException> exceptions = new Vector<SerializationException>();
+    final Vector<NamedStream> streams = new Vector<NamedStream>();
+    try {
+      s.serialize(Utility.OneGraphSpliterator(graph), null,
+                  (stream) -> streams.add(stream),
+                  (warning) -> context.servletLog(warning),
+                  (exception) -> exceptions.add(exception));
+    } catch(SerializerNotConfiguredException exception) { // shouldn't happen
+      throw new StoreException(exception);
+    }
+    JsonParser parser = Json.createParser(
+      new InputStreamReader(streams.elementAt(0).getStream(), "UTF-8"));
+    try {
+      startResult(jsonOut, false);
+      copyObjectMembers(parser, jsonOut);
+      endSuccessResult(jsonOut, null);
+    } finally {
+      parser.close();
+    }
+  } // end of streamGraphResult()
+  
+  /**
+   * Copies the members of the JSON object read by the given parser to the object
+   * currently being written by the given generator, event by event.
+   * @param parser A parser positioned before the start of a JSON object.
+   * @param jsonOut A generator that is writing an object.
+   */
+  protected void copyObjectMembers(JsonParser parser, JsonGenerator jsonOut) {
+    int depth = 0;
+    String key = null;
+    while (parser.hasNext()) {
+      switch (parser.next()) {
+        case KEY_NAME:
+          key = parser.getString();
+          continue;
+        case START_OBJECT:
+          if (depth++ > 0) { // not the object whose members we're copying
+            if (key == null) jsonOut.writeStartObject(); else jsonOut.writeStartObject(key);
+          }
+          break;
+        case START_ARRAY:
+          depth++;
+          if (key == null) jsonOut.writeStartArray(); else jsonOut.writeStartArray(key);
+          break;
+        case END_OBJECT:
+        case END_ARRAY:
+          if (--depth == 0) return; // finished the object whose members we're copying
+          jsonOut.writeEnd();
+          break;
+        case VALUE_STRING:
+          if (key == null) jsonOut.write(parser.getString());
+          else jsonOut.write(key, parser.getString());
+          break;
+        case VALUE_NUMBER:
+          if (parser.isIntegralNumber()) {
+            if (key == null) jsonOut.write(parser.getLong());
+            else jsonOut.write(key, parser.getLong());
+          } else {
+            if (key == null) jsonOut.write(parser.getBigDecimal());
+            else jsonOut.write(key, parser.getBigDecimal());
+          }
+          break;
+        case VALUE_TRUE:
+          if (key == null) jsonOut.write(true); else jsonOut.write(key, true);
+          break;
+        case VALUE_FALSE:
+          if (key == null) jsonOut.write(false); else jsonOut.write(key, false);
+          break;
+        case VALUE_NULL:
+          if (key == null) jsonOut.writeNull(); else jsonOut.writeNull(key);
+          break;
+      } // switch
+      key = null;
+    } // next event
+  } // end of copyObjectMembers()
+  
+  /**
+   * Parses an optional integer request parameter.
+   * @param parameters Request parameter map.
+   * @param name The name of the parameter.
+   * @param invalidMessage The message to add to <var>errors</var> if the value is not a
+   * valid integer, with the parse error as {0}.
+   * @param errors Receives localized error messages.
+   * @return The value of the parameter, or null if it's not specified or not valid.
+   */
+  protected Integer integerParameter(
+    RequestParameters parameters, String name, String invalidMessage, Vector<String> errors) {
+    if (parameters.getString(name) == null) return null;
+    try {
+      return Integer.valueOf(parameters.getString(name));
+    } catch(NumberFormatException x) {
+      errors.add(localize(invalidMessage, x.getMessage()));
+      return null;
+    }
+  } // end of integerParameter()
+  
+  /**
+   * Parses an optional numeric request parameter.
+   * @param parameters Request parameter map.
+   * @param name The name of the parameter.
+   * @param invalidMessage The message to add to <var>errors</var> if the value is not a
+   * valid number, with the parse error as {0}.
+   * @param errors Receives localized error messages.
+   * @return The value of the parameter, or null if it's not specified or not valid.
+   */
+  protected Double doubleParameter(
+    RequestParameters parameters, String name, String invalidMessage, Vector<String> errors) {
+    if (parameters.getString(name) == null) return null;
+    try {
+      return Double.valueOf(parameters.getString(name));
+    } catch(NumberFormatException x) {
+      errors.add(localize(invalidMessage, x.getMessage()));
+      return null;
+    }
+  } // end of doubleParameter()
+  
+  /**
+   * Writes a failure response for a request with invalid parameters, with status 400.
+   * @param jsonOut A JSON generator for writing the response to.
+   * @param httpStatus Receives the response status code.
+   * @param errors The localized error messages.
+   */
+  protected void writeBadRequest(
+    JsonGenerator jsonOut, Consumer<Integer> httpStatus, Vector<String> errors) {
+    httpStatus.accept(SC_BAD_REQUEST);
+    writeResult(jsonOut, failureResult(errors));
+  } // end of writeBadRequest()
    
   // IGraphStore method handlers
 
@@ -1292,27 +1558,45 @@ public class Store extends APIRequestHandler {
     Vector<String> errors = new Vector<String>();
     String expression = parameters.getString("expression");
     if (expression == null) errors.add(localize("No expression specified."));
-    Integer pageLength = null;
-    if (parameters.getString("pageLength") != null) {
-      try {
-        pageLength = Integer.valueOf(parameters.getString("pageLength"));
-      } catch(NumberFormatException x) {
-        errors.add(localize("Invalid page length: " + x.getMessage()));
-      }
-    }
-    Integer pageNumber = null;
-    if (parameters.getString("pageNumber") != null) {
-      try {
-        pageNumber = Integer.valueOf(parameters.getString("pageNumber"));
-      } catch(NumberFormatException x) {
-        errors.add(localize("Invalid page number: " + x.getMessage()));
-      }
-    }
+    Integer pageLength = integerParameter(
+      parameters, "pageLength", "Invalid page length: {0}", errors);
+    Integer pageNumber = integerParameter(
+      parameters, "pageNumber", "Invalid page number: {0}", errors);
     if (errors.size() > 0) return failureResult(errors);
     String[] ids = store.getMatchingTranscriptIds(expression, pageLength, pageNumber);
     return successResult(ids, ids.length == 0?"There are no matching IDs.":null);
   }         
    
+  /**
+   * Implementation of {@link nzilbb.ag.IGraphStore#getMatchingTranscriptIds(String)}
+   * that writes IDs to the response as they're read from the database.
+   * @param parameters Request parameter map.
+   * @param jsonOut A JSON generator for writing the response to.
+   * @param httpStatus Receives the response status code, in case of error.
+   * @param store A graph store object.
+   */
+  protected void getMatchingTranscriptIds(
+    RequestParameters parameters, JsonGenerator jsonOut, Consumer<Integer> httpStatus,
+    SqlGraphStoreAdministration store)
+    throws IOException, StoreException, PermissionException, GraphNotFoundException {
+
+    Vector<String> errors = new Vector<String>();
+    String expression = parameters.getString("expression");
+    if (expression == null) errors.add(localize("No expression specified."));
+    Integer pageLength = integerParameter(
+      parameters, "pageLength", "Invalid page length: {0}", errors);
+    Integer pageNumber = integerParameter(
+      parameters, "pageNumber", "Invalid page number: {0}", errors);
+    if (errors.size() > 0) {
+      writeBadRequest(jsonOut, httpStatus, errors);
+      return;
+    }
+    streamArrayResult(
+      jsonOut, "There are no matching IDs.",
+      consumer -> store.getMatchingTranscriptIds(
+        expression, pageLength, pageNumber, null, id -> consumer.accept(id)));
+  }         
+   
   /**
    * Implementation of {@link nzilbb.ag.IGraphStore#countMatchingAnnotations(String)}
    * @param request The HTTP request.
@@ -1344,27 +1628,46 @@ public class Store extends APIRequestHandler {
     Vector<String> errors = new Vector<String>();
     String expression = parameters.getString("expression");
     if (expression == null) errors.add(localize("No expression specified."));
-    Integer pageLength = null;
-    if (parameters.getString("pageLength") != null) {
-      try {
-        pageLength = Integer.valueOf(parameters.getString("pageLength"));
-      } catch(NumberFormatException x) {
-        errors.add(localize("Invalid page length: {0}", x.getMessage()));
-      }
-    }
-    Integer pageNumber = null;
-    if (parameters.getString("pageNumber") != null) {
-      try {
-        pageNumber = Integer.valueOf(parameters.getString("pageNumber"));
-      } catch(NumberFormatException x) {
-        errors.add(localize("Invalid page number: {0}", x.getMessage()));
-      }
-    }
+    Integer pageLength = integerParameter(
+      parameters, "pageLength", "Invalid page length: {0}", errors);
+    Integer pageNumber = integerParameter(
+      parameters, "pageNumber", "Invalid page number: {0}", errors);
     if (errors.size() > 0) return failureResult(errors);
     Annotation[] annotations = store.getMatchingAnnotations(expression, pageLength, pageNumber);
     return successResult(annotations, annotations.length == 0?"There are no annotations.":null);
   }         
 
+  /**
+   * Implementation of
+   * {@link nzilbb.ag.IGraphStore#getMatchingAnnotations(String,Integer,Integer)}
+   * that writes annotations to the response as they're read from the database.
+   * @param parameters Request parameter map.
+   * @param jsonOut A JSON generator for writing the response to.
+   * @param httpStatus Receives the response status code, in case of error.
+   * @param store A graph store object.
+   */
+  protected void getMatchingAnnotations(
+    RequestParameters parameters, JsonGenerator jsonOut, Consumer<Integer> httpStatus,
+    SqlGraphStoreAdministration store)
+    throws IOException, StoreException, PermissionException, GraphNotFoundException {
+      
+    Vector<String> errors = new Vector<String>();
+    String expression = parameters.getString("expression");
+    if (expression == null) errors.add(localize("No expression specified."));
+    Integer pageLength = integerParameter(
+      parameters, "pageLength", "Invalid page length: {0}", errors);
+    Integer pageNumber = integerParameter(
+      parameters, "pageNumber", "Invalid page number: {0}", errors);
+    if (errors.size() > 0) {
+      writeBadRequest(jsonOut, httpStatus, errors);
+      return;
+    }
+    streamArrayResult(
+      jsonOut, "There are no annotations.",
+      consumer -> store.getMatchingAnnotations(
+        expression, pageLength, pageNumber, false, annotation -> consumer.accept(annotation)));
+  }         
+
   /**
    * Implementation of
    * {@link nzilbb.ag.GraphStore#aggregateMatchingAnnotations(String,String)}
@@ -1387,6 +1690,35 @@ public class Store extends APIRequestHandler {
     return successResult(values, values.length == 0?"There are no annotations.":null);
   }         
 
+  /**
+   * Implementation of
+   * {@link nzilbb.ag.GraphStore#aggregateMatchingAnnotations(String,String)}
+   * that writes values to the response as they're read from the database.
+   * @param parameters Request parameter map.
+   * @param jsonOut A JSON generator for writing the response to.
+   * @param httpStatus Receives the response status code, in case of error.
+   * @param store A graph store object.
+   */
+  protected void aggregateMatchingAnnotations(
+    RequestParameters parameters, JsonGenerator jsonOut, Consumer<Integer> httpStatus,
+    SqlGraphStoreAdministration store)
+    throws IOException, StoreException, PermissionException, GraphNotFoundException {
+      
+    Vector<String> errors = new Vector<String>();
+    String operation = parameters.getString("operation");
+    if (operation == null) errors.add(localize("No operation specified."));
+    String expression = parameters.getString("expression");
+    if (expression == null) errors.add(localize("No expression specified."));
+    if (errors.size() > 0) {
+      writeBadRequest(jsonOut, httpStatus, errors);
+      return;
+    }
+    streamArrayResult(
+      jsonOut, "There are no annotations.",
+      consumer -> store.aggregateMatchingAnnotations(
+        operation, expression, value -> consumer.accept(value)));
+  }         
+
   /**
    * Implementation of {@link nzilbb.ag.IGraphStore#countAnnotations(String,String,Integer)}
    * @param parameters Request parameter map.
@@ -1402,14 +1734,8 @@ public class Store extends APIRequestHandler {
     if (id == null) errors.add(localize("No ID specified."));
     String layerId = parameters.getString("layerId");
     if (layerId == null) errors.add(localize("No layer ID specified."));
-    Integer maxOrdinal = null;
-    if (parameters.getString("maxOrdinal") != null) {
-      try {
-        maxOrdinal = Integer.valueOf(parameters.getString("maxOrdinal"));
-      } catch(NumberFormatException x) {
-        errors.add(localize("Invalid maximum ordinal: {0}", x.getMessage()));
-      }
-    }
+    Integer maxOrdinal = integerParameter(
+      parameters, "maxOrdinal", "Invalid maximum ordinal: {0}", errors);
     if (errors.size() > 0) return failureResult(errors);
     return successResult(store.countAnnotations(id, layerId, maxOrdinal), null);
   }
@@ -1431,57 +1757,116 @@ public class Store extends APIRequestHandler {
     if (id == null) errors.add("No ID specified.");
     String layerId = parameters.getString("layerId");
     if (layerId == null) errors.add(localize("No layer ID specified."));
-    Integer pageLength = null;
-    if (parameters.getString("pageLength") != null) {
-      try {
-        pageLength = Integer.valueOf(parameters.getString("pageLength"));
-      } catch(NumberFormatException x) {
-        errors.add(localize("Invalid page length: {0}", x.getMessage()));
-      }
-    }
-    Integer pageNumber = null;
-    if (parameters.getString("pageNumber") != null) {
-      try {
-        pageNumber = Integer.valueOf(parameters.getString("pageNumber"));
-      } catch(NumberFormatException x) {
-        errors.add(localize("Invalid page number: {0}", x.getMessage()));
-      }
-    }
-    Integer maxOrdinal = null;
-    if (parameters.getString("maxOrdinal") != null) {
-      try {
-        maxOrdinal = Integer.valueOf(parameters.getString("maxOrdinal"));
-      } catch(NumberFormatException x) {
-        errors.add(localize("Invalid maximum ordinal: {0}", x.getMessage()));
-      }
-    }
+    Integer pageLength = integerParameter(
+      parameters, "pageLength", "Invalid page length: {0}", errors);
+    Integer pageNumber = integerParameter(
+      parameters, "pageNumber", "Invalid page number: {0}", errors);
+    Integer maxOrdinal = integerParameter(
+      parameters, "maxOrdinal", "Invalid maximum ordinal: {0}", errors);
     if (errors.size() > 0) return failureResult(errors);
     Annotation[] annotations = store.getAnnotations(
       id, layerId, maxOrdinal, pageLength, pageNumber);
     if (parameters.getString("includeAnchors") != null) {
-      // get a list of distinct achor IDs to fetch (annotations may share anchors)
-      HashSet<String> anchorIds = new HashSet<String>();
-      for (Annotation a : annotations) {
-        anchorIds.add(a.getStartId());
-        anchorIds.add(a.getEndId());
-      }
-      // fetch the anchors
-      Anchor[] anchors = store.getAnchors(id, anchorIds.toArray(new String[0]));
-      // index them by ID, and convert them for JSON serialization
-      HashMap<String,Anchor> idToAnchor = new HashMap<String,Anchor>();
-      for (Anchor a : anchors) {
-        if (a != null) idToAnchor.put(a.getId(), a);
-      }
-      // assign anchors to their annotations
-      for (Annotation annotation : annotations) {
-        if (idToAnchor.containsKey(annotation.getStartId()))
-          annotation.put("start", idToAnchor.get(annotation.getStartId()));
-        if (idToAnchor.containsKey(annotation.getEndId()))
-          annotation.put("end", idToAnchor.get(annotation.getEndId()));
-      }
+      includeAnchors(id, Arrays.asList(annotations), store);
     }
     return successResult(annotations, annotations.length == 0?"There are no annotations.":null);
   }
+   
+  /**
+   * Implementation of
+   * {@link nzilbb.ag.IGraphStore#getAnnotations(String,String,Integer,Integer,Integer)}
+   * that writes annotations to the response as they're read from the database.
+   * <p> If anchors are included, they're fetched for batches of
+   * {@link #ANCHOR_BATCH_SIZE} annotations at a time.
+   * @param parameters Request parameter map.
+   * @param jsonOut A JSON generator for writing the response to.
+   * @param httpStatus Receives the response status code, in case of error.
+   * @param store A graph store object.
+   */
+  protected void getAnnotations(
+    RequestParameters parameters, JsonGenerator jsonOut, Consumer<Integer> httpStatus,
+    SqlGraphStoreAdministration store)
+    throws IOException, StoreException, PermissionException, GraphNotFoundException {
+      
+    Vector<String> errors = new Vector<String>();
+    String id = parameters.getString("id");
+    if (id == null) errors.add("No ID specified.");
+    String layerId = parameters.getString("layerId");
+    if (layerId == null) errors.add(localize("No layer ID specified."));
+    Integer pageLength = integerParameter(
+      parameters, "pageLength", "Invalid page length: {0}", errors);
+    Integer pageNumber = integerParameter(
+      parameters, "pageNumber", "Invalid page number: {0}", errors);
+    Integer maxOrdinal = integerParameter(
+      parameters, "maxOrdinal", "Invalid maximum ordinal: {0}", errors);
+    if (errors.size() > 0) {
+      writeBadRequest(jsonOut, httpStatus, errors);
+      return;
+    }
+    if (parameters.getString("includeAnchors") == null) {
+      streamArrayResult(
+        jsonOut, "There are no annotations.",
+        consumer -> store.getAnnotations(
+          id, layerId, maxOrdinal, pageLength, pageNumber,
+          annotation -> consumer.accept(annotation)));
+    } else {
+      streamArrayResult(
+        jsonOut, "There are no annotations.",
+        consumer -> {
+          Vector<Annotation> batch = new Vector<Annotation>();
+          store.getAnnotations(
+            id, layerId, maxOrdinal, pageLength, pageNumber, annotation -> {
+              batch.add(annotation);
+              if (batch.size() >= ANCHOR_BATCH_SIZE) {
+                try {
+                  includeAnchors(id, batch, store);
+                } catch(StoreException|PermissionException|GraphNotFoundException exception) {
+                  throw new RuntimeException(exception);
+                }
+                batch.forEach(consumer);
+                batch.clear();
+              }
+            });
+          includeAnchors(id, batch, store);
+          batch.forEach(consumer);
+        });
+    }
+  }
+  
+  /** Number of annotations to fetch anchors for at once, when streaming annotations. */
+  protected static final int ANCHOR_BATCH_SIZE = 1000;
+  
+  /**
+   * Sets the "start" and "end" of each of the given annotations to its anchors.
+   * @param id The ID of the transcript the annotations belong to.
+   * @param annotations The annotations.
+   * @param store A graph store object.
+   */
+  protected void includeAnchors(
+    String id, Collection<Annotation> annotations, SqlGraphStoreAdministration store)
+    throws StoreException, PermissionException, GraphNotFoundException {
+    if (annotations.size() == 0) return;
+    // get a list of distinct achor IDs to fetch (annotations may share anchors)
+    HashSet<String> anchorIds = new HashSet<String>();
+    for (Annotation a : annotations) {
+      anchorIds.add(a.getStartId());
+      anchorIds.add(a.getEndId());
+    }
+    // fetch the anchors
+    Anchor[] anchors = store.getAnchors(id, anchorIds.toArray(new String[0]));
+    // index them by ID
+    HashMap<String,Anchor> idToAnchor = new HashMap<String,Anchor>();
+    for (Anchor a : anchors) {
+      if (a != null) idToAnchor.put(a.getId(), a);
+    }
+    // assign anchors to their annotations
+    for (Annotation annotation : annotations) {
+      if (idToAnchor.containsKey(annotation.getStartId()))
+        annotation.put("start", idToAnchor.get(annotation.getStartId()));
+      if (idToAnchor.containsKey(annotation.getEndId()))
+        annotation.put("end", idToAnchor.get(annotation.getEndId()));
+    }
+  } // end of includeAnchors()
 
   // TODO getMatchAnnotations
    
@@ -1542,6 +1927,30 @@ public class Store extends APIRequestHandler {
     }
   }
 
+  /**
+   * Implementation of {@link nzilbb.ag.IGraphStore#getTranscript(String,String[])}
+   * that writes the serialized transcript directly to the response.
+   * @param parameters Request parameter map.
+   * @param jsonOut A JSON generator for writing the response to.
+   * @param httpStatus Receives the response status code, in case of error.
+   * @param store A graph store object.
+   */
+  protected void getTranscript(
+    RequestParameters parameters, JsonGenerator jsonOut, Consumer<Integer> httpStatus,
+    SqlGraphStoreAdministration store)
+    throws IOException, StoreException, PermissionException, GraphNotFoundException {
+      
+    Vector<String> errors = new Vector<String>();
+    String id = parameters.getString("id");
+    if (id == null) errors.add(localize("No ID specified."));
+    String[] layerIds = parameters.getStrings("layerIds");
+    if (errors.size() > 0) {
+      writeBadRequest(jsonOut, httpStatus, errors);
+      return;
+    }
+    streamGraphResult(jsonOut, store.getTranscript(id, layerIds));
+  }
+
   /**
    * Implementation of {@link nzilbb.ag.GraphStore#getFragment(String,String,String[])}
    * and {@link nzilbb.ag.GraphStore#getFragment(String,double,double,String[])}
@@ -1560,24 +1969,8 @@ public class Store extends APIRequestHandler {
     String[] layerIds = parameters.getStrings("layerIds");
     if (layerIds.length == 0) layerIds = store.getLayerIds();
     String annotationId = parameters.getString("annotationId");
-    String startParameter = parameters.getString("start");
-    Double start = null;
-    if (startParameter != null) {
-      try {
-        start = Double.valueOf(startParameter);
-      } catch(NumberFormatException x) {
-        errors.add(localize("Invalid start offset: {0}", x.getMessage()));
-      }
-    }
-    String endParameter = parameters.getString("end");
-    Double end = null;
-    if (endParameter != null) {
-      try {
-        end = Double.valueOf(endParameter);
-      } catch(NumberFormatException x) {
-        errors.add(localize("Invalid end offset: {0}", x.getMessage()));
-      }
-    }
+    Double start = doubleParameter(parameters, "start", "Invalid start offset: {0}", errors);
+    Double end = doubleParameter(parameters, "end", "Invalid end offset: {0}", errors);
     if (annotationId == null && (start == null || end == null)) {
       errors.add(localize("Annotation ID not specified.")); // TODO i18n
     }
@@ -1605,6 +1998,41 @@ public class Store extends APIRequestHandler {
     }
 
   }
+
+  /**
+   * Implementation of {@link nzilbb.ag.GraphStore#getFragment(String,String,String[])}
+   * and {@link nzilbb.ag.GraphStore#getFragment(String,double,double,String[])}
+   * that writes the serialized fragment directly to the response.
+   * @param parameters Request parameter map.
+   * @param jsonOut A JSON generator for writing the response to.
+   * @param httpStatus Receives the response status code, in case of error.
+   * @param store A graph store object.
+   */
+  protected void getFragment(
+    RequestParameters parameters, JsonGenerator jsonOut, Consumer<Integer> httpStatus,
+    SqlGraphStoreAdministration store)
+    throws IOException, StoreException, PermissionException, GraphNotFoundException {
+    
+    Vector<String> errors = new Vector<String>();
+    String id = parameters.getString("id");
+    if (id == null) errors.add(localize("No ID specified."));
+    String[] layerIds = parameters.getStrings("layerIds");
+    if (layerIds.length == 0) layerIds = store.getLayerIds();
+    String annotationId = parameters.getString("annotationId");
+    Double start = doubleParameter(parameters, "start", "Invalid start offset: {0}", errors);
+    Double end = doubleParameter(parameters, "end", "Invalid end offset: {0}", errors);
+    if (annotationId == null && (start == null || end == null)) {
+      errors.add(localize("Annotation ID not specified.")); // TODO i18n
+    }
+    
+    if (errors.size() > 0) {
+      writeBadRequest(jsonOut, httpStatus, errors);
+      return;
+    }
+    streamGraphResult(jsonOut, annotationId != null?
+                      store.getFragment(id, annotationId, layerIds):
+                      store.getFragment(id, start, end, layerIds));
+  }
   // TODO getFragmentSeries
    
   /**
@@ -35,7 +35,9 @@ import javax.json.Json;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
+import nzilbb.labbcat.server.db.OneQuerySearch;
 import nzilbb.labbcat.server.db.SqlSearchResults;
+import nzilbb.labbcat.server.search.CountSearchResults;
 import nzilbb.labbcat.server.search.CsvResults;
 import nzilbb.labbcat.server.search.SearchResults;
 import nzilbb.labbcat.server.search.SearchTask;
@@ -84,11 +86,22 @@ import nzilbb.labbcat.server.search.SearchTask;
  *         <dt>layers</dt> <dd>An array of IDs of layers that were matched
  *              during the search</dd>
  *         <dt>targetLayer</dt> <dd>The ID of the target layer</dd>
+ *         <dt>profile</dt> <dd>An array of the phases the search has executed so far,
+ *              each an object with the attributes: <q>name</q>, the name of the phase;
+ *              <q>millis</q>, the wall time it took in milliseconds (0 if it's still
+ *              running); <q>rows</q>, the number of rows it affected, if any; and
+ *              <q>sqlHash</q>, a hash of the SQL it executed, if any</dd>
  *         <dt>size</dt> <dd>How many results are available</dd>
  *         <dt>resultsName</dt> <dd>The name of the result set, if any</dd>
  *         <dt>seriesId</dt> <dd>The unique database ID of the result set, if any</dd>
  *         <dt>totalUtteranceDuration</dt> <dd>The duration of all the
  *             utterances included in the results, if available</dd>
+ *         <dt>transcriptCount</dt> <dd>For count-only searches, how many
+ *             transcripts contain matches</dd>
+ *         <dt>participantCount</dt> <dd>For count-only searches, how many
+ *             participants have matches, if known</dd>
+ *         <dt>estimated</dt> <dd>For count-only searches, whether the counts
+ *             are estimated from a sample of transcripts</dd>
  *         <dt>csv</dt> <dd>The name of the reloaded CSV results file, if any</dd>
  *         <dt>csvColumns</dt> <dd>If the results were reloaded from a
  *             CSV file, this is an array of strings representing the
@@ -230,6 +243,12 @@ public class Task extends APIRequestHandler {
           model = model.add("targetLayer", search.getMatrix().getTargetLayerId());
         }
       }
+      if (task instanceof OneQuerySearch) {
+        OneQuerySearch oneQuerySearch = (OneQuerySearch)task;
+        if (oneQuerySearch.getPhases().size() > 0) {
+          model = model.add("profile", oneQuerySearch.getProfile());
+        }
+      }
       SearchResults results = search.getResults();
       if (results != null) {
         model = model.add("size", results.size());
@@ -246,6 +265,14 @@ public class Task extends APIRequestHandler {
           } catch(SQLException exception) {
           }
         } // SqlSearchResults
+        if (results instanceof CountSearchResults) {
+          CountSearchResults countResults = (CountSearchResults)results;
+          model = model.add("transcriptCount", countResults.getTranscriptCount());
+          if (countResults.getParticipantCount() != null) {
+            model = model.add("participantCount", countResults.getParticipantCount());
+          }
+          model = model.add("estimated", countResults.getEstimated());
+        } // CountSearchResults
         if (results instanceof CsvResults) {
           CsvResults csvResults = (CsvResults)results;
           //model = model.add("seriesId", ""+csvResults.getName());
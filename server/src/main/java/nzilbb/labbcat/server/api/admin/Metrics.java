@@ -0,0 +1,120 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.api.admin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+import nzilbb.labbcat.server.api.APIRequestHandler;
+import nzilbb.labbcat.server.api.RequiredRole;
+import nzilbb.labbcat.server.metrics.MetricRegistry;
+import nzilbb.labbcat.server.task.Task;
+
+/**
+ * <tt>/api/admin/metrics</tt> : Server metrics, in
+ * <a href="https://prometheus.io/docs/instrumenting/exposition_formats/">Prometheus text
+ * exposition format</a>, for scraping by a monitoring system.
+ *  <p> The metrics include:
+ *   <dl>
+ *    <dt> labbcat_http_requests_total </dt><dd> Requests handled, by endpoint, method,
+ *         and status. </dd>
+ *    <dt> labbcat_http_request_duration_seconds </dt><dd> A histogram of request
+ *         durations by endpoint, from which latency percentiles can be computed with
+ *         <tt>histogram_quantile()</tt>. </dd>
+ *    <dt> labbcat_http_response_bytes_total </dt><dd> Bytes in response bodies, by
+ *         endpoint, for responses that declare their Content-Length. </dd>
+ *    <dt> labbcat_http_requests_in_flight </dt><dd> Requests currently being
+ *         handled. </dd>
+ *    <dt> labbcat_tasks </dt><dd> Tasks by class and state - <q>queued</q>,
+ *         <q>running</q>, or <q>finished</q>. </dd>
+ *    <dt> labbcat_task_duration_seconds </dt><dd> A histogram of task durations, by
+ *         class. </dd>
+ *    <dt> labbcat_search_duration_seconds </dt><dd> A histogram of search execution
+ *         times, by search class. </dd>
+ *    <dt> labbcat_jdbc_connections_opened_total, labbcat_jdbc_connections_open,
+ *         labbcat_jdbc_connection_failures_total </dt><dd> Database connection
+ *         usage. </dd>
+ *    <dt> labbcat_sql_statements_total, labbcat_sql_statement_errors_total,
+ *         labbcat_sql_statement_seconds_total </dt><dd> SQL statement executions, by the
+ *         endpoint or task that executed them - see <tt>/api/admin/sql</tt> for more
+ *         detail. </dd>
+ *   </dl>
+ *  <p> Only the GET method is supported:
+ *   <dl>
+ *    <dt> GET </dt><dd> Read the metrics.
+ *     <ul>
+ *      <li><em> Response Body </em> - the metrics, as
+ *       <tt>text/plain; version=0.0.4</tt>. </li>
+ *      <li><em> Response Status </em>
+ *        <ul>
+ *         <li><em> 200 </em> : The metrics were written. </li>
+ *         <li><em> 403 </em> : The user is not an administrator. </li>
+ *        </ul>
+ *      </li>
+ *     </ul></dd>
+ *   </dl>
+ *  </p>
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+@RequiredRole("admin")
+public class Metrics extends APIRequestHandler {
+
+  /**
+   * Default constructor.
+   */
+  public Metrics() {
+  } // end of constructor
+
+  /**
+   * GET handler writes the metrics.
+   * @param out Response body stream.
+   * @param contentType Receives the content type for specification in the response headers.
+   * @param httpStatus Receives the response status code, in case of error.
+   */
+  public void get(OutputStream out, Consumer<String> contentType,
+                  Consumer<Integer> httpStatus) {
+    try {
+      Connection connection = newConnection();
+      try {
+        if (!hasAccess(connection)) {
+          httpStatus.accept(SC_FORBIDDEN);
+          return;
+        }
+      } finally {
+        connection.close();
+      }
+      // ensure task metrics are registered even if no task has run yet
+      Task.getTasksArray();
+      contentType.accept(MetricRegistry.CONTENT_TYPE);
+      MetricRegistry.Write(new OutputStreamWriter(out, "UTF-8"));
+    } catch(SQLException exception) {
+      context.servletLog("Metrics GET: Couldn't connect to database: " + exception);
+      httpStatus.accept(SC_INTERNAL_SERVER_ERROR);
+    } catch(IOException exception) {
+      context.servletLog("Metrics GET: " + exception);
+    }
+  }
+
+} // end of class Metrics
@@ -0,0 +1,244 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.api.admin;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.function.Consumer;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.stream.JsonGenerator;
+import nzilbb.labbcat.server.api.APIRequestHandler;
+import nzilbb.labbcat.server.api.RequiredRole;
+import nzilbb.labbcat.server.db.SqlStatistics;
+
+/**
+ * <tt>/api/admin/sql</tt> : Statistics about SQL statements executed by the server.
+ *  <p> Statements are grouped by the API endpoint or task that executed them, and by
+ *  <em>shape</em> - i.e. their SQL with literal values and parameter lists normalized
+ *  away.
+ *  <p> The following operations, specified by the HTTP method, are supported:
+ *   <dl>
+ *    <dt> GET </dt><dd> Read the statistics.
+ *     <ul>
+ *      <li><em> Response Body </em> - the standard JSON envelope, with the model as an
+ *       object with the following attributes:
+ *        <dl>
+ *         <dt> slowThresholdMs </dt><dd> Statements taking longer than this number of
+ *              milliseconds are logged. </dd>
+ *         <dt> explainSlowStatements </dt><dd> Whether slow statements are logged with
+ *              the output of EXPLAIN. </dd>
+ *         <dt> logSlowStatementParameters </dt><dd> Whether slow statements are logged
+ *              with their bind parameter values. </dd>
+ *         <dt> bucketsMs </dt><dd> Upper bounds of the histogram buckets, in
+ *              milliseconds. </dd>
+ *         <dt> statements </dt><dd> An array of objects, one for each endpoint/shape,
+ *              in descending order of total execution time, with the attributes:
+ *              <var>tag</var> (the endpoint or task), <var>sql</var>, <var>calls</var>,
+ *              <var>errors</var>, <var>rows</var>, <var>totalMs</var>,
+ *              <var>meanMs</var>, <var>maxMs</var>, and <var>histogram</var> (counts
+ *              for each of <var>bucketsMs</var>, followed by the count for times over
+ *              the last bucket). </dd>
+ *         <dt> slow </dt><dd> An array of the most recent slow statements, most recent
+ *              first, with the attributes: <var>executed</var>, <var>tag</var>,
+ *              <var>sql</var>, <var>parameters</var>, <var>ms</var>, and
+ *              <var>explanation</var>. </dd>
+ *        </dl>
+ *      </li>
+ *      <li><em> Response Status </em>
+ *        <ul>
+ *         <li><em> 200 </em> : The statistics could be listed. </li>
+ *        </ul>
+ *      </li>
+ *     </ul></dd>
+ *
+ *    <dt> PUT </dt><dd> Update the slow statement settings.
+ *     <ul>
+ *      <li><em> Request Body </em> - a JSON-encoded object with
+ *       <var>slowThresholdMs</var>, <var>explainSlowStatements</var>, and/or
+ *       <var>logSlowStatementParameters</var> attributes. </li>
+ *      <li><em> Response Body </em> - the standard JSON envelope, with the model as an
+ *       object representing the settings. </li>
+ *      <li><em> Response Status </em>
+ *        <ul>
+ *         <li><em> 200 </em> : The settings were successfully updated. </li>
+ *        </ul>
+ *      </li>
+ *     </ul></dd>
+ *
+ *    <dt> DELETE </dt><dd> Discard all statistics, so that new ones can be gathered.
+ *     <ul>
+ *      <li><em> Response Body </em> - the standard JSON envelope. </li>
+ *      <li><em> Response Status </em>
+ *        <ul>
+ *         <li><em> 200 </em> : The statistics were discarded. </li>
+ *        </ul>
+ *      </li>
+ *     </ul></dd>
+ *   </dl>
+ *  </p>
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+@RequiredRole("admin")
+public class Sql extends APIRequestHandler {
+
+  /**
+   * Default constructor.
+   */
+  public Sql() {
+  } // end of constructor
+
+  /**
+   * GET handler lists statistics.
+   * @param jsonOut Generator for JSON response body.
+   * @param httpStatus Receives the response status code, in case of error.
+   */
+  public void get(JsonGenerator jsonOut, Consumer<Integer> httpStatus) {
+    try {
+      Connection connection = newConnection();
+      try {
+        if (!hasAccess(connection)) {
+          httpStatus.accept(SC_FORBIDDEN);
+          return;
+        }
+      } finally {
+        connection.close();
+      }
+      SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+      startResult(jsonOut, false);
+      jsonOut.write("slowThresholdMs", SqlStatistics.GetSlowThresholdMs());
+      jsonOut.write("explainSlowStatements", SqlStatistics.GetExplainSlowStatements());
+      jsonOut.write(
+        "logSlowStatementParameters", SqlStatistics.GetLogSlowStatementParameters());
+      jsonOut.writeStartArray("bucketsMs");
+      for (long ms : SqlStatistics.BUCKET_MS) jsonOut.write(ms);
+      jsonOut.writeEnd(); // array
+      jsonOut.writeStartArray("statements");
+      for (SqlStatistics.Shape shape : SqlStatistics.Shapes()) {
+        jsonOut.writeStartObject();
+        jsonOut.write("tag", shape.getTag());
+        jsonOut.write("sql", shape.getSql());
+        jsonOut.write("calls", shape.getCalls());
+        jsonOut.write("errors", shape.getErrors());
+        jsonOut.write("rows", shape.getRows());
+        jsonOut.write("totalMs", shape.getTotalMs());
+        jsonOut.write("meanMs", shape.getMeanMs());
+        jsonOut.write("maxMs", shape.getMaxMs());
+        jsonOut.writeStartArray("histogram");
+        for (long count : shape.getBuckets()) jsonOut.write(count);
+        jsonOut.writeEnd(); // array
+        jsonOut.writeEnd(); // object
+      } // next shape
+      jsonOut.writeEnd(); // array
+      jsonOut.writeStartArray("slow");
+      for (SqlStatistics.SlowStatement slow : SqlStatistics.SlowStatements()) {
+        jsonOut.writeStartObject();
+        jsonOut.write("executed", dateFormat.format(slow.getExecuted()));
+        jsonOut.write("tag", slow.getTag());
+        jsonOut.write("sql", slow.getSql());
+        if (slow.getParameters() != null) jsonOut.write("parameters", slow.getParameters());
+        jsonOut.write("ms", slow.getMs());
+        if (slow.getExplanation() != null) {
+          jsonOut.write("explanation", slow.getExplanation());
+        }
+        jsonOut.writeEnd(); // object
+      } // next slow statement
+      jsonOut.writeEnd(); // array
+      endSuccessResult(jsonOut, null);
+    } catch(SQLException exception) {
+      context.servletLog("Sql GET: Couldn't connect to database: " + exception);
+      httpStatus.accept(SC_INTERNAL_SERVER_ERROR);
+      writeResult(jsonOut, failureResult(exception));
+    }
+  }
+
+  /**
+   * PUT handler - update slow statement settings.
+   * @param requestBody Stream supplying the body of the request.
+   * @param httpStatus Receives the response status code, in case of error.
+   */
+  public JsonObject put(InputStream requestBody, Consumer<Integer> httpStatus) {
+    try {
+      Connection connection = newConnection();
+      try {
+        if (!hasAccess(connection)) {
+          httpStatus.accept(SC_FORBIDDEN);
+          return null;
+        }
+      } finally {
+        connection.close();
+      }
+      JsonReader reader = Json.createReader( // ensure we read as UTF-8
+        new InputStreamReader(requestBody, "UTF-8"));
+      JsonObject json = reader.readObject();
+      if (json.containsKey("slowThresholdMs")) {
+        SqlStatistics.SetSlowThresholdMs(json.getJsonNumber("slowThresholdMs").longValue());
+      }
+      if (json.containsKey("explainSlowStatements")) {
+        SqlStatistics.SetExplainSlowStatements(json.getBoolean("explainSlowStatements"));
+      }
+      if (json.containsKey("logSlowStatementParameters")) {
+        SqlStatistics.SetLogSlowStatementParameters(
+          json.getBoolean("logSlowStatementParameters"));
+      }
+      return successResult(
+        Json.createObjectBuilder()
+        .add("slowThresholdMs", SqlStatistics.GetSlowThresholdMs())
+        .add("explainSlowStatements", SqlStatistics.GetExplainSlowStatements())
+        .add("logSlowStatementParameters", SqlStatistics.GetLogSlowStatementParameters())
+        .build(), "Record updated.");
+    } catch(Exception exception) {
+      context.servletLog("Sql PUT: " + exception);
+      httpStatus.accept(SC_BAD_REQUEST);
+      return failureResult(exception);
+    }
+  }
+
+  /**
+   * DELETE handler - discard all statistics.
+   * @param httpStatus Receives the response status code, in case of error.
+   */
+  public JsonObject delete(Consumer<Integer> httpStatus) {
+    try {
+      Connection connection = newConnection();
+      try {
+        if (!hasAccess(connection)) {
+          httpStatus.accept(SC_FORBIDDEN);
+          return null;
+        }
+      } finally {
+        connection.close();
+      }
+      SqlStatistics.Reset();
+      return successResult(null, "Record deleted.");
+    } catch(SQLException exception) {
+      context.servletLog("Sql DELETE: Couldn't connect to database: " + exception);
+      httpStatus.accept(SC_INTERNAL_SERVER_ERROR);
+      return failureResult(exception);
+    }
+  }
+
+} // end of class Sql
@@ -38,6 +38,7 @@ import javax.json.JsonReader;
 import javax.json.stream.JsonGenerator;
 import nzilbb.labbcat.server.api.APIRequestHandler;
 import nzilbb.labbcat.server.api.RequiredRole;
+import nzilbb.labbcat.server.db.SystemAttributeCache;
 
 /**
  * <tt>/api/admin/systemattributes</tt> : Administration of <em> system attribute </em> records.
@@ -243,6 +244,7 @@ public class SystemAttributes extends APIRequestHandler {
                     return successResult(json, "Record updated.");
                   }
                 } finally {
+                  SystemAttributeCache.Invalidate();
                   context.cacheNotification("system_attribute");
                   sql.close();
                 }
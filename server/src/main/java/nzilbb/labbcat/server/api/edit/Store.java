@@ -21,10 +21,13 @@
 //
 package nzilbb.labbcat.server.api.edit;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.IOException;
+import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.sql.Connection;
@@ -32,13 +35,22 @@ import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.SortedSet;
 import java.util.Vector;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.stream.JsonParser;
 import javax.xml.parsers.*;
 import javax.xml.xpath.*;
 import nzilbb.ag.*;
@@ -144,6 +156,35 @@ import org.xml.sax.*;
  </dl>
  </li>
  </ul>
+ <a id="editAnnotations(java.util.List)">
+ <!--   -->
+ </a>
+ <ul class="blockList">
+ <li class="blockList">
+ <h4>/api/edit/store/editAnnotations</h4>
+ <div class="block">Applies a batch of annotation edits, each of which has the same effect as
+   a call to <tt>createAnnotation</tt>, <tt>updateAnnotationLabel</tt>, or
+   <tt>destroyAnnotation</tt>. Edits are applied in order. All edits are checked before
+   any changes are made, so if any edit is invalid, no changes are made at all. Edits
+   cannot refer to annotations created by earlier edits in the same batch.</div>
+ <dl>
+ <dt><span class="paramLabel">Body:</span></dt>
+ <dd>A JSON-encoded array of edits, each being an object with an <q>operation</q>
+   attribute - one of <q>create</q>, <q>update</q>, or <q>destroy</q> - and the same
+   attributes as the parameters of the corresponding single-annotation request,
+   e.g. 
+   <pre>[
+ {"operation":"create","layerId":"phonemes","parentId":"ew_0_123","label":"k{t","confidence":100},
+ {"operation":"update","annotationId":"ew_2_456","label":"D@","confidence":100},
+ {"operation":"destroy","annotationId":"ew_2_789"}
+]</pre>
+   The body is parsed as a stream, rather than being loaded all at once.</dd>
+ <dt><span class="returnLabel">Returns:</span></dt>
+ <dd>An array with one element per edit, which is the ID of the new annotation for
+   <q>create</q> edits, and null otherwise.</dd>
+ </dl>
+ </li>
+ </ul>
  <a id="saveParticipant(Annotation)">
  <!--   -->
  </a>
@@ -271,11 +312,49 @@ import org.xml.sax.*;
  <dd><code>layerId</code> - The layer ID of the resulting annotation.</dd>
  <dd><code>label</code> - The label of the resulting annotation.</dd>
  <dd><code>confidence</code> - The confidence rating.</dd>
+ <dd><code>oneAtATime</code> - Optional: specify a value (e.g. "true") to create tags
+   one at a time, which is much slower than the default bulk tagging, but may be useful
+   for verifying results.</dd>
  <dt><span class="returnLabel">Returns:</span></dt>
  <dd>The number of new annotations added.</dd>
  </dl>
  </li>
  </ul>
+ <a id="tagFromDictionary(java.lang.String,java.lang.String,java.lang.String,java.lang.Integer)">
+ <!--   -->
+ </a>
+ <ul class="blockList">
+ <li class="blockList">
+ <h4>/api/edit/store/tagFromDictionary</h4>
+ <div class="block">Tags annotations on one layer using a dictionary that maps their labels to
+   tag labels, e.g. to tag orthography tokens with their pronunciations. This has the
+   same effect as calling <tt>tagMatchingAnnotations</tt> once for each dictionary
+   entry, but all matching annotations are tagged with a few set-based
+   statements. If the tag layer doesn't allow peers, existing tags are deleted and only the
+   first tag label of each entry is used. Otherwise, existing tags are kept, and a
+   tag is added for each of the entry's tag labels.
+ </div>
+ <dl>
+ <dt><span class="paramLabel">Body: multipart POST request, with the following parameters</span></dt>
+ <dd><code>sourceLayerId</code> - The layer of the annotations to tag, whose labels are
+   the dictionary keys.</dd>
+ <dd><code>tagLayerId</code> - The layer to create tags on, which must be a child or peer
+   layer of <var>sourceLayerId</var>.</dd>
+ <dd><code>confidence</code> (optional) - The confidence rating of the tags. The default
+   is 50 (automatic).</dd>
+ <dd><code>dictionary</code> - A file or string containing the dictionary, either as
+   tab-separated lines, each with a source label followed by one or more tag labels, or
+   as a JSON object whose keys are source labels and whose values are a tag label or an
+   array of tag labels, e.g. <tt>{"the":["D@","Di"],"cat":"k{t"}</tt>
+   <br>The dictionary is read as a stream, so it can be very large.</dd>
+ <dt><span class="returnLabel">Returns:</span></dt>
+ <dd>An object with the counts for each phase: <q>entries</q> - the number of distinct
+   dictionary entries, <q>matches</q> - the number of annotation/tag label pairs matched,
+   <q>deleted</q> - the number of existing tags deleted, and <q>tags</q> - the number of
+   new tags added.</dd>
+ </dl>
+ </li>
+ </ul>
  <a id="saveMedia(String,String,String)">
  <!--   -->
  </a>
@@ -369,6 +448,8 @@ public class Store extends nzilbb.labbcat.server.api.Store {
         return updateAnnotationLabel(parameters, store);
       } else if (pathInfo.endsWith("destroyannotation")) {
         return destroyAnnotation(parameters, store);
+      } else if (pathInfo.endsWith("editannotations")) {
+        return editAnnotations(requestBody, store);
       } else if (pathInfo.endsWith("saveparticipant")) {
         return saveParticipant(parameters, store);
       } else if (pathInfo.endsWith("savetranscript")) {
@@ -383,6 +464,8 @@ public class Store extends nzilbb.labbcat.server.api.Store {
         return deleteMatchingAnnotations(parameters, store);
       } else if (pathInfo.endsWith("tagmatchingannotations")) {
         return tagMatchingAnnotations(parameters, store);
+      } else if (pathInfo.endsWith("tagfromdictionary")) {
+        return tagFromDictionary(parameters, store);
       } else if (pathInfo.endsWith("savemedia")) {
         return saveMedia(parameters, store);
       } else if (pathInfo.endsWith("saveepisodedocument")) {
@@ -566,6 +649,108 @@ public class Store extends nzilbb.labbcat.server.api.Store {
     return successResult(null, "Annotation deleted: {0}", annotationId);
   }
   
+  /**
+   * Implementation of {@link SqlGraphStore#editAnnotations(List)}
+   * @param requestBody For access to the request body, which is a JSON array of edits.
+   * @param store A graph store object.
+   * @return A JSON response for returning to the caller.
+   */
+  protected JsonObject editAnnotations(
+    InputStream requestBody, SqlGraphStoreAdministration store)
+    throws IOException, StoreException, PermissionException, GraphNotFoundException {
+    Vector<String> errors = new Vector<String>();
+    Vector<AnnotationEdit> edits = new Vector<AnnotationEdit>();
+    try {
+      JsonParser parser = Json.createParser(new InputStreamReader(requestBody, "UTF-8"));
+      try {
+        HashMap<String,String> attributes = null;
+        String key = null;
+        while (parser.hasNext()) {
+          JsonParser.Event event = parser.next();
+          switch (event) {
+            case START_OBJECT:
+              attributes = new HashMap<String,String>();
+              break;
+            case KEY_NAME:
+              key = parser.getString();
+              break;
+            case VALUE_STRING:
+            case VALUE_NUMBER:
+              if (attributes != null) attributes.put(key, parser.getString());
+              break;
+            case END_OBJECT:
+              edits.add(AnnotationEditFrom(attributes, edits.size() + 1));
+              attributes = null;
+              break;
+            default:
+              break;
+          }
+        } // next event
+      } finally {
+        parser.close();
+      }
+    } catch(StoreException exception) {
+      errors.add(exception.getMessage());
+    } catch(Exception exception) { // javax.json exceptions for invalid JSON
+      errors.add(localize("Invalid request body: {0}", exception.getMessage()));
+    }
+    if (errors.size() == 0 && edits.size() == 0) errors.add(localize("No edits specified."));
+    if (errors.size() > 0) return failureResult(errors);
+    try {
+      String[] newIds = store.editAnnotations(edits);
+      JsonArrayBuilder model = Json.createArrayBuilder();
+      for (String id : newIds) {
+        if (id == null) {
+          model.addNull();
+        } else {
+          model.add(id);
+        }
+      } // next ID
+      return successResult(model.build(), "Annotations edited: {0}", newIds.length);
+    } catch (StoreException exception) {
+      errors.add(exception.getMessage());
+    }
+    return failureResult(errors);
+  }
+  
+  /**
+   * Creates an annotation edit from the given attributes, which have the same names as
+   * the parameters of the corresponding single-annotation request.
+   * @param attributes The attributes of an edit, including "operation".
+   * @param e The edit's (1-based) position in the batch, for error messages.
+   * @return The corresponding edit.
+   * @throws StoreException If the operation or confidence is invalid.
+   */
+  protected static AnnotationEdit AnnotationEditFrom(Map<String,String> attributes, int e)
+    throws StoreException {
+    String operation = attributes.get("operation");
+    AnnotationEdit edit = new AnnotationEdit();
+    if ("create".equalsIgnoreCase(operation)) {
+      edit.setOperation(AnnotationEdit.Operation.Create);
+    } else if ("update".equalsIgnoreCase(operation)) {
+      edit.setOperation(AnnotationEdit.Operation.Update);
+    } else if ("destroy".equalsIgnoreCase(operation)) {
+      edit.setOperation(AnnotationEdit.Operation.Destroy);
+    } else {
+      throw new StoreException("Edit " + e + ": Invalid operation: " + operation);
+    }
+    if (attributes.get("confidence") != null) {
+      try {
+        edit.setConfidence(Integer.valueOf(attributes.get("confidence")));
+      } catch(NumberFormatException x) {
+        throw new StoreException("Edit " + e + ": Invalid confidence: " + x.getMessage());
+      }
+    }
+    return edit
+      .setTranscriptId(attributes.get("id"))
+      .setAnnotationId(attributes.get("annotationId"))
+      .setFromId(attributes.get("fromId"))
+      .setToId(attributes.get("toId"))
+      .setLayerId(attributes.get("layerId"))
+      .setLabel(attributes.get("label"))
+      .setParentId(attributes.get("parentId"));
+  } // end of AnnotationEditFrom()
+
   /**
    * Implementation of {@link nzilbb.ag.GraphStore#saveParticipant(Annotation)}
    * @param parameters Request parameter map.
@@ -876,10 +1061,115 @@ public class Store extends nzilbb.labbcat.server.api.Store {
         errors.add(localize("Confidence \"{0}\" is not an integer.", confidenceString));
       }
     }
+    boolean oneAtATime = parameters.getString("oneAtATime") != null;
     if (errors.size() > 0) return failureResult(errors);
-    int tagCount = store.tagMatchingAnnotations(expression, layerId, label, confidence);
+    int tagCount = store.tagMatchingAnnotations(
+      expression, layerId, label, confidence, oneAtATime);
     return successResult(tagCount, "Annotations added: {0}", tagCount);
   }      
    
+  /**
+   * Implementation of
+   * {@link SqlGraphStore#tagFromDictionary(String,String,Iterator,Integer)}
+   * @param parameters Request parameter map.
+   * @param store A graph store object.
+   * @return A JSON response for returning to the caller.
+   */
+  protected JsonObject tagFromDictionary(
+    RequestParameters parameters, SqlGraphStoreAdministration store)
+    throws IOException, StoreException, PermissionException, GraphNotFoundException {
+    Vector<String> errors = new Vector<String>();
+    String sourceLayerId = parameters.getString("sourceLayerId");
+    if (sourceLayerId == null) errors.add(localize("No sourceLayerId specified."));
+    String tagLayerId = parameters.getString("tagLayerId");
+    if (tagLayerId == null) errors.add(localize("No tagLayerId specified."));
+    String confidenceString = parameters.getString("confidence");
+    Integer confidence = null;
+    if (confidenceString != null) {
+      try {
+        confidence = Integer.parseInt(confidenceString);
+      } catch(Exception exception) {
+        errors.add(localize("Confidence \"{0}\" is not an integer.", confidenceString));
+      }
+    }
+    // the dictionary may be an uploaded file or a string
+    File file = parameters.get("dictionary") instanceof String? null
+      : parameters.getFile("dictionary");
+    String text = file != null? null : parameters.getString("dictionary");
+    if (file == null && text == null) errors.add(localize("No dictionary specified."));
+    if (errors.size() > 0) return failureResult(errors);
+    
+    BufferedReader reader = new BufferedReader(
+      file != null? new InputStreamReader(new FileInputStream(file), "UTF-8")
+      : new StringReader(text));
+    try {
+      Map<String,Integer> counts = store.tagFromDictionary(
+        sourceLayerId, tagLayerId, DictionaryEntries(reader), confidence);
+      JsonObjectBuilder model = Json.createObjectBuilder();
+      for (String phase : counts.keySet()) model.add(phase, counts.get(phase));
+      return successResult(model.build(), "Annotations added: {0}", counts.get("tags"));
+    } finally {
+      reader.close();
+      if (file != null) file.delete();
+    }
+  }
+  
+  /**
+   * Reads dictionary entries from the given reader, which may contain either tab-separated
+   * lines, each with a source label followed by one or more tag labels, or a JSON object
+   * whose keys are source labels and whose values are tag labels or arrays of tag labels.
+   * <p> Entries are read as they're needed, so the whole dictionary is never in memory.
+   * @param reader The dictionary source.
+   * @return An iterator of entries, each being an array with two elements: a source label
+   * and a tag label.
+   * @throws IOException
+   */
+  protected static Iterator<String[]> DictionaryEntries(BufferedReader reader)
+    throws IOException {
+    // skip leading whitespace to determine the format
+    int c = ' ';
+    while (c >= 0 && Character.isWhitespace(c)) {
+      reader.mark(1);
+      c = reader.read();
+    }
+    if (c < 0) return Collections.emptyIterator();
+    reader.reset();
+    if (c == '{') { // JSON
+      final JsonParser parser = Json.createParser(reader);
+      return new Iterator<String[]>() {
+        String label = null;
+        String[] nextEntry = advance();
+        String[] advance() {
+          while (parser.hasNext()) {
+            JsonParser.Event event = parser.next();
+            if (event == JsonParser.Event.KEY_NAME) {
+              label = parser.getString();
+            } else if (event == JsonParser.Event.VALUE_STRING && label != null) {
+              return new String[] { label, parser.getString() };
+            }
+          } // next event
+          return null;
+        }
+        public boolean hasNext() { return nextEntry != null; }
+        public String[] next() {
+          if (nextEntry == null) throw new NoSuchElementException();
+          String[] entry = nextEntry;
+          nextEntry = advance();
+          return entry;
+        }
+      };
+    } else { // tab-separated
+      return reader.lines()
+        .filter(line -> line.trim().length() > 0)
+        .flatMap(line -> {
+            String[] fields = line.split("\t");
+            return Arrays.stream(fields, 1, fields.length)
+              .filter(tag -> tag.length() > 0)
+              .map(tag -> new String[] { fields[0], tag });
+          })
+        .iterator();
+    }
+  } // end of DictionaryEntries()
+   
   private static final long serialVersionUID = 1;
 } // end of class Store
@@ -761,9 +761,9 @@ public class Upload extends APIRequestHandler {
           } // keepOriginal
           
           if (generateMissingMedia) {
-            // generate any missing media
+            // queue generation of any missing media in the background
             try {
-              store.generateMissingMedia(graph.getId());
+              store.generateMissingMedia(graph.getId(), false);
             } catch(Exception exception) {
               errors.add(localize("Error generating missing media: {0}",
                                   exception.getMessage()));
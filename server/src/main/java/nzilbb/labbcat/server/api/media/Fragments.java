@@ -250,31 +250,36 @@ public class Fragments extends APIRequestHandler { // TODO unit test
           searchResults = new CsvResults((CsvResults)searchResults);
         }
         final SearchResults results = searchResults;
-        results.forEachRemaining(matchId -> {
-            // prevent the task from dying while we're still interested
-            if (search != null) search.keepAlive();
+        try {
+          results.forEachRemaining(matchId -> {
+              // prevent the task from dying while we're still interested
+              if (search != null) search.keepAlive();
             
-            try {
-              IdMatch result = new IdMatch(matchId);
-              if (finalStartOffsetColumn != null) {
-                CSVRecord lastRow = ((CsvResults)results).getLastRecord();
-                String startString = lastRow.get(finalStartOffsetColumn);
-                String endString = lastRow.get(finalEndOffsetColumn);
-                result.setStartOffset(Double.valueOf(startString));
-                result.setEndOffset(Double.valueOf(endString));
-              } else { // use utterance boundaries
-                String[] anchorIds = {
-                  "n_"+result.getStartAnchorId(), "n_"+result.getEndAnchorId() };
-                Anchor[] anchors = store.getAnchors(result.getTranscriptId(), anchorIds);
-                result.setStartOffset(anchors[0].getOffset());
-                result.setEndOffset(anchors[1].getOffset());
+              try {
+                IdMatch result = new IdMatch(matchId);
+                if (finalStartOffsetColumn != null) {
+                  CSVRecord lastRow = ((CsvResults)results).getLastRecord();
+                  String startString = lastRow.get(finalStartOffsetColumn);
+                  String endString = lastRow.get(finalEndOffsetColumn);
+                  result.setStartOffset(Double.valueOf(startString));
+                  result.setEndOffset(Double.valueOf(endString));
+                } else { // use utterance boundaries
+                  String[] anchorIds = {
+                    "n_"+result.getStartAnchorId(), "n_"+result.getEndAnchorId() };
+                  Anchor[] anchors = store.getAnchors(result.getTranscriptId(), anchorIds);
+                  result.setStartOffset(anchors[0].getOffset());
+                  result.setEndOffset(anchors[1].getOffset());
+                }
+                fragments.add(result);
+              } catch(Exception x) {
+                context.servletLog("ERROR Results-consumer: " + x);
+                x.printStackTrace(System.err);
               }
-              fragments.add(result);
-            } catch(Exception x) {
-              context.servletLog("ERROR Results-consumer: " + x);
-              x.printStackTrace(System.err);
-            }
-          });
+            });
+        } finally {
+          // release the rows for deletion, if they're cached
+          if (results instanceof SqlSearchResults) ((SqlSearchResults)results).close();
+        }
       } else if (id != null) {
         for (int f = 0; f < id.length; f++) {
           IdMatch result = new IdMatch();
@@ -386,9 +386,11 @@ public class Fragments extends APIRequestHandler { // TODO unit test
           new FragmentSeries(vUtterances, store, layersToLoad.toArray(new String[0]))
           .setPrefixNames(prefixNames)
           .setTagTarget(tagTarget)
+          .prefetching()
           :new ResultSeries(searchId, store, layersToLoad.toArray(new String[0]))
           .setPrefixNames(prefixNames)
-          .setTagTarget(tagTarget);
+          .setTagTarget(tagTarget)
+          .prefetching();
         // if we're not prefixing names, and we're tagging targets
         if (!prefixNames && tagTarget) {
           // then we need to consolidate graphs - i.e. catch consecutive fragments that
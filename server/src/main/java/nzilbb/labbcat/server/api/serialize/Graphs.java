@@ -42,6 +42,7 @@ import nzilbb.ag.serialize.util.Utility;
 import nzilbb.configure.ParameterSet;
 import nzilbb.labbcat.server.api.APIRequestHandler;
 import nzilbb.labbcat.server.api.RequestParameters;
+import nzilbb.labbcat.server.db.PrefetchingGraphSeries;
 import nzilbb.labbcat.server.db.SqlGraphStoreAdministration;
 import nzilbb.labbcat.server.task.Task;
 import nzilbb.util.IO;
@@ -204,12 +205,24 @@ public class Graphs extends APIRequestHandler { // TODO unit test
         final PipedOutputStream outStream = new PipedOutputStream(inStream);
         final String[] finalIds = ids;
         Task task = new Task() {
-            int gotGraphCount = 0;
+            // a source of graphs to serialize, loaded ahead on separate connections
+            PrefetchingGraphSeries<String> graphs = new PrefetchingGraphSeries<String>(
+              store, Arrays.asList(finalIds).iterator(), finalIds.length,
+              (graphStore, id) -> {
+                if (bCancelling) return null;
+                setStatus(id);
+                return graphStore.getTranscript(id, layersToLoad);
+              })
+              .setSkipErrors(true)
+              .setErrorHandler((id, x) -> {
+                  setLastException(x);
+                  setStatus("Graphs: getTranscript("+id+"): " + x);
+                });
             public Integer getPercentComplete() {
               if (serializer.getPercentComplete() != null) {
                 iPercentComplete = serializer.getPercentComplete();
-              } else {
-                iPercentComplete = iPercentComplete = gotGraphCount * 100 / finalIds.length;
+              } else if (graphs.getPercentComplete() != null) {
+                iPercentComplete = graphs.getPercentComplete();
               }
               return super.getPercentComplete();
             }
@@ -225,22 +238,7 @@ public class Graphs extends APIRequestHandler { // TODO unit test
                   contentType.accept(mimeType);
                   serializer.serialize(
                     // a source of graphs to serialize (for NToOne there might be more than one)
-                    Arrays.stream(finalIds)
-                    .map((id)->{
-                        if (bCancelling) return null;
-                        setStatus(id);
-                        try {
-                          return store.getTranscript(id, layersToLoad);
-                        } catch (Exception x) {
-                          setLastException(x);
-                          setStatus("Graphs: getTranscript("+id+"): " + x);
-                          return null;
-                        } finally {
-                          gotGraphCount += 1;
-                        }
-                      })
-                    .filter(graph->graph != null)
-                    .spliterator(),
+                    graphs,
                     // the selected layers to include (not necessarily all the layers loaded)
                     layersToSerialize,
                     // what to do with the resulting stream
@@ -283,22 +281,7 @@ public class Graphs extends APIRequestHandler { // TODO unit test
                     // serialize the stream
                     serializer.serialize(
                       // a source of graphs to serialize
-                      Arrays.stream(finalIds)
-                      .map((id)->{
-                          if (bCancelling) return null;
-                          setStatus(id);
-                          try {
-                            return store.getTranscript(id, layersToLoad);
-                          } catch (Exception x) {
-                            setLastException(x);
-                            setStatus("Graphs: getTranscript("+id+"): " + x);
-                            return null;
-                          } finally {
-                            gotGraphCount += 1;
-                          }
-                        })
-                      .filter(graph->graph != null)
-                      .spliterator(),
+                      graphs,
                       // the selected layers to include (not necessarily all the layers loaded)
                       layersToSerialize,
                       // what to do with the resulting streams
@@ -0,0 +1,218 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+/**
+ * One operation in a batch of annotation edits, for
+ * {@link SqlGraphStore#editAnnotations(java.util.List)}.
+ * <p> The attributes that must be set depend on the {@link #operation}:
+ * <dl>
+ *  <dt>{@link Operation#Create}</dt>
+ *  <dd>{@link #layerId}, {@link #label}, {@link #confidence}, and {@link #parentId}, and
+ *   also {@link #fromId} and {@link #toId} for aligned layers, and {@link #transcriptId}
+ *   for top-level layers.</dd>
+ *  <dt>{@link Operation#Update}</dt>
+ *  <dd>{@link #annotationId}, {@link #label}, and {@link #confidence}.</dd>
+ *  <dt>{@link Operation#Destroy}</dt>
+ *  <dd>{@link #annotationId}.</dd>
+ * </dl>
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+public class AnnotationEdit {
+
+  /** Types of edit operation. */
+  public enum Operation { Create, Update, Destroy };
+  
+  /**
+   * The type of edit.
+   * @see #getOperation()
+   * @see #setOperation(Operation)
+   */
+  protected Operation operation;
+  /**
+   * Getter for {@link #operation}: The type of edit.
+   * @return The type of edit.
+   */
+  public Operation getOperation() { return operation; }
+  /**
+   * Setter for {@link #operation}: The type of edit.
+   * @param newOperation The type of edit.
+   */
+  public AnnotationEdit setOperation(Operation newOperation) { operation = newOperation; return this; }
+
+  /**
+   * The ID of the transcript, which is only required for annotations on top-level layers.
+   * @see #getTranscriptId()
+   * @see #setTranscriptId(String)
+   */
+  protected String transcriptId;
+  /**
+   * Getter for {@link #transcriptId}: The ID of the transcript, which is only required
+   * for annotations on top-level layers.
+   * @return The ID of the transcript.
+   */
+  public String getTranscriptId() { return transcriptId; }
+  /**
+   * Setter for {@link #transcriptId}: The ID of the transcript, which is only required
+   * for annotations on top-level layers.
+   * @param newTranscriptId The ID of the transcript.
+   */
+  public AnnotationEdit setTranscriptId(String newTranscriptId) { transcriptId = newTranscriptId; return this; }
+
+  /**
+   * The ID of the annotation to update or destroy.
+   * @see #getAnnotationId()
+   * @see #setAnnotationId(String)
+   */
+  protected String annotationId;
+  /**
+   * Getter for {@link #annotationId}: The ID of the annotation to update or destroy.
+   * @return The ID of the annotation to update or destroy.
+   */
+  public String getAnnotationId() { return annotationId; }
+  /**
+   * Setter for {@link #annotationId}: The ID of the annotation to update or destroy.
+   * @param newAnnotationId The ID of the annotation to update or destroy.
+   */
+  public AnnotationEdit setAnnotationId(String newAnnotationId) { annotationId = newAnnotationId; return this; }
+
+  /**
+   * The start anchor's ID of a new annotation, which is ignored for tag layers.
+   * @see #getFromId()
+   * @see #setFromId(String)
+   */
+  protected String fromId;
+  /**
+   * Getter for {@link #fromId}: The start anchor's ID of a new annotation, which is
+   * ignored for tag layers.
+   * @return The start anchor's ID of a new annotation.
+   */
+  public String getFromId() { return fromId; }
+  /**
+   * Setter for {@link #fromId}: The start anchor's ID of a new annotation, which is
+   * ignored for tag layers.
+   * @param newFromId The start anchor's ID of a new annotation.
+   */
+  public AnnotationEdit setFromId(String newFromId) { fromId = newFromId; return this; }
+
+  /**
+   * The end anchor's ID of a new annotation, which is ignored for tag layers.
+   * @see #getToId()
+   * @see #setToId(String)
+   */
+  protected String toId;
+  /**
+   * Getter for {@link #toId}: The end anchor's ID of a new annotation, which is ignored
+   * for tag layers.
+   * @return The end anchor's ID of a new annotation.
+   */
+  public String getToId() { return toId; }
+  /**
+   * Setter for {@link #toId}: The end anchor's ID of a new annotation, which is ignored
+   * for tag layers.
+   * @param newToId The end anchor's ID of a new annotation.
+   */
+  public AnnotationEdit setToId(String newToId) { toId = newToId; return this; }
+
+  /**
+   * The layer ID of a new annotation.
+   * @see #getLayerId()
+   * @see #setLayerId(String)
+   */
+  protected String layerId;
+  /**
+   * Getter for {@link #layerId}: The layer ID of a new annotation.
+   * @return The layer ID of a new annotation.
+   */
+  public String getLayerId() { return layerId; }
+  /**
+   * Setter for {@link #layerId}: The layer ID of a new annotation.
+   * @param newLayerId The layer ID of a new annotation.
+   */
+  public AnnotationEdit setLayerId(String newLayerId) { layerId = newLayerId; return this; }
+
+  /**
+   * The label of a new or updated annotation.
+   * @see #getLabel()
+   * @see #setLabel(String)
+   */
+  protected String label;
+  /**
+   * Getter for {@link #label}: The label of a new or updated annotation.
+   * @return The label of a new or updated annotation.
+   */
+  public String getLabel() { return label; }
+  /**
+   * Setter for {@link #label}: The label of a new or updated annotation.
+   * @param newLabel The label of a new or updated annotation.
+   */
+  public AnnotationEdit setLabel(String newLabel) { label = newLabel; return this; }
+
+  /**
+   * The confidence rating of a new or updated annotation.
+   * @see #getConfidence()
+   * @see #setConfidence(Integer)
+   */
+  protected Integer confidence;
+  /**
+   * Getter for {@link #confidence}: The confidence rating of a new or updated annotation.
+   * @return The confidence rating of a new or updated annotation.
+   */
+  public Integer getConfidence() { return confidence; }
+  /**
+   * Setter for {@link #confidence}: The confidence rating of a new or updated annotation.
+   * @param newConfidence The confidence rating of a new or updated annotation.
+   */
+  public AnnotationEdit setConfidence(Integer newConfidence) { confidence = newConfidence; return this; }
+
+  /**
+   * The ID of a new annotation's parent.
+   * @see #getParentId()
+   * @see #setParentId(String)
+   */
+  protected String parentId;
+  /**
+   * Getter for {@link #parentId}: The ID of a new annotation's parent.
+   * @return The ID of a new annotation's parent.
+   */
+  public String getParentId() { return parentId; }
+  /**
+   * Setter for {@link #parentId}: The ID of a new annotation's parent.
+   * @param newParentId The ID of a new annotation's parent.
+   */
+  public AnnotationEdit setParentId(String newParentId) { parentId = newParentId; return this; }
+
+  /**
+   * Default constructor.
+   */
+  public AnnotationEdit() {
+  } // end of constructor
+  
+  /**
+   * Constructor.
+   * @param operation The type of edit.
+   */
+  public AnnotationEdit(Operation operation) {
+    setOperation(operation);
+  } // end of constructor
+  
+} // end of class AnnotationEdit
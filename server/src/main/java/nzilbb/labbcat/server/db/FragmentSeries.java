@@ -24,7 +24,9 @@ package nzilbb.labbcat.server.db;
 import java.sql.*;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Spliterator;
+import java.util.Vector;
 import java.util.function.Consumer;
 import nzilbb.ag.*;
 import nzilbb.util.MonitorableSeries;
@@ -215,104 +217,231 @@ public class FragmentSeries implements MonitorableSeries<Graph> {
     String spec = iterator.next();
     try {
       nextRow++;
-      String[] parts = spec.split(";");
-      String graphId = parts[0]
-        .replace("%3B",";"); // there might have been a ";" in the ID
-      String targetId = null;
-      if (graphId.startsWith("g_")) graphId = graphId.substring(2);
-      String intervalPart = null;
-      for (int p = 1; p < parts.length; p++) {
-        if (intervalPart == null && parts[p].indexOf("-") > 0) {
-          intervalPart = parts[p];
-        }
-        if (parts[p].startsWith("#=")) {
-          targetId = parts[p].substring(2); 
-        }
-      }
-      String[] interval = intervalPart.split("-");
-      double start = 0.0;
-      double end = 0.0;
-      if (interval[0].startsWith("n_")) { // anchor IDs
-        Anchor[] anchors = store.getAnchors(graphId, interval);
-        start = anchors[0].getOffset();
-        end = anchors[1].getOffset();
-      } else { // offsets
-        start = Double.parseDouble(interval[0]);
-        end = Double.parseDouble(interval[1]);
+      action.accept(getFragment(store, spec));
+      return true;
+    } catch(Exception exception) {
+      System.err.println(
+        "FragmentSeries: Could not get fragment from spec \""+spec+"\": " + exception);
+      exception.printStackTrace(System.err);
+      running = false;
+      return false;
+    }
+  }
+
+  /**
+   * Loads the fragment identified by the given specification.
+   * @param store The store to load the fragment from.
+   * @param spec A string that identifies a graph fragment, as for
+   * {@link #FragmentSeries(Collection,SqlGraphStore,String[])}.
+   * @return The fragment.
+   * @throws Exception If the fragment cannot be loaded.
+   */
+  public Graph getFragment(SqlGraphStore store, String spec) throws Exception {
+    String[] parts = spec.split(";");
+    String graphId = GraphId(parts);
+    String[] interval = Interval(parts).split("-");
+    double start = 0.0;
+    double end = 0.0;
+    if (interval[0].startsWith("n_")) { // anchor IDs
+      Anchor[] anchors = store.getAnchors(graphId, interval);
+      start = anchors[0].getOffset();
+      end = anchors[1].getOffset();
+    } else { // offsets
+      start = Double.parseDouble(interval[0]);
+      end = Double.parseDouble(interval[1]);
+    }
+    String filterId = FilterId(parts);
+      
+    Graph fragment = null;
+    if (filterId.startsWith("em_12_")) { // are we filtering by utterance?
+      // most likely we just want the utterance fragment
+      fragment = store.getFragment(graphId, filterId, layers);
+      // now that we've got the utterance, double-check its boundaries were specified
+      Annotation utterance = fragment.getAnnotation(filterId);
+      if (start != utterance.getStart().getOffset()
+          || end != utterance.getEnd().getOffset()) {
+        fragment = null;
       }
-      String prefix = "";
-      String filterId = "";
-      for (int p = 1; p < parts.length; p++) {
-        if (parts[p].startsWith("prefix=")) {
-          prefix = parts[p].substring("prefix=".length());
-        }
-        if ((parts[p].startsWith("em_") || parts[p].startsWith("m_"))) {
-          filterId = parts[p];
-        }
+    }
+    if (fragment == null) { // not an utterance, so use offsets directly
+      fragment = store.getFragment(graphId, start, end, layers); 
+    }
+    return finishFragment(fragment, parts, start);
+  } // end of getFragment()
+
+  /**
+   * Loads the fragments identified by several specifications at once.
+   * <p> Fragments that are utterances are loaded together with
+   * {@link SqlGraphStore#getFragments(List,String[])}; any others are loaded with
+   * {@link #getFragment(SqlGraphStore,String)}.
+   * @param store The store to load the fragments from.
+   * @param specs Strings that identify graph fragments, as for
+   * {@link #FragmentSeries(Collection,SqlGraphStore,String[])}.
+   * @return The fragments, in the same order as the specifications.
+   * @throws Exception If the fragments cannot be loaded.
+   */
+  public Graph[] getFragments(SqlGraphStore store, List<String> specs) throws Exception {
+    Graph[] fragments = new Graph[specs.size()];
+
+    // identify utterance fragments
+    Vector<Integer> utteranceIndices = new Vector<Integer>();
+    Vector<String[]> utteranceIds = new Vector<String[]>();
+    for (int s = 0; s < specs.size(); s++) {
+      String[] parts = specs.get(s).split(";");
+      String filterId = FilterId(parts);
+      if (filterId.startsWith("em_12_")) {
+        utteranceIndices.add(s);
+        utteranceIds.add(new String[] { GraphId(parts), filterId });
       }
-        
-      Graph fragment = null;
-      if (filterId.startsWith("em_12_")) { // are we filtering by utterance?
-        // most likely we just want the utterance fragment
-        fragment = store.getFragment(graphId, filterId, layers);
-        // now that we've got the utterance, double-check its boundaries were specified
-        Annotation utterance = fragment.getAnnotation(filterId);
-        if (start != utterance.getStart().getOffset()
-            || end != utterance.getEnd().getOffset()) {
-          fragment = null;
+    } // next spec
+
+    if (utteranceIds.size() > 0) {
+      Graph[] utteranceFragments = store.getFragments(utteranceIds, layers);
+      for (int u = 0; u < utteranceFragments.length; u++) {
+        int s = utteranceIndices.get(u);
+        String[] parts = specs.get(s).split(";");
+        String[] interval = Interval(parts).split("-");
+        // double-check the utterance boundaries were specified
+        Annotation utterance = utteranceFragments[u].getAnnotation(utteranceIds.get(u)[1]);
+        if (interval[0].startsWith("n_")) { // anchor IDs
+          if (!interval[0].equals(utterance.getStartId())
+              || !interval[1].equals(utterance.getEndId())) {
+            continue; // check offsets with getFragment below
+          }
+        } else { // offsets
+          if (Double.parseDouble(interval[0]) != utterance.getStart().getOffset()
+              || Double.parseDouble(interval[1]) != utterance.getEnd().getOffset()) {
+            continue; // not the utterance, so load it with getFragment below
+          }
         }
+        fragments[s] = finishFragment(
+          utteranceFragments[u], parts, utterance.getStart().getOffset());
+      } // next utterance fragment
+    }
+
+    // anything else is loaded individually
+    for (int s = 0; s < specs.size(); s++) {
+      if (fragments[s] == null) fragments[s] = getFragment(store, specs.get(s));
+    } // next spec
+    return fragments;
+  } // end of getFragments()
+
+  /**
+   * Extracts the transcript ID from a fragment specification.
+   * @param parts The specification, split on ";".
+   * @return The transcript ID.
+   */
+  protected static String GraphId(String[] parts) {
+    String graphId = parts[0]
+      .replace("%3B",";"); // there might have been a ";" in the ID
+    if (graphId.startsWith("g_")) graphId = graphId.substring(2);
+    return graphId;
+  } // end of GraphId()
+
+  /**
+   * Extracts the interval from a fragment specification.
+   * @param parts The specification, split on ";".
+   * @return The interval, as start and end anchor IDs or offsets separated by "-".
+   */
+  protected static String Interval(String[] parts) {
+    for (int p = 1; p < parts.length; p++) {
+      if (parts[p].indexOf("-") > 0) return parts[p];
+    }
+    return null;
+  } // end of Interval()
+
+  /**
+   * Extracts the ID of the filter annotation from a fragment specification.
+   * @param parts The specification, split on ";".
+   * @return The filter annotation ID, or "" if there is none.
+   */
+  protected static String FilterId(String[] parts) {
+    String filterId = "";
+    for (int p = 1; p < parts.length; p++) {
+      if ((parts[p].startsWith("em_") || parts[p].startsWith("m_"))) {
+        filterId = parts[p];
       }
-      if (fragment == null) { // not an utterance, so use offsets directly
-        fragment = store.getFragment(graphId, start, end, layers); 
+    }
+    return filterId;
+  } // end of FilterId()
+
+  /**
+   * Adjusts a loaded fragment for its specification, by shifting anchors, adding the
+   * prefix, filtering out annotations of other participants, and tagging the target, as
+   * required.
+   * @param fragment The fragment.
+   * @param parts The specification, split on ";".
+   * @param start The start offset of the fragment.
+   * @return The fragment.
+   */
+  protected Graph finishFragment(Graph fragment, String[] parts, double start) {
+    String targetId = null;
+    String prefix = "";
+    for (int p = 1; p < parts.length; p++) {
+      if (parts[p].startsWith("#=")) {
+        targetId = parts[p].substring(2); 
       }
-      if (shiftAnchors) fragment.shiftAnchors(-start);
-      if (prefixNames && prefix.length() > 0) {
-        fragment.setId(prefix + fragment.getId());
+      if (parts[p].startsWith("prefix=")) {
+        prefix = parts[p].substring("prefix=".length());
       }
-      if (filterId.length() > 0 // filter annotation is specified
-          && !filterId.startsWith("em_12_")) { // and it's not an utterance ID
-        // remove annotations that don't belong to the specified filter annotation
-        Annotation filterAncestor = fragment.getAnnotationsById().get(filterId);
-        if (filterAncestor != null) { // filter is in the graph
-          for (Annotation a : fragment.getAnnotationsById().values()) {
-            if (a.getLayer().isAncestor(filterAncestor.getLayerId())) {
-              // annotation is a descendent of the participant layer
-              if (a.first(filterAncestor.getLayerId()) != filterAncestor) {
-                a.destroy();
-              } // annotation has a different ancestor on the same layer
-            } // annotation is a descendent of the filter layer
-          } // next annotation
-        } // participant is in the graph
-      } // filter is specified
+    }
+    String filterId = FilterId(parts);
+    if (shiftAnchors) fragment.shiftAnchors(-start);
+    if (prefixNames && prefix.length() > 0) {
+      fragment.setId(prefix + fragment.getId());
+    }
+    if (filterId.length() > 0 // filter annotation is specified
+        && !filterId.startsWith("em_12_")) { // and it's not an utterance ID
+      // remove annotations that don't belong to the specified filter annotation
+      Annotation filterAncestor = fragment.getAnnotationsById().get(filterId);
+      if (filterAncestor != null) { // filter is in the graph
+        for (Annotation a : fragment.getAnnotationsById().values()) {
+          if (a.getLayer().isAncestor(filterAncestor.getLayerId())) {
+            // annotation is a descendent of the participant layer
+            if (a.first(filterAncestor.getLayerId()) != filterAncestor) {
+              a.destroy();
+            } // annotation has a different ancestor on the same layer
+          } // annotation is a descendent of the filter layer
+        } // next annotation
+      } // participant is in the graph
+    } // filter is specified
 
-      // tag target
-      if (tagTarget && targetId != null) {
-        Annotation target = fragment.getAnnotation(targetId);
-        if (target != null) {
-          fragment.addLayer(
-            new Layer("target")
-            .setAlignment(Constants.ALIGNMENT_NONE)
-            .setParentId(target.getLayerId()));
-          String label = "target";
-          if (prefix != null && prefix.length() > 0 && !prefix.equals("-")) {
-            // remove trailing hyphen for consistency with ResultSeries
-            label = prefix.replaceAll("-$","");
-          }
-          fragment.createTag(target, "target", label);
+    // tag target
+    if (tagTarget && targetId != null) {
+      Annotation target = fragment.getAnnotation(targetId);
+      if (target != null) {
+        fragment.addLayer(
+          new Layer("target")
+          .setAlignment(Constants.ALIGNMENT_NONE)
+          .setParentId(target.getLayerId()));
+        String label = "target";
+        if (prefix != null && prefix.length() > 0 && !prefix.equals("-")) {
+          // remove trailing hyphen for consistency with ResultSeries
+          label = prefix.replaceAll("-$","");
         }
+        fragment.createTag(target, "target", label);
       }
-         
-      fragment.commit();
-      action.accept(fragment);
-      return true;
-    } catch(Exception exception) {
-      System.err.println(
-        "FragmentSeries: Could not get fragment from spec \""+spec+"\": " + exception);
-      exception.printStackTrace(System.err);
-      running = false;
-      return false;
     }
-  }
+       
+    fragment.commit();
+    return fragment;
+  } // end of finishFragment()
+
+  /**
+   * Creates a series of the same fragments, which are loaded ahead in batches, in
+   * background threads with their own database connections.
+   * @return A prefetching series of the fragments.
+   */
+  public PrefetchingGraphSeries<String> prefetching() {
+    return new PrefetchingGraphSeries<String>(
+      store, fragmentIds.iterator(), fragmentIds.size(), this::getFragment)
+      .setBatchLoader(this::getFragments)
+      .setErrorHandler((spec, exception) -> {
+          System.err.println(
+            "FragmentSeries: Could not get fragment from spec \""+spec+"\": " + exception);
+          exception.printStackTrace(System.err);
+        });
+  } // end of prefetching()
 
   /**
    * Counts the elements in the series, if possible.
@@ -0,0 +1,461 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import nzilbb.ag.Anchor;
+import nzilbb.ag.Annotation;
+import nzilbb.ag.Graph;
+import nzilbb.ag.Layer;
+
+/**
+ * Compact, immutable copy of the anchors and annotations of a loaded transcript, from
+ * which an equivalent graph can be rebuilt without querying the database.
+ * <p> Instead of one object per anchor and annotation, the snapshot holds parallel
+ * primitive arrays - offsets, ordinals, confidences, timestamps - and indices into a
+ * table of distinct strings, so that labels, layer IDs, and annotators that occur many
+ * times are stored only once.
+ * <p> Only layers that were loaded are included; layer definitions themselves are not,
+ * so they're supplied by the caller when the graph is restored.
+ * @see GraphSnapshotCache
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+public class GraphSnapshot {
+
+  /** Value in int arrays representing null. */
+  static final int NULL_INT = Integer.MIN_VALUE;
+  /** Value in long arrays representing null. */
+  static final long NULL_LONG = Long.MIN_VALUE;
+  /** Marks the start of a serialized snapshot, and its format version. */
+  static final int MAGIC = 0x4c475301; // "LGS" version 1
+
+  /** Distinct strings, referred to by index from the other arrays. */
+  final String[] strings;
+  /** Loaded layer IDs, in the order they were added to the graph. */
+  final int[] layerIds;
+
+  final int[] anchorIds;
+  /** Anchor offsets, NaN for unset offsets. */
+  final double[] anchorOffsets;
+  final int[] anchorConfidences;
+  final int[] anchorAnnotators;
+  final long[] anchorWhens;
+
+  final int[] annotationIds;
+  /** Index into {@link #layerIds}, not {@link #strings}. */
+  final int[] annotationLayers;
+  final int[] annotationLabels;
+  final int[] annotationParentIds;
+  final int[] annotationStartIds;
+  final int[] annotationEndIds;
+  final int[] annotationOrdinals;
+  final int[] annotationConfidences;
+  final int[] annotationAnnotators;
+  final long[] annotationWhens;
+  /** Annotation "data" attributes, or null if no annotation has one. */
+  final byte[][] annotationData;
+
+  /**
+   * Approximate memory used by the snapshot, in bytes.
+   * @see #getSizeInBytes()
+   */
+  protected final long sizeInBytes;
+  /**
+   * Getter for {@link #sizeInBytes}: Approximate memory used by the snapshot, in bytes.
+   * @return Approximate memory used by the snapshot, in bytes.
+   */
+  public long getSizeInBytes() { return sizeInBytes; }
+
+  /**
+   * Constructor from arrays.
+   */
+  private GraphSnapshot(
+    String[] strings, int[] layerIds,
+    int[] anchorIds, double[] anchorOffsets, int[] anchorConfidences,
+    int[] anchorAnnotators, long[] anchorWhens,
+    int[] annotationIds, int[] annotationLayers, int[] annotationLabels,
+    int[] annotationParentIds, int[] annotationStartIds, int[] annotationEndIds,
+    int[] annotationOrdinals, int[] annotationConfidences, int[] annotationAnnotators,
+    long[] annotationWhens, byte[][] annotationData) {
+    this.strings = strings;
+    this.layerIds = layerIds;
+    this.anchorIds = anchorIds;
+    this.anchorOffsets = anchorOffsets;
+    this.anchorConfidences = anchorConfidences;
+    this.anchorAnnotators = anchorAnnotators;
+    this.anchorWhens = anchorWhens;
+    this.annotationIds = annotationIds;
+    this.annotationLayers = annotationLayers;
+    this.annotationLabels = annotationLabels;
+    this.annotationParentIds = annotationParentIds;
+    this.annotationStartIds = annotationStartIds;
+    this.annotationEndIds = annotationEndIds;
+    this.annotationOrdinals = annotationOrdinals;
+    this.annotationConfidences = annotationConfidences;
+    this.annotationAnnotators = annotationAnnotators;
+    this.annotationWhens = annotationWhens;
+    this.annotationData = annotationData;
+
+    long size = 16 * 20 // object and array headers
+      + 4L * (layerIds.length + strings.length)
+      + 24L * anchorIds.length // 4 ints + 1 double
+      + 48L * annotationIds.length; // 9 ints + 1 long + pointer
+    for (String s : strings) size += 40 + 2L * s.length();
+    if (annotationData != null) {
+      size += 8L * annotationData.length;
+      for (byte[] data : annotationData) if (data != null) size += 16 + data.length;
+    }
+    sizeInBytes = size;
+  } // end of constructor
+
+  /**
+   * The number of annotations in the snapshot.
+   * @return The number of annotations in the snapshot.
+   */
+  public int annotationCount() {
+    return annotationIds.length;
+  } // end of annotationCount()
+
+  /**
+   * The IDs of the layers in the snapshot, in the order they were loaded.
+   * @return The IDs of the layers in the snapshot.
+   */
+  public List<String> getLayerIds() {
+    Vector<String> ids = new Vector<String>();
+    for (int l : layerIds) ids.add(strings[l]);
+    return ids;
+  } // end of getLayerIds()
+
+  /**
+   * Takes a snapshot of the given graph's layers, anchors, and annotations.
+   * @param graph The loaded graph.
+   * @param excludeLayerIds Layers that are not to be included - e.g. those that are
+   * always present in a new graph, or derived from the transcript record itself.
+   * @return A snapshot of the graph.
+   */
+  public static GraphSnapshot Of(Graph graph, Collection<String> excludeLayerIds) {
+    Strings strings = new Strings();
+
+    Vector<String> layers = new Vector<String>();
+    HashMap<String,Integer> layerIndices = new HashMap<String,Integer>();
+    for (String layerId : graph.getSchema().getLayers().keySet()) {
+      if (excludeLayerIds.contains(layerId)) continue;
+      layerIndices.put(layerId, layers.size());
+      layers.add(layerId);
+    } // next layer
+    int[] layerIds = new int[layers.size()];
+    for (int l = 0; l < layerIds.length; l++) layerIds[l] = strings.index(layers.get(l));
+
+    Collection<Anchor> anchors = graph.getAnchors().values();
+    int[] anchorIds = new int[anchors.size()];
+    double[] anchorOffsets = new double[anchorIds.length];
+    int[] anchorConfidences = new int[anchorIds.length];
+    int[] anchorAnnotators = new int[anchorIds.length];
+    long[] anchorWhens = new long[anchorIds.length];
+    int a = 0;
+    for (Anchor anchor : anchors) {
+      anchorIds[a] = strings.index(anchor.getId());
+      anchorOffsets[a] = anchor.getOffset() == null? Double.NaN : anchor.getOffset();
+      anchorConfidences[a] = anchor.getConfidence() == null? NULL_INT : anchor.getConfidence();
+      anchorAnnotators[a] = strings.index(anchor.getAnnotator());
+      anchorWhens[a] = anchor.getWhen() == null? NULL_LONG : anchor.getWhen().getTime();
+      a++;
+    } // next anchor
+
+    // annotations are stored grouped by layer, in the order the layers were loaded, so
+    // that parents are restored before their children
+    Vector<Annotation> annotations = new Vector<Annotation>();
+    for (String layerId : layers) {
+      Vector<Annotation> layerAnnotations = new Vector<Annotation>();
+      for (Annotation annotation : graph.getAnnotationsById().values()) {
+        if (layerId.equals(annotation.getLayerId())) layerAnnotations.add(annotation);
+      }
+      layerAnnotations.sort((a1, a2) -> {
+          String p1 = a1.getParentId() == null? "" : a1.getParentId();
+          String p2 = a2.getParentId() == null? "" : a2.getParentId();
+          int order = p1.compareTo(p2);
+          if (order == 0) order = Integer.compare(a1.getOrdinal(), a2.getOrdinal());
+          return order;
+        });
+      annotations.addAll(layerAnnotations);
+    } // next layer
+    int[] annotationIds = new int[annotations.size()];
+    int[] annotationLayers = new int[annotationIds.length];
+    int[] annotationLabels = new int[annotationIds.length];
+    int[] annotationParentIds = new int[annotationIds.length];
+    int[] annotationStartIds = new int[annotationIds.length];
+    int[] annotationEndIds = new int[annotationIds.length];
+    int[] annotationOrdinals = new int[annotationIds.length];
+    int[] annotationConfidences = new int[annotationIds.length];
+    int[] annotationAnnotators = new int[annotationIds.length];
+    long[] annotationWhens = new long[annotationIds.length];
+    byte[][] annotationData = null;
+    a = 0;
+    for (Annotation annotation : annotations) {
+      annotationIds[a] = strings.index(annotation.getId());
+      annotationLayers[a] = layerIndices.get(annotation.getLayerId());
+      annotationLabels[a] = strings.index(annotation.getLabel());
+      annotationParentIds[a] = strings.index(annotation.getParentId());
+      annotationStartIds[a] = strings.index(annotation.getStartId());
+      annotationEndIds[a] = strings.index(annotation.getEndId());
+      annotationOrdinals[a] = annotation.getOrdinal();
+      annotationConfidences[a] = annotation.getConfidence() == null? NULL_INT
+        : annotation.getConfidence();
+      annotationAnnotators[a] = strings.index(annotation.getAnnotator());
+      annotationWhens[a] = annotation.getWhen() == null? NULL_LONG
+        : annotation.getWhen().getTime();
+      Object data = annotation.get("data");
+      if (data instanceof byte[]) {
+        if (annotationData == null) annotationData = new byte[annotationIds.length][];
+        annotationData[a] = (byte[])data;
+      }
+      a++;
+    } // next annotation
+
+    return new GraphSnapshot(
+      strings.toArray(), layerIds,
+      anchorIds, anchorOffsets, anchorConfidences, anchorAnnotators, anchorWhens,
+      annotationIds, annotationLayers, annotationLabels, annotationParentIds,
+      annotationStartIds, annotationEndIds, annotationOrdinals, annotationConfidences,
+      annotationAnnotators, annotationWhens, annotationData);
+  } // end of Of()
+
+  /**
+   * Adds the snapshot's layers, anchors, and annotations to the given graph.
+   * @param graph The graph to restore the snapshot into, which should contain only what
+   * was excluded when the snapshot was taken.
+   * @param layers The current definitions of the layers returned by
+   * {@link #getLayerIds()}, keyed by ID.
+   * @return The given graph.
+   * @throws IllegalArgumentException If a layer definition is missing.
+   */
+  public Graph restore(Graph graph, Map<String,Layer> layers) {
+    for (int l : layerIds) {
+      Layer layer = layers.get(strings[l]);
+      if (layer == null) throw new IllegalArgumentException("No layer: " + strings[l]);
+      graph.addLayer(layer);
+    } // next layer
+
+    for (int a = 0; a < anchorIds.length; a++) {
+      Anchor anchor = new Anchor().setId(strings[anchorIds[a]]);
+      if (!Double.isNaN(anchorOffsets[a])) anchor.setOffset(Double.valueOf(anchorOffsets[a]));
+      if (anchorConfidences[a] != NULL_INT) {
+        anchor.setConfidence(Integer.valueOf(anchorConfidences[a]));
+      }
+      if (anchorAnnotators[a] >= 0) anchor.setAnnotator(strings[anchorAnnotators[a]]);
+      if (anchorWhens[a] != NULL_LONG) anchor.setWhen(new Timestamp(anchorWhens[a]));
+      graph.addAnchor(anchor);
+    } // next anchor
+
+    for (int a = 0; a < annotationIds.length; a++) {
+      Annotation annotation = new Annotation(
+        strings[annotationIds[a]], string(annotationLabels[a]),
+        strings[layerIds[annotationLayers[a]]]);
+      if (annotationParentIds[a] >= 0) {
+        annotation.setParentId(strings[annotationParentIds[a]]);
+      }
+      if (annotationStartIds[a] >= 0) annotation.setStartId(strings[annotationStartIds[a]]);
+      if (annotationEndIds[a] >= 0) annotation.setEndId(strings[annotationEndIds[a]]);
+      if (annotationOrdinals[a] > 0) annotation.setOrdinal(annotationOrdinals[a]);
+      if (annotationConfidences[a] != NULL_INT) {
+        annotation.setConfidence(Integer.valueOf(annotationConfidences[a]));
+      }
+      if (annotationAnnotators[a] >= 0) {
+        annotation.setAnnotator(strings[annotationAnnotators[a]]);
+      }
+      if (annotationWhens[a] != NULL_LONG) {
+        annotation.setWhen(new Timestamp(annotationWhens[a]));
+      }
+      if (annotationData != null && annotationData[a] != null) {
+        annotation.put("data", annotationData[a].clone());
+      }
+      graph.addAnnotation(annotation);
+    } // next annotation
+    return graph;
+  } // end of restore()
+
+  /**
+   * Looks up a string by index.
+   * @param index The index into {@link #strings}, or -1.
+   * @return The string, or null if <var>index</var> is -1.
+   */
+  private String string(int index) {
+    return index < 0? null : strings[index];
+  } // end of string()
+
+  /**
+   * Serializes the snapshot.
+   * @param out The stream to write to.
+   * @throws IOException
+   */
+  public void write(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(strings.length);
+    for (String s : strings) WriteString(s, out);
+    WriteInts(layerIds, out);
+    WriteInts(anchorIds, out);
+    for (double offset : anchorOffsets) out.writeDouble(offset);
+    WriteInts(anchorConfidences, out);
+    WriteInts(anchorAnnotators, out);
+    WriteLongs(anchorWhens, out);
+    WriteInts(annotationIds, out);
+    WriteInts(annotationLayers, out);
+    WriteInts(annotationLabels, out);
+    WriteInts(annotationParentIds, out);
+    WriteInts(annotationStartIds, out);
+    WriteInts(annotationEndIds, out);
+    WriteInts(annotationOrdinals, out);
+    WriteInts(annotationConfidences, out);
+    WriteInts(annotationAnnotators, out);
+    WriteLongs(annotationWhens, out);
+    out.writeBoolean(annotationData != null);
+    if (annotationData != null) {
+      for (byte[] data : annotationData) {
+        out.writeInt(data == null? -1 : data.length);
+        if (data != null) out.write(data);
+      }
+    }
+  } // end of write()
+
+  /**
+   * Deserializes a snapshot written by {@link #write(DataOutputStream)}.
+   * @param in The stream to read from.
+   * @return The snapshot.
+   * @throws IOException If the stream doesn't contain a valid snapshot.
+   */
+  public static GraphSnapshot Read(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC) throw new IOException("Not a graph snapshot");
+    String[] strings = new String[in.readInt()];
+    for (int s = 0; s < strings.length; s++) strings[s] = ReadString(in);
+    int[] layerIds = ReadInts(in);
+    int[] anchorIds = ReadInts(in);
+    double[] anchorOffsets = new double[anchorIds.length];
+    for (int a = 0; a < anchorOffsets.length; a++) anchorOffsets[a] = in.readDouble();
+    int[] anchorConfidences = ReadInts(in);
+    int[] anchorAnnotators = ReadInts(in);
+    long[] anchorWhens = ReadLongs(in);
+    int[] annotationIds = ReadInts(in);
+    int[] annotationLayers = ReadInts(in);
+    int[] annotationLabels = ReadInts(in);
+    int[] annotationParentIds = ReadInts(in);
+    int[] annotationStartIds = ReadInts(in);
+    int[] annotationEndIds = ReadInts(in);
+    int[] annotationOrdinals = ReadInts(in);
+    int[] annotationConfidences = ReadInts(in);
+    int[] annotationAnnotators = ReadInts(in);
+    long[] annotationWhens = ReadLongs(in);
+    byte[][] annotationData = null;
+    if (in.readBoolean()) {
+      annotationData = new byte[annotationIds.length][];
+      for (int a = 0; a < annotationData.length; a++) {
+        int length = in.readInt();
+        if (length >= 0) {
+          annotationData[a] = new byte[length];
+          in.readFully(annotationData[a]);
+        }
+      }
+    }
+    return new GraphSnapshot(
+      strings, layerIds,
+      anchorIds, anchorOffsets, anchorConfidences, anchorAnnotators, anchorWhens,
+      annotationIds, annotationLayers, annotationLabels, annotationParentIds,
+      annotationStartIds, annotationEndIds, annotationOrdinals, annotationConfidences,
+      annotationAnnotators, annotationWhens, annotationData);
+  } // end of Read()
+
+  /**
+   * Writes a string as its UTF-8 length and bytes. Unlike
+   * {@link DataOutputStream#writeUTF(String)}, this is not limited to 64K bytes.
+   */
+  private static void WriteString(String s, DataOutputStream out) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  } // end of WriteString()
+
+  /** Reads a string written by {@link #WriteString(String,DataOutputStream)}. */
+  private static String ReadString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  } // end of ReadString()
+
+  /** Writes an int array, preceded by its length. */
+  private static void WriteInts(int[] values, DataOutputStream out) throws IOException {
+    out.writeInt(values.length);
+    for (int value : values) out.writeInt(value);
+  } // end of WriteInts()
+
+  /** Reads an int array written by {@link #WriteInts(int[],DataOutputStream)}. */
+  private static int[] ReadInts(DataInputStream in) throws IOException {
+    int[] values = new int[in.readInt()];
+    for (int i = 0; i < values.length; i++) values[i] = in.readInt();
+    return values;
+  } // end of ReadInts()
+
+  /** Writes a long array, preceded by its length. */
+  private static void WriteLongs(long[] values, DataOutputStream out) throws IOException {
+    out.writeInt(values.length);
+    for (long value : values) out.writeLong(value);
+  } // end of WriteLongs()
+
+  /** Reads a long array written by {@link #WriteLongs(long[],DataOutputStream)}. */
+  private static long[] ReadLongs(DataInputStream in) throws IOException {
+    long[] values = new long[in.readInt()];
+    for (int i = 0; i < values.length; i++) values[i] = in.readLong();
+    return values;
+  } // end of ReadLongs()
+
+  /** Table of distinct strings, for interning while taking a snapshot. */
+  private static class Strings {
+    final HashMap<String,Integer> indices = new HashMap<String,Integer>();
+    final Vector<String> strings = new Vector<String>();
+    /**
+     * Gets the index of the given string, adding it to the table if necessary.
+     * @param s The string.
+     * @return The string's index, or -1 if <var>s</var> is null.
+     */
+    int index(String s) {
+      if (s == null) return -1;
+      Integer index = indices.get(s);
+      if (index == null) {
+        index = strings.size();
+        strings.add(s);
+        indices.put(s, index);
+      }
+      return index;
+    }
+    String[] toArray() {
+      return strings.toArray(new String[strings.size()]);
+    }
+  } // end of class Strings
+
+} // end of class GraphSnapshot
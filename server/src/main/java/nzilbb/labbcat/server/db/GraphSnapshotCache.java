@@ -0,0 +1,492 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional in-process cache of {@link GraphSnapshot}s of recently loaded transcripts, so
+ * that {@link SqlGraphStore#getTranscript(String,String[])} can rebuild a transcript
+ * that's loaded repeatedly with the same layers without re-running its per-layer
+ * queries.
+ * <p> Snapshots are keyed by {@link #Key(String,long,boolean,String[])}, which includes
+ * the transcript's <tt>ag_id</tt>, the requested layers, whether only public attributes
+ * are visible, and a per-transcript version that's incremented by
+ * {@link #Invalidate(String,long)} whenever the transcript changes. Snapshots taken before
+ * a change therefore can't be returned after it, even if the load that took them was
+ * still in progress when the change happened.
+ * <p> The most recently used snapshots are kept in memory, up to
+ * {@link #GetMaxMemoryBytes()}. If {@link #GetDirectory()} is set, snapshots evicted
+ * from memory are written to files there, up to {@link #GetMaxDiskBytes()}, and read back
+ * when next needed. In both cases, the least recently used snapshots are evicted first.
+ * <p> The cache is disabled unless a memory budget is set.
+ * <p> Anything that changes a transcript's annotations must call
+ * {@link #Invalidate(String,long)}, and anything that might change many transcripts must
+ * call {@link #Invalidate()}. These must be called <em>after</em> the change has been
+ * written (e.g. in a <tt>finally</tt> block), otherwise a load that starts during the
+ * write could cache a partly changed transcript under the new key. As a safeguard against changes made by other processes,
+ * snapshots also expire after {@link #GetMaxAgeMs()}.
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+public class GraphSnapshotCache {
+
+  /** A snapshot in memory. */
+  static class Entry {
+    final GraphSnapshot snapshot;
+    final long created;
+    Entry(GraphSnapshot snapshot, long created) {
+      this.snapshot = snapshot;
+      this.created = created;
+    }
+  }
+
+  /** A snapshot on disk. */
+  static class DiskEntry {
+    final File file;
+    final long size;
+    final long created;
+    DiskEntry(File file, long size, long created) {
+      this.file = file;
+      this.size = size;
+      this.created = created;
+    }
+  }
+
+  /** Snapshots in memory, in access order. Access is synchronized on this map. */
+  private static final LinkedHashMap<String,Entry> memory
+  = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+  /** Total {@link GraphSnapshot#getSizeInBytes()} of {@link #memory}. */
+  private static long memoryBytes = 0;
+
+  /** Snapshots on disk, in access order. Access is synchronized on {@link #memory}. */
+  private static final LinkedHashMap<String,DiskEntry> disk
+  = new LinkedHashMap<String,DiskEntry>(16, 0.75f, true);
+  /** Total size of the files in {@link #disk}. */
+  private static long diskBytes = 0;
+  /** For generating unique snapshot file names. */
+  private static final AtomicLong fileCount = new AtomicLong();
+
+  /** Per-transcript change versions, keyed by database URL and ag_id. */
+  private static final ConcurrentHashMap<String,Long> versions
+  = new ConcurrentHashMap<String,Long>();
+  /** Incremented by {@link #Invalidate()}, so that all existing keys are superseded. */
+  private static final AtomicLong generation = new AtomicLong();
+
+  /** Number of lookups that found a snapshot. */
+  private static final AtomicLong hits = new AtomicLong();
+  /** Number of lookups that didn't find a snapshot. */
+  private static final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Maximum total size of snapshots kept in memory, in bytes. 0 or less disables
+   * caching.
+   * @see #GetMaxMemoryBytes()
+   * @see #SetMaxMemoryBytes(long)
+   */
+  private static volatile long maxMemoryBytes = 0;
+  /**
+   * Getter for {@link #maxMemoryBytes}: Maximum total size of snapshots kept in memory,
+   * in bytes.
+   * @return Maximum total size of snapshots kept in memory, in bytes.
+   */
+  public static long GetMaxMemoryBytes() { return maxMemoryBytes; }
+  /**
+   * Setter for {@link #maxMemoryBytes}: Maximum total size of snapshots kept in memory,
+   * in bytes.
+   * @param newMaxMemoryBytes Maximum total size of snapshots kept in memory, in bytes. 0
+   * or less disables caching.
+   */
+  public static void SetMaxMemoryBytes(long newMaxMemoryBytes) {
+    maxMemoryBytes = newMaxMemoryBytes;
+    synchronized (memory) {
+      evict();
+    }
+  }
+
+  /**
+   * Directory for snapshots evicted from memory, or null if they're discarded.
+   * @see #GetDirectory()
+   * @see #SetDirectory(File)
+   */
+  private static volatile File directory;
+  /**
+   * Getter for {@link #directory}: Directory for snapshots evicted from memory, or null
+   * if they're discarded.
+   * @return Directory for snapshots evicted from memory, or null.
+   */
+  public static File GetDirectory() { return directory; }
+  /**
+   * Setter for {@link #directory}: Directory for snapshots evicted from memory, or null
+   * if they're discarded.
+   * <p> Snapshot files already in the directory are deleted, as the versions they were
+   * taken at are no longer known.
+   * @param newDirectory Directory for snapshots evicted from memory, or null.
+   */
+  public static void SetDirectory(File newDirectory) {
+    synchronized (memory) {
+      clearDisk();
+      directory = newDirectory;
+      if (directory != null) {
+        if (!directory.exists()) directory.mkdirs();
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files != null) for (File f : files) f.delete();
+      }
+    }
+  }
+
+  /**
+   * Maximum total size of snapshot files in {@link #directory}, in bytes.
+   * @see #GetMaxDiskBytes()
+   * @see #SetMaxDiskBytes(long)
+   */
+  private static volatile long maxDiskBytes = 0;
+  /**
+   * Getter for {@link #maxDiskBytes}: Maximum total size of snapshot files, in bytes.
+   * @return Maximum total size of snapshot files, in bytes.
+   */
+  public static long GetMaxDiskBytes() { return maxDiskBytes; }
+  /**
+   * Setter for {@link #maxDiskBytes}: Maximum total size of snapshot files, in bytes.
+   * @param newMaxDiskBytes Maximum total size of snapshot files, in bytes. 0 or less
+   * means snapshots evicted from memory are discarded.
+   */
+  public static void SetMaxDiskBytes(long newMaxDiskBytes) {
+    maxDiskBytes = newMaxDiskBytes;
+    synchronized (memory) {
+      evict();
+    }
+  }
+
+  /**
+   * Maximum age of snapshots in milliseconds, after which they're not used.
+   * @see #GetMaxAgeMs()
+   * @see #SetMaxAgeMs(long)
+   */
+  private static volatile long maxAgeMs = 60 * 60 * 1000;
+  /**
+   * Getter for {@link #maxAgeMs}: Maximum age of snapshots in milliseconds.
+   * @return Maximum age of snapshots in milliseconds.
+   */
+  public static long GetMaxAgeMs() { return maxAgeMs; }
+  /**
+   * Setter for {@link #maxAgeMs}: Maximum age of snapshots in milliseconds.
+   * @param newMaxAgeMs Maximum age of snapshots in milliseconds.
+   */
+  public static void SetMaxAgeMs(long newMaxAgeMs) { maxAgeMs = newMaxAgeMs; }
+
+  /** File name suffix for snapshot files. */
+  static final String SUFFIX = ".snapshot";
+
+  /**
+   * Configures the cache from server settings.
+   * @param memoryMB Memory budget in megabytes, or null to leave it unchanged.
+   * @param diskMB Disk budget in megabytes, or null to leave it unchanged.
+   * @param dir Directory for snapshot files, used if <var>diskMB</var> is greater than 0.
+   * @throws NumberFormatException If a budget is not a number.
+   */
+  public static void Configure(String memoryMB, String diskMB, File dir)
+    throws NumberFormatException {
+    if (memoryMB != null && memoryMB.trim().length() > 0) {
+      SetMaxMemoryBytes(Long.parseLong(memoryMB.trim()) * 1024 * 1024);
+    }
+    if (diskMB != null && diskMB.trim().length() > 0) {
+      long bytes = Long.parseLong(diskMB.trim()) * 1024 * 1024;
+      if (bytes > 0 && dir != null) {
+        if (!dir.equals(directory)) SetDirectory(dir);
+      } else {
+        SetDirectory(null);
+      }
+      SetMaxDiskBytes(bytes);
+    }
+  } // end of Configure()
+
+  /**
+   * Determines whether the cache is enabled.
+   * @return true if there's a memory budget, false otherwise.
+   */
+  public static boolean Enabled() {
+    return maxMemoryBytes > 0;
+  } // end of Enabled()
+
+  /**
+   * Number of lookups that found a snapshot.
+   * @return Number of lookups that found a snapshot.
+   */
+  public static long GetHits() { return hits.get(); }
+  /**
+   * Number of lookups that didn't find a snapshot.
+   * @return Number of lookups that didn't find a snapshot.
+   */
+  public static long GetMisses() { return misses.get(); }
+
+  /**
+   * Generates the cache key for a transcript load.
+   * @param database The URL of the database.
+   * @param agId The transcript's <tt>ag_id</tt>.
+   * @param publicOnly Whether only public attribute layers are visible to the user.
+   * @param layerIds The requested layer IDs.
+   * @return The key, which includes the transcript's current version.
+   */
+  public static String Key(String database, long agId, boolean publicOnly, String[] layerIds) {
+    String transcript = database + "|" + agId;
+    StringBuilder key = new StringBuilder(transcript)
+      .append("|").append(generation.get())
+      .append("|").append(versions.getOrDefault(transcript, 0L))
+      .append("|").append(publicOnly)
+      .append("|");
+    for (String layerId : new TreeSet<String>(Arrays.asList(layerIds))) {
+      key.append(layerId).append(",");
+    }
+    return key.toString();
+  } // end of Key()
+
+  /**
+   * Looks up a snapshot, reading it from disk if it's no longer in memory.
+   * @param key The key, as returned by {@link #Key(String,long,boolean,String[])}.
+   * @return The snapshot, or null if there is none.
+   */
+  public static GraphSnapshot Get(String key) {
+    if (!Enabled()) return null;
+    DiskEntry onDisk = null;
+    synchronized (memory) {
+      Entry entry = memory.get(key);
+      if (entry != null) {
+        if (System.currentTimeMillis() - entry.created <= maxAgeMs) {
+          hits.incrementAndGet();
+          return entry.snapshot;
+        }
+        memory.remove(key);
+        memoryBytes -= entry.snapshot.getSizeInBytes();
+      }
+      onDisk = disk.remove(key);
+      if (onDisk != null) diskBytes -= onDisk.size;
+    }
+    if (onDisk != null) {
+      try {
+        if (System.currentTimeMillis() - onDisk.created <= maxAgeMs) {
+          GraphSnapshot snapshot = ReadFile(onDisk.file, key);
+          if (snapshot != null) {
+            hits.incrementAndGet();
+            put(key, snapshot, onDisk.created);
+            return snapshot;
+          }
+        }
+      } finally {
+        onDisk.file.delete();
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  } // end of Get()
+
+  /**
+   * Adds a snapshot to the cache, evicting the least recently used snapshots if the
+   * memory budget is exceeded.
+   * @param key The key, as returned by {@link #Key(String,long,boolean,String[])} before
+   * the transcript was loaded.
+   * @param snapshot The snapshot of the loaded transcript.
+   */
+  public static void Put(String key, GraphSnapshot snapshot) {
+    if (!Enabled()) return;
+    put(key, snapshot, System.currentTimeMillis());
+  } // end of Put()
+
+  /**
+   * Adds a snapshot to memory, and evicts snapshots as required.
+   * @param key The key.
+   * @param snapshot The snapshot.
+   * @param created When the snapshot was taken.
+   */
+  private static void put(String key, GraphSnapshot snapshot, long created) {
+    if (snapshot.getSizeInBytes() > maxMemoryBytes) return; // too big to cache
+    synchronized (memory) {
+      Entry previous = memory.put(key, new Entry(snapshot, created));
+      if (previous != null) memoryBytes -= previous.snapshot.getSizeInBytes();
+      memoryBytes += snapshot.getSizeInBytes();
+      evict();
+    }
+  } // end of put()
+
+  /**
+   * Evicts the least recently used snapshots from memory (to disk, if there's a
+   * directory) and from disk, until both are within budget. Must be called while
+   * synchronized on {@link #memory}.
+   */
+  private static void evict() {
+    Iterator<Map.Entry<String,Entry>> lru = memory.entrySet().iterator();
+    while (memoryBytes > Math.max(0, maxMemoryBytes) && lru.hasNext()) {
+      Map.Entry<String,Entry> evicted = lru.next();
+      lru.remove();
+      memoryBytes -= evicted.getValue().snapshot.getSizeInBytes();
+      spill(evicted.getKey(), evicted.getValue());
+    } // next least-recently-used entry
+    Iterator<Map.Entry<String,DiskEntry>> lruFile = disk.entrySet().iterator();
+    while (diskBytes > Math.max(0, maxDiskBytes) && lruFile.hasNext()) {
+      DiskEntry evicted = lruFile.next().getValue();
+      lruFile.remove();
+      diskBytes -= evicted.size;
+      evicted.file.delete();
+    } // next least-recently-used file
+  } // end of evict()
+
+  /**
+   * Writes a snapshot evicted from memory to disk, if there's a directory and budget
+   * for it.
+   * @param key The key.
+   * @param entry The evicted entry.
+   */
+  private static void spill(String key, Entry entry) {
+    File dir = directory;
+    if (dir == null || maxDiskBytes <= 0) return;
+    if (System.currentTimeMillis() - entry.created > maxAgeMs) return; // expired anyway
+    File file = new File(dir, fileCount.incrementAndGet() + SUFFIX);
+    try {
+      DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file)));
+      try {
+        out.writeUTF(key);
+        entry.snapshot.write(out);
+      } finally {
+        out.close();
+      }
+      DiskEntry previous = disk.put(key, new DiskEntry(file, file.length(), entry.created));
+      if (previous != null) {
+        diskBytes -= previous.size;
+        previous.file.delete();
+      }
+      diskBytes += file.length();
+    } catch(IOException exception) {
+      System.err.println("GraphSnapshotCache: could not write " + file + ": " + exception);
+      file.delete();
+    }
+  } // end of spill()
+
+  /**
+   * Reads a snapshot file.
+   * @param file The file.
+   * @param key The key the snapshot was stored under.
+   * @return The snapshot, or null if it can't be read or has a different key.
+   */
+  private static GraphSnapshot ReadFile(File file, String key) {
+    try {
+      DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)));
+      try {
+        if (!key.equals(in.readUTF())) return null;
+        return GraphSnapshot.Read(in);
+      } finally {
+        in.close();
+      }
+    } catch(IOException exception) {
+      System.err.println("GraphSnapshotCache: could not read " + file + ": " + exception);
+      return null;
+    }
+  } // end of ReadFile()
+
+  /**
+   * Discards all snapshots of the given transcript. This must be called whenever its
+   * annotations, anchors, or attributes are changed.
+   * @param database The URL of the database.
+   * @param agId The transcript's <tt>ag_id</tt>.
+   */
+  public static void Invalidate(String database, long agId) {
+    String transcript = database + "|" + agId;
+    versions.merge(transcript, 1L, Long::sum);
+    String prefix = transcript + "|";
+    synchronized (memory) {
+      Iterator<Map.Entry<String,Entry>> entries = memory.entrySet().iterator();
+      while (entries.hasNext()) {
+        Map.Entry<String,Entry> entry = entries.next();
+        if (entry.getKey().startsWith(prefix)) {
+          memoryBytes -= entry.getValue().snapshot.getSizeInBytes();
+          entries.remove();
+        }
+      } // next entry
+      Iterator<Map.Entry<String,DiskEntry>> files = disk.entrySet().iterator();
+      while (files.hasNext()) {
+        Map.Entry<String,DiskEntry> entry = files.next();
+        if (entry.getKey().startsWith(prefix)) {
+          diskBytes -= entry.getValue().size;
+          entry.getValue().file.delete();
+          files.remove();
+        }
+      } // next file
+    }
+  } // end of Invalidate()
+
+  /**
+   * Discards all snapshots. This must be called whenever data that might be included in
+   * many transcripts - e.g. participants or layer definitions - is changed.
+   */
+  public static void Invalidate() {
+    generation.incrementAndGet();
+    synchronized (memory) {
+      memory.clear();
+      memoryBytes = 0;
+      clearDisk();
+    }
+  } // end of Invalidate()
+
+  /**
+   * Deletes all snapshot files. Must be called while synchronized on {@link #memory}.
+   */
+  private static void clearDisk() {
+    for (DiskEntry entry : disk.values()) entry.file.delete();
+    disk.clear();
+    diskBytes = 0;
+  } // end of clearDisk()
+
+  /**
+   * The total size of the snapshots in memory.
+   * @return The total size of the snapshots in memory, in bytes.
+   */
+  public static long MemoryBytes() {
+    synchronized (memory) {
+      return memoryBytes;
+    }
+  } // end of MemoryBytes()
+
+  /**
+   * The total size of the snapshot files.
+   * @return The total size of the snapshot files, in bytes.
+   */
+  public static long DiskBytes() {
+    synchronized (memory) {
+      return diskBytes;
+    }
+  } // end of DiskBytes()
+
+} // end of class GraphSnapshotCache
@@ -0,0 +1,317 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import nzilbb.labbcat.server.metrics.MetricRegistry;
+import nzilbb.sql.ConnectionFactory;
+
+/**
+ * A connection factory that wraps the connections of another connection factory, so that
+ * the statements executed on them are recorded in {@link SqlStatistics}.
+ * <p> The execution time of each <tt>execute&hellip;</tt> call is measured, as are the
+ * number of rows read from the resulting result set, or the update count. Statements
+ * that take longer than {@link SqlStatistics#GetSlowThresholdMs()} are logged (with their
+ * bind parameters if {@link SqlStatistics#GetLogSlowStatementParameters()} is true, and
+ * the output of <tt>EXPLAIN</tt> if {@link SqlStatistics#GetExplainSlowStatements()} is
+ * true).
+ * <p> Wrapping is done with dynamic proxies, so connections, statements, and result sets
+ * otherwise behave exactly as those of the wrapped factory.
+ * <p> The number of connections opened, and the number currently open, are recorded in
+ * {@link MetricRegistry}.
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+public class InstrumentedConnectionFactory implements ConnectionFactory {
+
+  /**
+   * The factory that provides the underlying connections.
+   * @see #getFactory()
+   */
+  protected ConnectionFactory factory;
+  /**
+   * Getter for {@link #factory}: The factory that provides the underlying connections.
+   * @return The factory that provides the underlying connections.
+   */
+  public ConnectionFactory getFactory() { return factory; }
+
+  /**
+   * Constructor.
+   * @param factory The factory that provides the underlying connections.
+   */
+  public InstrumentedConnectionFactory(ConnectionFactory factory) {
+    this.factory = factory;
+  } // end of constructor
+
+  /**
+   * Creates a new instrumented connection.
+   * @return A new connection.
+   * @throws SQLException If the underlying connection can't be made.
+   */
+  public Connection newConnection() throws SQLException {
+    try {
+      return Instrument(factory.newConnection());
+    } catch(SQLException exception) {
+      MetricRegistry.Counter(
+        "labbcat_jdbc_connection_failures_total", "Failed attempts to open a connection.")
+        .increment();
+      throw exception;
+    }
+  } // end of newConnection()
+
+  /**
+   * Wraps the given connection so that statements executed on it are recorded.
+   * @param connection The connection to wrap.
+   * @return An instrumented connection.
+   */
+  public static Connection Instrument(Connection connection) {
+    if (Proxy.isProxyClass(connection.getClass())
+        && Proxy.getInvocationHandler(connection) instanceof ConnectionHandler) {
+      return connection; // already instrumented
+    }
+    return (Connection)Proxy.newProxyInstance(
+      Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+      new ConnectionHandler(connection));
+  } // end of Instrument()
+
+  /**
+   * Gets the gauge of connections that have been opened but not closed.
+   * @return The gauge of open connections.
+   */
+  static LongAdder OpenConnections() {
+    return MetricRegistry.Gauge(
+      "labbcat_jdbc_connections_open", "Database connections currently open.");
+  } // end of OpenConnections()
+
+  /**
+   * Invokes the given method, rethrowing whatever exception it throws.
+   * @param target The object to invoke the method on.
+   * @param method The method.
+   * @param args The arguments.
+   * @return The method's return value.
+   */
+  static Object Invoke(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch(InvocationTargetException exception) {
+      throw exception.getCause();
+    }
+  } // end of Invoke()
+
+  /** Wraps statements created by the connection, and counts open connections. */
+  static class ConnectionHandler implements InvocationHandler {
+    final Connection connection;
+    boolean closed = false;
+    ConnectionHandler(Connection connection) {
+      this.connection = connection;
+      MetricRegistry.Counter(
+        "labbcat_jdbc_connections_opened_total", "Database connections opened.")
+        .increment();
+      OpenConnections().increment();
+    }
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      if (method.getName().equals("close")) {
+        synchronized (this) {
+          if (!closed) {
+            closed = true;
+            OpenConnections().decrement();
+          }
+        }
+      }
+      Object result = Invoke(connection, method, args);
+      if (result instanceof Statement) {
+        String sql = method.getName().startsWith("prepare") && args != null
+          && args.length > 0 && args[0] instanceof String? (String)args[0] : null;
+        Class<?> type = result instanceof CallableStatement? CallableStatement.class
+          : result instanceof PreparedStatement? PreparedStatement.class
+          : Statement.class;
+        return Proxy.newProxyInstance(
+          type.getClassLoader(), new Class<?>[] { type },
+          new StatementHandler((Statement)result, (Connection)proxy, connection, sql));
+      }
+      return result;
+    }
+  } // end of class ConnectionHandler
+
+  /** Times execution and records bind parameters of statements. */
+  static class StatementHandler implements InvocationHandler {
+    final Statement statement;
+    final Connection proxyConnection;
+    final Connection connection;
+    final String preparedSql;
+    /** Bind parameter values, keyed by index. */
+    final TreeMap<Integer,Object> parameters = new TreeMap<Integer,Object>();
+    StatementHandler(Statement statement, Connection proxyConnection, Connection connection,
+                     String preparedSql) {
+      this.statement = statement;
+      this.proxyConnection = proxyConnection;
+      this.connection = connection;
+      this.preparedSql = preparedSql;
+    }
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if (name.startsWith("execute")) {
+        return execute(method, args);
+      } else if (name.startsWith("set") && args != null && args.length >= 2
+                 && args[0] instanceof Integer) { // bind parameter
+        Object value = args[1];
+        if (name.equals("setNull")) {
+          value = null;
+        } else if (value instanceof InputStream || value instanceof Reader
+                   || value instanceof Blob || value instanceof Clob) {
+          value = "<" + value.getClass().getSimpleName() + ">";
+        }
+        parameters.put((Integer)args[0], value);
+      } else if (name.equals("clearParameters")) {
+        parameters.clear();
+      } else if (name.equals("getConnection")) {
+        return proxyConnection;
+      }
+      Object result = Invoke(statement, method, args);
+      if (result instanceof ResultSet && name.equals("getResultSet")) {
+        return CountRows(
+          (ResultSet)result, SqlStatistics.Get(preparedSql != null? preparedSql : ""));
+      }
+      return result;
+    }
+
+    /**
+     * Executes the statement, recording statistics.
+     * @param method The execute method.
+     * @param args The method arguments.
+     * @return The result of execution.
+     */
+    Object execute(Method method, Object[] args) throws Throwable {
+      String sql = args != null && args.length > 0 && args[0] instanceof String?
+        (String)args[0] : preparedSql;
+      SqlStatistics.Shape shape = SqlStatistics.Get(sql);
+      boolean error = true;
+      long start = System.nanoTime();
+      long nanos = 0;
+      Object result = null;
+      try {
+        result = Invoke(statement, method, args);
+        error = false;
+      } finally {
+        nanos = System.nanoTime() - start;
+        shape.record(nanos, error);
+      }
+      if (result instanceof Integer) {
+        shape.addRows(Math.max(0, (Integer)result));
+      } else if (result instanceof Long) {
+        shape.addRows(Math.max(0, (Long)result));
+      } else if (result instanceof int[]) { // executeBatch
+        for (int count : (int[])result) shape.addRows(Math.max(0, count));
+      } else if (result instanceof long[]) { // executeLargeBatch
+        for (long count : (long[])result) shape.addRows(Math.max(0, count));
+      } else if (result instanceof ResultSet) {
+        result = CountRows((ResultSet)result, shape);
+      }
+      long thresholdMs = SqlStatistics.GetSlowThresholdMs();
+      if (thresholdMs > 0 && nanos / 1000000 >= thresholdMs) {
+        String explanation = null;
+        if (SqlStatistics.GetExplainSlowStatements() && sql != null
+            && sql.trim().toUpperCase().startsWith("SELECT")) {
+          explanation = explain(sql);
+        }
+        SqlStatistics.Slow(
+          sql, parameters.size() == 0? null : parameters.values().toString(),
+          nanos, explanation);
+      }
+      return result;
+    } // end of execute()
+
+    /**
+     * Runs <tt>EXPLAIN</tt> for the given SQL, with the current bind parameters, on the
+     * underlying connection.
+     * @param sql The SQL to explain.
+     * @return The output of EXPLAIN, one line per row with tab-separated columns.
+     */
+    String explain(String sql) {
+      try {
+        PreparedStatement explain = connection.prepareStatement("EXPLAIN " + sql);
+        try {
+          for (Integer index : parameters.keySet()) {
+            explain.setObject(index, parameters.get(index));
+          }
+          ResultSet rs = explain.executeQuery();
+          try {
+            ResultSetMetaData meta = rs.getMetaData();
+            StringBuilder explanation = new StringBuilder();
+            for (int c = 1; c <= meta.getColumnCount(); c++) {
+              if (c > 1) explanation.append("\t");
+              explanation.append(meta.getColumnLabel(c));
+            }
+            while (rs.next()) {
+              explanation.append("\n");
+              for (int c = 1; c <= meta.getColumnCount(); c++) {
+                if (c > 1) explanation.append("\t");
+                explanation.append(rs.getString(c));
+              }
+            } // next row
+            return explanation.toString();
+          } finally {
+            rs.close();
+          }
+        } finally {
+          explain.close();
+        }
+      } catch(Exception exception) {
+        return "EXPLAIN failed: " + exception;
+      }
+    } // end of explain()
+  } // end of class StatementHandler
+
+  /**
+   * Wraps the given result set so that rows read from it are recorded.
+   * @param rs The result set.
+   * @param shape The statistics to record rows in.
+   * @return A result set that records rows read.
+   */
+  static ResultSet CountRows(ResultSet rs, SqlStatistics.Shape shape) {
+    return (ResultSet)Proxy.newProxyInstance(
+      ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+      (proxy, method, args) -> {
+        Object result = Invoke(rs, method, args);
+        if (Boolean.TRUE.equals(result) && method.getName().equals("next")) {
+          shape.addRows(1);
+        }
+        return result;
+      });
+  } // end of CountRows()
+
+} // end of class InstrumentedConnectionFactory
@@ -0,0 +1,52 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour, 
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+import java.io.File;
+
+/**
+ * Something that runs media conversions for {@link SqlGraphStore}, e.g. a queue that
+ * limits how many run at once.
+ * <p> Implementations are registered with
+ * {@link SqlGraphStore#SetMediaConversionQueue(MediaConversionQueue)}.
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+public interface MediaConversionQueue {
+  
+  /**
+   * Adds a conversion to the queue, and returns without waiting for it to finish.
+   * @param source The file to convert.
+   * @param sourceType The MIME type of the source file.
+   * @param destination The file to create.
+   * @param destinationType The MIME type of the destination file.
+   * @param ffmpegPath The directory containing ffmpeg.
+   * @param arguments The ffmpeg command line arguments for the conversion.
+   * @param interactive true if a user is waiting for the conversion, false if it's
+   * running in the background.
+   * @param workerCount The maximum number of conversions to run at once, or null to use
+   * the default.
+   */
+  public void add(
+    File source, String sourceType, File destination, String destinationType,
+    File ffmpegPath, String arguments, boolean interactive, Integer workerCount);
+  
+} // end of class MediaConversionQueue
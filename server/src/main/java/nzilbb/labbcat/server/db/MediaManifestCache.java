@@ -0,0 +1,162 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process cache of the files in episode directories.
+ * <p> Media files are stored in the files directory as
+ * <i>corpus</i>/<i>episode</i>/<i>extension</i>/<i>transcript</i><i>track</i>.<i>extension</i>,
+ * and working out what media is available for a transcript would otherwise require
+ * checking for the existence of each possible file, each time media is listed or
+ * requested. When media is stored on a network file system, each check is a network
+ * round trip.
+ * <p> Instead, each episode directory is listed once, and the resulting manifest is kept
+ * in memory, so that subsequent checks are answered without touching the file system.
+ * <p> Anything that adds or removes files in an episode directory must call
+ * {@link #Invalidate(File)}. As a safeguard against changes made by other processes (or
+ * by hand), manifests are also re-read once they are older than {@link #GetMaxAgeMs()}.
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+public class MediaManifestCache {
+
+  /** The files in one episode directory. */
+  public static class Manifest {
+    /** Names of files, keyed by subdirectory name. */
+    final TreeMap<String,Set<String>> files = new TreeMap<String,Set<String>>();
+    final long loaded = System.currentTimeMillis();
+
+    /**
+     * Lists the episode directory.
+     * @param episodeDir The episode directory.
+     */
+    Manifest(File episodeDir) {
+      File[] entries = episodeDir.listFiles();
+      if (entries != null) {
+        for (File entry : entries) {
+          String[] names = entry.list(); // null if it's not a directory
+          if (names != null) {
+            HashSet<String> dirFiles = new HashSet<String>();
+            Collections.addAll(dirFiles, names);
+            files.put(entry.getName(), Collections.unmodifiableSet(dirFiles));
+          }
+        } // next entry
+      }
+    }
+
+    /**
+     * The names of the subdirectories of the episode directory.
+     * @return The names of the subdirectories of the episode directory, in alphabetical
+     * order.
+     */
+    public Set<String> directories() {
+      return Collections.unmodifiableSet(files.keySet());
+    } // end of directories()
+
+    /**
+     * Determines whether the given subdirectory contains the given file.
+     * @param dir The name of the subdirectory.
+     * @param name The name of the file.
+     * @return true if the file exists, false otherwise.
+     */
+    public boolean contains(String dir, String name) {
+      Set<String> dirFiles = files.get(dir);
+      return dirFiles != null && dirFiles.contains(name);
+    } // end of contains()
+  } // end of class Manifest
+
+  /** Cached manifests, keyed by episode directory path. */
+  private static final ConcurrentHashMap<String,Manifest> manifests
+  = new ConcurrentHashMap<String,Manifest>();
+
+  /**
+   * Maximum age of cached manifests in milliseconds, after which they are re-read even if
+   * there has been no invalidation.
+   * @see #GetMaxAgeMs()
+   * @see #SetMaxAgeMs(long)
+   */
+  private static volatile long maxAgeMs = 60 * 1000;
+  /**
+   * Getter for {@link #maxAgeMs}: Maximum age of cached manifests in milliseconds.
+   * @return Maximum age of cached manifests in milliseconds.
+   */
+  public static long GetMaxAgeMs() { return maxAgeMs; }
+  /**
+   * Setter for {@link #maxAgeMs}: Maximum age of cached manifests in milliseconds.
+   * @param newMaxAgeMs Maximum age of cached manifests in milliseconds. 0 or less means
+   * manifests are never cached.
+   */
+  public static void SetMaxAgeMs(long newMaxAgeMs) { maxAgeMs = newMaxAgeMs; }
+
+  /**
+   * Gets the manifest of the given episode directory, listing the directory if it's not
+   * already cached.
+   * @param episodeDir The episode directory.
+   * @return The files in the episode directory.
+   */
+  public static Manifest Get(File episodeDir) {
+    String key = episodeDir.getPath();
+    Manifest manifest = manifests.get(key);
+    if (manifest == null || maxAgeMs <= 0
+        || System.currentTimeMillis() - manifest.loaded > maxAgeMs) {
+      manifest = new Manifest(episodeDir);
+      if (maxAgeMs > 0) manifests.put(key, manifest);
+    }
+    return manifest;
+  } // end of Get()
+
+  /**
+   * Determines whether the given media file exists, according to the manifest of its
+   * episode directory.
+   * @param file A file in a subdirectory of an episode directory.
+   * @return true if the file exists, false otherwise.
+   */
+  public static boolean Exists(File file) {
+    File dir = file.getParentFile();
+    if (dir == null || dir.getParentFile() == null) return file.exists();
+    return Get(dir.getParentFile()).contains(dir.getName(), file.getName());
+  } // end of Exists()
+
+  /**
+   * Flushes the manifest of the given episode directory, so that it's re-read next time
+   * it's needed. This must be called whenever files are added to or removed from the
+   * directory's subdirectories.
+   * @param episodeDir The episode directory.
+   */
+  public static void Invalidate(File episodeDir) {
+    if (episodeDir != null) manifests.remove(episodeDir.getPath());
+  } // end of Invalidate()
+
+  /**
+   * Flushes all cached manifests.
+   */
+  public static void Invalidate() {
+    manifests.clear();
+  } // end of Invalidate()
+
+} // end of class MediaManifestCache
@@ -28,21 +28,34 @@ import java.sql.SQLException;
 import java.text.DecimalFormat;
 import java.text.MessageFormat;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Predicate;
 import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
 import nzilbb.ag.*;
 import nzilbb.labbcat.server.search.Column;
+import nzilbb.labbcat.server.search.CountSearchResults;
 import nzilbb.labbcat.server.search.LayerMatch;
 import nzilbb.labbcat.server.search.Matrix;
 import nzilbb.labbcat.server.search.SearchTask;
@@ -53,6 +66,51 @@ import nzilbb.labbcat.server.search.SearchTask;
  */
 public class OneQuerySearch extends SearchTask {
   
+  /**
+   * Number of partitions to split the main query into, each of which is executed
+   * concurrently on its own database connection. 1 means the query is executed as a
+   * single statement.
+   * @see #getPartitions()
+   * @see #setPartitions(int)
+   */
+  protected int partitions = 1;
+  /**
+   * Getter for {@link #partitions}: Number of partitions to split the main query into,
+   * each of which is executed concurrently on its own database connection.
+   * @return Number of partitions to split the main query into.
+   */
+  public int getPartitions() { return partitions; }
+  /**
+   * Setter for {@link #partitions}: Number of partitions to split the main query into,
+   * each of which is executed concurrently on its own database connection.
+   * @param newPartitions Number of partitions to split the main query into. 1 or less
+   * means the query is executed as a single statement.
+   */
+  public OneQuerySearch setPartitions(int newPartitions) { partitions = newPartitions; return this; }
+
+  /**
+   * For searches that only count matches (i.e. when
+   * {@link SearchTask#getSuppressResults()} is true), the percentage of transcripts to
+   * sample in order to estimate the count, instead of counting all matches. 0 means
+   * matches are counted exactly.
+   * @see #getEstimatePercent()
+   * @see #setEstimatePercent(int)
+   */
+  protected int estimatePercent = 0;
+  /**
+   * Getter for {@link #estimatePercent}: The percentage of transcripts to sample in order
+   * to estimate the count of matches, or 0 for an exact count.
+   * @return The percentage of transcripts to sample, or 0 for an exact count.
+   */
+  public int getEstimatePercent() { return estimatePercent; }
+  /**
+   * Setter for {@link #estimatePercent}: The percentage of transcripts to sample in order
+   * to estimate the count of matches, or 0 for an exact count.
+   * @param newEstimatePercent The percentage of transcripts to sample, or 0 (or 100 or
+   * more) for an exact count.
+   */
+  public OneQuerySearch setEstimatePercent(int newEstimatePercent) { estimatePercent = newEstimatePercent; return this; }
+  
   /**
    * Create an SQL query that identifies results that match the search matrix patterns,
    * filling in the given lists with information about parameters to set.
@@ -1720,23 +1778,46 @@ public class OneQuerySearch extends SearchTask {
   protected void search() throws Exception {
 
     iPercentComplete = 1;
+    phaseTimes.clear();
+    phases.clear();
+    startPhase("prepare");
     Connection connection = getStore().getConnection();
     final Schema schema = getStore().getSchema();
     if (matrix != null) setName(matrix.getDescription());
     setDescription(matrix.getDescription());    
     normalizeMatrix(schema);
+
+    // has an identical search already been done?
+    String cacheKey = SearchResultsCache.Key(
+      this, connection.getMetaData().getURL(), getStore().getSystemAttribute("dataVersion"),
+      SearchResultsCache.GetSchemaVersion(), accessRestriction(connection));
+    SqlSearchResults cachedResults = SearchResultsCache.Lookup(cacheKey, connection);
+    if (cachedResults != null) {
+      setStatus("Reusing results of identical search...");
+      results = cachedResults;
+      results.reset();
+      endPhase();
+      iPercentComplete = 100;
+      return;
+    }
+    
+    // if only a summary is required, and no results need to be filtered out,
+    // matches can be counted without being saved
+    boolean countOnly = suppressResults && matchesPerTranscript == null && overlapThreshold == null;
     
     // word columns
 	 
     // list of Word objects that match matrix
-    results = new SqlSearchResults(this);
+    if (!countOnly) results = new SqlSearchResults(this);
 	 
     // the participant condition is a list of turn labels, which are speaker_numbers
     UnaryOperator<String> participantCondition = participantQuery -> {
       if (participantQuery != null && participantQuery.trim().length() > 0) {
         setStatus("Identifying participants...");
+        String resumePhase = startPhase("participants");
         try {
           String[] participantIds = getStore().getMatchingParticipantIds(participantQuery);
+          phaseRows(participantIds.length);
           if (participantIds.length == 0) { // bail out by returning null & setting last exception
             setLastException(
               new Exception("Participant expression matches no participants: "
@@ -1778,6 +1859,8 @@ public class OneQuerySearch extends SearchTask {
         } catch (PermissionException x) {
           setLastException(x);
           return null;
+        } finally {
+          startPhase(resumePhase);
         }
       } // participantQuery
       return "";
@@ -1786,9 +1869,12 @@ public class OneQuerySearch extends SearchTask {
     // the transcript condition uses a modified version of the 
     UnaryOperator<String> transcriptCondition = transcriptQuery -> {
       if (transcriptQuery != null && transcriptQuery.length() > 0) {
+        String resumePhase = startPhase("transcripts");
         try {
           // check there are some matches
-          if (getStore().countMatchingTranscriptIds(transcriptQuery) == 0) {
+          int transcriptCount = getStore().countMatchingTranscriptIds(transcriptQuery);
+          phaseRows(transcriptCount);
+          if (transcriptCount == 0) {
             // bail out by returning null and setting last exception
             setLastException(
               new Exception("Transcript query matches no transcripts: " + transcriptQuery));
@@ -1806,6 +1892,8 @@ public class OneQuerySearch extends SearchTask {
         } catch (PermissionException x) {
           setLastException(x);
           return null;
+        } finally {
+          startPhase(resumePhase);
         }
       } // transcriptQuery
       return "";
@@ -1904,24 +1992,31 @@ public class OneQuerySearch extends SearchTask {
     }
 
     // generate an SQL statement from the search matrix
+    startPhase("sql");
+    iPercentComplete = 5;
     String q = null;
     // Parameter values
     Vector<Object> parameters = new Vector<Object>();
+    // the expression for the transcript ag_id in the generated query
+    String agIdExpression = "turn.ag_id";
     try {
       setStatus("Creating query...");
       if (orthographyOnly) {
         setStatus("Optimising for orthography-only search...");
         q = generateOrthographySql(parameters, schema);
+        agIdExpression = "token_0.ag_id";
       } else if (noNonSpanLayers && spanLayers.size() == 1
                  && spanLayerMatch.getTarget()) {
         setStatus("Optimising for one-span-only search...");
         q = generateOneSpanSql(parameters, schema, spanLayers.get(0), spanLayerMatch);
+        agIdExpression = "token.ag_id";
       } else {
         q = generateSql(
           parameters, schema,
           layerIsSpanningAndWordAnchored, participantCondition, transcriptCondition);
       }
       setStatus("SQL: " + q);
+      phaseSql(q);
     } catch (Exception x) {
       setStatus(x.getMessage());
       if (!x.getMessage().equals("Cancelled.")) {
@@ -1933,28 +2028,22 @@ public class OneQuerySearch extends SearchTask {
       sqlAnchoredToWordStartCount.close();
       sqlAnchoredToWordEndCount.close();
     }
+
+    // single-span searches need token IDs filled in, so can't simply be counted
+    boolean oneSpan = noNonSpanLayers && spanLayers.size() == 1 && spanLayerMatch.getTarget();
+    if (countOnly && !oneSpan) {
+      countMatches(q, parameters, agIdExpression);
+      return;
+    }
+    if (results == null) results = new SqlSearchResults(this);
+    
+    startPhase("query");
+    phaseSql(q);
     setStatus("Finding matches...");    
     
     // Create temporary table so that multiple users can query at once without locking each other
     PreparedStatement sqlPatternMatch = connection.prepareStatement(
-      "CREATE TEMPORARY TABLE _result ( "
-      +" search_id INTEGER UNSIGNED NOT NULL, "
-      +" match_id INTEGER UNSIGNED NOT NULL AUTO_INCREMENT,"
-      +" ag_id INTEGER UNSIGNED NOT NULL,"
-      +" speaker_number INTEGER UNSIGNED NOT NULL,"
-      +" start_anchor_id INTEGER UNSIGNED NOT NULL,"
-      +" end_anchor_id INTEGER UNSIGNED NOT NULL,"
-      +" defining_annotation_id INTEGER UNSIGNED NULL,"
-      +" segment_annotation_id INTEGER UNSIGNED NULL,"
-      +" target_annotation_id INTEGER UNSIGNED NULL,"
-      +" turn_annotation_id INTEGER UNSIGNED NULL,"
-      +" first_matched_word_annotation_id INTEGER UNSIGNED NULL,"
-      +" last_matched_word_annotation_id INTEGER UNSIGNED NULL,"
-      +" complete BIT NULL,"
-      +" target_annotation_uid VARCHAR(20) NULL,"
-      +" PRIMARY KEY  (search_id, match_id),"
-      +" INDEX IDX_UID (search_id, target_annotation_uid)"
-      +") ENGINE=MyISAM;");
+      sqlCreateResultTable.format(new Object[] { "TEMPORARY", "_result" }));
     try {
       if (!bCancelling) executeUpdate(sqlPatternMatch);
     } catch (Exception x) {
@@ -1967,129 +2056,53 @@ public class OneQuerySearch extends SearchTask {
       sqlPatternMatch.close();
     }
     
-    // setStatus(q);
-    sqlPatternMatch = connection.prepareStatement(q);
-    
-    // set the layer search parameters
-    int iLayerParameter = 1;     
-    sqlPatternMatch.setLong(iLayerParameter++, ((SqlSearchResults)results).getId());      
-
-    // set parameter values
-    for (Object parameter : parameters) {
-      if (parameter instanceof Double) {
-        sqlPatternMatch.setDouble(
-          iLayerParameter++, (Double)parameter);
-      } else if (parameter instanceof Integer) {
-        sqlPatternMatch.setInt(
-          iLayerParameter++, (Integer)parameter);
-      } else {
-        sqlPatternMatch.setString(iLayerParameter++, parameter.toString());
-      }
-    }
-    
     iPercentComplete = SQL_STARTED_PERCENT; 
     setStatus("Querying...");
-    try {
-      if (!bCancelling) executeUpdate(sqlPatternMatch);
-    } catch (Exception x) {
-      if (bCancelling) {
-        setStatus("Cancelled.");
-      } else {
-        throw x;
+    if (partitions > 1 && getStore().getDb() != null) {
+      String transcriptClause = transcriptCondition.apply(matrix.getTranscriptQuery());
+      if (transcriptClause == null && getLastException() != null) {
+        throw (Exception)getLastException();
+      }
+      String participantClause = participantCondition.apply(matrix.getParticipantQuery());
+      if (participantClause == null && getLastException() != null) {
+        throw (Exception)getLastException();
+      }
+      executePartitioned(q, parameters, agIdExpression, transcriptClause, participantClause);
+    } else {
+      // setStatus(q);
+      sqlPatternMatch = connection.prepareStatement(IgnoreDuplicates(q));
+      setParameters(sqlPatternMatch, parameters);
+      try {
+        if (!bCancelling) executeUpdate(sqlPatternMatch);
+      } catch (Exception x) {
+        if (bCancelling) {
+          setStatus("Cancelled.");
+        } else {
+          throw x;
+        }
+      } finally {
+        sqlPatternMatch.close();
       }
-    } finally {
-      sqlPatternMatch.close();
     }
     iPercentComplete = SQL_FINISHED_PERCENT;
 
     // if it's a single-span search, we need to fill in the token IDs
     if (noNonSpanLayers && spanLayers.size() == 1
         && spanLayerMatch.getTarget()) {
+      startPhase("tokens");
+      setStatus("Aligning span matches to words...");
       setTokenIds(connection, spanLayers.get(0), spanLayerMatch, participantCondition);
     }
     
+    // duplicate targets have already been ignored by the unique index on _result
+    startPhase("collate");
     setStatus("Query complete, collating results...");
-    sqlPatternMatch = connection.prepareStatement(
-      "CREATE TEMPORARY TABLE _result_copy ( "
-      +" search_id INTEGER UNSIGNED NOT NULL, "
-      +" match_id INTEGER UNSIGNED NOT NULL AUTO_INCREMENT,"
-      +" ag_id INTEGER UNSIGNED NOT NULL,"
-      +" speaker_number INTEGER UNSIGNED NOT NULL,"
-      +" start_anchor_id INTEGER UNSIGNED NOT NULL,"
-      +" end_anchor_id INTEGER UNSIGNED NOT NULL,"
-      +" defining_annotation_id INTEGER UNSIGNED NULL,"
-      +" segment_annotation_id INTEGER UNSIGNED NULL,"
-      +" target_annotation_id INTEGER UNSIGNED NULL,"
-      +" turn_annotation_id INTEGER UNSIGNED NULL,"
-      +" first_matched_word_annotation_id INTEGER UNSIGNED NULL,"
-      +" last_matched_word_annotation_id INTEGER UNSIGNED NULL,"
-      +" complete BIT NULL,"
-      +" target_annotation_uid VARCHAR(20) NULL,"
-      +" PRIMARY KEY  (search_id, match_id),"
-      +" INDEX IDX_UID (search_id, target_annotation_uid)"
-      +") ENGINE=MyISAM;");
-    try {
-      if (!bCancelling) executeUpdate(sqlPatternMatch);
-    } catch (Exception x) {
-      if (bCancelling) {
-        setStatus("Cancelled.");
-      } else {
-        throw x;
-      }
-    } finally {
-      sqlPatternMatch.close();
-    }
-    sqlPatternMatch = connection.prepareStatement(
-      "INSERT INTO _result_copy SELECT * FROM _result");
-    try {
-      if (!bCancelling) executeUpdate(sqlPatternMatch);
-    } catch (Exception x) {
-      if (bCancelling) {
-        setStatus("Cancelled.");
-      } else {
-        throw x;
-      }
-    } finally {
-      sqlPatternMatch.close();
-    }
-
-    sqlPatternMatch = connection.prepareStatement(
-      "DELETE dup.*"
-      +" FROM _result dup"
-      +" INNER JOIN _result_copy orig"
-      +" ON dup.search_id = orig.search_id AND dup.target_annotation_uid = orig.target_annotation_uid"
-      +" AND dup.match_id > orig.match_id"
-      +" WHERE dup.search_id = ?");
-    sqlPatternMatch.setLong(1, ((SqlSearchResults)results).getId());      
-    try {
-      if (!bCancelling) executeUpdate(sqlPatternMatch);
-    } catch (Exception x) {
-      if (bCancelling) {
-        setStatus("Cancelled.");
-      } else {
-        throw x;
-      }
-    } finally {
-      sqlPatternMatch.close();
-    }
-
-    sqlPatternMatch = connection.prepareStatement(
-      "DROP TEMPORARY TABLE _result_copy");
-    try {
-      sqlPatternMatch.executeUpdate();
-    } catch (SQLException x) {
-      // maybe we're cancelling before it was created?
-    } finally {
-      sqlPatternMatch.close();
-    }
-
     iPercentComplete = 92;
     
     // set defining annotation and its anchors, and sort the results by speaker and transcript...
     
     // copy the incomplete results back into the table, sorting as we go      
-    sqlPatternMatch = connection.prepareStatement(
-      "INSERT INTO result"
+    String collateSql = "INSERT INTO result"
       +" (search_id,ag_id,speaker_number,"
       +" start_anchor_id,end_anchor_id,defining_annotation_id,"
       +" segment_annotation_id,target_annotation_id,first_matched_word_annotation_id,"
@@ -2112,7 +2125,9 @@ public class OneQuerySearch extends SearchTask {
       +" INNER JOIN speaker ON"
       +" line.label REGEXP '^[0-9]+$' AND CAST(line.label AS SIGNED) = speaker.speaker_number"
       +" WHERE unsorted.search_id = ? AND complete = 0"
-      +" ORDER BY speaker.name, transcript.transcript_id, unsorted.match_id");
+      +" ORDER BY speaker.name, transcript.transcript_id, unsorted.match_id";
+    phaseSql(collateSql);
+    sqlPatternMatch = connection.prepareStatement(collateSql);
     sqlPatternMatch.setLong(1, ((SqlSearchResults)results).getId());      
     try {
       if (!bCancelling) executeUpdate(sqlPatternMatch);
@@ -2146,16 +2161,538 @@ public class OneQuerySearch extends SearchTask {
     results.reset();
     
     // exclude simultaneous speech, etc.
+    startPhase("filter");
     filterResults(); 
 
     results.reset();
     // force it to recheck the database to get size etc.
     results.hasNext();
+    finishProfile();
+
+    if (!bCancelling && getLastException() == null) {
+      // identical searches can reuse these results
+      SearchResultsCache.Add(cacheKey, (SqlSearchResults)results, connection);
+    }
     
     iPercentComplete = 100;
     
   }
   
+  /**
+   * Lists the permissions of the {@link #restrictByUser} user, which determine which
+   * transcripts they can access, so that searches are reused only while these are
+   * unchanged.
+   * @param connection A connection to the database.
+   * @return The user's transcript access permissions, or null if
+   * {@link #restrictByUser} is not set.
+   * @throws SQLException
+   */
+  protected String accessRestriction(Connection connection) throws SQLException {
+    if (restrictByUser == null) return null;
+    StringBuilder permissions = new StringBuilder();
+    PreparedStatement sql = connection.prepareStatement(
+      "SELECT role_permission.entity, role_permission.attribute_name,"
+      +" role_permission.value_pattern"
+      +" FROM role"
+      +" INNER JOIN role_permission ON role.role_id = role_permission.role_id"
+      +" WHERE user_id = ?"
+      +" ORDER BY role_permission.entity, role_permission.attribute_name,"
+      +" role_permission.value_pattern");
+    try {
+      sql.setString(1, restrictByUser);
+      ResultSet rs = sql.executeQuery();
+      try {
+        while (rs.next()) {
+          permissions.append(rs.getString("entity"))
+            .append(":").append(rs.getString("attribute_name"))
+            .append("=").append(rs.getString("value_pattern"))
+            .append(";");
+        } // next permission
+      } finally {
+        rs.close();
+      }
+    } finally {
+      sql.close();
+    }
+    return permissions.toString();
+  } // end of accessRestriction()
+  
+  /**
+   * Time taken by each phase of the search, in milliseconds, in the order the phases were
+   * executed.
+   * @see #getPhaseTimes()
+   */
+  protected LinkedHashMap<String,Long> phaseTimes = new LinkedHashMap<String,Long>();
+  /**
+   * Getter for {@link #phaseTimes}: Time taken by each phase of the search, in
+   * milliseconds, in the order the phases were executed.
+   * @return Time taken by each phase of the search, in milliseconds.
+   */
+  public Map<String,Long> getPhaseTimes() { return phaseTimes; }
+  
+  /**
+   * Profile of each phase of the search, in the order they were executed. Unlike
+   * {@link #phaseTimes}, a phase that is interrupted by another phase and then resumed
+   * appears more than once.
+   * @see #getPhases()
+   */
+  protected Vector<SearchPhase> phases = new Vector<SearchPhase>();
+  /**
+   * Getter for {@link #phases}: Profile of each phase of the search, in the order they
+   * were executed.
+   * @return Profile of each phase of the search.
+   */
+  public List<SearchPhase> getPhases() { return phases; }
+  
+  /** The phase currently being timed, if any. */
+  private SearchPhase currentPhase;
+  /** When {@link #currentPhase} started. */
+  private long currentPhaseStarted;
+  
+  /**
+   * Ends timing of the current phase, if any, and starts timing the given phase.
+   * @param phase The name of the phase.
+   * @return The name of the phase that was ended, or null if there was none.
+   */
+  protected String startPhase(String phase) {
+    String previousPhase = currentPhase == null? null : currentPhase.getName();
+    endPhase();
+    if (phase != null) {
+      currentPhase = new SearchPhase(phase);
+      phases.add(currentPhase);
+      currentPhaseStarted = System.currentTimeMillis();
+    }
+    return previousPhase;
+  } // end of startPhase()
+  
+  /**
+   * Ends timing of the current phase, if any, adding its duration to {@link #phaseTimes}.
+   */
+  protected void endPhase() {
+    if (currentPhase != null) {
+      currentPhase.setMillis(System.currentTimeMillis() - currentPhaseStarted);
+      phaseTimes.merge(currentPhase.getName(), currentPhase.getMillis(), Long::sum);
+      currentPhase = null;
+    }
+  } // end of endPhase()
+  
+  /**
+   * Records the given SQL as the identifying statement of the current phase.
+   * @param sql The SQL statement.
+   */
+  protected void phaseSql(String sql) {
+    SearchPhase phase = currentPhase;
+    if (phase != null) phase.setSql(sql);
+  } // end of phaseSql()
+  
+  /**
+   * Adds the given number of affected rows to the current phase.
+   * @param rows The number of rows affected.
+   */
+  protected void phaseRows(long rows) {
+    SearchPhase phase = currentPhase;
+    if (phase != null) phase.addRows(rows);
+  } // end of phaseRows()
+  
+  /**
+   * Summarises {@link #phaseTimes}, e.g. "prepare 12ms, query 3456ms, collate 78ms".
+   * @return A summary of the time taken by each phase.
+   */
+  public String getPhaseTimesSummary() {
+    return phaseTimes.entrySet().stream()
+      .map(phase -> phase.getKey() + " " + phase.getValue() + "ms")
+      .collect(Collectors.joining(", "));
+  } // end of getPhaseTimesSummary()
+  
+  /**
+   * Represents {@link #phases} as JSON, for reporting and persisting the search profile.
+   * @return A JSON array of phase objects, as returned by {@link SearchPhase#toJson()}.
+   */
+  public JsonArray getProfile() {
+    JsonArrayBuilder profile = Json.createArrayBuilder();
+    synchronized (phases) {
+      for (SearchPhase phase : phases) profile = profile.add(phase.toJson());
+    }
+    return profile.build();
+  } // end of getProfile()
+  
+  /**
+   * Ends timing, logs the phase timings, and saves the profile with the results, if
+   * they're stored in the database.
+   */
+  protected void finishProfile() {
+    endPhase();
+    setStatus("Timings: " + getPhaseTimesSummary());
+    if (results instanceof SqlSearchResults) {
+      ((SqlSearchResults)results).saveProfile(getProfile().toString());
+    }
+  } // end of finishProfile()
+  
+  /**
+   * Converts the main search query, which inserts into a table with a unique index on
+   * the target, into one that skips matches whose target has already been inserted, so
+   * that only the first match for each target is kept.
+   * <p> Duplicates are skipped with a no-op <tt>ON DUPLICATE KEY UPDATE</tt> rather than
+   * <tt>INSERT IGNORE</tt>, which would also silently truncate or convert invalid values.
+   * @param q The main search query, which starts "INSERT INTO <var>table</var>".
+   * @return The query, ending
+   * "ON DUPLICATE KEY UPDATE <var>table</var>.target_annotation_uid = ...".
+   */
+  public static String IgnoreDuplicates(String q) {
+    Matcher insert = Pattern.compile("^INSERT INTO (\\w+)").matcher(q);
+    if (!insert.find()) return q;
+    String uid = insert.group(1) + ".target_annotation_uid";
+    return q + " ON DUPLICATE KEY UPDATE " + uid + " = " + uid;
+  } // end of IgnoreDuplicates()
+  
+  /**
+   * Sets the parameters of the main search query; the first parameter is the search ID,
+   * and the rest are the given parameter values.
+   * @param sql The main search query.
+   * @param parameters Parameter values, which must be Double, Integer, or String.
+   * @throws SQLException
+   */
+  protected void setParameters(PreparedStatement sql, Vector<Object> parameters)
+    throws SQLException {
+    int iLayerParameter = 1;     
+    sql.setLong(iLayerParameter++,
+                results instanceof SqlSearchResults?((SqlSearchResults)results).getId():0);
+    for (Object parameter : parameters) {
+      if (parameter instanceof Double) {
+        sql.setDouble(iLayerParameter++, (Double)parameter);
+      } else if (parameter instanceof Integer) {
+        sql.setInt(iLayerParameter++, (Integer)parameter);
+      } else {
+        sql.setString(iLayerParameter++, parameter.toString());
+      }
+    }
+  } // end of setParameters()
+  
+  /**
+   * Executes the main search query as a number of concurrent partitions, each of which
+   * covers a contiguous range of transcript ag_ids and runs on its own connection.
+   * <p> Each partition inserts its matches into its own table, and once they're all
+   * finished, the partition tables are copied into <tt>_result</tt> in partition
+   * order. As all matches for a given transcript are in the same partition, and
+   * each partition preserves the query's ORDER BY, the resulting <tt>match_id</tt>s sort
+   * matches within each transcript in the same order as an unpartitioned query.
+   * <p> Partition tables left behind by searches that were interrupted (e.g. by a server
+   * restart) are dropped first, by {@link #DropOrphanedPartitions(Connection)}.
+   * @param q The main search query, which inserts into <tt>_result</tt>.
+   * @param parameters Parameter values for the query.
+   * @param agIdExpression The expression for the transcript ag_id in the query.
+   * @param transcriptClause Clause that restricts transcripts to those matching
+   * {@link Matrix#transcriptQuery}, or "".
+   * @param participantClause Clause that restricts turns to those of participants
+   * matching {@link Matrix#participantQuery}, or "".
+   * @throws Exception
+   */
+  protected void executePartitioned(
+    String q, Vector<Object> parameters, String agIdExpression, String transcriptClause,
+    String participantClause)
+    throws Exception {
+    Connection connection = getStore().getConnection();
+    long searchId = ((SqlSearchResults)results).getId();
+    DropOrphanedPartitions(connection);
+    
+    // identify candidate transcripts
+    Vector<Long> agIds = new Vector<Long>();
+    PreparedStatement sql = connection.prepareStatement(
+      "SELECT transcript.ag_id FROM transcript WHERE 1=1" + transcriptClause
+      +(participantClause.length() == 0?""
+        :" AND EXISTS (SELECT * FROM annotation_layer_" + SqlConstants.LAYER_TURN + " turn"
+        +" WHERE turn.ag_id = transcript.ag_id" + participantClause + ")")
+      +" ORDER BY transcript.ag_id");
+    try {
+      ResultSet rs = sql.executeQuery();
+      try {
+        while (rs.next()) agIds.add(rs.getLong(1));
+      } finally {
+        rs.close();
+      }
+    } finally {
+      sql.close();
+    }
+    List<long[]> ranges = PartitionRanges(agIds, partitions);
+    setStatus("Querying " + ranges.size() + " partitions...");
+    
+    final Vector<String> tables = new Vector<String>();
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, ranges.size()));
+    try {
+      Vector<Future<Void>> futures = new Vector<Future<Void>>();
+      for (long[] range : ranges) {
+        final String table = "_result_" + searchId + "_" + tables.size();
+        final String partitionSql = PartitionSql(q, table, agIdExpression, range[0], range[1]);
+        tables.add(table);
+        futures.add(pool.submit(() -> {
+              executePartition(table, partitionSql, parameters);
+              return null;
+            }));
+      } // next partition
+      
+      // wait for them all to finish
+      int finished = 0;
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch(ExecutionException x) {
+          // stop the other partitions
+          cancelCurrentUpdates();
+          if (x.getCause() instanceof Exception) throw (Exception)x.getCause();
+          throw x;
+        }
+        finished++;
+        iPercentComplete = Math.max(
+          iPercentComplete, SQL_STARTED_PERCENT
+          + (SQL_FINISHED_PERCENT - SQL_STARTED_PERCENT) * finished / futures.size());
+      } // next partition
+      
+      // merge partitions, in order
+      startPhase("merge");
+      setStatus("Merging " + tables.size() + " partitions...");
+      for (String table : tables) {
+        if (bCancelling) break;
+        sql = connection.prepareStatement(
+          "INSERT INTO _result (" + RESULT_COLUMNS + ")"
+          +" SELECT " + RESULT_COLUMNS + " FROM " + table + " ORDER BY match_id");
+        try {
+          executeUpdate(sql);
+        } finally {
+          sql.close();
+        }
+      } // next partition
+    } catch (Exception x) {
+      if (bCancelling) {
+        setStatus("Cancelled.");
+      } else {
+        throw x;
+      }
+    } finally {
+      pool.shutdownNow();
+      for (String table : tables) {
+        try {
+          sql = connection.prepareStatement("DROP TABLE IF EXISTS " + table);
+          try {
+            sql.executeUpdate();
+          } finally {
+            sql.close();
+          }
+        } catch(SQLException exception) {
+          setStatus("Could not drop " + table + ": " + exception.getMessage());
+        }
+      } // next table
+    }
+  } // end of executePartitioned()
+  
+  /**
+   * Drops partition tables (<tt>_result_<var>searchId</var>_<var>n</var></tt>) that
+   * don't belong to a current search task, which are left behind if a partitioned search
+   * is interrupted before it can drop them.
+   * @param connection A connection to the database.
+   * @throws SQLException
+   */
+  public static void DropOrphanedPartitions(Connection connection) throws SQLException {
+    Vector<String> orphans = new Vector<String>();
+    PreparedStatement sql = connection.prepareStatement("SHOW TABLES LIKE '\\_result\\_%'");
+    try {
+      ResultSet rs = sql.executeQuery();
+      try {
+        while (rs.next()) {
+          String table = rs.getString(1);
+          Matcher partition = PARTITION_TABLE.matcher(table);
+          if (partition.matches()
+              && !SearchResultsCache.InUse(Long.parseLong(partition.group(1)))) {
+            orphans.add(table);
+          }
+        } // next table
+      } finally {
+        rs.close();
+      }
+    } finally {
+      sql.close();
+    }
+    for (String table : orphans) {
+      sql = connection.prepareStatement("DROP TABLE IF EXISTS " + table);
+      try {
+        sql.executeUpdate();
+      } finally {
+        sql.close();
+      }
+    } // next orphan
+  } // end of DropOrphanedPartitions()
+  
+  /** Pattern for the names of partition tables, with the search ID as group 1. */
+  static final Pattern PARTITION_TABLE = Pattern.compile("^_result_([0-9]+)_[0-9]+$");
+  
+  /**
+   * Executes one partition of the main search query, on a new connection.
+   * @param table The name of the table the partition inserts its results into.
+   * @param partitionSql The query for the partition.
+   * @param parameters Parameter values for the query.
+   * @throws Exception
+   */
+  protected void executePartition(String table, String partitionSql, Vector<Object> parameters)
+    throws Exception {
+    if (bCancelling) return;
+    Connection partitionConnection = getStore().getDb().newConnection();
+    try {
+      // support matching multiline labels - e.g. layer.type == "text/url"
+      try (PreparedStatement sqlMultilineMatch = partitionConnection.prepareStatement(
+             "SET default_regex_flags='MULTILINE'")) {
+        sqlMultilineMatch.executeUpdate();
+      } catch (SQLException x) {
+      }
+      // not a temporary table, as temporary tables are visible only to their own connection
+      PreparedStatement sql = partitionConnection.prepareStatement(
+        sqlCreateResultTable.format(new Object[] { "", table }));
+      try {
+        executeUpdate(sql);
+      } finally {
+        sql.close();
+      }
+      if (bCancelling) return;
+      sql = partitionConnection.prepareStatement(IgnoreDuplicates(partitionSql));
+      try {
+        setParameters(sql, parameters);
+        executeUpdate(sql);
+      } finally {
+        sql.close();
+      }
+    } finally {
+      partitionConnection.close();
+    }
+  } // end of executePartition()
+
+  /**
+   * Splits the given ordered list of transcript ag_ids into contiguous ranges, each
+   * containing roughly the same number of transcripts.
+   * @param agIds The ag_ids of candidate transcripts, in ascending order.
+   * @param partitions The maximum number of partitions.
+   * @return A list of inclusive [from, to] ag_id ranges, in ascending order. There are
+   * fewer than <var>partitions</var> ranges if there are fewer transcripts than
+   * partitions, and no ranges if there are no transcripts.
+   */
+  public static List<long[]> PartitionRanges(List<Long> agIds, int partitions) {
+    Vector<long[]> ranges = new Vector<long[]>();
+    if (agIds.size() == 0) return ranges;
+    partitions = Math.max(1, Math.min(partitions, agIds.size()));
+    for (int p = 0; p < partitions; p++) {
+      int first = (int)((long)agIds.size() * p / partitions);
+      int last = (int)((long)agIds.size() * (p + 1) / partitions) - 1;
+      ranges.add(new long[] { agIds.get(first), agIds.get(last) });
+    } // next partition
+    return ranges;
+  } // end of PartitionRanges()
+
+  /**
+   * Counts the matches for the main search query, without saving them to the
+   * <tt>result</tt> table, and sets {@link #results} to a {@link CountSearchResults}.
+   * <p> If {@link #estimatePercent} is set, only a sample of transcripts is searched, and
+   * the counts are scaled up accordingly. 
+   * @param q The main search query.
+   * @param parameters The main search query parameters.
+   * @param agIdExpression The expression for the transcript ag_id in the query.
+   * @throws Exception
+   */
+  protected void countMatches(String q, Vector<Object> parameters, String agIdExpression)
+    throws Exception {
+    boolean estimating = estimatePercent > 0 && estimatePercent < 100;
+    startPhase("count");
+    setStatus(estimating?"Estimating number of matches from "+estimatePercent+"% of transcripts..."
+              :"Counting matches...");
+    iPercentComplete = SQL_STARTED_PERCENT;
+    String countSql = CountSql(q, agIdExpression, estimating?estimatePercent:0);
+    phaseSql(countSql);
+    PreparedStatement sql = getStore().getConnection().prepareStatement(countSql);
+    try {
+      setParameters(sql, parameters);
+      if (bCancelling) return;
+      currentUpdates.add(sql);
+      ResultSet rs = null;
+      try {
+        rs = sql.executeQuery();
+      } catch (SQLException x) {
+        if (bCancelling) {
+          setStatus("Cancelled.");
+          return;
+        }
+        throw x;
+      } finally {
+        currentUpdates.remove(sql);
+      }
+      try {
+        rs.next();
+        int matchCount = rs.getInt("match_count");
+        int transcriptCount = rs.getInt("transcript_count");
+        Integer participantCount = rs.getInt("participant_count");
+        if (estimating) {
+          matchCount = (int)Math.round(matchCount * 100.0 / estimatePercent);
+          transcriptCount = (int)Math.round(transcriptCount * 100.0 / estimatePercent);
+          // participants may have transcripts both inside and outside the sample
+          participantCount = null;
+        }
+        results = new CountSearchResults(
+          matchCount, transcriptCount, participantCount, estimating)
+          .setName(getName());
+        phaseRows(matchCount);
+        finishProfile();
+      } finally {
+        rs.close();
+      }
+    } finally {
+      sql.close();
+    }
+    iPercentComplete = 100;
+  } // end of countMatches()
+
+  /**
+   * Converts the given main search query into a query that counts matches, and the
+   * transcripts and participants they're in, instead of inserting them into a table.
+   * @param q The main search query, which inserts into <tt>_result</tt> and ends with
+   * an ORDER BY clause.
+   * @param agIdExpression The expression for the transcript ag_id in the query.
+   * @param samplePercent The percentage of transcripts to sample, or 0 to count matches
+   * in all transcripts.
+   * @return An SQL query that returns one row with the columns <tt>match_count</tt>,
+   * <tt>transcript_count</tt>, and <tt>participant_count</tt>.
+   */
+  public static String CountSql(String q, String agIdExpression, int samplePercent) {
+    String matches = q.substring(q.indexOf(" SELECT ") + 1);
+    if (samplePercent > 0) {
+      int orderBy = matches.lastIndexOf(" ORDER BY ");
+      if (orderBy < 0) orderBy = matches.length();
+      matches = matches.substring(0, orderBy)
+        + " AND MOD(" + agIdExpression + ", 100) < " + samplePercent
+        + matches.substring(orderBy);
+    }
+    return "SELECT COUNT(DISTINCT matches.target_annotation_uid) AS match_count,"
+      +" COUNT(DISTINCT matches.ag_id) AS transcript_count,"
+      +" COUNT(DISTINCT participant.label) AS participant_count"
+      +" FROM (" + matches + ") matches"
+      +" INNER JOIN annotation_layer_" + SqlConstants.LAYER_TURN + " participant"
+      +" ON participant.annotation_id = matches.turn_annotation_id";
+  } // end of CountSql()
+  
+  /**
+   * Converts the given main search query into a query for one partition, which inserts
+   * into the given table and includes only matches in the given range of ag_ids.
+   * @param q The main search query, which inserts into <tt>_result</tt> and ends with
+   * an ORDER BY clause.
+   * @param table The table to insert results into.
+   * @param agIdExpression The expression for the transcript ag_id in the query.
+   * @param fromAgId The lowest ag_id in the partition.
+   * @param toAgId The highest ag_id in the partition.
+   * @return The SQL query for the partition.
+   */
+  public static String PartitionSql(
+    String q, String table, String agIdExpression, long fromAgId, long toAgId) {
+    int orderBy = q.lastIndexOf(" ORDER BY ");
+    if (orderBy < 0) orderBy = q.length();
+    return q.substring(0, orderBy).replaceFirst("^INSERT INTO _result ", "INSERT INTO " + table + " ")
+      + " AND " + agIdExpression + " BETWEEN " + fromAgId + " AND " + toAgId
+      + q.substring(orderBy);
+  } // end of PartitionSql()
+
   /**
    * Fills in the token IDs for the result set, assuming they're missing because the
    * search query identified the target annotation ID but not the word tokens IDs.
@@ -2284,11 +2821,11 @@ public class OneQuerySearch extends SearchTask {
             7, rsWordLine.getLong("last_matched_word_annotation_id"));
           sqlUpdateResult.setInt(8, rsResults.getInt("search_id"));
           sqlUpdateResult.setInt(9, rsResults.getInt("match_id"));
-          sqlUpdateResult.executeUpdate();
+          phaseRows(sqlUpdateResult.executeUpdate());
         } else { // no matching token, so invalid result
           sqlDeleteResult.setInt(1, rsResults.getInt("search_id"));
           sqlDeleteResult.setInt(2, rsResults.getInt("match_id"));
-          sqlDeleteResult.executeUpdate();
+          phaseRows(sqlDeleteResult.executeUpdate());
         }
         rsWordLine.close();
         
@@ -2335,8 +2872,11 @@ public class OneQuerySearch extends SearchTask {
       int soFarThisGraph = 0;
       results.reset();
       int matchNumber = 1;
+      int matchCount = Math.max(1, results.size());
       while (results.hasNext()) {
         IdUtterance match = new IdUtterance(results.next());
+        // filtering is the last 5% of the search
+        iPercentComplete = Math.max(iPercentComplete, 95 + 4 * matchNumber++ / matchCount);
         boolean keepMatch = true;
         if (overlapThreshold != null) {
           if (!graphIds.containsKey(match.getGraphId())) { // get transcript name
@@ -2404,50 +2944,48 @@ public class OneQuerySearch extends SearchTask {
 
         if (!keepMatch) { // remove it from database
           results.remove();
+          phaseRows(1);
         }
       } // next match
     }
   } // end of filterResults()
 
+  /** Statements currently being executed, which are cancelled if the task is cancelled. */
+  private Set<PreparedStatement> currentUpdates
+  = Collections.synchronizedSet(new HashSet<PreparedStatement>());
   /**
-   * Somebody is still interested in the thread, so keep it from dying.
-   */
-  public void keepAlive() {
-    super.keepAlive();
-
-    // if we're running a query, give the illusion of progress..
-    if (getRunning() &&
-        iPercentComplete >= SQL_STARTED_PERCENT
-        && iPercentComplete < SQL_FINISHED_PERCENT) {
-      // move forward a quarter of what's left
-      int percentLeft = SQL_FINISHED_PERCENT - iPercentComplete;
-      int aThird = percentLeft / 8;
-      iPercentComplete += aThird;
-    }
-  } // end of keepAlive()
-  
-  private PreparedStatement currentUpdate = null;   
-  /**
-   * Executes a cancellable update statement.
+   * Executes a cancellable update statement, adding the number of rows it affected to
+   * the current phase.
    * @param sql
+   * @return The number of rows affected.
    * @throws SQLException
    */
-  private void executeUpdate(PreparedStatement sql) throws SQLException {
-    currentUpdate = sql;
+  private int executeUpdate(PreparedStatement sql) throws SQLException {
+    currentUpdates.add(sql);
     try {
-      sql.executeUpdate();
+      int rows = sql.executeUpdate();
+      phaseRows(rows);
+      return rows;
     } finally {
-      currentUpdate = null;
+      currentUpdates.remove(sql);
     }
   } // end of executeUpdate()
+  /**
+   * Cancels all statements currently being executed.
+   */
+  private void cancelCurrentUpdates() {
+    synchronized (currentUpdates) {
+      for (PreparedStatement update : currentUpdates) {
+        try { update.cancel(); } catch(Throwable t) {}
+      }
+    }
+  } // end of cancelCurrentUpdates()
   /**
    * Override to allow update-statement cancellation
    */
   public void cancel() {
     super.cancel();
-    if (currentUpdate != null) {
-      try {currentUpdate.cancel(); } catch(Throwable t) {}
-    }
+    cancelCurrentUpdates();
   }
   
   /**
@@ -2504,6 +3042,43 @@ public class OneQuerySearch extends SearchTask {
   /** Percent progress indicating that the main SQL query has finished */
   static final int SQL_FINISHED_PERCENT = 90;
 
+  /** Columns of the <tt>_result</tt> table, apart from <tt>match_id</tt> */
+  static final String RESULT_COLUMNS =
+    "search_id, ag_id, speaker_number, start_anchor_id, end_anchor_id,"
+    +" defining_annotation_id, segment_annotation_id, target_annotation_id,"
+    +" turn_annotation_id, first_matched_word_annotation_id,"
+    +" last_matched_word_annotation_id, complete, target_annotation_uid";
+  
+  /**
+   * Statement for creating a table with the structure of <tt>_result</tt>.
+   * <p> The unique index on <tt>target_annotation_uid</tt> ensures that only the first
+   * match for each target is kept, when inserting with {@link #IgnoreDuplicates(String)}.
+   * <p> Arguments are:
+   * <ul>
+   *  <li>0: "TEMPORARY" for a temporary table, or "" for a normal table.</li>
+   *  <li>1: table name.</li>
+   * </ul>
+   */
+  static final MessageFormat sqlCreateResultTable = new MessageFormat(
+    "CREATE {0} TABLE {1} ( "
+    +" search_id INTEGER UNSIGNED NOT NULL, "
+    +" match_id INTEGER UNSIGNED NOT NULL AUTO_INCREMENT,"
+    +" ag_id INTEGER UNSIGNED NOT NULL,"
+    +" speaker_number INTEGER UNSIGNED NOT NULL,"
+    +" start_anchor_id INTEGER UNSIGNED NOT NULL,"
+    +" end_anchor_id INTEGER UNSIGNED NOT NULL,"
+    +" defining_annotation_id INTEGER UNSIGNED NULL,"
+    +" segment_annotation_id INTEGER UNSIGNED NULL,"
+    +" target_annotation_id INTEGER UNSIGNED NULL,"
+    +" turn_annotation_id INTEGER UNSIGNED NULL,"
+    +" first_matched_word_annotation_id INTEGER UNSIGNED NULL,"
+    +" last_matched_word_annotation_id INTEGER UNSIGNED NULL,"
+    +" complete BIT NULL,"
+    +" target_annotation_uid VARCHAR(20) NULL,"
+    +" PRIMARY KEY  (search_id, match_id),"
+    +" UNIQUE INDEX IDX_UID (search_id, target_annotation_uid)"
+    +") ENGINE=MyISAM;");
+  
   /** SQL condition that identifies only main participants */
   static final String strMainParticipantClause 
   = " AND transcript_speaker.main_speaker = 1";
@@ -0,0 +1,610 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Vector;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import nzilbb.ag.Graph;
+import nzilbb.util.MonitorableSeries;
+
+/**
+ * A Graph series that loads graphs in background threads, each with its own database
+ * connection, so that loading graphs from the database overlaps with serializing them.
+ * <p> Each graph is identified by an item (e.g. a transcript ID or a fragment
+ * specification) which is passed to a {@link Loader} to load the graph. Up to
+ * {@link #getPrefetchCount()} graphs are loaded ahead of the consumer, or fewer if the
+ * graphs already loaded contain more than {@link #getMaxBufferedAnnotations()}
+ * annotations. Graphs are always returned in the order of their items.
+ * <p> If a {@link BatchLoader} is set, consecutive items are loaded together, up to
+ * {@link #getBatchSize()} at a time. If loading a batch fails, its items are loaded
+ * individually with the {@link Loader}, so that errors are reported for the items that
+ * caused them.
+ * <p> If the store has no connection factory, graphs are loaded on demand using the store
+ * itself. This is also how the remaining graphs are loaded if the consumer comes back
+ * after the background threads have given up waiting for it - see {@link #getIdleTimeout()}.
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+public class PrefetchingGraphSeries<T> implements MonitorableSeries<Graph> {
+
+  /**
+   * Loads the graph identified by an item.
+   */
+  @FunctionalInterface
+  public interface Loader<T> {
+    /**
+     * Loads a graph.
+     * @param store The store to load the graph from.
+     * @param item The item identifying the graph.
+     * @return The graph, or null if there is no graph to return for this item.
+     * @throws Exception If the graph cannot be loaded.
+     */
+    Graph load(SqlGraphStore store, T item) throws Exception;
+  }
+
+  /**
+   * Loads the graphs identified by several items at once.
+   */
+  @FunctionalInterface
+  public interface BatchLoader<T> {
+    /**
+     * Loads graphs.
+     * @param store The store to load the graphs from.
+     * @param items The items identifying the graphs.
+     * @return The graphs, in the same order as <var>items</var>, with null elements for
+     * items that have no graph to return.
+     * @throws Exception If the graphs cannot be loaded.
+     */
+    Graph[] load(SqlGraphStore store, List<T> items) throws Exception;
+  }
+
+  /** Marker for items that produced no graph. */
+  private static final Graph NO_GRAPH = new Graph();
+
+  // Attributes:
+
+  private final Object lock = new Object();
+  private Iterator<T> items;
+  private long size;
+  private Loader<T> loader;
+  private BatchLoader<T> batchLoader;
+  private HashMap<Long,Graph> loaded = new HashMap<Long,Graph>();
+  private HashMap<Long,Exception> errors = new HashMap<Long,Exception>();
+  private HashMap<Long,T> failedItems = new HashMap<Long,T>();
+  private long nextToClaim = 0;
+  private long nextToConsume = 0;
+  private long bufferedAnnotations = 0;
+  private long lastConsumed = System.currentTimeMillis();
+  private boolean exhausted = false;
+  private boolean cancelling = false;
+  private boolean idle = false;
+  private Vector<Thread> workers = null;
+
+  /**
+   * Whether the series is currently running.
+   * @see #getRunning()
+   * @see #setRunning(boolean)
+   */
+  protected boolean running = false;
+  /**
+   * Getter for {@link #running}: Whether the series is currently running.
+   * @return Whether the series is currently running.
+   */
+  public boolean getRunning() { return running; }
+  /**
+   * Setter for {@link #running}: Whether the series is currently running.
+   * @param newRunning Whether the series is currently running.
+   */
+  public void setRunning(boolean newRunning) { running = newRunning; }
+
+  /**
+   * The graph store whose settings and connection factory are used for loading graphs.
+   * @see #getStore()
+   * @see #setStore(SqlGraphStore)
+   */
+  protected SqlGraphStore store;
+  /**
+   * Getter for {@link #store}: The graph store whose settings and connection factory are
+   * used for loading graphs.
+   * @return The graph store whose settings and connection factory are used for loading graphs.
+   */
+  public SqlGraphStore getStore() { return store; }
+  /**
+   * Setter for {@link #store}: The graph store whose settings and connection factory are
+   * used for loading graphs.
+   * @param newStore The graph store whose settings and connection factory are used for
+   * loading graphs.
+   */
+  public PrefetchingGraphSeries<T> setStore(SqlGraphStore newStore) { store = newStore; return this; }
+
+  /**
+   * The number of background threads, each with its own database connection, that load
+   * graphs. The default is 3.
+   * @see #getConnections()
+   * @see #setConnections(int)
+   */
+  protected int connections = 3;
+  /**
+   * Getter for {@link #connections}: The number of background threads, each with its own
+   * database connection, that load graphs.
+   * @return The number of background threads that load graphs.
+   */
+  public int getConnections() { return connections; }
+  /**
+   * Setter for {@link #connections}: The number of background threads, each with its own
+   * database connection, that load graphs.
+   * @param newConnections The number of background threads that load graphs. 0 means
+   * graphs are loaded on demand using the store's own connection.
+   */
+  public PrefetchingGraphSeries<T> setConnections(int newConnections) { connections = newConnections; return this; }
+
+  /**
+   * The maximum number of graphs to load ahead of the consumer. The default is 8.
+   * @see #getPrefetchCount()
+   * @see #setPrefetchCount(int)
+   */
+  protected int prefetchCount = 8;
+  /**
+   * Getter for {@link #prefetchCount}: The maximum number of graphs to load ahead of the
+   * consumer.
+   * @return The maximum number of graphs to load ahead of the consumer.
+   */
+  public int getPrefetchCount() { return prefetchCount; }
+  /**
+   * Setter for {@link #prefetchCount}: The maximum number of graphs to load ahead of the
+   * consumer.
+   * @param newPrefetchCount The maximum number of graphs to load ahead of the consumer.
+   */
+  public PrefetchingGraphSeries<T> setPrefetchCount(int newPrefetchCount) { prefetchCount = Math.max(1, newPrefetchCount); return this; }
+
+  /**
+   * The maximum total number of annotations in graphs that have been loaded but not yet
+   * consumed, after which no more graphs are loaded until the consumer catches up. At
+   * least one graph is always loaded ahead. The default is 500,000.
+   * @see #getMaxBufferedAnnotations()
+   * @see #setMaxBufferedAnnotations(long)
+   */
+  protected long maxBufferedAnnotations = 500000;
+  /**
+   * Getter for {@link #maxBufferedAnnotations}: The maximum total number of annotations in
+   * graphs that have been loaded but not yet consumed.
+   * @return The maximum total number of annotations in graphs that have been loaded but
+   * not yet consumed.
+   */
+  public long getMaxBufferedAnnotations() { return maxBufferedAnnotations; }
+  /**
+   * Setter for {@link #maxBufferedAnnotations}: The maximum total number of annotations in
+   * graphs that have been loaded but not yet consumed.
+   * @param newMaxBufferedAnnotations The maximum total number of annotations in graphs
+   * that have been loaded but not yet consumed.
+   */
+  public PrefetchingGraphSeries<T> setMaxBufferedAnnotations(long newMaxBufferedAnnotations) { maxBufferedAnnotations = newMaxBufferedAnnotations; return this; }
+
+  /**
+   * How long, in milliseconds, background threads wait for the consumer before giving up,
+   * in case the series is abandoned before it's finished. If the consumer does come back,
+   * the remaining graphs are loaded on demand. The default is 10 minutes.
+   * @see #getIdleTimeout()
+   * @see #setIdleTimeout(long)
+   */
+  protected long idleTimeout = 10 * 60 * 1000;
+  /**
+   * Getter for {@link #idleTimeout}: How long, in milliseconds, background threads wait for
+   * the consumer before giving up.
+   * @return How long, in milliseconds, background threads wait for the consumer before
+   * giving up.
+   */
+  public long getIdleTimeout() { return idleTimeout; }
+  /**
+   * Setter for {@link #idleTimeout}: How long, in milliseconds, background threads wait for
+   * the consumer before giving up.
+   * @param newIdleTimeout How long, in milliseconds, background threads wait for the
+   * consumer before giving up.
+   */
+  public PrefetchingGraphSeries<T> setIdleTimeout(long newIdleTimeout) { idleTimeout = newIdleTimeout; return this; }
+
+  /**
+   * Whether to skip items whose graphs cannot be loaded, rather than ending the series.
+   * The default is false.
+   * @see #getSkipErrors()
+   * @see #setSkipErrors(boolean)
+   */
+  protected boolean skipErrors = false;
+  /**
+   * Getter for {@link #skipErrors}: Whether to skip items whose graphs cannot be loaded,
+   * rather than ending the series.
+   * @return Whether to skip items whose graphs cannot be loaded.
+   */
+  public boolean getSkipErrors() { return skipErrors; }
+  /**
+   * Setter for {@link #skipErrors}: Whether to skip items whose graphs cannot be loaded,
+   * rather than ending the series.
+   * @param newSkipErrors Whether to skip items whose graphs cannot be loaded.
+   */
+  public PrefetchingGraphSeries<T> setSkipErrors(boolean newSkipErrors) { skipErrors = newSkipErrors; return this; }
+
+  /**
+   * Handler for errors loading graphs, which receives the item and the exception. By
+   * default, errors are printed to stderr.
+   * @see #getErrorHandler()
+   * @see #setErrorHandler(BiConsumer)
+   */
+  protected BiConsumer<T,Exception> errorHandler = (item, exception) -> {
+    System.err.println(
+      "PrefetchingGraphSeries: Could not load graph for \""+item+"\": " + exception);
+  };
+  /**
+   * Getter for {@link #errorHandler}: Handler for errors loading graphs.
+   * @return Handler for errors loading graphs.
+   */
+  public BiConsumer<T,Exception> getErrorHandler() { return errorHandler; }
+  /**
+   * Setter for {@link #errorHandler}: Handler for errors loading graphs.
+   * @param newErrorHandler Handler for errors loading graphs, which receives the item and
+   * the exception.
+   */
+  public PrefetchingGraphSeries<T> setErrorHandler(BiConsumer<T,Exception> newErrorHandler) { errorHandler = newErrorHandler; return this; }
+
+  /**
+   * The maximum number of items to load at once with the batch loader. The default is 50.
+   * @see #getBatchSize()
+   * @see #setBatchSize(int)
+   */
+  protected int batchSize = 50;
+  /**
+   * Getter for {@link #batchSize}: The maximum number of items to load at once with the
+   * batch loader.
+   * @return The maximum number of items to load at once with the batch loader.
+   */
+  public int getBatchSize() { return batchSize; }
+  /**
+   * Setter for {@link #batchSize}: The maximum number of items to load at once with the
+   * batch loader.
+   * @param newBatchSize The maximum number of items to load at once with the batch loader.
+   */
+  public PrefetchingGraphSeries<T> setBatchSize(int newBatchSize) { batchSize = Math.max(1, newBatchSize); return this; }
+
+  // Methods:
+
+  /**
+   * Constructor.
+   * @param store The graph store whose settings and connection factory are used for
+   * loading graphs.
+   * @param items The items identifying the graphs to load, in order.
+   * @param size The number of items, or a negative number if it's unknown.
+   * @param loader Loads the graph identified by an item.
+   */
+  public PrefetchingGraphSeries(SqlGraphStore store, Iterator<T> items, long size, Loader<T> loader) {
+    setStore(store);
+    this.items = items;
+    this.size = size;
+    this.loader = loader;
+  } // end of constructor
+
+  /**
+   * Sets a loader that loads several graphs at once, which is used instead of the
+   * per-item loader when there's more than one item to load.
+   * @param newBatchLoader Loads the graphs identified by several items, or null to load
+   * graphs one at a time.
+   * @return This series.
+   */
+  public PrefetchingGraphSeries<T> setBatchLoader(BatchLoader<T> newBatchLoader) {
+    batchLoader = newBatchLoader;
+    return this;
+  } // end of setBatchLoader()
+
+  /**
+   * Claims the next items to load. Must be called while synchronized on {@link #lock}.
+   * @return The claimed items, the first of which has the index that {@link #nextToClaim}
+   * had before the call; empty if there are no more items.
+   */
+  private List<T> claim() {
+    int count = 1;
+    if (batchLoader != null) {
+      count = (int)Math.max(1, Math.min(batchSize, prefetchCount - (nextToClaim - nextToConsume)));
+    }
+    Vector<T> claimed = new Vector<T>();
+    try {
+      while (claimed.size() < count) {
+        if (!items.hasNext()) {
+          exhausted = true;
+          break;
+        }
+        claimed.add(items.next());
+        nextToClaim++;
+      } // next item
+    } catch(Exception exception) { // record the error instead of a graph
+      exhausted = true;
+      errors.put(nextToClaim, exception);
+      loaded.put(nextToClaim, NO_GRAPH);
+      nextToClaim++;
+    }
+    return claimed;
+  } // end of claim()
+
+  /**
+   * Loads the graphs for the given items, and adds them to {@link #loaded}.
+   * @param store The store to load graphs from.
+   * @param firstIndex The index of the first item.
+   * @param batch The items.
+   */
+  private void load(SqlGraphStore store, long firstIndex, List<T> batch) {
+    Graph[] graphs = null;
+    if (batchLoader != null && batch.size() > 1) {
+      try {
+        graphs = batchLoader.load(store, batch);
+        if (graphs != null && graphs.length != batch.size()) graphs = null;
+      } catch(Throwable t) { // load them one at a time instead
+        graphs = null;
+      }
+    }
+    for (int i = 0; i < batch.size(); i++) {
+      T item = batch.get(i);
+      Graph graph = null;
+      Exception error = null;
+      if (graphs != null) {
+        graph = graphs[i];
+      } else {
+        try {
+          graph = loader.load(store, item);
+        } catch(Exception exception) {
+          error = exception;
+        } catch(Throwable t) {
+          error = new Exception(t.toString(), t);
+        }
+      }
+      synchronized (lock) {
+        long index = firstIndex + i;
+        if (error != null) {
+          errors.put(index, error);
+          failedItems.put(index, item);
+        }
+        if (graph == null) {
+          graph = NO_GRAPH;
+        } else {
+          bufferedAnnotations += graph.getAnnotationsById().size();
+        }
+        loaded.put(index, graph);
+        lock.notifyAll();
+      } // synchronized
+    } // next item
+  } // end of load()
+
+  /**
+   * Creates a graph store for a background thread, with its own database connection, and
+   * the same settings and user permissions as {@link #store}.
+   * @return A new graph store, or null if {@link #store} has no connection factory.
+   * @throws SQLException If a connection cannot be made.
+   */
+  protected SqlGraphStore newWorkerStore() throws SQLException {
+    if (store.getDb() == null) return null;
+    SqlGraphStore worker = new SqlGraphStore();
+    worker.setId(store.id);
+    worker.setBaseUrl(store.getBaseUrl());
+    worker.setFiles(store.getFiles());
+    worker.setDb(store.getDb());
+    // copy the user and their roles, rather than looking them up again
+    worker.user = store.getUser();
+    worker.getUserRoles().clear();
+    worker.getUserRoles().addAll(store.getUserRoles());
+    worker.permissionsSpecified = store.permissionsSpecified;
+    worker.setDisconnectWhenFinished(true);
+    return worker;
+  } // end of newWorkerStore()
+
+  /**
+   * Starts the background threads, if they can have their own connections.
+   */
+  protected void startWorkers() {
+    workers = new Vector<Thread>();
+    for (int w = 0; w < connections; w++) {
+      final SqlGraphStore worker;
+      try {
+        worker = newWorkerStore();
+        if (worker == null) break; // load on demand
+      } catch(SQLException exception) {
+        System.err.println("PrefetchingGraphSeries: Could not connect worker: " + exception);
+        break;
+      }
+      Thread thread = new Thread(() -> work(worker), "PrefetchingGraphSeries-"+w);
+      thread.setDaemon(true);
+      workers.add(thread);
+    } // next worker
+    for (Thread thread : workers) thread.start();
+  } // end of startWorkers()
+
+  /**
+   * Background thread loop: claims the next items and loads their graphs, until there are
+   * no more items or the series is cancelled.
+   * @param worker The store to load graphs from.
+   */
+  protected void work(SqlGraphStore worker) {
+    try {
+      while (true) {
+        List<T> batch = null;
+        long index = -1;
+        synchronized (lock) {
+          while (!cancelling && !exhausted
+                 && (nextToClaim - nextToConsume >= prefetchCount
+                     || (bufferedAnnotations >= maxBufferedAnnotations
+                         && nextToClaim > nextToConsume))) {
+            if (System.currentTimeMillis() - lastConsumed > idleTimeout) { // abandoned?
+              // stop loading, and leave any remaining graphs to be loaded on demand
+              idle = true;
+              break;
+            }
+            try { lock.wait(1000); } catch(InterruptedException x) { cancelling = true; }
+          } // wait for the consumer to catch up
+          if (cancelling || idle || exhausted) break;
+          index = nextToClaim;
+          batch = claim();
+          lock.notifyAll();
+        } // synchronized
+        if (batch.size() == 0) break;
+
+        load(worker, index, batch);
+      } // next batch
+    } finally {
+      try { if (worker.getConnection() != null) worker.getConnection().close(); } catch(Throwable t) {}
+    }
+  } // end of work()
+
+  /**
+   * Loads the graphs for the next items on the consumer's thread, using {@link #store}
+   * itself; used when there are no background threads.
+   * @return false if there are no more items, true otherwise.
+   */
+  protected boolean loadOnDemand() {
+    long index = nextToClaim;
+    List<T> batch = null;
+    synchronized (lock) {
+      if (exhausted) return false;
+      batch = claim();
+    }
+    if (batch.size() > 0) load(store, index, batch);
+    return loaded.containsKey(index);
+  } // end of loadOnDemand()
+
+  /**
+   * Reports an error loading the graph with the given index, if there was one.
+   * @param index The index of the item.
+   * @return true if there was an error, false otherwise.
+   */
+  private boolean reportError(long index) {
+    Exception error = errors.remove(index);
+    if (error == null) return false;
+    T item = failedItems.remove(index);
+    if (errorHandler != null) {
+      try { errorHandler.accept(item, error); } catch(Throwable t) {}
+    }
+    return true;
+  } // end of reportError()
+
+  // Spliterator implementations
+
+  public int characteristics() {
+    // not SIZED, as items that have no graph, or errors, are skipped
+    return ORDERED | NONNULL | IMMUTABLE;
+  }
+
+  /**
+   * Returns the next graph, in item order, waiting for it to be loaded if necessary.
+   */
+  public boolean tryAdvance(Consumer<? super Graph> action) {
+    if (cancelling) {
+      running = false;
+      return false;
+    }
+    running = true;
+    if (workers == null) startWorkers();
+
+    Graph graph = null;
+    while (graph == null) {
+      long index = nextToConsume;
+      synchronized (lock) {
+        while (!loaded.containsKey(index)) {
+          if (cancelling || (exhausted && index >= nextToClaim)) { // no more graphs
+            running = false;
+            return false;
+          }
+          if ((workers.size() == 0 || idle) && index >= nextToClaim) {
+            // no background threads will load it, so load it now
+            if (!loadOnDemand()) { // no more items
+              running = false;
+              return false;
+            }
+          } else { // wait for a background thread to load it
+            try {
+              lock.wait(1000);
+            } catch(InterruptedException x) {
+              cancel();
+            }
+          }
+        } // wait for the graph
+        graph = loaded.remove(index);
+        if (graph != NO_GRAPH) bufferedAnnotations -= graph.getAnnotationsById().size();
+        lastConsumed = System.currentTimeMillis();
+      } // synchronized
+      if (reportError(index) && !skipErrors) {
+        cancel();
+        running = false;
+        return false;
+      }
+      synchronized (lock) {
+        nextToConsume++;
+        lock.notifyAll();
+      }
+      if (graph == NO_GRAPH) graph = null; // skip to the next item
+    } // next item
+    action.accept(graph);
+    return true;
+  }
+
+  /**
+   * Counts the elements in the series, if possible.
+   * @return The number of elements in the series, or Long.MAX_VALUE if the number is unknown.
+   */
+  public long estimateSize() {
+    if (size >= 0) return size;
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * Graphs must be returned in order, so the series cannot be split; parallelism is
+   * provided by the background threads instead.
+   * @return null.
+   */
+  public Spliterator<Graph> trySplit() {
+    return null;
+  }
+
+  // MonitorableSeries methods
+
+  /**
+   * Determines how far through the series is.
+   * @return An integer between 0 and 100 (inclusive), or null if progress can not be calculated.
+   */
+  public Integer getPercentComplete() {
+    if (size > 0) {
+      return (int)((nextToConsume * 100) / size);
+    }
+    return null;
+  }
+
+  /**
+   * Cancels spliteration; the next call to tryAdvance will return false, and background
+   * threads stop loading graphs.
+   */
+  public void cancel() {
+    synchronized (lock) {
+      cancelling = true;
+      loaded.clear();
+      bufferedAnnotations = 0;
+      lock.notifyAll();
+    }
+  }
+} // end of class PrefetchingGraphSeries
@@ -23,6 +23,9 @@ package nzilbb.labbcat.server.db;
 
 import java.sql.*;
 import java.text.NumberFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
 import java.util.Spliterator;
 import java.util.function.Consumer;
 import nzilbb.ag.*;
@@ -238,26 +241,7 @@ public class ResultSeries implements MonitorableSeries<Graph> {
     }
     running = true;
     try {
-      rs.next();
-      nextRow++;
-      Graph fragment = store.getFragment(
-        rs.getString("ag_id"), "em_12_"+rs.getLong("defining_annotation_id"), layers);
-      fragment.shiftAnchors(-rs.getDouble("start_offset"));
-      if (prefixNames) {
-        String prefix = prefixFormatter.format(nextRow);
-        fragment.setId(prefix + "-" + fragment.getId());
-      }
-      if (tagTarget) {
-        Annotation target = fragment.getAnnotation(rs.getString("target_annotation_uid"));
-        if (target != null) {
-          fragment.addLayer(
-            new Layer("target")
-            .setAlignment(Constants.ALIGNMENT_NONE)
-            .setParentId(target.getLayerId()));
-          fragment.createTag(target, "target", prefixFormatter.format(nextRow));
-        }
-      }      
-      action.accept(fragment);
+      action.accept(getFragment(store, nextMatch()));
       return true;
     } catch(Exception exception) {
       running = false;
@@ -265,6 +249,108 @@ public class ResultSeries implements MonitorableSeries<Graph> {
     }
   }
 
+  /**
+   * Advances to the next result row, and returns the details required to load its
+   * fragment with {@link #getFragment(SqlGraphStore,Object[])}.
+   * @return The serial number, ag_id, defining_annotation_id, start offset, and target
+   * annotation ID of the next match.
+   * @throws SQLException If a database error occurs.
+   */
+  protected Object[] nextMatch() throws SQLException {
+    rs.next();
+    nextRow++;
+    return new Object[] {
+      Long.valueOf(nextRow), rs.getString("ag_id"),
+      Long.valueOf(rs.getLong("defining_annotation_id")),
+      Double.valueOf(rs.getDouble("start_offset")), rs.getString("target_annotation_uid") };
+  } // end of nextMatch()
+
+  /**
+   * Loads the fragment for a match.
+   * @param store The store to load the fragment from.
+   * @param match The match details, as returned by {@link #nextMatch()}.
+   * @return The fragment.
+   * @throws Exception If the fragment cannot be loaded.
+   */
+  protected Graph getFragment(SqlGraphStore store, Object[] match) throws Exception {
+    return finishFragment(
+      store.getFragment((String)match[1], "em_12_"+match[2], layers), match);
+  } // end of getFragment()
+
+  /**
+   * Loads the fragments for several matches at once, with
+   * {@link SqlGraphStore#getFragments(List,String[])}.
+   * @param store The store to load the fragments from.
+   * @param matches The match details, as returned by {@link #nextMatch()}.
+   * @return The fragments, in the same order as the matches.
+   * @throws Exception If the fragments cannot be loaded.
+   */
+  protected Graph[] getFragments(SqlGraphStore store, List<Object[]> matches)
+    throws Exception {
+    Vector<String[]> ids = new Vector<String[]>();
+    for (Object[] match : matches) {
+      ids.add(new String[] { (String)match[1], "em_12_"+match[2] });
+    }
+    Graph[] fragments = store.getFragments(ids, layers);
+    for (int m = 0; m < fragments.length; m++) {
+      fragments[m] = finishFragment(fragments[m], matches.get(m));
+    }
+    return fragments;
+  } // end of getFragments()
+
+  /**
+   * Adjusts a loaded fragment for its match, by shifting anchors so that the fragment
+   * starts at 0, and adding the prefix and target tag if required.
+   * @param fragment The fragment.
+   * @param match The match details, as returned by {@link #nextMatch()}.
+   * @return The fragment.
+   */
+  protected Graph finishFragment(Graph fragment, Object[] match) {
+    long serial = (Long)match[0];
+    fragment.shiftAnchors(-(Double)match[3]);
+    if (prefixNames) {
+      String prefix = prefixFormatter.format(serial);
+      fragment.setId(prefix + "-" + fragment.getId());
+    }
+    if (tagTarget) {
+      Annotation target = fragment.getAnnotation((String)match[4]);
+      if (target != null) {
+        fragment.addLayer(
+          new Layer("target")
+          .setAlignment(Constants.ALIGNMENT_NONE)
+          .setParentId(target.getLayerId()));
+        fragment.createTag(target, "target", prefixFormatter.format(serial));
+      }
+    }      
+    return fragment;
+  } // end of finishFragment()
+
+  /**
+   * Creates a series of the same fragments, which are loaded ahead in batches, in
+   * background threads with their own database connections.
+   * <p> Results are read from this series, which should not be used directly afterwards.
+   * @return A prefetching series of the fragments.
+   */
+  public PrefetchingGraphSeries<Object[]> prefetching() {
+    Iterator<Object[]> matches = new Iterator<Object[]>() {
+        public boolean hasNext() { return !cancelling && hasMoreElements(); }
+        public Object[] next() {
+          try {
+            return nextMatch();
+          } catch(SQLException exception) {
+            throw new RuntimeException(exception);
+          }
+        }
+      };
+    return new PrefetchingGraphSeries<Object[]>(store, matches, rowCount, this::getFragment)
+      .setBatchLoader(this::getFragments)
+      .setErrorHandler((match, exception) -> {
+          System.err.println(
+            "ResultSeries: Could not get fragment "+(match==null?"":match[1]+":"+match[2])
+            +": " + exception);
+        });
+  } // end of prefetching()
+
   /**
    * Counts the elements in the series, if possible.
    * @return The number of elements in the series, or null if the number is unknown.
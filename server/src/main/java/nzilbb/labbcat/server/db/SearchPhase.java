@@ -0,0 +1,167 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Profile of one phase of a {@link OneQuerySearch}: how long it took, how many rows it
+ * affected, and a hash of the SQL it executed, if any.
+ * <p> The hash identifies the generated SQL without including it in full, so that
+ * profiles of slow searches can be grouped by the query they ran.
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+public class SearchPhase {
+
+  /**
+   * The name of the phase, e.g. "query".
+   * @see #getName()
+   */
+  protected String name;
+  /**
+   * Getter for {@link #name}: The name of the phase, e.g. "query".
+   * @return The name of the phase, e.g. "query".
+   */
+  public String getName() { return name; }
+
+  /**
+   * Wall time taken by the phase, in milliseconds.
+   * @see #getMillis()
+   * @see #setMillis(long)
+   */
+  protected long millis = 0;
+  /**
+   * Getter for {@link #millis}: Wall time taken by the phase, in milliseconds.
+   * @return Wall time taken by the phase, in milliseconds.
+   */
+  public long getMillis() { return millis; }
+  /**
+   * Setter for {@link #millis}: Wall time taken by the phase, in milliseconds.
+   * @param newMillis Wall time taken by the phase, in milliseconds.
+   */
+  public SearchPhase setMillis(long newMillis) { millis = newMillis; return this; }
+
+  /**
+   * The number of rows affected by the phase, or null if it affected no rows.
+   * @see #getRows()
+   * @see #addRows(long)
+   */
+  protected Long rows;
+  /**
+   * Getter for {@link #rows}: The number of rows affected by the phase, or null if it
+   * affected no rows.
+   * @return The number of rows affected by the phase, or null.
+   */
+  public Long getRows() { return rows; }
+  /**
+   * Adds to {@link #rows}. Partitioned queries add their rows concurrently, so this is
+   * synchronized.
+   * @param count The number of rows to add.
+   */
+  public synchronized SearchPhase addRows(long count) {
+    rows = rows == null? count : rows + count;
+    return this;
+  } // end of addRows()
+
+  /**
+   * Hash of the SQL executed by the phase, or null if it executed no identifying SQL.
+   * @see #getSqlHash()
+   * @see #setSqlHash(String)
+   */
+  protected String sqlHash;
+  /**
+   * Getter for {@link #sqlHash}: Hash of the SQL executed by the phase, or null if it
+   * executed no identifying SQL.
+   * @return Hash of the SQL executed by the phase, or null.
+   */
+  public String getSqlHash() { return sqlHash; }
+  /**
+   * Setter for {@link #sqlHash}: Hash of the SQL executed by the phase, or null if it
+   * executed no identifying SQL.
+   * @param newSqlHash Hash of the SQL executed by the phase, or null.
+   */
+  public SearchPhase setSqlHash(String newSqlHash) { sqlHash = newSqlHash; return this; }
+
+  /**
+   * Constructor.
+   * @param name The name of the phase.
+   */
+  public SearchPhase(String name) {
+    this.name = name;
+  } // end of constructor
+
+  /**
+   * Sets {@link #sqlHash} to the hash of the given SQL.
+   * @param sql The SQL executed by the phase.
+   * @return A reference to this object.
+   */
+  public SearchPhase setSql(String sql) {
+    return setSqlHash(Hash(sql));
+  } // end of setSql()
+
+  /**
+   * Represents the phase as JSON.
+   * @return A JSON object with the attributes "name", "millis", and optionally "rows"
+   * and "sqlHash".
+   */
+  public JsonObject toJson() {
+    JsonObjectBuilder json = Json.createObjectBuilder()
+      .add("name", name)
+      .add("millis", millis);
+    if (rows != null) json = json.add("rows", rows);
+    if (sqlHash != null) json = json.add("sqlHash", sqlHash);
+    return json.build();
+  } // end of toJson()
+
+  /**
+   * Summarises the phase, e.g. "query 3456ms 120 rows".
+   * @return A summary of the phase.
+   */
+  @Override public String toString() {
+    return name + " " + millis + "ms" + (rows == null? "" : " " + rows + " rows");
+  } // end of toString()
+
+  /**
+   * Computes a short hash of the given SQL text, for identifying identical queries.
+   * @param sql The SQL text.
+   * @return The first 16 hexadecimal digits of the SHA-256 digest of the SQL, or null
+   * if <var>sql</var> is null.
+   */
+  public static String Hash(String sql) {
+    if (sql == null) return null;
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+        sql.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for (int b = 0; b < 8; b++) hex.append(String.format("%02x", digest[b]));
+      return hex.toString();
+    } catch(NoSuchAlgorithmException exception) { // every JVM has SHA-256
+      return Integer.toHexString(sql.hashCode());
+    }
+  } // end of Hash()
+
+} // end of class SearchPhase
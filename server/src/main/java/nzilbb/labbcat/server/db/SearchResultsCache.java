@@ -0,0 +1,385 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.Vector;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import nzilbb.labbcat.server.search.SearchTask;
+import nzilbb.labbcat.server.task.Task;
+
+/**
+ * In-process cache of completed search results, so that identical searches can reuse
+ * the <tt>result</tt> rows of a previous search instead of re-running the query.
+ * <p> Searches are keyed by {@link #Key(SearchTask,String,String,long,String)}, which
+ * includes a canonical representation of the search matrix, all task options that
+ * affect which matches are returned, the user's access restrictions, the schema
+ * version, and the corpus <tt>dataVersion</tt>.
+ * <p> Cached results are shared; {@link SqlSearchResults#remove()} copies shared
+ * results into a new search before removing anything, so the cached rows are never
+ * changed.
+ * <p> When entries are evicted (least recently used first), their <tt>result</tt> rows
+ * are deleted, unless a current task is still using them, or a reader has
+ * {@link #Acquire(long) acquired} them and not yet {@link #Release(long) released} them.
+ * <p> Anything that changes transcript data should call {@link #Invalidate()}, and
+ * anything that changes layer definitions should call {@link #SchemaChanged()}. As a
+ * safeguard against changes made by other processes, entries also expire after
+ * {@link #GetMaxAgeMs()}.
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+public class SearchResultsCache {
+
+  /** A cached search. */
+  static class Entry {
+    final String database;
+    final long searchId;
+    final String name;
+    final int size;
+    final long created;
+    Entry(String database, long searchId, String name, int size) {
+      this.database = database;
+      this.searchId = searchId;
+      this.name = name;
+      this.size = size;
+      this.created = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * Cached searches, in access order, keyed by
+   * {@link #Key(SearchTask,String,String,long,String)}.
+   */
+  private static final LinkedHashMap<String,Entry> entries
+  = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+
+  /** Entries that have been evicted, but whose rows have not yet been deleted. */
+  private static final Vector<Entry> evicted = new Vector<Entry>();
+
+  /** Number of current readers of each search's rows, keyed by search ID. */
+  private static final HashMap<Long,Integer> readers = new HashMap<Long,Integer>();
+
+  /**
+   * Version of the layer schema, which is incremented by {@link #SchemaChanged()}.
+   * @see #GetSchemaVersion()
+   */
+  private static volatile long schemaVersion = 0;
+  /**
+   * Getter for {@link #schemaVersion}: Version of the layer schema.
+   * @return Version of the layer schema.
+   */
+  public static long GetSchemaVersion() { return schemaVersion; }
+
+  /**
+   * Maximum number of searches to cache. 0 or less disables caching.
+   * @see #GetMaxEntries()
+   * @see #SetMaxEntries(int)
+   */
+  private static volatile int maxEntries = 20;
+  /**
+   * Getter for {@link #maxEntries}: Maximum number of searches to cache.
+   * @return Maximum number of searches to cache.
+   */
+  public static int GetMaxEntries() { return maxEntries; }
+  /**
+   * Setter for {@link #maxEntries}: Maximum number of searches to cache.
+   * @param newMaxEntries Maximum number of searches to cache. 0 or less disables caching.
+   */
+  public static void SetMaxEntries(int newMaxEntries) { maxEntries = newMaxEntries; }
+
+  /**
+   * Maximum age of cached searches in milliseconds, after which they're not reused.
+   * @see #GetMaxAgeMs()
+   * @see #SetMaxAgeMs(long)
+   */
+  private static volatile long maxAgeMs = 60 * 60 * 1000;
+  /**
+   * Getter for {@link #maxAgeMs}: Maximum age of cached searches in milliseconds.
+   * @return Maximum age of cached searches in milliseconds.
+   */
+  public static long GetMaxAgeMs() { return maxAgeMs; }
+  /**
+   * Setter for {@link #maxAgeMs}: Maximum age of cached searches in milliseconds.
+   * @param newMaxAgeMs Maximum age of cached searches in milliseconds.
+   */
+  public static void SetMaxAgeMs(long newMaxAgeMs) { maxAgeMs = newMaxAgeMs; }
+
+  /**
+   * Generates the cache key for the given search.
+   * <p> The key includes everything that determines which matches are returned, so
+   * <tt>suppressResults</tt>, which only affects presentation, is not included.
+   * @param task The search, whose matrix has already been normalized.
+   * @param database The URL of the database being searched.
+   * @param dataVersion The current <tt>dataVersion</tt> system attribute.
+   * @param schemaVersion The current {@link #GetSchemaVersion()}.
+   * @param accessRestriction A representation of the permissions that restrict which
+   * transcripts the user can access, or null if access is not restricted.
+   * @return The key for the given search.
+   */
+  public static String Key(
+    SearchTask task, String database, String dataVersion, long schemaVersion,
+    String accessRestriction) {
+    StringBuilder key = new StringBuilder();
+    key.append(task.getClass().getName())
+      .append("|").append(database)
+      .append("|").append(dataVersion)
+      .append("|").append(schemaVersion)
+      .append("|").append(task.getRestrictByUser())
+      .append("|").append(accessRestriction)
+      .append("|").append(task.getMainParticipantOnly())
+      .append("|").append(task.getMatchesPerTranscript())
+      .append("|").append(task.getMaxMatches())
+      .append("|").append(task.getOverlapThreshold())
+      .append("|").append(task.getAnchorConfidenceThreshold())
+      .append("|");
+    if (task.getMatrix() != null) Canonical(task.getMatrix().toJson(), key);
+    return key.toString();
+  } // end of Key()
+
+  /**
+   * Appends a canonical representation of the given JSON value to the given buffer, with
+   * object keys sorted and null values omitted, so that equivalent values produce
+   * identical strings regardless of the order in which attributes were set.
+   * @param value The JSON value.
+   * @param buffer The buffer to append to.
+   * @return The buffer.
+   */
+  public static StringBuilder Canonical(JsonValue value, StringBuilder buffer) {
+    if (value == null) {
+      buffer.append("null");
+    } else if (value instanceof JsonObject) {
+      JsonObject object = (JsonObject)value;
+      buffer.append("{");
+      boolean first = true;
+      for (String name : new TreeSet<String>(object.keySet())) {
+        JsonValue attribute = object.get(name);
+        if (attribute == null || attribute.getValueType() == JsonValue.ValueType.NULL) continue;
+        if (!first) buffer.append(",");
+        first = false;
+        buffer.append(JsonQuote(name)).append(":");
+        Canonical(attribute, buffer);
+      } // next attribute
+      buffer.append("}");
+    } else if (value instanceof JsonArray) {
+      buffer.append("[");
+      boolean first = true;
+      for (JsonValue element : (JsonArray)value) {
+        if (!first) buffer.append(",");
+        first = false;
+        Canonical(element, buffer);
+      } // next element
+      buffer.append("]");
+    } else if (value instanceof JsonString) {
+      buffer.append(JsonQuote(((JsonString)value).getString()));
+    } else {
+      buffer.append(value.toString());
+    }
+    return buffer;
+  } // end of Canonical()
+
+  /**
+   * Quotes a string for inclusion in a canonical JSON representation.
+   * @param s The string.
+   * @return The string, enclosed in double quotes, with quotes and backslashes escaped.
+   */
+  private static String JsonQuote(String s) {
+    return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+  } // end of JsonQuote()
+
+  /**
+   * Looks up a previous search with the given key.
+   * @param key The key, as returned by {@link #Key(SearchTask,String,String,long,String)}.
+   * @param connection A connection to the database, used to check the results still exist.
+   * @return Shared access to the results of a previous identical search, or null if there
+   * is no such search.
+   * @throws SQLException
+   */
+  public static SqlSearchResults Lookup(String key, Connection connection)
+    throws SQLException {
+    if (maxEntries <= 0) return null;
+    Entry entry = null;
+    synchronized (entries) {
+      entry = entries.get(key);
+      if (entry != null && System.currentTimeMillis() - entry.created > maxAgeMs) {
+        entries.remove(key);
+        evicted.add(entry);
+        entry = null;
+      }
+    }
+    if (entry == null) return null;
+    // check the rows are all still there
+    PreparedStatement sql = connection.prepareStatement(
+      "SELECT COUNT(*) FROM result WHERE search_id = ?");
+    try {
+      sql.setLong(1, entry.searchId);
+      ResultSet rs = sql.executeQuery();
+      try {
+        if (!rs.next() || rs.getInt(1) != entry.size) { // rows have been removed
+          synchronized (entries) {
+            entries.remove(key);
+          }
+          return null;
+        }
+      } finally {
+        rs.close();
+      }
+    } finally {
+      sql.close();
+    }
+    return new SqlSearchResults(entry.searchId, entry.name, connection).setShared(true);
+  } // end of Lookup()
+
+  /**
+   * Adds the results of a completed search to the cache, evicting the least recently
+   * used searches if there are too many.
+   * @param key The key, as returned by {@link #Key(SearchTask,String,String,long,String)}.
+   * @param results The complete results of the search, which will be marked as shared.
+   * @param connection A connection to the database, used to delete evicted results.
+   * @throws SQLException
+   */
+  public static void Add(String key, SqlSearchResults results, Connection connection)
+    throws SQLException {
+    if (maxEntries <= 0) return;
+    String database = connection.getMetaData().getURL();
+    results.setShared(true);
+    synchronized (entries) {
+      Entry previous = entries.put(
+        key, new Entry(database, results.getId(), results.getName(), results.size()));
+      if (previous != null && previous.searchId != results.getId()) evicted.add(previous);
+      Iterator<Map.Entry<String,Entry>> lru = entries.entrySet().iterator();
+      while (entries.size() > maxEntries && lru.hasNext()) {
+        evicted.add(lru.next().getValue());
+        lru.remove();
+      } // next least-recently-used entry
+    }
+    DeleteEvicted(connection);
+  } // end of Add()
+
+  /**
+   * Removes all cached searches, so that subsequent searches are re-run. This must be
+   * called whenever data that might be searched is changed.
+   */
+  public static void Invalidate() {
+    synchronized (entries) {
+      evicted.addAll(entries.values());
+      entries.clear();
+    }
+  } // end of Invalidate()
+
+  /**
+   * Removes all cached searches, and increments the {@link #GetSchemaVersion()}, so
+   * that searches already running don't add results for the old schema. This must be
+   * called whenever layer definitions are changed.
+   */
+  public static void SchemaChanged() {
+    synchronized (entries) {
+      schemaVersion++;
+    }
+    Invalidate();
+  } // end of SchemaChanged()
+
+  /**
+   * Registers a reader of the given search's rows, so that they're not deleted if the
+   * search is evicted before {@link #Release(long)} is called.
+   * @param searchId The search ID.
+   */
+  public static void Acquire(long searchId) {
+    synchronized (entries) {
+      readers.merge(searchId, 1, Integer::sum);
+    }
+  } // end of Acquire()
+
+  /**
+   * Unregisters a reader of the given search's rows, previously registered with
+   * {@link #Acquire(long)}.
+   * @param searchId The search ID.
+   */
+  public static void Release(long searchId) {
+    synchronized (entries) {
+      readers.computeIfPresent(searchId, (id, count) -> count > 1? count - 1 : null);
+    }
+  } // end of Release()
+
+  /**
+   * Deletes the <tt>result</tt> rows of evicted searches that are in the given database
+   * and are not being used by any current task.
+   * @param connection A connection to the database.
+   * @throws SQLException
+   */
+  static void DeleteEvicted(Connection connection) throws SQLException {
+    if (evicted.size() == 0) return;
+    String database = connection.getMetaData().getURL();
+    Vector<Entry> toDelete = new Vector<Entry>();
+    synchronized (entries) {
+      Iterator<Entry> e = evicted.iterator();
+      while (e.hasNext()) {
+        Entry entry = e.next();
+        if (!entry.database.equals(database)) continue;
+        if (InUse(entry.searchId)) continue; // try again later
+        toDelete.add(entry);
+        e.remove();
+      } // next evicted entry
+    }
+    if (toDelete.size() == 0) return;
+    PreparedStatement sql = connection.prepareStatement(
+      "DELETE FROM result WHERE search_id = ?");
+    try {
+      for (Entry entry : toDelete) {
+        sql.setLong(1, entry.searchId);
+        sql.executeUpdate();
+      } // next entry
+    } finally {
+      sql.close();
+    }
+  } // end of DeleteEvicted()
+
+  /**
+   * Determines whether any current task or reader is using the given search results.
+   * @param searchId The search ID.
+   * @return true if there's a search task whose results have the given ID, or the rows
+   * have been {@link #Acquire(long) acquired} by a reader, false otherwise.
+   */
+  static boolean InUse(long searchId) {
+    if (readers.containsKey(searchId)) return true;
+    for (Task task : Task.getTasksArray()) {
+      if (task instanceof SearchTask) {
+        Object results = ((SearchTask)task).getResults();
+        if (results instanceof SqlSearchResults
+            && ((SqlSearchResults)results).getId() == searchId) {
+          return true;
+        }
+      }
+    } // next task
+    return false;
+  } // end of InUse()
+
+} // end of class SearchResultsCache
@@ -78,6 +78,7 @@ import nzilbb.ag.util.Validator;
 import nzilbb.configure.Parameter;
 import nzilbb.configure.ParameterSet;
 import nzilbb.encoding.ValidLabelsDefinitions;
+import nzilbb.labbcat.server.metrics.MetricRegistry;
 import nzilbb.media.MediaCensor;
 import nzilbb.media.MediaConverter;
 import nzilbb.media.MediaException;
@@ -1475,6 +1476,7 @@ public class SqlGraphStore implements GraphStore {
   public boolean saveParticipant(Annotation participant)
     throws StoreException, PermissionException {
     requireEdit();
+    SearchResultsCache.Invalidate();
     if (!"participant".equals(participant.getLayerId()))
       throw new StoreException("Annotation is not on the participant layer.");
     if (participant.getChange() == Change.Operation.Destroy )
@@ -1567,6 +1569,8 @@ public class SqlGraphStore implements GraphStore {
       System.err.println("SQL error: " + exception);
       exception.printStackTrace(System.err);
       throw new StoreException("Invalid query."); // TODO i18n
+    } finally {
+      GraphSnapshotCache.Invalidate(); // many transcripts may have changed
     }
     return thereWereChanges;
   } // end of saveParticipant()
@@ -2056,6 +2060,31 @@ public class SqlGraphStore implements GraphStore {
   public String[] getMatchingTranscriptIds(
     String expression, Integer pageLength, Integer pageNumber, String order)
     throws StoreException, PermissionException {
+    Vector<String> graphs = new Vector<String>();
+    getMatchingTranscriptIds(
+      expression, pageLength, pageNumber, order, id -> graphs.add(id));
+    return graphs.toArray(new String[0]);
+  }
+   
+  /**
+   * Passes the IDs of transcripts that match a particular pattern to the given consumer,
+   * one at a time as they're read from the database, so that the whole list needn't be
+   * held in memory.
+   * @param expression An expression that determines which transcripts match - see
+   * {@link #getMatchingTranscriptIds(String,Integer,Integer,String)}.
+   * @param pageLength The maximum number of IDs to return, or null to return all.
+   * @param pageNumber The zero-based page number to return, or null to return the first page.
+   * @param order The ordering for the list of IDs, a string containing a comma-separated
+   * list of epxressions, which may be appended by " ASC" or " DESC", or null for transcript
+   * ID order.
+   * @param consumer Receives each matching transcript ID.
+   * @throws StoreException If an error occurs.
+   * @throws PermissionException If the operation is not permitted.
+   */
+  public void getMatchingTranscriptIds(
+    String expression, Integer pageLength, Integer pageNumber, String order,
+    Consumer<String> consumer)
+    throws StoreException, PermissionException {
     try {
       String limit = "";
       if (pageLength != null) {
@@ -2066,13 +2095,14 @@ public class SqlGraphStore implements GraphStore {
       PreparedStatement sql = graphMatchSql(
         expression, "transcript_id", order, limit);
       ResultSet rs = sql.executeQuery();
-      Vector<String> graphs = new Vector<String>();
-      while (rs.next()) {
-        graphs.add(rs.getString("transcript_id"));
-      } // next layer
-      rs.close();
-      sql.close();
-      return graphs.toArray(new String[0]);
+      try {
+        while (rs.next()) {
+          consumer.accept(rs.getString("transcript_id"));
+        } // next transcript
+      } finally {
+        rs.close();
+        sql.close();
+      }
     } catch(SQLException exception) {
       System.err.println("SQL error from expression \""+expression+"\": " + exception);
       exception.printStackTrace(System.err);
@@ -2198,6 +2228,28 @@ public class SqlGraphStore implements GraphStore {
 
       rs.close();
 
+      // if these layers have been loaded before, the transcript can be restored from a
+      // snapshot, instead of querying each layer again
+      String snapshotKey = null;
+      Set<String> headerLayerIds = null;
+      if (layerIds != null && GraphSnapshotCache.Enabled()
+          // adjacent transcripts can change without this transcript changing
+          && !Arrays.asList(layerIds).contains("previous-transcript")
+          && !Arrays.asList(layerIds).contains("next-transcript")) {
+        snapshotKey = GraphSnapshotCache.Key(
+          getConnection().getMetaData().getURL(), iAgId,
+          !getUserRoles().contains("edit"), layerIds);
+        headerLayerIds = new HashSet<String>(graph.getSchema().getLayers().keySet());
+        GraphSnapshot snapshot = GraphSnapshotCache.Get(snapshotKey);
+        if (snapshot != null) {
+          HashMap<String,Layer> layers = new HashMap<String,Layer>();
+          for (String layerId : snapshot.getLayerIds()) layers.put(layerId, getLayer(layerId));
+          snapshot.restore(graph, layers);
+          graph.commit();
+          return graph;
+        }
+      }
+
       Vector<String> setStartEndLayers = new Vector<String>();
 
       if (layerIds != null) {
@@ -2615,6 +2667,9 @@ public class SqlGraphStore implements GraphStore {
         } // next layer
       } // there are anchors
 
+      if (snapshotKey != null) {
+        GraphSnapshotCache.Put(snapshotKey, GraphSnapshot.Of(graph, headerLayerIds));
+      }
       graph.commit();
       return graph;
     } catch(SQLException exception) {
@@ -2624,6 +2679,54 @@ public class SqlGraphStore implements GraphStore {
     }
   }
 
+  /**
+   * Discards cached snapshots of the given transcript, because it has changed.
+   * <p> This must be called after the change has been written, so that snapshots taken
+   * while it was being written aren't used.
+   * @param agId The transcript's <tt>ag_id</tt>.
+   * @see GraphSnapshotCache
+   */
+  protected void invalidateSnapshots(long agId) {
+    try {
+      GraphSnapshotCache.Invalidate(getConnection().getMetaData().getURL(), agId);
+    } catch(SQLException exception) {
+      GraphSnapshotCache.Invalidate();
+    }
+  } // end of invalidateSnapshots()
+
+  /**
+   * Discards cached snapshots of the given transcript, because it has changed. If the
+   * transcript doesn't exist, there's nothing to discard, but if it can't be looked up,
+   * all snapshots are discarded.
+   * <p> This must be called after the change has been written, so that snapshots taken
+   * while it was being written aren't used.
+   * @param transcriptId The transcript's ID.
+   * @see GraphSnapshotCache
+   */
+  protected void invalidateSnapshots(String transcriptId) {
+    if (!GraphSnapshotCache.Enabled()) { // don't bother looking up the ag_id
+      GraphSnapshotCache.Invalidate();
+      return;
+    }
+    try {
+      PreparedStatement sql = getConnection().prepareStatement(
+        "SELECT ag_id FROM transcript WHERE transcript_id = ?");
+      try {
+        sql.setString(1, transcriptId);
+        ResultSet rs = sql.executeQuery();
+        try {
+          if (rs.next()) invalidateSnapshots(rs.getLong(1));
+        } finally {
+          rs.close();
+        }
+      } finally {
+        sql.close();
+      }
+    } catch(SQLException exception) {
+      GraphSnapshotCache.Invalidate();
+    }
+  } // end of invalidateSnapshots()
+
   /**
    * Gets a fragment of a transcript, given its ID and the ID of an annotation in it that
    * defines the  desired fragment.
@@ -2964,33 +3067,62 @@ public class SqlGraphStore implements GraphStore {
   public Annotation[] getAnnotations(
     String id, String layerId, Integer maxOrdinal, Integer pageLength, Integer pageNumber)
     throws StoreException, PermissionException, GraphNotFoundException {
-    Annotation[] annotations = getMatchingAnnotations(
-      "graph.id = '" + QL.Esc(id) + "' AND layer.id = '" + QL.Esc(layerId) + "'"
-      +(maxOrdinal==null?"":" AND ordinal <= " + maxOrdinal), pageLength, pageNumber);
+    Vector<Annotation> annotations = new Vector<Annotation>();
+    getAnnotations(
+      id, layerId, maxOrdinal, pageLength, pageNumber, annotation -> annotations.add(annotation));
+    return annotations.toArray(new Annotation[0]);
+  }
+   
+  /**
+   * Passes the annotations on the given layer of the given transcript to the given
+   * consumer, one at a time as they're read from the database, so that the whole list
+   * needn't be held in memory.
+   * @param id The ID of the transcript.
+   * @param layerId The ID of the layer.
+   * @param maxOrdinal The maximum ordinal for the returned annotations, or null for all
+   * annotations - see {@link #getAnnotations(String,String,Integer,Integer,Integer)}.
+   * @param pageLength The maximum number of IDs to return, or null to return all.
+   * @param pageNumber The page number to return, or null to return the first page.
+   * @param consumer Receives each annotation.
+   * @throws StoreException If an error occurs.
+   * @throws PermissionException If the operation is not permitted.
+   * @throws GraphNotFoundException If the transcript was not found in the store.
+   */
+  public void getAnnotations(
+    String id, String layerId, Integer maxOrdinal, Integer pageLength, Integer pageNumber,
+    Consumer<Annotation> consumer)
+    throws StoreException, PermissionException, GraphNotFoundException {
     Layer layer = getLayer(layerId);
+    Graph graph = null;
     if (layer != null && layer.getType().indexOf('/') > 0) { // a MIME type
       // the annotations may have files
       // do they have access to them?
       try {
         if (hasAccess(id, new MediaFile().setMimeType(layer.getType()).getType().substring(0,1))) {
           String[] layers = { "corpus", "episode" };
-          Graph graph = getTranscript(id, layers);
-          for (Annotation annotation : annotations) {
-            // is there a data file associated with the annotation?
-            try {
-              String dataUrl = urlForAnnotationFile(annotation, graph, layer.getType());
-              if (dataUrl != null) annotation.put("dataUrl", dataUrl);
-            } catch (Exception x) {
-              System.err.println("Error getting dataUrl for "+annotation.getId() + ": " + x);
-            }            
-          } // next annotation
+          graph = getTranscript(id, layers);
         } // they have access 
       } catch (SQLException x) {
         System.err.println(
           "Error getting media access info for layer "+layerId + " ("+layer.getType()+"): " + x);
       }            
     }
-    return annotations;
+    final Graph fileGraph = graph;
+    getMatchingAnnotations(
+      "graph.id = '" + QL.Esc(id) + "' AND layer.id = '" + QL.Esc(layerId) + "'"
+      +(maxOrdinal==null?"":" AND ordinal <= " + maxOrdinal), pageLength, pageNumber, false,
+      annotation -> {
+        if (fileGraph != null) {
+          // is there a data file associated with the annotation?
+          try {
+            String dataUrl = urlForAnnotationFile(annotation, fileGraph, layer.getType());
+            if (dataUrl != null) annotation.put("dataUrl", dataUrl);
+          } catch (Exception x) {
+            System.err.println("Error getting dataUrl for "+annotation.getId() + ": " + x);
+          }            
+        }
+        consumer.accept(annotation);
+      });
   }
    
   /**
@@ -3047,6 +3179,28 @@ public class SqlGraphStore implements GraphStore {
   public Annotation[] getMatchingAnnotations(
     String expression, Integer pageLength, Integer pageNumber, boolean setGraph)
     throws StoreException, PermissionException {
+    Vector<Annotation> annotations = new Vector<Annotation>();
+    getMatchingAnnotations(
+      expression, pageLength, pageNumber, setGraph, annotation -> annotations.add(annotation));
+    return annotations.toArray(new Annotation[0]);	 
+  }
+
+  /**
+   * Passes annotations that match a particular pattern to the given consumer, one at a
+   * time as they're read from the database, so that the whole list needn't be held in
+   * memory.
+   * @param expression An expression that determines which transcripts match.
+   * @param pageLength The maximum number of annotations to return, or null to return all.
+   * @param pageNumber The page number to return, or null to return the first page.
+   * @param setGraph true to include the graph of all returned annotations, false otherwise.
+   * @param consumer Receives each matching {@link Annotation}.
+   * @throws StoreException If an error occurs.
+   * @throws PermissionException If the operation is not permitted.
+   */
+  public void getMatchingAnnotations(
+    String expression, Integer pageLength, Integer pageNumber, boolean setGraph,
+    Consumer<Annotation> consumer)
+    throws StoreException, PermissionException {
 
     Schema schema = getSchema();
     try {
@@ -3060,7 +3214,6 @@ public class SqlGraphStore implements GraphStore {
       ResultSet rsAnnotation = sql.executeQuery();
       Layer layer = null;
       Graph graph = null;
-      Vector<Annotation> annotations = new Vector<Annotation>();
       String[] defaultGraphLayers = { "corpus", "episode" };
       while (rsAnnotation.next()) {
         if (layer == null) { // they'll all be on the same layer
@@ -3092,12 +3245,10 @@ public class SqlGraphStore implements GraphStore {
           Annotation participant = getParticipant(id);
           if (participant != null) annotation.setLabel(participant.getLabel());
         }
-        annotations.add(annotation);
+        consumer.accept(annotation);
       } // next annotation
       rsAnnotation.close();
       sql.close();
-	 
-      return annotations.toArray(new Annotation[0]);	 
     } catch(SQLException exception) {
       System.err.println("SQL error from expression \""+expression+"\": " + exception);
       exception.printStackTrace(System.err);
@@ -3142,6 +3293,26 @@ public class SqlGraphStore implements GraphStore {
    * @throws PermissionException If the operation is not permitted.
    */
   public String[] aggregateMatchingAnnotations(String operation, String expression)
+    throws StoreException, PermissionException {
+    Vector<String> values = new Vector<String>();
+    aggregateMatchingAnnotations(operation, expression, value -> values.add(value));
+    return values.toArray(new String[0]);
+  }
+
+  /**
+   * Identifies a list of annotations that match a particular pattern, aggregates their
+   * labels, and passes the results to the given consumer one at a time as they're read
+   * from the database, so that the whole list needn't be held in memory.
+   * @param operation The aggregation operation(s) - see
+   * {@link #aggregateMatchingAnnotations(String,String)}.
+   * @param expression An expression that determines which annotations match.
+   * @param consumer Receives each result value, in the order that
+   * {@link #aggregateMatchingAnnotations(String,String)} would return them.
+   * @throws StoreException If an error occurs.
+   * @throws PermissionException If the operation is not permitted.
+   */
+  public void aggregateMatchingAnnotations(
+    String operation, String expression, Consumer<String> consumer)
     throws StoreException, PermissionException {
     String select = "COUNT(*)";
     String suffix = "";
@@ -3187,13 +3358,11 @@ public class SqlGraphStore implements GraphStore {
       ResultSet rs = sql.executeQuery();
       try {
         int fieldsPerRow = rs.getMetaData().getColumnCount();
-        Vector<String> values = new Vector<String>();
         while (rs.next()) {
           for (int f = 1; f <= fieldsPerRow; f++) {
-            values.add(rs.getString(f));
+            consumer.accept(rs.getString(f));
           } // next field
         } // next row
-        return values.toArray(new String[0]);
       } finally {
         rs.close();
         sql.close();
@@ -4694,6 +4863,7 @@ public class SqlGraphStore implements GraphStore {
   public int deleteMatchingAnnotations(String expression)
     throws StoreException, PermissionException {
     requireEdit();
+    SearchResultsCache.Invalidate();
     try {
       
       AnnotationAgqlToSql transformer = new AnnotationAgqlToSql(getSchema());
@@ -4725,6 +4895,8 @@ public class SqlGraphStore implements GraphStore {
       System.err.println("SQL error from expression \""+expression+"\": " + exception);
       exception.printStackTrace(System.err);
       throw new StoreException("Invalid query."); // TODO i18n
+    } finally {
+      GraphSnapshotCache.Invalidate(); // many transcripts may have changed
     }
   }
   
@@ -4752,7 +4924,34 @@ public class SqlGraphStore implements GraphStore {
   public int tagMatchingAnnotations(
     String expression, String layerId, String label, Integer confidence)
     throws StoreException, PermissionException {
+    return tagMatchingAnnotations(expression, layerId, label, confidence, false);
+  }
+  
+  /**
+   * Identifies a list of annotations that match a particular pattern, and tags them on
+   * the given layer with the given label, optionally creating tags one at a time.
+   * <p> Tags are normally created in bulk, with a few set-based SQL statements, but
+   * creating them one at a time with
+   * {@link #createAnnotation(String,String,String,String,String,Integer,String)} is
+   * also possible. This is much slower, and is intended for verifying that bulk tagging
+   * produces the same results, and as a fall-back for layers that bulk tagging doesn't
+   * support.
+   * @param expression An expression that determines which annotations match.
+   * @param layerId The layer ID of the resulting annotation.
+   * @param label The label of the resulting annotation.
+   * @param confidence The confidence rating.
+   * @param oneAtATime true to create tags one at a time, false to create them in bulk
+   * where possible.
+   * @return The number of new annotations added.
+   * @throws StoreException If an error occurs.
+   * @throws PermissionException If the operation is not permitted.
+   * @see #tagMatchingAnnotations(String,String,String,Integer)
+   */
+  public int tagMatchingAnnotations(
+    String expression, String layerId, String label, Integer confidence, boolean oneAtATime)
+    throws StoreException, PermissionException {
     requireEdit();
+    SearchResultsCache.Invalidate();
     try {
       // get the first example to tag so we can get the layer and other info
       Annotation[] toTag = getMatchingAnnotations(expression, 1, 0, false);
@@ -4763,7 +4962,7 @@ public class SqlGraphStore implements GraphStore {
       Matcher wordByLabel = Pattern.compile(
         "^layer.id =+ '(?<sourceLayer>.*)' (?<extraConditions>.*)&& label =+ '(?<wordLabel>.*)'$")
         .matcher(expression);
-      if (wordByLabel.matches()
+      if (!oneAtATime && wordByLabel.matches()
           && "word".equals(layer.getParentId())
           && (wordByLabel.group("sourceLayer").equals("word")
               || wordByLabel.group("sourceLayer").equals("orthography"))) {
@@ -4861,17 +5060,27 @@ public class SqlGraphStore implements GraphStore {
         } catch (SQLException x) {
           throw new StoreException(x);
         }
-      } else { // this is slow but correct
+      } else {
+        Layer toTagLayer = getLayer(toTag[0].getLayerId());
         boolean toTagIsParent = toTag[0].getLayerId().equals(layer.getParentId());
         if (!toTagIsParent) { // ensure they share a parent layer
-          Layer toTagLayer = getLayer(toTag[0].getLayerId());
           if (!layer.getParentId().equals(toTagLayer.getParentId())) {
             throw new StoreException(
               "Tag layer \""+layerId+"\" is not a child or peer layer of the layer to tag \""
               +toTag[0].getLayerId()+"\"");
           }
         }
-        
+
+        if (!oneAtATime
+            && CanTagInBulk(layer, getSchema().getLayer(layer.getParentId()), toTagLayer, label)) {
+          try {
+            return tagMatchingAnnotationsInBulk(expression, layer, label, confidence, toTagIsParent);
+          } catch (SQLException x) {
+            throw new StoreException(x);
+          }
+        }
+
+        // this is slow but correct
         // get them all
         toTag = getMatchingAnnotations(expression, null, null, true);
         // for each token...
@@ -4885,8 +5094,403 @@ public class SqlGraphStore implements GraphStore {
       }
     } catch(GraphNotFoundException exception) {
       throw new StoreException(exception);
+    } finally {
+      GraphSnapshotCache.Invalidate(); // many transcripts may have changed
     }
   }
+
+  /**
+   * Determines whether {@link #tagMatchingAnnotationsInBulk(String,Layer,String,Integer,boolean)}
+   * can be used to tag annotations, which is the case for temporal layers that are not
+   * top-level layers, as long as the label doesn't include a data file.
+   * @param layer The layer to create tags on.
+   * @param parentLayer The parent layer of <var>layer</var>.
+   * @param toTagLayer The layer of the annotations to tag.
+   * @param label The label of the tags.
+   * @return true if tags can be created in bulk, false otherwise.
+   */
+  static boolean CanTagInBulk(Layer layer, Layer parentLayer, Layer toTagLayer, String label) {
+    return layer.get("scope") != null && !"F".equals(layer.get("scope"))
+      && toTagLayer.get("scope") != null && toTagLayer.get("layer_id") != null
+      && parentLayer != null && parentLayer.get("layer_id") != null
+      // labels with a dataUrl must be saved one at a time
+      && !(label.indexOf('\n') >= 0 && layer.getType().indexOf('/') > 0);
+  } // end of CanTagInBulk()
+
+  /**
+   * Tags all annotations that match the given expression using set-based SQL statements,
+   * producing the same tags that creating them one at a time with
+   * {@link #createAnnotation(String,String,String,String,String,Integer,String)} would:
+   * <ul>
+   *  <li>Tags on non-aligned layers have their parent's anchors, and tags on aligned
+   *      layers have the anchors of the annotation being tagged.</li>
+   *  <li>If the layer doesn't allow peers, existing tags of the parent are deleted, and
+   *      only one tag is created for each parent (for the last matching annotation),
+   *      with ordinal 1.</li>
+   *  <li>If the layer allows peers, existing tags are kept, and new tags are numbered
+   *      after them, in the order the matching annotations would be tagged one at a
+   *      time.</li>
+   * </ul>
+   * <p> Matching annotations are first gathered into a temporary table, which numbers
+   * them within each parent, and tags are then inserted with a single
+   * <tt>INSERT ... SELECT</tt>. 
+   * @param expression An expression that determines which annotations match.
+   * @param layer The layer to create tags on.
+   * @param label The label of the tags.
+   * @param confidence The confidence rating.
+   * @param toTagIsParent true if the matching annotations are the parents of the tags,
+   * false if they're peers of the tags.
+   * @return The number of matching annotations.
+   * @throws SQLException
+   * @throws StoreException
+   * @throws PermissionException
+   */
+  protected int tagMatchingAnnotationsInBulk(
+    String expression, Layer layer, String label, Integer confidence, boolean toTagIsParent)
+    throws SQLException, StoreException, PermissionException {
+    Connection connection = getConnection();
+    String scope = (String)layer.get("scope");
+    Layer parentLayer = getSchema().getLayer(layer.getParentId());
+    
+    // identify annotations to tag, in the order they'd be tagged one at a time
+    AnnotationAgqlToSql transformer = new AnnotationAgqlToSql(getSchema());
+    AnnotationAgqlToSql.Query query = transformer.sqlFor(
+      expression,
+      (toTagIsParent?"annotation.annotation_id":"annotation.parent_id")
+      +", annotation.annotation_id, annotation.start_anchor_id, annotation.end_anchor_id",
+      userWhereClauseGraph("", "graph"), "");
+    int count = 0;
+    try {
+      PreparedStatement sql = connection.prepareStatement(
+        "CREATE TEMPORARY TABLE _tag_token ("
+        +" parent_id INTEGER UNSIGNED NOT NULL,"
+        // MyISAM numbers these from 1 within each parent_id
+        +" seq INTEGER UNSIGNED NOT NULL AUTO_INCREMENT,"
+        +" annotation_id INTEGER UNSIGNED NOT NULL,"
+        +" start_anchor_id INTEGER UNSIGNED NULL,"
+        +" end_anchor_id INTEGER UNSIGNED NULL,"
+        +" layer VARCHAR(255) NULL,"
+        +" PRIMARY KEY (parent_id, seq),"
+        +" UNIQUE INDEX IDX_ANNOTATION (annotation_id)"
+        +") ENGINE=MyISAM");
+      try {
+        sql.executeUpdate();
+      } finally {
+        sql.close();
+      }
+      // (IGNORE because joins in the query may match the same annotation more than once)
+      sql = connection.prepareStatement(
+        "INSERT IGNORE INTO _tag_token"
+        +" (parent_id, annotation_id, start_anchor_id, end_anchor_id, layer) "
+        + query.sql);
+      try {
+        count = sql.executeUpdate();
+      } finally {
+        sql.close();
+      }
+      if (count == 0) return 0;
+      
+      String tagTable = "annotation_layer_" + layer.get("layer_id");
+      if (!layer.getPeers()) {
+        // tagging one at a time would leave only the last tag for each parent
+        sql = connection.prepareStatement(
+          "CREATE TEMPORARY TABLE _tag_parent"
+          +" SELECT parent_id, MAX(seq) AS seq FROM _tag_token GROUP BY parent_id");
+        try {
+          sql.executeUpdate();
+        } finally {
+          sql.close();
+        }
+        // only one child allowed, so delete any existing children
+        sql = connection.prepareStatement(
+          "DELETE existing.* FROM " + tagTable + " existing"
+          +" INNER JOIN _tag_parent ON existing.parent_id = _tag_parent.parent_id");
+        try {
+          sql.executeUpdate();
+        } finally {
+          sql.close();
+        }
+      } else {
+        // there may already be tags, so number new tags after them
+        sql = connection.prepareStatement(
+          "CREATE TEMPORARY TABLE _tag_parent"
+          +" SELECT parent.parent_id, COUNT(existing.annotation_id) AS tag_count"
+          +" FROM (SELECT DISTINCT parent_id FROM _tag_token) parent"
+          +" INNER JOIN " + tagTable + " existing ON existing.parent_id = parent.parent_id"
+          +" GROUP BY parent.parent_id");
+        try {
+          sql.executeUpdate();
+        } finally {
+          sql.close();
+        }
+      }
+
+      String anchors = layer.getAlignment() == Constants.ALIGNMENT_NONE?"parent":"token";
+      sql = connection.prepareStatement(
+        "INSERT INTO " + tagTable
+        + " (ag_id, label, label_status, start_anchor_id, end_anchor_id,"
+        + " parent_id, ordinal, annotated_by, annotated_when, turn_annotation_id"
+        + (scope.equals("S")||scope.equals("W")?", ordinal_in_turn, word_annotation_id":"")
+        + (scope.equals("S")?", ordinal_in_word, segment_annotation_id":"")
+        + ")"
+        + " SELECT parent.ag_id, ?, ?,"
+        // non-aligned layers use their parent anchors
+        + " "+anchors+".start_anchor_id, "+anchors+".end_anchor_id,"
+        + " parent.annotation_id,"
+        + (!layer.getPeers()?" 1":" COALESCE(_tag_parent.tag_count, 0) + token.seq")
+        + ", ?, Now(), parent.turn_annotation_id"
+        + (scope.equals("S")||scope.equals("W")?
+           ", parent.ordinal_in_turn, parent.word_annotation_id":"")
+        + (scope.equals("S")?", parent.ordinal_in_word, parent.segment_annotation_id":"")
+        + " FROM _tag_token token"
+        + " INNER JOIN annotation_layer_" + parentLayer.get("layer_id") + " parent"
+        + " ON parent.annotation_id = token.parent_id"
+        + (!layer.getPeers()?
+           " INNER JOIN _tag_parent ON _tag_parent.parent_id = token.parent_id"
+           +" AND _tag_parent.seq = token.seq"
+           :" LEFT OUTER JOIN _tag_parent ON _tag_parent.parent_id = token.parent_id")
+        + " ORDER BY token.parent_id, token.seq");
+      try {
+        sql.setString(1, label);
+        sql.setInt(2, confidence);
+        sql.setString(3, getUser());
+        sql.executeUpdate();
+      } finally {
+        sql.close();
+      }
+      return count;
+    } finally {
+      PreparedStatement sql = connection.prepareStatement(
+        "DROP TEMPORARY TABLE IF EXISTS _tag_token, _tag_parent");
+      try {
+        sql.executeUpdate();
+      } finally {
+        sql.close();
+      }
+    }
+  } // end of tagMatchingAnnotationsInBulk()
+
+  /**
+   * Tags annotations on one layer using a dictionary that maps their labels to tag
+   * labels, e.g. to tag all orthography tokens with their pronunciations.
+   * <p> This has the same effect as calling
+   * {@link #tagMatchingAnnotations(String,String,String,Integer)} once for each
+   * dictionary entry, with an expression like <code>layer.id == 'orthography' &amp;&amp;
+   * label == 'word'</code>, but the whole dictionary is loaded into a temporary table, and
+   * all matching annotations are tagged with a handful of set-based SQL statements.
+   * <p> If the tag layer doesn't allow peers, existing tags of matching annotations are
+   * deleted, and only the first tag label of each dictionary entry is used. Otherwise,
+   * existing tags are kept, and a tag is added for each of the entry's tag labels.
+   * <p> Annotation tables are not transactional, so the whole dictionary is loaded and
+   * validated before any tags are changed; an invalid entry means no tags are changed at
+   * all.
+   * @param sourceLayerId The layer of the annotations to tag, whose labels are the
+   * dictionary keys.
+   * @param tagLayerId The layer to create tags on, which must be a child or peer of
+   * <var>sourceLayerId</var>.
+   * @param dictionary The dictionary entries, each of which is an array whose first element
+   * is the source label, and whose second element is a tag label. Labels with more than
+   * one tag label have multiple entries.
+   * @param confidence The confidence rating of the tags, or null for
+   * {@link Constants#CONFIDENCE_AUTOMATIC}.
+   * @return The number of rows affected by each phase: "entries" - distinct dictionary
+   * entries loaded, "matches" - annotation/tag label pairs matched, "deleted" - existing
+   * tags deleted, and "tags" - new tags created.
+   * @throws StoreException If an error occurs.
+   * @throws PermissionException If the operation is not permitted.
+   */
+  public Map<String,Integer> tagFromDictionary(
+    String sourceLayerId, String tagLayerId, Iterator<String[]> dictionary, Integer confidence)
+    throws StoreException, PermissionException {
+    requireEdit();
+    Schema schema = getSchema();
+    Layer sourceLayer = schema.getLayer(sourceLayerId);
+    if (sourceLayer == null) throw new StoreException("Invalid layer: " + sourceLayerId);
+    Layer layer = schema.getLayer(tagLayerId);
+    if (layer == null) throw new StoreException("Invalid layer: " + tagLayerId);
+    boolean sourceIsParent = sourceLayerId.equals(layer.getParentId());
+    if (!sourceIsParent && !layer.getParentId().equals(sourceLayer.getParentId())) {
+      throw new StoreException(
+        "Tag layer \""+tagLayerId+"\" is not a child or peer layer of \""+sourceLayerId+"\"");
+    }
+    Layer parentLayer = schema.getLayer(layer.getParentId());
+    if (!CanTagInBulk(layer, parentLayer, sourceLayer, "")) {
+      throw new StoreException("Layer \""+tagLayerId+"\" cannot be tagged from a dictionary");
+    }
+    if (confidence == null) confidence = Constants.CONFIDENCE_AUTOMATIC;
+    SearchResultsCache.Invalidate();
+    
+    LinkedHashMap<String,Integer> counts = new LinkedHashMap<String,Integer>();
+    String scope = (String)layer.get("scope");
+    String tagTable = "annotation_layer_" + layer.get("layer_id");
+    try {
+      Connection connection = getConnection();
+      try {
+        // load the dictionary
+        PreparedStatement sql = connection.prepareStatement(
+          "CREATE TEMPORARY TABLE _dictionary ("
+          // binary collation, so entries that differ only by case or accents don't collide
+          +" label VARCHAR(247) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL,"
+          // MyISAM numbers these from 1 within each label
+          +" seq INTEGER UNSIGNED NOT NULL AUTO_INCREMENT,"
+          +" tag VARCHAR(247) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL,"
+          +" PRIMARY KEY (label, seq)"
+          +") ENGINE=MyISAM");
+        try {
+          sql.executeUpdate();
+        } finally {
+          sql.close();
+        }
+        HashSet<String> entries = new HashSet<String>();
+        sql = connection.prepareStatement("INSERT INTO _dictionary (label, tag) VALUES (?,?)");
+        try {
+          int batchSize = 0;
+          while (dictionary.hasNext()) {
+            String[] entry = dictionary.next();
+            if (entry == null || entry.length < 2 || entry[0] == null || entry[1] == null) {
+              continue;
+            }
+            if (entry[0].length() > 247 || entry[1].length() > 247) {
+              throw new StoreException(
+                "Dictionary entry is too long: " + entry[0] + "\t" + entry[1]);
+            }
+            if (!entries.add(entry[0] + "\t" + entry[1])) continue; // duplicate entry
+            sql.setString(1, entry[0]);
+            sql.setString(2, entry[1]);
+            sql.addBatch();
+            if (++batchSize >= 1000) {
+              sql.executeBatch();
+              batchSize = 0;
+            }
+          } // next entry
+          if (batchSize > 0) sql.executeBatch();
+        } finally {
+          sql.close();
+        }
+        counts.put("entries", entries.size());
+        entries = null;
+        
+        // match annotations to tag, numbering them within each parent
+        sql = connection.prepareStatement(
+          "CREATE TEMPORARY TABLE _dictionary_token ("
+          +" parent_id INTEGER UNSIGNED NOT NULL,"
+          // MyISAM numbers these from 1 within each parent_id
+          +" seq INTEGER UNSIGNED NOT NULL AUTO_INCREMENT,"
+          +" start_anchor_id INTEGER UNSIGNED NOT NULL,"
+          +" end_anchor_id INTEGER UNSIGNED NOT NULL,"
+          +" tag VARCHAR(247) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL,"
+          +" PRIMARY KEY (parent_id, seq)"
+          +") ENGINE=MyISAM");
+        try {
+          sql.executeUpdate();
+        } finally {
+          sql.close();
+        }
+        String userWhere = userWhereClauseGraph("AND", "transcript");
+        String parentKey = sourceIsParent?"token.annotation_id":"token.parent_id";
+        sql = connection.prepareStatement(
+          "INSERT INTO _dictionary_token (parent_id, start_anchor_id, end_anchor_id, tag)"
+          +" SELECT "+parentKey+", token.start_anchor_id, token.end_anchor_id, dictionary.tag"
+          +" FROM annotation_layer_" + sourceLayer.get("layer_id") + " token"
+          +" INNER JOIN _dictionary dictionary"
+          +" ON dictionary.label = token.label COLLATE utf8mb4_bin"
+          +(userWhere.length() == 0?""
+            :" INNER JOIN transcript ON transcript.ag_id = token.ag_id")
+          // without peers, only the first tag label can be used
+          +(!layer.getPeers()?" WHERE dictionary.seq = 1":" WHERE 1=1")
+          + userWhere
+          +" ORDER BY "+parentKey+", token.ordinal, token.annotation_id, dictionary.seq");
+        try {
+          counts.put("matches", sql.executeUpdate());
+        } finally {
+          sql.close();
+        }
+
+        if (!layer.getPeers()) {
+          // tagging one at a time would leave only the last tag for each parent
+          sql = connection.prepareStatement(
+            "CREATE TEMPORARY TABLE _dictionary_parent"
+            +" SELECT parent_id, MAX(seq) AS seq FROM _dictionary_token GROUP BY parent_id");
+          try {
+            sql.executeUpdate();
+          } finally {
+            sql.close();
+          }
+          // only one child allowed, so delete any existing children
+          sql = connection.prepareStatement(
+            "DELETE existing.* FROM " + tagTable + " existing"
+            +" INNER JOIN _dictionary_parent ON existing.parent_id = _dictionary_parent.parent_id");
+          try {
+            counts.put("deleted", sql.executeUpdate());
+          } finally {
+            sql.close();
+          }
+        } else {
+          // there may already be tags, so number new tags after them
+          sql = connection.prepareStatement(
+            "CREATE TEMPORARY TABLE _dictionary_parent"
+            +" SELECT parent.parent_id, COUNT(existing.annotation_id) AS tag_count"
+            +" FROM (SELECT DISTINCT parent_id FROM _dictionary_token) parent"
+            +" INNER JOIN " + tagTable + " existing ON existing.parent_id = parent.parent_id"
+            +" GROUP BY parent.parent_id");
+          try {
+            sql.executeUpdate();
+          } finally {
+            sql.close();
+          }
+          counts.put("deleted", 0);
+        }
+        
+        // create the tags
+        String anchors = layer.getAlignment() == Constants.ALIGNMENT_NONE?"parent":"token";
+        sql = connection.prepareStatement(
+          "INSERT INTO " + tagTable
+          + " (ag_id, label, label_status, start_anchor_id, end_anchor_id,"
+          + " parent_id, ordinal, annotated_by, annotated_when, turn_annotation_id"
+          + (scope.equals("S")||scope.equals("W")?", ordinal_in_turn, word_annotation_id":"")
+          + (scope.equals("S")?", ordinal_in_word, segment_annotation_id":"")
+          + ")"
+          + " SELECT parent.ag_id, token.tag, ?,"
+          // non-aligned layers use their parent anchors
+          + " "+anchors+".start_anchor_id, "+anchors+".end_anchor_id,"
+          + " parent.annotation_id,"
+          + (!layer.getPeers()?" 1":" COALESCE(_dictionary_parent.tag_count, 0) + token.seq")
+          + ", ?, Now(), parent.turn_annotation_id"
+          + (scope.equals("S")||scope.equals("W")?
+             ", parent.ordinal_in_turn, parent.word_annotation_id":"")
+          + (scope.equals("S")?", parent.ordinal_in_word, parent.segment_annotation_id":"")
+          + " FROM _dictionary_token token"
+          + " INNER JOIN annotation_layer_" + parentLayer.get("layer_id") + " parent"
+          + " ON parent.annotation_id = token.parent_id"
+          + (!layer.getPeers()?
+             " INNER JOIN _dictionary_parent ON _dictionary_parent.parent_id = token.parent_id"
+             +" AND _dictionary_parent.seq = token.seq"
+             :" LEFT OUTER JOIN _dictionary_parent"
+             +" ON _dictionary_parent.parent_id = token.parent_id")
+          + " ORDER BY token.parent_id, token.seq");
+        try {
+          sql.setInt(1, confidence);
+          sql.setString(2, getUser());
+          counts.put("tags", sql.executeUpdate());
+        } finally {
+          sql.close();
+        }
+        return counts;
+      } finally {
+        PreparedStatement sql = connection.prepareStatement(
+          "DROP TEMPORARY TABLE IF EXISTS _dictionary, _dictionary_token, _dictionary_parent");
+        try {
+          sql.executeUpdate();
+        } finally {
+          sql.close();
+        }
+      }
+    } catch (SQLException x) {
+      throw new StoreException(x);
+    } finally {
+      GraphSnapshotCache.Invalidate(); // many transcripts may have changed
+    }
+  } // end of tagFromDictionary()
   
   /**
    * Gets the given anchors in the given transcript.
@@ -4969,272 +5573,425 @@ public class SqlGraphStore implements GraphStore {
    */
   public Graph getFragment(String transcriptId, String annotationId, String[] layerIds) 
     throws StoreException, PermissionException, GraphNotFoundException {
-    try {
+    return getFragments(transcriptId, new String[] { annotationId }, layerIds)[0];
+  }   
+
+  /**
+   * Gets several fragments of the same transcript, each defined by an annotation, and
+   * containing only the given layers.
+   * <p> Each fragment has the same content as if it were loaded by
+   * {@link #getFragment(String,String,String[])}, but the transcript is loaded only
+   * once, and each layer's annotations are loaded for all fragments at once, so the
+   * number of queries depends on the number of layers, not the number of fragments.
+   * @param transcriptId The ID of the transcript.
+   * @param annotationIds The IDs of the annotations that define the bounds of the
+   * fragments. The same ID may appear more than once, in which case each occurrence has
+   * its own fragment.
+   * @param layerIds The IDs of the layers to load, or null if only transcript data is required.
+   * @return The identified transcript fragments, in the same order as
+   * <var>annotationIds</var>.
+   * @throws StoreException If an error occurs.
+   * @throws PermissionException If the operation is not permitted.
+   * @throws GraphNotFoundException If the transcript was not found in the store.
+   */
+  public Graph[] getFragments(String transcriptId, String[] annotationIds, String[] layerIds) 
+    throws StoreException, PermissionException, GraphNotFoundException {
+    try {
       final Graph graph = getTranscript(transcriptId, null); // load just basic information
-      final int ag_id = (Integer)graph.get("@ag_id");
-      Schema schema = getSchema();
+      Graph[] fragments = new Graph[annotationIds.length];
+
+      // decompose the annotation IDs, and group them by layer
+      long[] annotation_ids = new long[annotationIds.length];
+      LinkedHashMap<Integer,Vector<Integer>> layerIndices
+        = new LinkedHashMap<Integer,Vector<Integer>>();
+      for (int i = 0; i < annotationIds.length; i++) {
+        Integer layer_id = null;
+        try { // most likely a spanning annotation like 'utterance'
+          Object[] o = fmtAnnotationId.parse(annotationIds[i]);
+          layer_id = ((Long)o[1]).intValue();
+          annotation_ids[i] = (Long)o[2];
+        } catch(ParseException exception) {
+          throw new StoreException("Invalid annotation ID: " + annotationIds[i]);
+        }
+        if (!layerIndices.containsKey(layer_id)) {
+          layerIndices.put(layer_id, new Vector<Integer>());
+        }
+        layerIndices.get(layer_id).add(i);
+      } // next annotation ID
+
+      for (Integer layer_id : layerIndices.keySet()) {
+        loadFragments(
+          graph, layer_id, layerIndices.get(layer_id), annotationIds, annotation_ids, layerIds,
+          fragments);
+      } // next defining layer
+      return fragments;
+    } catch(SQLException exception) {
+      System.err.println("SQL error: " + exception);
+      exception.printStackTrace(System.err);
+      throw new StoreException("Invalid query."); // TODO i18n
+    }
+  } // end of getFragments()
 
-      final Graph fragment = new Graph();
+  /**
+   * Gets fragments of possibly many transcripts, each defined by an annotation, and
+   * containing only the given layers.
+   * <p> Fragments are grouped by transcript, and each group is loaded with
+   * {@link #getFragments(String,String[],String[])}.
+   * @param transcriptAnnotationIds The fragments to load, each identified by an array
+   * whose first element is the transcript ID and whose second element is the ID of the
+   * annotation that defines the bounds of the fragment.
+   * @param layerIds The IDs of the layers to load, or null if only transcript data is required.
+   * @return The identified transcript fragments, in the same order as
+   * <var>transcriptAnnotationIds</var>.
+   * @throws StoreException If an error occurs.
+   * @throws PermissionException If the operation is not permitted.
+   * @throws GraphNotFoundException If a transcript was not found in the store.
+   */
+  public Graph[] getFragments(List<String[]> transcriptAnnotationIds, String[] layerIds) 
+    throws StoreException, PermissionException, GraphNotFoundException {
+    LinkedHashMap<String,Vector<Integer>> transcriptIndices
+      = new LinkedHashMap<String,Vector<Integer>>();
+    for (int i = 0; i < transcriptAnnotationIds.size(); i++) {
+      String transcriptId = transcriptAnnotationIds.get(i)[0];
+      if (!transcriptIndices.containsKey(transcriptId)) {
+        transcriptIndices.put(transcriptId, new Vector<Integer>());
+      }
+      transcriptIndices.get(transcriptId).add(i);
+    } // next fragment
+    Graph[] fragments = new Graph[transcriptAnnotationIds.size()];
+    for (String transcriptId : transcriptIndices.keySet()) {
+      Vector<Integer> indices = transcriptIndices.get(transcriptId);
+      String[] annotationIds = new String[indices.size()];
+      for (int f = 0; f < annotationIds.length; f++) {
+        annotationIds[f] = transcriptAnnotationIds.get(indices.get(f))[1];
+      }
+      Graph[] transcriptFragments = getFragments(transcriptId, annotationIds, layerIds);
+      for (int f = 0; f < annotationIds.length; f++) {
+        fragments[indices.get(f)] = transcriptFragments[f];
+      }
+    } // next transcript
+    return fragments;
+  } // end of getFragments()
+
+  /**
+   * Loads fragments of a transcript that are defined by annotations on the same layer.
+   * @param graph The transcript, with basic information only.
+   * @param definingLayer_id The database ID of the layer of the defining annotations.
+   * @param indices The indices of the fragments to load, in <var>annotationIds</var>,
+   * <var>annotation_ids</var>, and <var>fragments</var>.
+   * @param annotationIds The IDs of the defining annotations.
+   * @param annotation_ids The database IDs of the defining annotations.
+   * @param layerIds The IDs of the layers to load, or null if only transcript data is required.
+   * @param fragments The array into which loaded fragments are put.
+   * @throws StoreException If an error occurs.
+   * @throws SQLException If a database error occurs.
+   */
+  private void loadFragments(
+    final Graph graph, int definingLayer_id, Vector<Integer> indices, String[] annotationIds,
+    long[] annotation_ids, String[] layerIds, Graph[] fragments)
+    throws StoreException, SQLException {
+    final int ag_id = (Integer)graph.get("@ag_id");
+    final Schema schema = getSchema();
+    final int n = indices.size();
+
+    // get the layer of the defining annotations
+    Layer matchingLayer = null;
+    for (Layer layer : schema.getLayers().values()) {
+      if (Integer.valueOf(definingLayer_id).equals(layer.get("layer_id"))) {
+        matchingLayer = layer;
+        break;
+      }
+    } // next layer
+    if (matchingLayer == null) {
+      throw new StoreException(
+        "Invalid layer_id for " + annotationIds[indices.get(0)] + ": " + definingLayer_id);
+    }
+    final Layer definingLayer = matchingLayer;
+
+    // keep track of layer loading, so we don't cover old ground
+    HashSet<String> loadedLayers = new HashSet<String>();
+    loadedLayers.add(schema.getRoot().getId()); // count the schema root as loaded
+
+    final Graph[] batch = new Graph[n];
+    final Annotation[] definingAnnotations = new Annotation[n];
+    final Anchor[] definingStarts = new Anchor[n];
+    final Anchor[] definingEnds = new Anchor[n];
+    for (int f = 0; f < n; f++) {
+      Graph fragment = new Graph();
       fragment.setGraph(graph);
       fragment.setMediaProvider(new StoreGraphMediaProvider(fragment, this));
       fragment.put("@ag_id", graph.get("@ag_id")); 
       fragment.getSchema().copyLayerIdsFrom(schema);
-
-      // decompose the annotation ID
-      String scope = null;
-      Integer layer_id = null;
-      Long annotation_id = null;
-      try { // most likely a spanning annotation like 'utterance'
-        Object[] o = fmtAnnotationId.parse(annotationId);
-        scope = o[0].toString();
-        layer_id = ((Long)o[1]).intValue();
-        annotation_id = (Long)o[2];
-      } catch(ParseException exception) {
-        throw new StoreException("Invalid annotation ID: " + annotationId);
-      }
-
-      // keep track of layer loading, so we don't cover old ground
-      HashSet<String> loadedLayers = new HashSet<String>();
-      loadedLayers.add(fragment.getLayerId()); // count the schema root as loaded
-
-      // get the layer of the defining annotation
-      PreparedStatement sqlLayer = getConnection().prepareStatement(
-        "SELECT short_description FROM layer WHERE layer_id = ?");
-      sqlLayer.setInt(1, layer_id);
-      ResultSet rsLayer = sqlLayer.executeQuery();
-      if (!rsLayer.next())
-        throw new StoreException("Invalid layer_id for " + annotationId + ": " + layer_id);
-      final Layer definingLayer = schema.getLayer(rsLayer.getString("short_description"));
-      rsLayer.close();
-      sqlLayer.close();
-      fragment.addLayer(definingLayer);
-      //loadedLayers.add(definingLayer.getId());
+      fragment.addLayer((Layer)definingLayer.clone());
+      batch[f] = fragment;
+    } // next fragment
+
+    // annotations are loaded a layer at a time, for all fragments at once
+    final String sqlAnnotationsSelect = "SELECT layer.*,"
+      +" start.offset AS start_offset, start.alignment_status AS start_alignment_status,"
+      +" start.annotated_by AS start_annotated_by, start.annotated_when AS start_annotated_when,"
+      +" end.offset AS end_offset, end.alignment_status AS end_alignment_status,"
+      +" end.annotated_by AS end_annotated_by, end.annotated_when AS end_annotated_when"
+      +" FROM annotation_layer_{0} layer"
+      +" INNER JOIN anchor start ON layer.start_anchor_id = start.anchor_id"
+      +" INNER JOIN anchor end ON layer.end_anchor_id = end.anchor_id"
+      +" WHERE layer.ag_id = ?";
+    final String sqlAnnotationsByIdCondition = " AND annotation_id IN ({1})";
 	 
-      // get the defining annotation and its anchors
-      PreparedStatement sqlAnnotation = getConnection().prepareStatement(
-        "SELECT layer.*,"
-        +" start.offset AS start_offset, start.alignment_status AS start_alignment_status,"
-        +" start.annotated_by AS start_annotated_by, start.annotated_when AS start_annotated_when,"
-        +" end.offset AS end_offset, end.alignment_status AS end_alignment_status,"
-        +" end.annotated_by AS end_annotated_by, end.annotated_when AS end_annotated_when"
-        +" FROM annotation_layer_? layer"
-        +" INNER JOIN anchor start ON layer.start_anchor_id = start.anchor_id"
-        +" INNER JOIN anchor end ON layer.end_anchor_id = end.anchor_id"
-        +" WHERE layer.ag_id = ? AND annotation_id = ?");
-      sqlAnnotation.setInt(1, layer_id);
-      sqlAnnotation.setInt(2, ag_id);
-      sqlAnnotation.setLong(3, annotation_id);
-      ResultSet rsAnnotation = sqlAnnotation.executeQuery();
-      if (!rsAnnotation.next())
+    // get the defining annotations and their anchors
+    HashMap<Long,Vector<Integer>> fragmentsById = new HashMap<Long,Vector<Integer>>();
+    for (int f = 0; f < n; f++) {
+      Long annotation_id = annotation_ids[indices.get(f)];
+      if (!fragmentsById.containsKey(annotation_id)) {
+        fragmentsById.put(annotation_id, new Vector<Integer>());
+      }
+      fragmentsById.get(annotation_id).add(f);
+    } // next fragment
+    for (String ids : InLists(fragmentsById.keySet())) {
+      PreparedStatement sql = getConnection().prepareStatement(
+        MessageFormat.format(
+          sqlAnnotationsSelect + sqlAnnotationsByIdCondition, ""+definingLayer_id, ids));
+      try {
+        sql.setInt(1, ag_id);
+        ResultSet rs = sql.executeQuery();
+        try {
+          while (rs.next()) {
+            for (int f : fragmentsById.get(rs.getLong("annotation_id"))) {
+              definingAnnotations[f] = annotationFromResult(rs, definingLayer, batch[f]);
+              definingStarts[f] = anchorFromResult(rs, "start_");
+              definingEnds[f] = anchorFromResult(rs, "end_");
+            } // next fragment defined by this annotation
+          } // next annotation
+        } finally {
+          rs.close();
+        }
+      } finally {
+        sql.close();
+      }
+    } // next list of IDs
+    for (int f = 0; f < n; f++) {
+      String annotationId = annotationIds[indices.get(f)];
+      if (definingAnnotations[f] == null)
         throw new StoreException("Could not find annotation: " + annotationId);
-      final Annotation definingAnnotation
-        = annotationFromResult(rsAnnotation, definingLayer, fragment);
-      final Anchor definingStart = anchorFromResult(rsAnnotation, "start_");
-      final Anchor definingEnd = anchorFromResult(rsAnnotation, "end_");
-      int definingOrdinal = definingAnnotation.getOrdinal();
-      fragment.addAnchor(definingStart);
-      fragment.addAnchor(definingEnd);
-      rsAnnotation.close();
-      if (definingStart.getOffset() == null)
+      if (definingStarts[f].getOffset() == null)
         throw new StoreException("Fragment for " + annotationId + ": start has no offset");
-      if (definingEnd.getOffset() == null)
-        throw new StoreException("Fragment for " + annotationId + ": end has no offset");	 
-      fragment.setId(Graph.FragmentId(graph, definingStart, definingEnd));
-      fragment.addAnnotation(definingAnnotation);
+      if (definingEnds[f].getOffset() == null)
+        throw new StoreException("Fragment for " + annotationId + ": end has no offset");
+      batch[f].addAnchor(definingStarts[f]);
+      batch[f].addAnchor(definingEnds[f]);
+      batch[f].setId(Graph.FragmentId(graph, definingStarts[f], definingEnds[f]));
+      batch[f].addAnnotation(definingAnnotations[f]);
+    } // next fragment
 	 
-      // get all ancestors too
-      Layer ancestorLayer = getLayer(definingLayer.getParentId());
-      String ancestorId = definingAnnotation.getParentId();
-      String childLayerId = definingLayer.getId();
-      int childOrdinal = definingOrdinal;
-      while (!ancestorLayer.getId().equals(fragment.getSchema().getRoot().getId())) {
-        // add layer to schema
-        fragment.addLayer(ancestorLayer);
-        loadedLayers.add(ancestorLayer.getId());
-
-        // load the parent annotation
+    // get all ancestors too, a generation at a time
+    Layer ancestorLayer = schema.getLayer(definingLayer.getParentId());
+    String[] ancestorIds = new String[n];
+    String[] childLayerIds = new String[n];
+    Integer[] childOrdinals = new Integer[n];
+    for (int f = 0; f < n; f++) {
+      ancestorIds[f] = definingAnnotations[f].getParentId();
+      childLayerIds[f] = definingLayer.getId();
+      childOrdinals[f] = definingAnnotations[f].getOrdinal();
+    } // next fragment
+    while (ancestorLayer != null && !ancestorLayer.getId().equals(schema.getRoot().getId())) {
+      // add layer to schema
+      for (Graph fragment : batch) fragment.addLayer((Layer)ancestorLayer.clone());
+      loadedLayers.add(ancestorLayer.getId());
+      boolean participantLayer = ancestorLayer.getId().equals(schema.getParticipantLayerId());
+
+      // decompose the ancestor IDs
+      final String[] currentAncestorIds = ancestorIds.clone();
+      Integer layer_id = null;
+      HashMap<Long,Vector<Integer>> fragmentsByAncestor = new HashMap<Long,Vector<Integer>>();
+      for (int f = 0; f < n; f++) {
+        if (ancestorIds[f] == null) continue; // no more ancestors for this fragment
+        Long annotation_id = null;
         try { // most likely a spanning annotation like 'utterance'
-          Object[] o = fmtAnnotationId.parse(ancestorId);
-          scope = o[0].toString();
+          Object[] o = fmtAnnotationId.parse(ancestorIds[f]);
           layer_id = ((Long)o[1]).intValue();
           annotation_id = (Long)o[2];
         } catch(ParseException exception) {
           try { // most likely a spanning annotation like 'utterance'
-            Object[] o = fmtMetaAnnotationId.parse(ancestorId);
-            scope = "";
+            Object[] o = fmtMetaAnnotationId.parse(ancestorIds[f]);
             layer_id = ((Long)o[0]).intValue();
             annotation_id = Long.valueOf(o[1].toString());
           } catch(ParseException exception2) {
             throw new StoreException(
-              "Invalid ancestor ID on layer "+ancestorLayer+": " + ancestorId);
+              "Invalid ancestor ID on layer "+ancestorLayer+": " + ancestorIds[f]);
           }
         }
-	    
-        if (ancestorLayer.getId().equals(schema.getParticipantLayerId())) {
-          // get the participant's name
-          PreparedStatement sqlParticipant = getConnection().prepareStatement(
-            "SELECT name FROM speaker WHERE speaker_number = ?");
-          sqlParticipant.setInt(1, annotation_id.intValue());
-          ResultSet rsParticipant = sqlParticipant.executeQuery();
-          if (rsParticipant.next()) {
-            // add participant annotation
-            Annotation participant = new Annotation(
-              ancestorId, rsParticipant.getString("name"), ancestorLayer.getId());
-            participant.setParentId(fragment.getId());
-            participant.setOrdinalMinimum(childLayerId, childOrdinal);
-            fragment.addAnnotation(participant);
-            ancestorId = participant.getParentId();
-
-            childLayerId = ancestorLayer.getId();
-            childOrdinal = participant.getOrdinal();
-          } // participant found
-
-          rsParticipant.close();
-          sqlParticipant.close();
-        } else { // not participant layer
-          sqlAnnotation.setInt(1, layer_id);
-          sqlAnnotation.setLong(3, annotation_id);
-          rsAnnotation = sqlAnnotation.executeQuery();
-          if (!rsAnnotation.next()) break;
-          Annotation annotation = annotationFromResult(
-            rsAnnotation, ancestorLayer, fragment);
-
-          annotation.setOrdinalMinimum(childLayerId, childOrdinal);
-
-          fragment.addAnnotation(annotation);
-          ancestorId = annotation.getParentId();
-
-          childLayerId = ancestorLayer.getId();
-          childOrdinal = annotation.getOrdinal();
-	       
-          // add anchors?
-          Anchor ancestorStart = anchorFromResult(rsAnnotation, "start_");
-          Anchor ancestorEnd = anchorFromResult(rsAnnotation, "end_");
-          rsAnnotation.close();
-          if (definingAnnotation.includesOffset(ancestorStart.getOffset())
-              && (definingAnnotation.includesOffset(ancestorEnd.getOffset())
-                  || definingEnd.getOffset().equals(ancestorEnd.getOffset()))) {
-            if (fragment.getAnchor(ancestorStart.getId()) == null) {
-              // start anchor isn't in graph yet
-              fragment.addAnchor(ancestorStart);
-            }
-            if (fragment.getAnchor(ancestorEnd.getId()) == null) {
-              // end anchor isn't in graph yet
-              fragment.addAnchor(ancestorEnd);
-            }
+        if (!fragmentsByAncestor.containsKey(annotation_id)) {
+          fragmentsByAncestor.put(annotation_id, new Vector<Integer>());
+        }
+        fragmentsByAncestor.get(annotation_id).add(f);
+        ancestorIds[f] = null; // unless the ancestor is found
+      } // next fragment
+
+      for (String ids : InLists(fragmentsByAncestor.keySet())) {
+        PreparedStatement sql = getConnection().prepareStatement(
+          participantLayer?
+          "SELECT speaker_number, name FROM speaker WHERE speaker_number IN ("+ids+")"
+          : MessageFormat.format(
+            sqlAnnotationsSelect + sqlAnnotationsByIdCondition, layer_id.toString(), ids));
+        try {
+          if (!participantLayer) sql.setInt(1, ag_id);
+          ResultSet rs = sql.executeQuery();
+          try {
+            while (rs.next()) {
+              Long annotation_id = rs.getLong(participantLayer?"speaker_number":"annotation_id");
+              for (int f : fragmentsByAncestor.get(annotation_id)) {
+                Graph fragment = batch[f];
+                Annotation annotation = null;
+                if (participantLayer) {
+                  // add participant annotation
+                  annotation = new Annotation(
+                    currentAncestorIds[f], rs.getString("name"), ancestorLayer.getId());
+                  annotation.setParentId(fragment.getId());
+                } else {
+                  annotation = annotationFromResult(rs, ancestorLayer, fragment);
+                }
+                annotation.setOrdinalMinimum(childLayerIds[f], childOrdinals[f]);
+                fragment.addAnnotation(annotation);
+                ancestorIds[f] = annotation.getParentId();
+                childLayerIds[f] = ancestorLayer.getId();
+                childOrdinals[f] = annotation.getOrdinal();
+
+                if (!participantLayer) { // add anchors?
+                  Anchor ancestorStart = anchorFromResult(rs, "start_");
+                  Anchor ancestorEnd = anchorFromResult(rs, "end_");
+                  if (definingAnnotations[f].includesOffset(ancestorStart.getOffset())
+                      && (definingAnnotations[f].includesOffset(ancestorEnd.getOffset())
+                          || definingEnds[f].getOffset().equals(ancestorEnd.getOffset()))) {
+                    if (fragment.getAnchor(ancestorStart.getId()) == null) {
+                      // start anchor isn't in graph yet
+                      fragment.addAnchor(ancestorStart);
+                    }
+                    if (fragment.getAnchor(ancestorEnd.getId()) == null) {
+                      // end anchor isn't in graph yet
+                      fragment.addAnchor(ancestorEnd);
+                    }
+                  }
+                } // not participant layer
+              } // next fragment with this ancestor
+            } // next ancestor
+          } finally {
+            rs.close();
           }
-        } // not participant layer
+        } finally {
+          sql.close();
+        }
+      } // next list of IDs
 	    
-        // next ancestor
-        ancestorLayer = getLayer(ancestorLayer.getParentId());	 
-      } // next ancestor
-      sqlAnnotation.close();
+      // next ancestor
+      ancestorLayer = schema.getLayer(ancestorLayer.getParentId());	 
+    } // next ancestor
 	 
-      if (layerIds != null) { // set up full schema
-        // add specified layers
-        for (String layerId : layerIds) {
-          if (loadedLayers.contains(layerId)) continue;
-          Layer layer = getLayer(layerId);
-          fragment.addLayer(layer);
+    if (layerIds != null) { // set up full schema
+      // add specified layers
+      LinkedHashSet<String> layersToAdd = new LinkedHashSet<String>();
+      for (String layerId : layerIds) {
+        if (loadedLayers.contains(layerId) || layerId.equals(definingLayer.getId())) continue;
+        if (schema.getLayer(layerId) == null) {
+          throw new StoreException("Invalid layer: " + layerId);
         }
-        // we also need to add any missing layers to ensure the hierarchy is complete
-        // this is because we can't tell a grandchild is a descendant of the defining 
-        // annotation unless the intervening child is present
-        boolean foundMissingLayers = true;
-        while (foundMissingLayers) {
-          foundMissingLayers = false;
-          for (Layer layer : new Vector<Layer>(fragment.getSchema().getLayers().values())) {
-            // is the parent in the schema?
-            if (layer.getParent() == null && layer != fragment.getSchema().getRoot()) {
-              fragment.addLayer(getLayer(layer.getParentId()));
-              foundMissingLayers = true;
-            }
-          } // next existing layer
-        } // next round of checking
+        layersToAdd.add(layerId);
+      } // next layer
+      // we also need to add any missing layers to ensure the hierarchy is complete
+      // this is because we can't tell a grandchild is a descendant of the defining 
+      // annotation unless the intervening child is present
+      boolean foundMissingLayers = true;
+      while (foundMissingLayers) {
+        foundMissingLayers = false;
+        for (String layerId : new Vector<String>(layersToAdd)) {
+          // is the parent in the schema?
+          String parentId = schema.getLayer(layerId).getParentId();
+          if (parentId != null && !parentId.equals(schema.getRoot().getId())
+              && !parentId.equals(definingLayer.getId())
+              && !loadedLayers.contains(parentId) && !layersToAdd.contains(parentId)) {
+            layersToAdd.add(parentId);
+            foundMissingLayers = true;
+          }
+        } // next layer to add
+      } // next round of checking
+      for (Graph fragment : batch) {
+        for (String layerId : layersToAdd) {
+          fragment.addLayer((Layer)schema.getLayer(layerId).clone());
+        }
+      } // next fragment
+
+      // child annotations are ordered by parent
+      final String sqlAnnotationsByParentCondition = " AND parent_id IN ({1})";
+      final String sqlAnnotationsByParentOrder
+        = " ORDER BY parent_id, start.offset, end.offset DESC, annotation_id";
+      // for annotations that aren't descendants of the defining annotation,
+      // they have to be t-included as well - they're selected from the range covered
+      // by all the fragments, and then t-inclusion is checked for each fragment
+      final String sqlAnnotationsByOffsetCondition
+        = " AND start.offset >= ? AND end.offset <= ?";
+      // and a version of this that orders earlier annotation_ids later, so that
+      // parse trees come out with leaf nodes last on branches
+      final String sqlAnnotationsTreeOrder
+        = " ORDER BY parent_id, start.offset, end.offset DESC, annotation_id DESC";
+      double minStart = definingStarts[0].getOffset();
+      double maxEnd = definingEnds[0].getOffset();
+      for (int f = 1; f < n; f++) {
+        minStart = Math.min(minStart, definingStarts[f].getOffset());
+        maxEnd = Math.max(maxEnd, definingEnds[f].getOffset());
+      } // next fragment
+      final double rangeStart = minStart;
+      final double rangeEnd = maxEnd;
 
-        final PreparedStatement sqlAnnotationsByParent = getConnection().prepareStatement(
-          "SELECT layer.*,"
-          +" start.offset AS start_offset, start.alignment_status AS start_alignment_status,"
-          +" start.annotated_by AS start_annotated_by, start.annotated_when AS start_annotated_when,"
-          +" end.offset AS end_offset, end.alignment_status AS end_alignment_status,"
-          +" end.annotated_by AS end_annotated_by, end.annotated_when AS end_annotated_when"
-          +" FROM annotation_layer_? layer"
-          +" INNER JOIN anchor start ON layer.start_anchor_id = start.anchor_id"
-          +" INNER JOIN anchor end ON layer.end_anchor_id = end.anchor_id"
-          +" WHERE layer.ag_id = ? AND parent_id = ?"
-          +" ORDER BY start.offset, end.offset DESC, annotation_id");
-        sqlAnnotationsByParent.setInt(2, ag_id);
-        final PreparedStatement sqlAnnotationsByOffset = getConnection().prepareStatement(
-          "SELECT layer.*,"
-          +" start.offset AS start_offset, start.alignment_status AS start_alignment_status,"
-          +" start.annotated_by AS start_annotated_by, start.annotated_when AS start_annotated_when,"
-          +" end.offset AS end_offset, end.alignment_status AS end_alignment_status,"
-          +" end.annotated_by AS end_annotated_by, end.annotated_when AS end_annotated_when"
-          +" FROM annotation_layer_? layer"
-          +" INNER JOIN anchor start ON layer.start_anchor_id = start.anchor_id"
-          +" INNER JOIN anchor end ON layer.end_anchor_id = end.anchor_id"
-          +" WHERE layer.ag_id = ? AND parent_id = ?"
-          + " AND start.offset >= ? AND end.offset <= ?"
-          +" ORDER BY start.offset, end.offset DESC, annotation_id");
-        sqlAnnotationsByOffset.setInt(2, ag_id);
-        sqlAnnotationsByOffset.setDouble(4, definingStart.getOffset());
-        sqlAnnotationsByOffset.setDouble(5, definingEnd.getOffset());
-        // and a version of this that orders earlier annotation_ids later, so that
-        // parse trees come out with leaf nodes last on branches
-        final PreparedStatement sqlAnnotationsTreeOrder = getConnection().prepareStatement(
-          "SELECT layer.*,"
-          +" start.offset AS start_offset, start.alignment_status AS start_alignment_status,"
-          +" start.annotated_by AS start_annotated_by, start.annotated_when AS start_annotated_when,"
-          +" end.offset AS end_offset, end.alignment_status AS end_alignment_status,"
-          +" end.annotated_by AS end_annotated_by, end.annotated_when AS end_annotated_when"
-          +" FROM annotation_layer_? layer"
-          +" INNER JOIN anchor start ON layer.start_anchor_id = start.anchor_id"
-          +" INNER JOIN anchor end ON layer.end_anchor_id = end.anchor_id"
-          +" WHERE layer.ag_id = ? AND parent_id = ?"
-          + " AND start.offset >= ? AND end.offset <= ?"
-          +" ORDER BY start.offset, end.offset DESC, annotation_id DESC");
-        sqlAnnotationsTreeOrder.setInt(2, ag_id);
-        sqlAnnotationsTreeOrder.setDouble(4, definingStart.getOffset());
-        sqlAnnotationsTreeOrder.setDouble(5, definingEnd.getOffset());
-
-        final PreparedStatement sqlTranscriptAttribute = getConnection().prepareStatement(
-          "SELECT * FROM annotation_transcript WHERE ag_id = ? AND layer = ?");
-        sqlTranscriptAttribute.setInt(1, ag_id);
-        final PreparedStatement sqlCorpusLanguage = getConnection().prepareStatement(
-          "SELECT corpus_language FROM corpus"
-          +" INNER JOIN transcript ON transcript.corpus_name = corpus.corpus_name"
-          +" WHERE ag_id = ?");
-        sqlCorpusLanguage.setInt(1, ag_id);
-
-        // now we've got a complete schema, we traverse top-down through it, adding annotations
-        new LayerHierarchyTraversal<HashSet<String>>(loadedLayers, fragment.getSchema()) {
-          protected void pre(Layer layer) {
-            if (!getResult().contains(layer.getId())) {
-              try {
-                if (layer.get("layer_id") != null) {
-                  PreparedStatement sql = sqlAnnotationsByParent;
-                  if (!layer.getAncestors().contains(definingLayer)) {
-                    // not a descendant of defining annotation
-                    // has to be t-included as well
-                    sql = layer.getType() == Constants.TYPE_TREE?
-                      sqlAnnotationsTreeOrder:sqlAnnotationsByOffset;
-                  } // not a descendant of defining annotation
-                  // load all annotations on this layer that are children of known annotations
-                  Integer layer_id = (Integer)layer.get("layer_id");
-                  if (layer_id >= 0) {
-                    sql.setInt(1, layer_id);
+      final PreparedStatement sqlTranscriptAttribute = getConnection().prepareStatement(
+        "SELECT * FROM annotation_transcript WHERE ag_id = ? AND layer = ?");
+      sqlTranscriptAttribute.setInt(1, ag_id);
+      final PreparedStatement sqlCorpusLanguage = getConnection().prepareStatement(
+        "SELECT corpus_language FROM corpus"
+        +" INNER JOIN transcript ON transcript.corpus_name = corpus.corpus_name"
+        +" WHERE ag_id = ?");
+      sqlCorpusLanguage.setInt(1, ag_id);
+
+      // now we've got a complete schema, we traverse top-down through it, adding annotations
+      new LayerHierarchyTraversal<HashSet<String>>(loadedLayers, batch[0].getSchema()) {
+        protected void pre(Layer layer) {
+          if (!getResult().contains(layer.getId())) {
+            try {
+              if (layer.get("layer_id") != null) {
+                boolean byOffset = true;
+                for (Layer ancestor = layer.getParent(); ancestor != null;
+                     ancestor = ancestor.getParent()) {
+                  if (ancestor.getId().equals(definingLayer.getId())) {
+                    byOffset = false; // a descendant of defining annotation
+                    break;
+                  }
+                } // next ancestor
+                String sqlFormat = sqlAnnotationsSelect + sqlAnnotationsByParentCondition
+                  + sqlAnnotationsByParentOrder;
+                if (byOffset) { // not a descendant of defining annotation
+                  // has to be t-included as well
+                  sqlFormat = sqlAnnotationsSelect + sqlAnnotationsByParentCondition
+                    + sqlAnnotationsByOffsetCondition
+                    + (layer.getType() == Constants.TYPE_TREE?
+                       sqlAnnotationsTreeOrder:sqlAnnotationsByParentOrder);
+                } // not a descendant of defining annotation
+                // load all annotations on this layer that are children of known annotations
+                Integer layer_id = (Integer)layer.get("layer_id");
+                if (layer_id >= 0) {
+                  // identify the database IDs of the parents in each fragment
+                  Vector<LinkedHashMap<Long,Annotation>> parents
+                    = new Vector<LinkedHashMap<Long,Annotation>>();
+                  HashMap<Long,Vector<Integer>> fragmentsByParent
+                    = new HashMap<Long,Vector<Integer>>();
+                  for (int f = 0; f < n; f++) {
+                    Graph fragment = batch[f];
+                    LinkedHashMap<Long,Annotation> fragmentParents
+                      = new LinkedHashMap<Long,Annotation>();
                     for (Annotation parent : fragment.all(layer.getParentId())) {
-                      String scope = null;
-                      layer_id = null;
                       Long annotation_id = null;
-                      if (layer.getParent().equals(fragment.getSchema().getRoot())) {
-                        annotation_id = ((Integer)fragment.get("@ag_id")).longValue();
-                        scope = (String)layer.get("scope");
+                      if (layer.getParentId().equals(schema.getRoot().getId())) {
+                        annotation_id = Long.valueOf(ag_id);
                       } else {
                         try { // most likely a spanning annotation like 'utterance'
                           Object[] o = fmtAnnotationId.parse(parent.getId());
-                          scope = o[0].toString();
-                          layer_id = ((Long)o[1]).intValue();
                           annotation_id = (Long)o[2];
                         } catch(ParseException exception) {
                           System.err.println(
@@ -5242,13 +5999,71 @@ public class SqlGraphStore implements GraphStore {
                             + " on layer "+layer+": " + exception);
                         }
                       }
-                      if (annotation_id == null) continue;
-                      sql.setLong(3, annotation_id);
+                      if (annotation_id != null) {
+                        fragmentParents.put(annotation_id, parent);
+                        if (!fragmentsByParent.containsKey(annotation_id)) {
+                          fragmentsByParent.put(annotation_id, new Vector<Integer>());
+                        }
+                        fragmentsByParent.get(annotation_id).add(f);
+                      }
+                    } // next parent
+                    parents.add(fragmentParents);
+                  } // next fragment
+                    
+                  // load children of all parents, and group them by fragment and parent
+                  Vector<HashMap<Long,Vector<Object[]>>> children
+                    = new Vector<HashMap<Long,Vector<Object[]>>>();
+                  for (int f = 0; f < n; f++) children.add(new HashMap<Long,Vector<Object[]>>());
+                  for (String parentIds : InLists(fragmentsByParent.keySet())) {
+                    PreparedStatement sql = getConnection().prepareStatement(
+                      MessageFormat.format(sqlFormat, layer_id.toString(), parentIds));
+                    try {
+                      sql.setInt(1, ag_id);
+                      if (byOffset) {
+                        sql.setDouble(2, rangeStart);
+                        sql.setDouble(3, rangeEnd);
+                      }
                       ResultSet rs = sql.executeQuery();
+                      try {
+                        while (rs.next()) {
+                          Long parent_id = rs.getLong("parent_id");
+                          double startOffset = rs.getDouble("start_offset");
+                          double endOffset = rs.getDouble("end_offset");
+                          for (int f : fragmentsByParent.get(parent_id)) {
+                            if (byOffset // check t-inclusion by this fragment
+                                && (startOffset < definingStarts[f].getOffset()
+                                    || endOffset > definingEnds[f].getOffset())) {
+                              continue;
+                            }
+                            HashMap<Long,Vector<Object[]>> fragmentChildren = children.get(f);
+                            if (!fragmentChildren.containsKey(parent_id)) {
+                              fragmentChildren.put(parent_id, new Vector<Object[]>());
+                            }
+                            Object[] child = {
+                              annotationFromResult(rs, layer, batch[f]),
+                              anchorFromResult(rs, "start_"),
+                              anchorFromResult(rs, "end_") };
+                            fragmentChildren.get(parent_id).add(child);
+                          } // next fragment with this parent
+                        } // next child
+                      } finally {
+                        rs.close();
+                      }
+                    } finally {
+                      sql.close();
+                    }
+                  } // next list of parents
+                    
+                  // add children to each fragment, in parent order
+                  for (int f = 0; f < n; f++) {
+                    Graph fragment = batch[f];
+                    for (Long parent_id : parents.get(f).keySet()) {
+                      Vector<Object[]> parentChildren = children.get(f).get(parent_id);
+                      if (parentChildren == null) continue;
+                      Annotation parent = parents.get(f).get(parent_id);
                       boolean setOrdinalMinimum = true;
-                      while (rs.next()) {
-                        Annotation annotation = annotationFromResult(
-                          rs, layer, fragment);
+                      for (Object[] child : parentChildren) {
+                        Annotation annotation = (Annotation)child[0];
 				    
                         if (setOrdinalMinimum) {
                           parent.setOrdinalMinimum(
@@ -5259,11 +6074,11 @@ public class SqlGraphStore implements GraphStore {
                         fragment.addAnnotation(annotation);
 				    
                         // add anchors?
-                        Anchor start = anchorFromResult(rs, "start_");
-                        Anchor end = anchorFromResult(rs, "end_");
-                        if (definingAnnotation.includesOffset(start.getOffset())
-                            && (definingAnnotation.includesOffset(end.getOffset())
-                                || definingEnd.getOffset().equals(end.getOffset()))) {
+                        Anchor start = (Anchor)child[1];
+                        Anchor end = (Anchor)child[2];
+                        if (definingAnnotations[f].includesOffset(start.getOffset())
+                            && (definingAnnotations[f].includesOffset(end.getOffset())
+                                || definingEnds[f].getOffset().equals(end.getOffset()))) {
                           // add anchors too
                           if (fragment.getAnchor(start.getId()) == null) {
                             // start anchor isn't in graph yet
@@ -5275,82 +6090,90 @@ public class SqlGraphStore implements GraphStore {
                           }
                         } // add anchors too
                       } // next child
-                      rs.close();
                     } // next parent
-                  } else if (layer.getId().equals("episode")) { // episode
-                    Object[] annotationIdParts = {
-                      layer.get("layer_id"), graph.get("@family_id")};
+                  } // next fragment
+                } else if (layer.getId().equals("episode")) { // episode
+                  Object[] annotationIdParts = {
+                    layer.get("layer_id"), graph.get("@family_id")};
+                  for (Graph fragment : batch) {
                     Annotation episode = new Annotation(
                       fmtMetaAnnotationId.format(annotationIdParts), 
                       ""+graph.get("@series"), layer.getId());
                     episode.setParentId(fragment.getId());
-                    fragment.addAnnotation(episode);		     
-                  }
-                  // TODO 'system' layers...
-                } else if (layer.getId().equals("transcript_type")) { // transcript type
-                  PreparedStatement sqlType = getConnection().prepareStatement(
-                    "SELECT transcript_type, t.type_id FROM transcript t"
-                    +" INNER JOIN transcript_type tt ON tt.type_id = t.type_id"
-                    +" WHERE t.ag_id = ?");
-                  sqlType.setInt(1, ag_id);
-                  ResultSet rsType = sqlType.executeQuery();
-                  if (rsType.next()) {
-                    // add graph-tag annotation
-                    Object[] annotationIdParts = {"type", Integer.valueOf(ag_id)};
+                    fragment.addAnnotation(episode);
+                  } // next fragment
+                }
+                // TODO 'system' layers...
+              } else if (layer.getId().equals("transcript_type")) { // transcript type
+                PreparedStatement sqlType = getConnection().prepareStatement(
+                  "SELECT transcript_type, t.type_id FROM transcript t"
+                  +" INNER JOIN transcript_type tt ON tt.type_id = t.type_id"
+                  +" WHERE t.ag_id = ?");
+                sqlType.setInt(1, ag_id);
+                ResultSet rsType = sqlType.executeQuery();
+                if (rsType.next()) {
+                  // add graph-tag annotation
+                  Object[] annotationIdParts = {"type", Integer.valueOf(ag_id)};
+                  for (Graph fragment : batch) {
                     Annotation type = new Annotation(
                       fmtTranscriptAttributeId.format(annotationIdParts), 
                       rsType.getString("transcript_type"), layer.getId());
                     type.setParentId(fragment.getId());
                     fragment.addAnnotation(type);
-                  }
-                  rsType.close();
-                  sqlType.close();
-                } else if (layer.getId().startsWith("transcript_")) {
-                  // transcript attribute
-                  sqlTranscriptAttribute.setString(2, layer.get("attribute").toString());
-                  ResultSet rs = sqlTranscriptAttribute.executeQuery();
-                  if (rs.next() && rs.getString("label").length() > 0) {
-                    Object[] annotationIdParts = {
-                      layer.get("attribute"),
-                      Integer.valueOf(rs.getInt("annotation_id"))};
+                  } // next fragment
+                }
+                rsType.close();
+                sqlType.close();
+              } else if (layer.getId().startsWith("transcript_")) {
+                // transcript attribute
+                sqlTranscriptAttribute.setString(2, layer.get("attribute").toString());
+                ResultSet rs = sqlTranscriptAttribute.executeQuery();
+                if (rs.next() && rs.getString("label").length() > 0) {
+                  Object[] annotationIdParts = {
+                    layer.get("attribute"),
+                    Integer.valueOf(rs.getInt("annotation_id"))};
+                  for (Graph fragment : batch) {
                     Annotation attribute = new Annotation(
                       fmtTranscriptAttributeId.format(annotationIdParts),
                       rs.getString("label"), layer.getId());
                     attribute.setParentId(fragment.getId());
                     fragment.addAnnotation(attribute);
-                  } else if (layer.getId().equals("transcript_language")) {
-                    // transcript_language can magically inherit from corpus
-                    rs.close();
-                    rs = sqlCorpusLanguage.executeQuery();
-                    if (rs.next()) {
-                      Object[] annotationIdParts = {
-                        layer.get("attribute"), Integer.valueOf(ag_id)};
+                  } // next fragment
+                } else if (layer.getId().equals("transcript_language")) {
+                  // transcript_language can magically inherit from corpus
+                  rs.close();
+                  rs = sqlCorpusLanguage.executeQuery();
+                  if (rs.next()) {
+                    Object[] annotationIdParts = {
+                      layer.get("attribute"), Integer.valueOf(ag_id)};
+                    for (Graph fragment : batch) {
                       Annotation attribute = new Annotation(
                         fmtTranscriptAttributeId.format(annotationIdParts),
                         rs.getString("corpus_language"), layer.getId());
                       attribute.setParentId(fragment.getId());
                       fragment.addAnnotation(attribute);
-                    }
-                  }			  
-                  rs.close();
-                } else if (layer.getId().startsWith("participant_")) {
-                  // participant attribute TODO
-                }
-              } catch(SQLException exception) {
-                System.err.println(
-                  "Couldn't load layer for fragment " + fragment.getId() + ": " + layer
-                  +": " + exception);
+                    } // next fragment
+                  }
+                }			  
+                rs.close();
+              } else if (layer.getId().startsWith("participant_")) {
+                // participant attribute TODO
               }
-              getResult().add(layer.getId());
-            } // not already loaded
-          }
-        };
-        sqlCorpusLanguage.close();
-        sqlTranscriptAttribute.close();
-        sqlAnnotationsByParent.close();
-        sqlAnnotationsByOffset.close();
-      } // layerIds specified
+            } catch(SQLException exception) {
+              System.err.println(
+                "Couldn't load layer for fragments of " + graph.getId() + ": " + layer
+                +": " + exception);
+            }
+            getResult().add(layer.getId());
+          } // not already loaded
+        }
+      };
+      sqlCorpusLanguage.close();
+      sqlTranscriptAttribute.close();
+    } // layerIds specified
 	 
+    for (int f = 0; f < n; f++) {
+      Graph fragment = batch[f];
       // ensure that turn and utterance labels are set to the participant name
       for (Annotation a : fragment.all(fragment.getSchema().getTurnLayerId())) {
         Annotation who = a.first(fragment.getSchema().getParticipantLayerId());
@@ -5362,13 +6185,9 @@ public class SqlGraphStore implements GraphStore {
       }
 
       fragment.commit();
-      return fragment;
-    } catch(SQLException exception) {
-      System.err.println("SQL error: " + exception);
-      exception.printStackTrace(System.err);
-      throw new StoreException("Invalid query."); // TODO i18n
-    }
-  }   
+      fragments[indices.get(f)] = fragment;
+    } // next fragment
+  } // end of loadFragments()
 
   /**
    * Gets a fragment of a transcript, given its ID and the start/end offsets that define the 
@@ -5737,13 +6556,14 @@ public class SqlGraphStore implements GraphStore {
   public boolean saveTranscript(Graph transcript) 
     throws StoreException, PermissionException, GraphNotFoundException {
     requireEdit();
+    SearchResultsCache.Invalidate();
     if (transcript.getChange() == Change.Operation.NoChange) return false;
       
     Timers timers = new Timers();
-    // timers.start("saveGraph");
+    timers.start("saveTranscript");
     Schema schema = getSchema();
     Graph graph = transcript;
-    
+
     try {
       // validate the graph before saving it
       // TODO ensure all layers are loaded before validation
@@ -5821,8 +6641,7 @@ public class SqlGraphStore implements GraphStore {
           || (layer.getParent() != null
               && !layer.getParentId().equals(schema.getRoot().getId())))
         .findAny().isPresent();
-      timers.end("topLevelChildlessNonIntervalChangesOnly"); // TODO false when it should be true
-      // System.err.println("topLevelChildlessNonIntervalChangesOnly " + topLevelChildlessNonIntervalChangesOnly + " - " + timers);
+      // System.err.println("topLevelChildlessNonIntervalChangesOnly " + topLevelChildlessNonIntervalChangesOnly);
       
       if (topLevelChildlessNonIntervalChangesOnly
           || graph.containsKey("@valid")) { // TODO remove this workaround
@@ -5830,8 +6649,6 @@ public class SqlGraphStore implements GraphStore {
         //   "Graph " + graph.getId() + ": skipping validation - "
         //   + (topLevelChildlessNonIntervalChangesOnly?
         //      "all top-level childless non-interval changes":"externally tagged as valid"));
-        timers.start("topLevelChildlessNonIntervalChangesOnly");
-        
         // but normalize anyway if it's new
         if (!topLevelChildlessNonIntervalChangesOnly // don't need to normalize with these changes
             && graph.getChange() == Change.Operation.Create
@@ -5845,7 +6662,7 @@ public class SqlGraphStore implements GraphStore {
             .transform(transcript);
         }
       } else {
-        // timers.start("normalize");
+        timers.start("normalize");
         if (transcript.getSchema().getParticipantLayer() != null
             && transcript.getSchema().getTurnLayer() != null
             && transcript.getSchema().getUtteranceLayer() != null
@@ -5855,12 +6672,11 @@ public class SqlGraphStore implements GraphStore {
             .setMinimumTurnPauseLength(Double.parseDouble(getSystemAttribute("minTurnPause")))
             .transform(transcript);
         }
-        // timers.end("normalize");
+        timers.end("normalize");
       
-        // timers.start("validate");
+        timers.start("validate");
         v.transform(graph);
-        // timers.end("validate");
-        // System.err.println("saveGraph: " + timers);
+        timers.end("validate");
         if (v.getErrors().size() != 0) {
           StringBuffer messages = new StringBuffer();
           for (String s : v.getErrors()) {
@@ -5918,7 +6734,7 @@ public class SqlGraphStore implements GraphStore {
           }
         } // next annotation
       } // !mediaProcesserTypeChanges
-      
+
       if (graph.getChange() == Change.Operation.Create) {
         // create the graph, to generate the ag_id
         PreparedStatement sql = getConnection().prepareStatement(
@@ -5959,7 +6775,9 @@ public class SqlGraphStore implements GraphStore {
       // check changes
       List<Annotation> changedAnnotations = transcript.getChangedAnnotationsOrdered();
       Set<Anchor> changedAnchors = transcript.getChangedAnchors().collect(Collectors.toSet());
-      if (changedAnchors.size() == 0 && changedAnnotations.size() == 0) return false;
+      if (changedAnchors.size() == 0 && changedAnnotations.size() == 0) {
+        return false;
+      }
 
       boolean utteranceChanges = graph.getChange() == Change.Operation.Create
         || changedAnnotations.stream()
@@ -6127,7 +6945,6 @@ public class SqlGraphStore implements GraphStore {
       sqlParticipant.close();
       
       // process changes
-      // timers.start("process changes");      
       PreparedStatement sqlLastId = getConnection().prepareStatement("SELECT LAST_INSERT_ID()");
       PreparedStatement sqlInsertAnchor = getConnection().prepareStatement(
         "INSERT INTO anchor"
@@ -6156,14 +6973,16 @@ public class SqlGraphStore implements GraphStore {
         "INSERT INTO annotation_layer_?"
         + " (ag_id, label, label_status, start_anchor_id, end_anchor_id,"
         + " parent_id, ordinal, annotated_by, annotated_when)"
-        + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)",
+        Statement.RETURN_GENERATED_KEYS);
       sqlInsertFreeformAnnotation.setInt(2, iAgId);
       PreparedStatement sqlInsertMetaAnnotation = getConnection().prepareStatement(
         "INSERT INTO annotation_layer_?"
         + " (ag_id, label, label_status, start_anchor_id, end_anchor_id,"
         + " parent_id, ordinal, annotated_by, annotated_when,"
         + " turn_annotation_id)"
-        + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+        Statement.RETURN_GENERATED_KEYS);
       sqlInsertMetaAnnotation.setInt(2, iAgId);
       PreparedStatement sqlInsertWordAnnotation = getConnection().prepareStatement(
         "INSERT INTO annotation_layer_?"
@@ -6171,7 +6990,8 @@ public class SqlGraphStore implements GraphStore {
         + " parent_id, ordinal, annotated_by, annotated_when,"
         + " turn_annotation_id,"
         + " ordinal_in_turn, word_annotation_id)"
-        + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+        Statement.RETURN_GENERATED_KEYS);
       sqlInsertWordAnnotation.setInt(2, iAgId);
       PreparedStatement sqlInsertSegmentAnnotation = getConnection().prepareStatement(
         "INSERT INTO annotation_layer_?"
@@ -6180,7 +7000,8 @@ public class SqlGraphStore implements GraphStore {
         + " turn_annotation_id," 
         + " ordinal_in_turn, word_annotation_id,"
         + " ordinal_in_word, segment_annotation_id)"
-        + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+        Statement.RETURN_GENERATED_KEYS);
       sqlInsertSegmentAnnotation.setInt(2, iAgId);
       PreparedStatement sqlUpdateFreeformAnnotation = getConnection().prepareStatement(
         "UPDATE annotation_layer_?"
@@ -6224,6 +7045,8 @@ public class SqlGraphStore implements GraphStore {
         "UPDATE annotation_layer_? SET segment_annotation_id = ? WHERE annotation_id = ?");
       PreparedStatement sqlDeleteAnnotation = getConnection().prepareStatement(
         "DELETE FROM annotation_layer_? WHERE annotation_id = ?");
+      AnnotationBatch annotationBatch = new AnnotationBatch(
+        sqlUpdateTurnAnnotationId, sqlUpdateWordAnnotationId, sqlUpdateSegmentAnnotationId);
 
       PreparedStatement sqlInsertTranscriptAttribute = getConnection().prepareStatement(
         "INSERT INTO annotation_transcript"
@@ -6296,13 +7119,25 @@ public class SqlGraphStore implements GraphStore {
         saveGraphChanges(graph);
 
         // anchor creations/updates
+        timers.start("anchors");
+        Vector<Anchor> newAnchors = new Vector<Anchor>();
+        Vector<Anchor> deletedAnchors = new Vector<Anchor>();
         for (Anchor anchor : changedAnchors) {
-          if (anchor.getChange() != Change.Operation.Destroy) {
+          if (anchor.getChange() == Change.Operation.Create) {
+            newAnchors.add(anchor);
+          } else if (anchor.getChange() == Change.Operation.Destroy) {
+            deletedAnchors.add(anchor);
+          } else {
             saveAnchorChanges(anchor, extraUpdates, 
                               sqlInsertAnchor, sqlLastId, sqlUpdateAnchor, 
                               sqlCheckAnchor, layerIds, sqlDeleteAnchor);
           }
         } // next anchor
+        sqlUpdateAnchor.executeBatch();
+        saveNewAnchors(newAnchors, iAgId);
+        timers.end("anchors");
+        
+        timers.start("annotations");
         for (Annotation annotation : changedAnnotations) {
           // Annotation annotation = (Annotation)change.getObject();
           if (annotation.getLayerId().equals("episode")
@@ -6338,8 +7173,7 @@ public class SqlGraphStore implements GraphStore {
             saveAnnotationChanges(
               annotation, extraUpdates, 
               sqlInsertFreeformAnnotation, sqlInsertMetaAnnotation, 
-              sqlInsertWordAnnotation, sqlInsertSegmentAnnotation, sqlLastId, 
-              sqlUpdateTurnAnnotationId, sqlUpdateWordAnnotationId, sqlUpdateSegmentAnnotationId, 
+              sqlInsertWordAnnotation, sqlInsertSegmentAnnotation, annotationBatch,
               sqlUpdateFreeformAnnotation, sqlUpdateMetaAnnotation, 
               sqlSelectWordFields, sqlSelectSegmentFields, 
               sqlUpdateWordAnnotation, sqlUpdateSegmentAnnotation, 
@@ -6348,16 +7182,14 @@ public class SqlGraphStore implements GraphStore {
               schema);
           }
         } // next change
+        annotationBatch.flush();
+        sqlDeleteAnnotation.executeBatch();
+        timers.end("annotations");
+        
         // anchor deletions
-        for (Anchor anchor : changedAnchors) {
-          if (anchor.getChange() == Change.Operation.Destroy) {
-            saveAnchorChanges(anchor, extraUpdates, 
-                              sqlInsertAnchor, sqlLastId, sqlUpdateAnchor, 
-                              sqlCheckAnchor, layerIds, sqlDeleteAnchor);
-          }
-        } // next anchor
-        // timers.end("process changes");
-        // System.err.println("saveGraph: " + timers);
+        timers.start("anchor deletions");
+        saveDeletedAnchors(deletedAnchors, layerIds);
+        timers.end("anchor deletions");
 	    
         // extras
         HashSet<Annotation> newExtraUpdates = new HashSet<Annotation>();
@@ -6365,8 +7197,7 @@ public class SqlGraphStore implements GraphStore {
           saveAnnotationChanges(
             annotation, newExtraUpdates, 
             sqlInsertFreeformAnnotation, sqlInsertMetaAnnotation, 
-            sqlInsertWordAnnotation, sqlInsertSegmentAnnotation, sqlLastId, 
-            sqlUpdateTurnAnnotationId, sqlUpdateWordAnnotationId, sqlUpdateSegmentAnnotationId, 
+            sqlInsertWordAnnotation, sqlInsertSegmentAnnotation, annotationBatch,
             sqlUpdateFreeformAnnotation, sqlUpdateMetaAnnotation, 
             sqlSelectWordFields, sqlSelectSegmentFields, 
             sqlUpdateWordAnnotation, sqlUpdateSegmentAnnotation, 
@@ -6374,6 +7205,8 @@ public class SqlGraphStore implements GraphStore {
             participantNameToNumber,
             schema);
         } 
+        annotationBatch.flush();
+        sqlDeleteAnnotation.executeBatch();
         assert newExtraUpdates.size() == 0 : "newExtraUpdates.size() == 0";
 
         // untag anchors and annotations
@@ -6384,7 +7217,7 @@ public class SqlGraphStore implements GraphStore {
           // ensure that tag annotations have their anchors updated with their parents,
           // even if they're not mentioned in the given graph
                
-          // timers.start("update tag anchors");
+          timers.start("update tag anchors");
           if (wordChanges) {
             PreparedStatement sqlFixWordTagAnchors = connection.prepareStatement(
               "UPDATE annotation_layer_?"
@@ -6430,12 +7263,12 @@ public class SqlGraphStore implements GraphStore {
             } // next child
             sqlFixSegmentTagAnchors.close();
           } // segmentChanges
-          // timers.end("update tag anchors");
+          timers.end("update tag anchors");
 
           // forced-alignment to a phrase layer can lead to the phrase annotation ordinals
           // starting at 1 at the beginning of each utterance
           // so we update the ordinals to be chronological
-          // timers.start("update ordinals");
+          timers.start("update ordinals");
           for (Integer layer_id : adjustPhraseOrdinals.keySet()) {
             String turnIdList = adjustPhraseOrdinals.get(layer_id).stream()
               .map(uid -> uid.replace("em_11_", "")) // convert uid to turn_annotation_id
@@ -6472,11 +7305,11 @@ public class SqlGraphStore implements GraphStore {
             } // there are turn IDs
               
           } // next updating phrase layer
-          // timers.end("update ordinals");
+          timers.end("update ordinals");
         } // not a new graph
 
         if (wordChanges || utteranceChanges) {
-          // timers.start("word utterances");
+          timers.start("word utterances");
           // (re-)link words to utterances for fast search result collation
           PreparedStatement sqlFindWordUtterance = connection.prepareStatement(
             "UPDATE annotation_layer_0"
@@ -6497,9 +7330,8 @@ public class SqlGraphStore implements GraphStore {
           sqlFindWordUtterance.setInt(1, iAgId);
           sqlFindWordUtterance.executeUpdate();
           sqlFindWordUtterance.close();       
-          // timers.end("word utterances");
+          timers.end("word utterances");
         }
-
       } finally {
         sqlInsertAnchor.close();
         sqlUpdateAnchor.close();
@@ -6548,10 +7380,20 @@ public class SqlGraphStore implements GraphStore {
       exception.printStackTrace(System.err);
       throw new StoreException(
         "Unexpected error saving "+graph.getId() + ": "+exception, exception);
+    } finally {
+      // invalidate snapshots after saving, so none taken during the save are used
+      // (new transcripts have no ag_id until they're inserted, and no snapshots before)
+      if (graph.get("@ag_id") != null) {
+        invalidateSnapshots(Long.parseLong(graph.get("@ag_id").toString()));
+      }
     }
-    // System.err.println("saveGraph finished.");
-    // timers.end("saveGraph");
-    // System.err.println("saveGraph: " + timers);
+    timers.end("saveTranscript");
+    for (Map.Entry<String,Long> phase : timers.getTotals().entrySet()) {
+      MetricRegistry.Histogram(
+        "labbcat_save_transcript_phase_seconds", "Time taken by each phase of saving transcripts.",
+        MetricRegistry.DURATION_BUCKETS, "phase", phase.getKey())
+        .observe(phase.getValue() / 1000.0);
+    } // next phase
     return true;
   }
 
@@ -6765,7 +7607,8 @@ public class SqlGraphStore implements GraphStore {
    * now must be updated because the anchor's ID is changing.
    * @param sqlInsertAnchor Prepared statement for inserting an anchor row.
    * @param sqlLastId Prepared statement for retrieving the last database ID created.
-   * @param sqlUpdateAnchor Prepared statement for updating an anchor row.
+   * @param sqlUpdateAnchor Prepared statement for updating an anchor row. Updates are
+   * added to the statement's batch, which must be executed by the caller.
    * @param sqlCheckAnchor Prepared statement for counting the number of anchors
    * currently using an anchor.
    * @param layerIds List of all layer_ids, for checking for annotations that use this anchor.
@@ -6841,7 +7684,7 @@ public class SqlGraphStore implements GraphStore {
               sqlUpdateAnchor.setTimestamp(4, new Timestamp(new java.util.Date().getTime()));
             }
             sqlUpdateAnchor.setLong(5, anchorId);
-            sqlUpdateAnchor.executeUpdate();
+            sqlUpdateAnchor.addBatch(); // executed by the caller
 	       
           } catch(ParseException exception) {
             System.err.println("Error parsing anchor ID for "+anchor.getId());
@@ -6884,6 +7727,286 @@ public class SqlGraphStore implements GraphStore {
     anchor.put("@SqlUpdated", Boolean.TRUE); // flag the anchor as having been updated
   } // end of saveAnchorChanges()
 
+  /**
+   * Inserts the given new anchors, using multi-row <tt>INSERT</tt> statements of up to
+   * 1000 anchors each, and sets their IDs from the generated keys.
+   * <p> This relies on the IDs generated by a single multi-row <tt>INSERT</tt> being
+   * consecutive, which is the case for the <tt>anchor</tt> table, as it's MyISAM.
+   * @param anchors The anchors to create.
+   * @param agId The ag_id of the transcript they belong to.
+   * @throws StoreException If the number of IDs generated is not the number of anchors.
+   * @throws SQLException If a database error occurs.
+   */
+  protected void saveNewAnchors(List<Anchor> anchors, int agId)
+    throws SQLException, StoreException {
+    Timestamp now = new Timestamp(new java.util.Date().getTime());
+    for (int from = 0; from < anchors.size(); from += 1000) {
+      List<Anchor> chunk = anchors.subList(from, Math.min(from + 1000, anchors.size()));
+      StringBuilder query = new StringBuilder(
+        "INSERT INTO anchor"
+        +" (ag_id, `offset`, alignment_status, annotated_by, annotated_when)"
+        +" VALUES ");
+      for (int a = 0; a < chunk.size(); a++) {
+        if (a > 0) query.append(",");
+        query.append("(?, ?, ?, ?, ?)");
+      } // next anchor
+      PreparedStatement sql = getConnection().prepareStatement(
+        query.toString(), Statement.RETURN_GENERATED_KEYS);
+      try {
+        int p = 1;
+        for (Anchor anchor : chunk) {
+          if (anchor.getConfidence() == null) {
+            anchor.setConfidence(Integer.valueOf(Constants.CONFIDENCE_UNKNOWN));
+          }
+          sql.setInt(p++, agId);
+          if (anchor.getOffset() != null) {
+            sql.setDouble(p++, anchor.getOffset());
+          } else {
+            sql.setNull(p++, java.sql.Types.DOUBLE);
+          }
+          sql.setInt(p++, anchor.getConfidence());
+          sql.setString(p++, anchor.getAnnotator() != null?anchor.getAnnotator():getUser());
+          sql.setTimestamp(p++, now);
+        } // next anchor
+        sql.executeUpdate();
+        ResultSet rs = sql.getGeneratedKeys();
+        try {
+          for (Anchor anchor : chunk) {
+            if (!rs.next()) {
+              throw new StoreException(
+                "Could not retrieve new ID for anchor " + anchor.getId());
+            }
+            Object[] anchorIdParts = { Long.valueOf(rs.getLong(1)) };
+            // change anchor ID (this updates referencing annotations)
+            anchor.setId(fmtAnchorId.format(anchorIdParts));
+            anchor.put("@SqlUpdated", Boolean.TRUE); // flag the anchor as having been updated
+          } // next anchor
+        } finally {
+          rs.close();
+        }
+      } finally {
+        sql.close();
+      }
+    } // next chunk
+  } // end of saveNewAnchors()
+
+  /**
+   * Deletes the given anchors, unless they are still used by annotations in the database,
+   * in which case their deletion is rolled back. Anchors are checked and deleted in
+   * batches, using <tt>IN</tt> lists.
+   * @param anchors The anchors to delete.
+   * @param layerIds List of all layer_ids, for checking for annotations that use the anchors.
+   * @throws StoreException If an ID can't be parsed.
+   * @throws SQLException If a database error occurs.
+   */
+  protected void saveDeletedAnchors(List<Anchor> anchors, HashSet<Integer> layerIds)
+    throws SQLException, StoreException {
+    if (anchors.size() == 0) return;
+    // deduce the database anchor.anchor_id from the object anchor.id
+    LinkedHashMap<Long,Anchor> idToAnchor = new LinkedHashMap<Long,Anchor>();
+    for (Anchor anchor : anchors) {
+      try {
+        Object[] o = fmtAnchorId.parse(anchor.getId());
+        idToAnchor.put((Long)o[0], anchor);
+      } catch(ParseException exception) {
+        System.err.println("Error parsing anchor ID for "+anchor.getId());
+        throw new StoreException("Error parsing anchor ID for "+anchor.getId(), exception);
+      }
+    } // next anchor
+    List<String> idLists = InLists(idToAnchor.keySet());
+
+    // check all layers in the database to see in any existing annotation uses the anchors
+    HashSet<Long> inUse = new HashSet<Long>();
+    Statement sql = getConnection().createStatement();
+    try {
+      for (Integer layerId : layerIds) {
+        for (String idList : idLists) {
+          ResultSet rs = sql.executeQuery(
+            "SELECT start_anchor_id, end_anchor_id FROM annotation_layer_" + layerId
+            +" WHERE start_anchor_id IN (" + idList + ") OR end_anchor_id IN (" + idList + ")");
+          try {
+            while (rs.next()) {
+              inUse.add(rs.getLong(1));
+              inUse.add(rs.getLong(2));
+            } // next annotation
+          } finally {
+            rs.close();
+          }
+        } // next list of IDs
+      } // next layer
+
+      for (Long anchorId : inUse) {
+        Anchor anchor = idToAnchor.remove(anchorId);
+        // this anchor still has a reference to it so we can't delete it
+        if (anchor != null) anchor.rollback();
+      } // next anchor in use
+
+      for (String idList : InLists(idToAnchor.keySet())) {
+        sql.executeUpdate("DELETE FROM anchor WHERE anchor_id IN (" + idList + ")");
+      } // next list of IDs
+    } finally {
+      sql.close();
+    }
+
+    for (Anchor anchor : anchors) {
+      anchor.put("@SqlUpdated", Boolean.TRUE); // flag the anchor as having been updated
+    }
+  } // end of saveDeletedAnchors()
+
+  /**
+   * Batches the annotation row inserts and updates made by {@link #saveAnnotationChanges},
+   * so that they're sent to the database in as few round trips as possible.
+   * <p> Pending changes are all on one layer; they're executed before any annotation on
+   * another layer is saved, so that children are only saved once their parents have their
+   * final IDs, and parent rows are up to date by the time children read them.
+   */
+  protected class AnnotationBatch {
+    
+    /** Statement for setting turn_annotation_id of new turns. */
+    PreparedStatement sqlUpdateTurnAnnotationId;
+    
+    /** Statement for setting word_annotation_id of new words. */
+    PreparedStatement sqlUpdateWordAnnotationId;
+    
+    /** Statement for setting segment_annotation_id of new segments. */
+    PreparedStatement sqlUpdateSegmentAnnotationId;
+    
+    /** ID of the layer of the pending changes, or null if there are none. */
+    String layerId;
+    
+    /** The insert statement with pending inserts, if any. */
+    PreparedStatement insert;
+    
+    /** Annotations inserted by the batch of {@link #insert}, in batch order. */
+    Vector<Annotation> inserted = new Vector<Annotation>();
+    
+    /** The scope and layer_id of each of {@link #inserted}, for formatting their IDs. */
+    Vector<Object[]> insertedIdParts = new Vector<Object[]>();
+    
+    /** Update statements with pending updates. */
+    LinkedHashSet<PreparedStatement> updates = new LinkedHashSet<PreparedStatement>();
+    
+    /**
+     * Constructor.
+     * @param sqlUpdateTurnAnnotationId Statement for setting turn_annotation_id.
+     * @param sqlUpdateWordAnnotationId Statement for setting word_annotation_id.
+     * @param sqlUpdateSegmentAnnotationId Statement for setting segment_annotation_id.
+     */
+    public AnnotationBatch(
+      PreparedStatement sqlUpdateTurnAnnotationId, PreparedStatement sqlUpdateWordAnnotationId,
+      PreparedStatement sqlUpdateSegmentAnnotationId) {
+      this.sqlUpdateTurnAnnotationId = sqlUpdateTurnAnnotationId;
+      this.sqlUpdateWordAnnotationId = sqlUpdateWordAnnotationId;
+      this.sqlUpdateSegmentAnnotationId = sqlUpdateSegmentAnnotationId;
+    } // end of constructor
+    
+    /**
+     * Executes pending changes if the given annotation is on a different layer.
+     * @param annotation The annotation about to be saved.
+     * @throws SQLException If a database error occurs.
+     * @throws StoreException If new IDs can't be retrieved.
+     */
+    public void prepareFor(Annotation annotation) throws SQLException, StoreException {
+      if (layerId != null && !layerId.equals(annotation.getLayerId())) flush();
+      layerId = annotation.getLayerId();
+    } // end of prepareFor()
+    
+    /**
+     * Adds the current parameters of the given insert statement to the batch.
+     * @param sql The insert statement, with the annotation's parameters set.
+     * @param annotation The annotation being inserted, whose ID is set when the batch is
+     * executed.
+     * @param scope The scope for the annotation's ID.
+     * @param layerId The layer_id of the annotation's layer.
+     * @throws SQLException If a database error occurs.
+     * @throws StoreException If new IDs can't be retrieved.
+     */
+    public void insert(PreparedStatement sql, Annotation annotation, String scope, Integer layerId)
+      throws SQLException, StoreException {
+      if (insert != null && insert != sql) flushInserts();
+      sql.addBatch();
+      insert = sql;
+      inserted.add(annotation);
+      Object[] idParts = { scope, layerId };
+      insertedIdParts.add(idParts);
+    } // end of insert()
+    
+    /**
+     * Adds the current parameters of the given update statement to the batch.
+     * @param sql The update statement, with the annotation's parameters set.
+     * @throws SQLException If a database error occurs.
+     */
+    public void update(PreparedStatement sql) throws SQLException {
+      sql.addBatch();
+      updates.add(sql);
+    } // end of update()
+    
+    /**
+     * Executes pending inserts, and sets the IDs of the inserted annotations from the
+     * generated keys.
+     * @throws SQLException If a database error occurs.
+     * @throws StoreException If the number of IDs generated is not the number of inserts.
+     */
+    public void flushInserts() throws SQLException, StoreException {
+      if (insert == null) return;
+      try {
+        insert.executeBatch();
+        ResultSet rs = insert.getGeneratedKeys();
+        try {
+          for (int i = 0; i < inserted.size(); i++) {
+            Annotation annotation = inserted.get(i);
+            if (!rs.next()) {
+              throw new StoreException(
+                "Could not retrieve new ID for annotation " + annotation.getId());
+            }
+            long annotationId = rs.getLong(1);
+            Integer annotationLayerId = (Integer)insertedIdParts.get(i)[1];
+            Object[] annotationIdParts = {
+              insertedIdParts.get(i)[0], annotationLayerId, Long.valueOf(annotationId) };
+            // change annotation ID (this updates referencing annotations)
+            annotation.setId(fmtAnnotationId.format(annotationIdParts));
+
+            // does it need to update its own ID in the database?
+            PreparedStatement sqlUpdateId = null;
+            switch (annotationLayerId.intValue()) {
+              case SqlConstants.LAYER_TURN:
+                sqlUpdateId = sqlUpdateTurnAnnotationId; break;
+              case SqlConstants.LAYER_TRANSCRIPTION:
+                sqlUpdateId = sqlUpdateWordAnnotationId; break;
+              case SqlConstants.LAYER_SEGMENT:
+                sqlUpdateId = sqlUpdateSegmentAnnotationId; break;
+            }
+            if (sqlUpdateId != null) {
+              sqlUpdateId.setInt(1, annotationLayerId);
+              sqlUpdateId.setLong(2, annotationId);
+              sqlUpdateId.setLong(3, annotationId);
+              update(sqlUpdateId);
+            }
+          } // next annotation
+        } finally {
+          rs.close();
+        }
+      } finally {
+        insert = null;
+        inserted.clear();
+        insertedIdParts.clear();
+      }
+    } // end of flushInserts()
+    
+    /**
+     * Executes all pending inserts and updates.
+     * @throws SQLException If a database error occurs.
+     * @throws StoreException If new IDs can't be retrieved.
+     */
+    public void flush() throws SQLException, StoreException {
+      flushInserts(); // first, as this may add updates
+      for (PreparedStatement sql : updates) sql.executeBatch();
+      updates.clear();
+      layerId = null;
+    } // end of flush()
+    
+  } // end of class AnnotationBatch
+
   /**
    * Saves the changes to the given anchor, and updates related annotations if the anchor
    * ID is changed.
@@ -6895,10 +8018,8 @@ public class SqlGraphStore implements GraphStore {
    * @param sqlInsertMetaAnnotation Prepared statement for inserting a meta annotation row.
    * @param sqlInsertWordAnnotation Prepared statement for inserting a word annotation row.
    * @param sqlInsertSegmentAnnotation Prepared statement for inserting a segment annotation row.
-   * @param sqlLastId Prepared statement for retrieving the last database ID created.
-   * @param sqlUpdateTurnAnnotationId Prepared statement for updating turn_annotation_id.
-   * @param sqlUpdateWordAnnotationId Prepared statement for updating word_annotation_id.
-   * @param sqlUpdateSegmentAnnotationId Prepared statement for updating segment_annotation_id.
+   * @param batch Batch to which row inserts and updates are added. Its pending changes
+   * must be executed by the caller with {@link AnnotationBatch#flush()}.
    * @param sqlUpdateFreeformAnnotation Prepared statement for updating a freeform annotation row.
    * @param sqlUpdateMetaAnnotation Prepared statement for updating a meta annotation row.
    * @param sqlSelectWordFields Prepared statement for finding word field values.
@@ -6906,6 +8027,7 @@ public class SqlGraphStore implements GraphStore {
    * @param sqlUpdateWordAnnotation Prepared statement for updating a word annotation row.
    * @param sqlUpdateSegmentAnnotation Prepared statement for updating a segment annotation row.
    * @param sqlDeleteAnnotation Prepared statement for deleteing an annotation row.
+   * Deletions are added to the statement's batch, which must be executed by the caller.
    * @param participantNameToNumber A lookup table for participant numbers, for turns/utterances
    * @throws SQLException If a database error occurs.
    * @throws StoreException If an error occurs.
@@ -6915,9 +8037,7 @@ public class SqlGraphStore implements GraphStore {
     Annotation annotation, HashSet<Annotation> extraUpdates, 
     PreparedStatement sqlInsertFreeformAnnotation, PreparedStatement sqlInsertMetaAnnotation, 
     PreparedStatement sqlInsertWordAnnotation, PreparedStatement sqlInsertSegmentAnnotation,
-    PreparedStatement sqlLastId, PreparedStatement sqlUpdateTurnAnnotationId,
-    PreparedStatement sqlUpdateWordAnnotationId,
-    PreparedStatement sqlUpdateSegmentAnnotationId, 
+    AnnotationBatch batch,
     PreparedStatement sqlUpdateFreeformAnnotation, PreparedStatement sqlUpdateMetaAnnotation, 
     PreparedStatement sqlSelectWordFields, PreparedStatement sqlSelectSegmentFields,
     PreparedStatement sqlUpdateWordAnnotation, PreparedStatement sqlUpdateSegmentAnnotation, 
@@ -6932,6 +8052,7 @@ public class SqlGraphStore implements GraphStore {
     }
 
     Layer layer = annotation.getLayer();
+    batch.prepareFor(annotation);
     
     switch (annotation.getChange()) {
       case Create: {
@@ -7154,43 +8275,12 @@ public class SqlGraphStore implements GraphStore {
             } // other word or segment annotation
           } // word or segment annotation
         } // meta, word, or segment annotation
-        sql.executeUpdate();
-
-        ResultSet rs = sqlLastId.executeQuery();
-        rs.next();
-        String oldId = annotation.getId();
-        long annotationId = rs.getLong(1);
-        Object[] annotationIdParts = { scope, layerId, Long.valueOf(annotationId) };
-        String newId = fmtAnnotationId.format(annotationIdParts);
-        
-        rs.close();
-	    
-        // change annotation ID
-        annotation.setId(newId);
-
-        // does it need to update its own ID in the database?
-        switch (layerId.intValue()) {
-          case SqlConstants.LAYER_TURN: {		  
-            sqlUpdateTurnAnnotationId.setInt(1, layerId);
-            sqlUpdateTurnAnnotationId.setLong(2, annotationId);
-            sqlUpdateTurnAnnotationId.setLong(3, annotationId);
-            sqlUpdateTurnAnnotationId.executeUpdate();
-            break;
-          } case SqlConstants.LAYER_TRANSCRIPTION: {
-              sqlUpdateWordAnnotationId.setInt(1, layerId);
-              sqlUpdateWordAnnotationId.setLong(2, annotationId);
-              sqlUpdateWordAnnotationId.setLong(3, annotationId);
-              sqlUpdateWordAnnotationId.executeUpdate();
-              break;
-            } case SqlConstants.LAYER_SEGMENT: {
-                sqlUpdateSegmentAnnotationId.setInt(1, layerId);
-                sqlUpdateSegmentAnnotationId.setLong(2, annotationId);
-                sqlUpdateSegmentAnnotationId.setLong(3, annotationId);
-                sqlUpdateSegmentAnnotationId.executeUpdate();
-                break;
-              }
+        // the ID is set when the batch is executed
+        batch.insert(sql, annotation, scope, layerId);
+        if (layer.getType().indexOf('/') > 0) { // binary layer
+          // the data file location depends on the ID, so we need it now
+          batch.flushInserts();
         }
-
         break;
       } case Update: {
           // deduce the database anchor.anchor_id from the object anchor.id
@@ -7559,7 +8649,7 @@ public class SqlGraphStore implements GraphStore {
               } // other word or segment annotation
             } // word or segment annotation
           } // meta, word, or segment annotation
-          sql.executeUpdate();
+          batch.update(sql);
 	    
           break;
         } case Destroy: {
@@ -7569,7 +8659,7 @@ public class SqlGraphStore implements GraphStore {
               Long annotationId = (Long)o[2];
               sqlDeleteAnnotation.setInt(1, layerId.intValue());
               sqlDeleteAnnotation.setLong(2, annotationId);
-              sqlDeleteAnnotation.executeUpdate();
+              sqlDeleteAnnotation.addBatch(); // executed by the caller
             } catch(ParseException exception) {
               // ignore the error - if it hasn't got a valid ID, it's not in the DB anyway
             }
@@ -8298,6 +9388,7 @@ public class SqlGraphStore implements GraphStore {
     String parentId)
     throws StoreException, PermissionException, GraphNotFoundException {
     requireEdit();
+    SearchResultsCache.Invalidate();
     Schema schema = getSchema();
     Layer layer = schema.getLayer(layerId);
     if (layer.get("scope") == null)
@@ -8471,6 +9562,8 @@ public class SqlGraphStore implements GraphStore {
       System.err.println("SQL error: " + exception);
       exception.printStackTrace(System.err);
       throw new StoreException("Invalid query."); // TODO i18n
+    } finally {
+      invalidateSnapshots(id); // after the change, so no earlier snapshots are used
     }
   }
 
@@ -8485,6 +9578,7 @@ public class SqlGraphStore implements GraphStore {
     String id, String annotationId, String label, Integer confidence)
     throws StoreException, PermissionException, GraphNotFoundException {
     requireEdit();
+    SearchResultsCache.Invalidate();
     
     String scope = null;
     Integer layer_id = null;
@@ -8524,6 +9618,8 @@ public class SqlGraphStore implements GraphStore {
       System.err.println("SQL error: " + exception);
       exception.printStackTrace(System.err);
       throw new StoreException("Invalid query."); // TODO i18n
+    } finally {
+      invalidateSnapshots(id); // after the change, so no earlier snapshots are used
     }
   }
 
@@ -8535,6 +9631,7 @@ public class SqlGraphStore implements GraphStore {
   public void destroyAnnotation(String id, String annotationId)
     throws StoreException, PermissionException, GraphNotFoundException {
     requireEdit();
+    SearchResultsCache.Invalidate();
     try {
       Object[] attributes = fmtAnnotationId.parse(annotationId);
       Long layer_id = (Long)attributes[1];
@@ -8565,8 +9662,436 @@ public class SqlGraphStore implements GraphStore {
       System.err.println("SQL error: " + exception);
       exception.printStackTrace(System.err);
       throw new StoreException("Invalid query."); // TODO i18n
+    } finally {
+      invalidateSnapshots(id); // after the change, so no earlier snapshots are used
     }
   }
+  /**
+   * Applies a batch of annotation edits: creating annotations, updating their labels,
+   * and destroying them.
+   * <p> Each edit has the same effect as the corresponding call to
+   * {@link #createAnnotation(String,String,String,String,String,Integer,String)},
+   * {@link #updateAnnotationLabel(String,String,String,Integer)}, or
+   * {@link #destroyAnnotation(String,String)}, and edits are applied in the given order,
+   * but consecutive edits of the same kind on the same layer are sent to the database as
+   * a single JDBC batch.
+   * <p> Annotation tables are not transactional, so all edits are validated - including
+   * checking that all annotations, parents, and anchors exist and are accessible - before
+   * any changes are made. If any edit is invalid, a StoreException is thrown and nothing
+   * is changed.
+   * <p> Edits cannot refer to annotations created by earlier edits in the same batch,
+   * and labels that include a data file, and creating annotations on unaligned top-level
+   * layers, are not supported.
+   * @param edits The edits to apply.
+   * @return The IDs of the new annotations, one element per edit. The element is null
+   * for edits that are not creations, and for creations that are superseded by a later
+   * edit in the batch (i.e. tags on layers that don't allow peers, where a later edit
+   * tags the same parent).
+   * @throws StoreException If any edit is invalid or an error occurs.
+   * @throws PermissionException If the operation is not permitted.
+   */
+  public String[] editAnnotations(List<AnnotationEdit> edits)
+    throws StoreException, PermissionException {
+    requireEdit();
+    Schema schema = getSchema();
+    HashMap<Long,Layer> layersById = new HashMap<Long,Layer>();
+    HashSet<String> parentLayerIds = new HashSet<String>();
+    for (Layer l : schema.getLayers().values()) {
+      if (l.get("layer_id") != null) layersById.put(((Integer)l.get("layer_id")).longValue(), l);
+      if (l.getParentId() != null) parentLayerIds.add(l.getParentId());
+    } // next layer
+    int count = edits.size();
+    Layer[] layers = new Layer[count];
+    long[] annotationIds = new long[count]; // for creates, the parent's annotation_id
+    long[][] anchorIds = new long[count][];
+    HashMap<Long,HashSet<Long>> lookups = new HashMap<Long,HashSet<Long>>();
+    HashSet<Long> anchorLookups = new HashSet<Long>();
+    HashMap<String,Long> transcripts = new HashMap<String,Long>();
+    
+    // validate the edits, and collect IDs to look up
+    for (int e = 0; e < count; e++) {
+      AnnotationEdit edit = edits.get(e);
+      String error = "Edit " + (e+1) + ": ";
+      if (edit == null || edit.getOperation() == null) {
+        throw new StoreException(error + "No operation specified.");
+      }
+      try {
+        Layer layer = null;
+        if (edit.getOperation() == AnnotationEdit.Operation.Create) {
+          layer = edit.getLayerId() == null?null:schema.getLayer(edit.getLayerId());
+          if (layer == null) throw new StoreException(error + "Invalid layer: " + edit.getLayerId());
+          if (layer.get("scope") == null) {
+            throw new StoreException(error + "Only temporal layers are supported: " + layer.getId());
+          }
+          if (edit.getLabel() == null) throw new StoreException(error + "No label specified.");
+          if (edit.getLabel().indexOf('\n') >= 0 && layer.getType().indexOf('/') > 0) {
+            throw new StoreException(
+              error + "Labels with data files must be saved individually: " + layer.getId());
+          }
+          if (edit.getConfidence() == null) {
+            throw new StoreException(error + "No confidence specified.");
+          }
+          if (layer.get("scope").equals("F")) { // top level layer
+            if (edit.getTranscriptId() == null) {
+              throw new StoreException(error + "No transcript ID specified.");
+            }
+            if (layer.getAlignment() == Constants.ALIGNMENT_NONE) {
+              // there's no parent annotation to take the anchors from
+              throw new StoreException(
+                error + "Unaligned top-level layers are not supported: " + layer.getId());
+            }
+            transcripts.put(edit.getTranscriptId(), null);
+          } else { // parent is another layer
+            Layer parentLayer = schema.getLayer(layer.getParentId());
+            if (edit.getParentId() == null) {
+              throw new StoreException(error + "No parent ID specified.");
+            }
+            Object[] parentAttributes = fmtAnnotationId.parse(edit.getParentId());
+            if (parentLayer.get("layer_id") == null
+                || ((Long)parentAttributes[1]).intValue()
+                != ((Integer)parentLayer.get("layer_id")).intValue()) {
+              throw new StoreException(
+                error + "Layer "+layer.getId()+" is not a child of " + edit.getParentId());
+            }
+            annotationIds[e] = (Long)parentAttributes[2];
+            lookups.computeIfAbsent((Long)parentAttributes[1], k -> new HashSet<Long>())
+              .add(annotationIds[e]);
+          }
+          if (layer.getAlignment() != Constants.ALIGNMENT_NONE) { // explicit anchors
+            if (edit.getFromId() == null) throw new StoreException(error + "No start anchor.");
+            if (edit.getToId() == null) throw new StoreException(error + "No end anchor.");
+            anchorIds[e] = new long[] {
+              (Long)fmtAnchorId.parse(edit.getFromId())[0],
+              (Long)fmtAnchorId.parse(edit.getToId())[0] };
+            anchorLookups.add(anchorIds[e][0]);
+            anchorLookups.add(anchorIds[e][1]);
+          }
+        } else { // update or destroy
+          if (edit.getAnnotationId() == null) {
+            throw new StoreException(error + "No annotation ID specified.");
+          }
+          Object[] attributes = fmtAnnotationId.parse(edit.getAnnotationId());
+          layer = layersById.get((Long)attributes[1]);
+          if (layer == null) {
+            throw new StoreException(error + "Invalid annotation ID: " + edit.getAnnotationId());
+          }
+          if (edit.getOperation() == AnnotationEdit.Operation.Update) {
+            if (edit.getLabel() == null || edit.getLabel().length() == 0) {
+              throw new StoreException(error + "Label cannot be blank.");
+            }
+            if (edit.getConfidence() == null) {
+              throw new StoreException(error + "No confidence specified.");
+            }
+            // only word tag layers for now
+            if (!"word".equals(layer.getParentId()) || layer.getAlignment() != 0) {
+              throw new StoreException(
+                error + "Only word tag layers are supported: " + layer.getId());
+            }
+          } else if (parentLayerIds.contains(layer.getId())) {
+            throw new StoreException(error + "There are child layers: " + layer.get("layer_id"));
+          }
+          annotationIds[e] = (Long)attributes[2];
+          lookups.computeIfAbsent((Long)attributes[1], k -> new HashSet<Long>())
+            .add(annotationIds[e]);
+        }
+        layers[e] = layer;
+      } catch(ParseException exception) {
+        throw new StoreException(error + "Error parsing ID: " + exception.getMessage());
+      } catch(ClassCastException exception) {
+        throw new StoreException(error + "Invalid ID: " + exception.getMessage());
+      }
+    } // next edit
+    
+    try {
+      Connection connection = getConnection();
+      
+      // look up everything the edits refer to
+      String userWhere = userWhereClauseGraph("AND", "transcript");
+      HashMap<String,Long> agIds = new HashMap<String,Long>(); // layer_id:annotation_id → ag_id
+      for (Long layer_id : lookups.keySet()) {
+        for (String ids : InLists(lookups.get(layer_id))) {
+          PreparedStatement sql = connection.prepareStatement(
+            "SELECT annotation.annotation_id, annotation.ag_id"
+            +" FROM annotation_layer_" + layer_id + " annotation"
+            +" INNER JOIN transcript ON transcript.ag_id = annotation.ag_id"
+            +" WHERE annotation.annotation_id IN (" + ids + ")" + userWhere);
+          try {
+            ResultSet rs = sql.executeQuery();
+            try {
+              while (rs.next()) agIds.put(layer_id + ":" + rs.getLong(1), rs.getLong(2));
+            } finally {
+              rs.close();
+            }
+          } finally {
+            sql.close();
+          }
+        } // next chunk of IDs
+      } // next layer
+      HashMap<Long,Long> anchorAgIds = new HashMap<Long,Long>();
+      for (String ids : InLists(anchorLookups)) {
+        PreparedStatement sql = connection.prepareStatement(
+          "SELECT anchor_id, ag_id FROM anchor WHERE anchor_id IN (" + ids + ")");
+        try {
+          ResultSet rs = sql.executeQuery();
+          try {
+            while (rs.next()) anchorAgIds.put(rs.getLong(1), rs.getLong(2));
+          } finally {
+            rs.close();
+          }
+        } finally {
+          sql.close();
+        }
+      } // next chunk of IDs
+      if (transcripts.size() > 0) {
+        PreparedStatement sql = connection.prepareStatement(
+          "SELECT ag_id FROM transcript WHERE transcript_id = ?" + userWhere);
+        try {
+          for (String transcriptId : transcripts.keySet()) {
+            sql.setString(1, transcriptId);
+            ResultSet rs = sql.executeQuery();
+            try {
+              if (rs.next()) transcripts.put(transcriptId, rs.getLong(1));
+            } finally {
+              rs.close();
+            }
+          } // next transcript
+        } finally {
+          sql.close();
+        }
+      }
+
+      // check everything exists, and generate the SQL steps for each edit
+      // - each step is {sql, parameters, edit index (for inserts) or null}
+      Vector<Object[]> steps = new Vector<Object[]>();
+      String runInsertSql = null; // the INSERT of the current run of tags without peers
+      Vector<Object[]> runDeletes = new Vector<Object[]>(); // the current run's DELETEs
+      Vector<Object[]> runInserts = new Vector<Object[]>(); // the current run's INSERTs
+      HashMap<Long,Integer> runParents = new HashMap<Long,Integer>(); // parent → INSERT
+      HashSet<Long> editedAgIds = new HashSet<Long>();
+      for (int e = 0; e < count; e++) {
+        AnnotationEdit edit = edits.get(e);
+        String error = "Edit " + (e+1) + ": ";
+        Layer layer = layers[e];
+        Object layer_id = layer.get("layer_id");
+        Long ag_id = null;
+        if (edit.getOperation() == AnnotationEdit.Operation.Create
+            && layer.get("scope").equals("F")) {
+          ag_id = transcripts.get(edit.getTranscriptId());
+          if (ag_id == null) {
+            throw new StoreException(error + "Invalid transcript: " + edit.getTranscriptId());
+          }
+          annotationIds[e] = ag_id; // parent of top-level annotations is the transcript
+        } else {
+          Object lookupLayerId = edit.getOperation() == AnnotationEdit.Operation.Create?
+            schema.getLayer(layer.getParentId()).get("layer_id") : layer_id;
+          ag_id = agIds.get(lookupLayerId + ":" + annotationIds[e]);
+          if (ag_id == null) {
+            throw new StoreException(
+              error + (edit.getOperation() == AnnotationEdit.Operation.Create?
+                       "Invalid parent: " + edit.getParentId()
+                       : "Invalid annotation ID: " + edit.getAnnotationId()));
+          }
+        }
+        editedAgIds.add(ag_id);
+        if (anchorIds[e] != null) {
+          if (!ag_id.equals(anchorAgIds.get(anchorIds[e][0]))) {
+            throw new StoreException(error + "Invalid start anchor: " + edit.getFromId());
+          }
+          if (!ag_id.equals(anchorAgIds.get(anchorIds[e][1]))) {
+            throw new StoreException(error + "Invalid end anchor: " + edit.getToId());
+          }
+        }
+        
+        String sql = null;
+        Object[] parameters = null;
+        Object[] step = null;
+        switch (edit.getOperation()) {
+          case Create: {
+            String scope = (String)layer.get("scope");
+            if (scope.equals("F")) { // top level layer
+              sql = "INSERT INTO annotation_layer_" + layer_id
+                + " (ag_id, label, label_status, start_anchor_id, end_anchor_id,"
+                + " parent_id, ordinal, annotated_by, annotated_when)"
+                + " VALUES (?, ?, ?, ?, ?, ?, 1, ?, Now())";
+              parameters = new Object[] {
+                ag_id, edit.getLabel(), edit.getConfidence(), anchorIds[e][0], anchorIds[e][1],
+                ag_id, getUser() };
+            } else {
+              boolean aligned = layer.getAlignment() != Constants.ALIGNMENT_NONE;
+              sql = "INSERT INTO annotation_layer_" + layer_id
+                + " (ag_id, label, label_status, start_anchor_id, end_anchor_id,"
+                + " parent_id, ordinal, annotated_by, annotated_when, turn_annotation_id"
+                + (scope.equals("S")||scope.equals("W")?", ordinal_in_turn, word_annotation_id":"")
+                + (scope.equals("S")?", ordinal_in_word, segment_annotation_id":"")
+                + ")"
+                + " SELECT parent.ag_id, ?, ?, "
+                // non-aligned layers use their parent anchors
+                + (aligned?"?, ?,":"parent.start_anchor_id, parent.end_anchor_id,")
+                + " parent.annotation_id,"
+                + (!layer.getPeers()?"1":
+                   // there may already be tags, so choose the next ordinal for each parent
+                   "(SELECT COUNT(*)+1 FROM annotation_layer_" + layer_id
+                   + " WHERE parent_id = parent.annotation_id)")
+                + ", ?, Now(), parent.turn_annotation_id"
+                + (scope.equals("S")||scope.equals("W")?
+                   ", parent.ordinal_in_turn, parent.word_annotation_id":"")
+                + (scope.equals("S")?", parent.ordinal_in_word, parent.segment_annotation_id":"")
+                + " FROM annotation_layer_" + schema.getLayer(layer.getParentId()).get("layer_id")
+                + " parent WHERE parent.annotation_id = ?";
+              parameters = aligned?
+                new Object[] { edit.getLabel(), edit.getConfidence(),
+                               anchorIds[e][0], anchorIds[e][1], getUser(), annotationIds[e] }
+                : new Object[] { edit.getLabel(), edit.getConfidence(),
+                                 getUser(), annotationIds[e] };
+            }
+            if (!layer.getPeers()) {
+              // only one child allowed, so delete any children first; DELETEs for a run
+              // of consecutive INSERTs go before the run, so that both can be batched
+              if (!sql.equals(runInsertSql)) { // start a new run
+                steps.addAll(runDeletes);
+                steps.addAll(runInserts);
+                runDeletes.clear();
+                runInserts.clear();
+                runParents.clear();
+                runInsertSql = sql;
+              }
+              Integer superseded = runParents.get(annotationIds[e]);
+              if (superseded != null) { // a later tag would replace the earlier one anyway
+                runInserts.set(superseded, null);
+              } else {
+                runDeletes.add(new Object[] {
+                    "DELETE FROM annotation_layer_" + layer_id + " WHERE parent_id = ?",
+                    new Object[] { annotationIds[e] }, null });
+              }
+              runParents.put(annotationIds[e], runInserts.size());
+              runInserts.add(new Object[] { sql, parameters, e });
+              continue; // next edit
+            }
+            step = new Object[] { sql, parameters, e };
+            break;
+          }
+          case Update: {
+            sql = "UPDATE annotation_layer_" + layer_id
+              + " SET label = ?, label_status = ?, annotated_by = ?, annotated_when = Now()"
+              + " WHERE annotation_id = ?";
+            step = new Object[] {
+              sql, new Object[] {
+                edit.getLabel(), edit.getConfidence(), getUser(), annotationIds[e] }, null };
+            break;
+          }
+          case Destroy: {
+            sql = "DELETE FROM annotation_layer_" + layer_id + " WHERE annotation_id = ?";
+            step = new Object[] { sql, new Object[] { annotationIds[e] }, null };
+            break;
+          }
+        } // switch
+        // any current run has ended
+        steps.addAll(runDeletes);
+        steps.addAll(runInserts);
+        runDeletes.clear();
+        runInserts.clear();
+        runInsertSql = null;
+        steps.add(step);
+      } // next edit
+      steps.addAll(runDeletes);
+      steps.addAll(runInserts);
+      
+      // apply the edits, batching consecutive steps with the same SQL
+      SearchResultsCache.Invalidate();
+      String[] newIds = new String[count];
+      PreparedStatement statement = null;
+      String statementSql = null;
+      Vector<Integer> batch = new Vector<Integer>();
+      try {
+        for (Object[] step : steps) {
+          if (step == null) continue; // superseded
+          String sql = (String)step[0];
+          if (!sql.equals(statementSql) || batch.size() >= 1000) {
+            if (statement != null) {
+              executeEditBatch(statement, batch, layers, newIds);
+              statement.close();
+              statement = null;
+            }
+            statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            statementSql = sql;
+          }
+          Object[] parameters = (Object[])step[1];
+          for (int p = 0; p < parameters.length; p++) {
+            statement.setObject(p + 1, parameters[p]);
+          }
+          statement.addBatch();
+          batch.add((Integer)step[2]);
+        } // next step
+        if (statement != null) executeEditBatch(statement, batch, layers, newIds);
+      } finally {
+        // after the edits, so no snapshots taken before they're finished are used
+        for (Long agId : editedAgIds) invalidateSnapshots(agId);
+        if (statement != null) statement.close();
+      }
+      return newIds;
+    } catch(SQLException exception) {
+      System.err.println("SQL error: " + exception);
+      exception.printStackTrace(System.err);
+      throw new StoreException("Invalid query."); // TODO i18n
+    }
+  } // end of editAnnotations()
+
+  /**
+   * Executes a batch of edit steps for {@link #editAnnotations(List)}, and records the
+   * IDs of any new annotations.
+   * @param statement The statement whose batch is to be executed.
+   * @param batch The edit index of each batched step, or null for steps that don't
+   * create annotations. This is cleared once the batch has been executed.
+   * @param layers The layer of each edit.
+   * @param newIds The IDs of new annotations, indexed by edit.
+   * @throws SQLException
+   */
+  private void executeEditBatch(
+    PreparedStatement statement, Vector<Integer> batch, Layer[] layers, String[] newIds)
+    throws SQLException {
+    statement.executeBatch();
+    if (batch.size() > 0 && batch.firstElement() != null) { // inserts
+      ResultSet keys = statement.getGeneratedKeys();
+      try {
+        for (Integer e : batch) {
+          if (!keys.next()) break;
+          Object[] annotationAttributes = {
+            layers[e].get("scope").equals("F")?""
+            :((String)layers[e].get("scope")).toLowerCase(),
+            layers[e].get("layer_id"),
+            Long.valueOf(keys.getLong(1)) };
+          newIds[e] = fmtAnnotationId.format(annotationAttributes);
+        } // next insert
+      } finally {
+        keys.close();
+      }
+    }
+    batch.clear();
+  } // end of executeEditBatch()
+
+  /**
+   * Converts the given IDs into comma-separated lists for SQL <tt>IN</tt> clauses, with
+   * no more than 1000 IDs per list.
+   * @param ids The IDs.
+   * @return A list of comma-separated lists of IDs.
+   */
+  static List<String> InLists(Collection<Long> ids) {
+    Vector<String> lists = new Vector<String>();
+    StringBuilder list = new StringBuilder();
+    int size = 0;
+    for (Long id : ids) {
+      if (size > 0) list.append(",");
+      list.append(id);
+      if (++size >= 1000) {
+        lists.add(list.toString());
+        list = new StringBuilder();
+        size = 0;
+      }
+    } // next ID
+    if (size > 0) lists.add(list.toString());
+    return lists;
+  } // end of InLists()
+
 
   /**
    * Creates an annotation starting at <var>from</var> and ending at <var>to</var>.
@@ -8718,52 +10243,48 @@ public class SqlGraphStore implements GraphStore {
       File episodeDir = new File(corpusDir, episode.getLabel());
       MediaTrackDefinition[] tracks = getMediaTracks();
       String baseName = graph.getId().replaceAll("\\.[^.]*$","");
-      File[] aDirs = episodeDir.listFiles(new FileFilter() {
-          public boolean accept(File file) {
-            return file.isDirectory() && !file.getName().equals("trs");
-          }
-        });
-      if (aDirs != null) {
-        for (File dir : aDirs) {
-          // look for a file with the same name as the transcript, and 
-          // an extension that matches the directory name
-          String extension = dir.getName();
-          for (MediaTrackDefinition track : tracks) {
-            String fileName = baseName + track.getSuffix() + "." + extension;
-            File f = new File(dir, fileName);
-            if (f.exists()) {
-              MediaFile mediaFile = new MediaFile(f, track.getSuffix());
-              try {
-                if (hasAccess(id, mediaFile.getType().substring(0,1))) {
-                  if (getBaseUrl() == null) { // TODO check this isn't a security risk
-                    mediaFile.setUrl(f.toURI().toString());
-                  } else {
-                    StringBuffer url = new StringBuffer(getBaseUrl());
-                    url.append("/files/");
-                    url.append(URLEncoder.encode(graph.first("corpus").getLabel(), "UTF-8")
-                       .replace("+", "%20"));
-                    url.append("/");
-                    url.append(URLEncoder.encode(graph.first("episode").getLabel(), "UTF-8")
-                       .replace("+", "%20"));
-                    url.append("/");
-                    url.append(URLEncoder.encode(mediaFile.getExtension(), "UTF-8")
-                       .replace("+", "%20"));
-                    url.append("/");
-                    url.append(URLEncoder.encode(f.getName(), "UTF-8")
-                       .replace("+", "%20"));
-                    mediaFile.setUrl(url.toString());
-                  }
-                  files.put(mediaFile.getName(), mediaFile);
-                } // user has access
-              } catch(UnsupportedEncodingException exception) {
-                throw new StoreException(exception);
-              } catch (SQLException x) {
-                throw new StoreException(x);
-              }
-            } // f.exists()
-          } // next track
-        } // next subdir
-      } // there are directories
+      // use the cached manifest of the episode directory, rather than checking each file
+      MediaManifestCache.Manifest manifest = MediaManifestCache.Get(episodeDir);
+      for (String extension : manifest.directories()) {
+        if (extension.equals("trs")) continue;
+        File dir = new File(episodeDir, extension);
+        // look for a file with the same name as the transcript, and 
+        // an extension that matches the directory name
+        for (MediaTrackDefinition track : tracks) {
+          String fileName = baseName + track.getSuffix() + "." + extension;
+          File f = new File(dir, fileName);
+          if (manifest.contains(extension, fileName)) {
+            MediaFile mediaFile = new MediaFile(f, track.getSuffix());
+            try {
+              if (hasAccess(id, mediaFile.getType().substring(0,1))) {
+                if (getBaseUrl() == null) { // TODO check this isn't a security risk
+                  mediaFile.setUrl(f.toURI().toString());
+                } else {
+                  StringBuffer url = new StringBuffer(getBaseUrl());
+                  url.append("/files/");
+                  url.append(URLEncoder.encode(graph.first("corpus").getLabel(), "UTF-8")
+                     .replace("+", "%20"));
+                  url.append("/");
+                  url.append(URLEncoder.encode(graph.first("episode").getLabel(), "UTF-8")
+                     .replace("+", "%20"));
+                  url.append("/");
+                  url.append(URLEncoder.encode(mediaFile.getExtension(), "UTF-8")
+                     .replace("+", "%20"));
+                  url.append("/");
+                  url.append(URLEncoder.encode(f.getName(), "UTF-8")
+                     .replace("+", "%20"));
+                  mediaFile.setUrl(url.toString());
+                }
+                files.put(mediaFile.getName(), mediaFile);
+              } // user has access
+            } catch(UnsupportedEncodingException exception) {
+              throw new StoreException(exception);
+            } catch (SQLException x) {
+              throw new StoreException(x);
+            }
+          } // f exists
+        } // next track
+      } // next subdir
     } // has corpus/episode
     
     Map<String,Set<String>> mConversionsFrom = getMediaConversions();
@@ -8781,7 +10302,7 @@ public class SqlGraphStore implements GraphStore {
             File toFile = new File(
               toDir, file.getNameWithoutSuffix() + "." + toExtension);
                   
-            if (!toFile.exists()) {
+            if (!MediaManifestCache.Exists(toFile)) {
               MediaFile possibleFile = new MediaFile(toFile, file);
               possibleFile.setGenerateFrom(file);
               // only if we're not generating it some other way
@@ -8897,14 +10418,14 @@ public class SqlGraphStore implements GraphStore {
     if (trackSuffix == null) trackSuffix = getMediaTracks()[0].getSuffix();
     String fileName = graph.getId().replaceAll("\\.[^.]*$","") + trackSuffix + "." + extension;
     File file = new File(mediaDir, fileName);
-    if (!file.exists()) { // maybe the exension is upper case?
+    if (!MediaManifestCache.Exists(file)) { // maybe the exension is upper case?
       extension = extension.toUpperCase();
       mediaDir = new File(episodeDir, extension);
       if (trackSuffix == null) trackSuffix = getMediaTracks()[0].getSuffix();
       fileName = graph.getId().replaceAll("\\.[^.]*$","") + trackSuffix + "." + extension;
       file = new File(mediaDir, fileName);
     }
-    if (file.exists()) {
+    if (MediaManifestCache.Exists(file)) {
       if (startOffset == null && endOffset == null) {
         if (getBaseUrl() == null) { // TODO check this isn't a security risk
           return file.toURI().toString(); // TODO resampling?
@@ -9008,12 +10529,13 @@ public class SqlGraphStore implements GraphStore {
     requireEdit();
     if (trackSuffix == null) trackSuffix = "";
     Vector<File> toDelete = new Vector<File>();
+    File episodeDir = null;
     try {
       String[] layers = { "corpus", "episode" };
       Graph graph = getTranscript(id, layers);
       File corpusDir = new File(getFiles(), graph.first("corpus").getLabel());
       if (!corpusDir.exists()) corpusDir.mkdir();
-      File episodeDir = new File(corpusDir, graph.first("episode").getLabel());
+      episodeDir = new File(corpusDir, graph.first("episode").getLabel());
       if (!episodeDir.exists()) episodeDir.mkdir();
 	 
       // get the content
@@ -9243,6 +10765,8 @@ public class SqlGraphStore implements GraphStore {
     } finally {
       // anything added to toDelete should be deleted, if it's still there
       for (File f : toDelete) f.delete();
+      // the media files have changed, even if there was an error
+      MediaManifestCache.Invalidate(episodeDir);
     }
   }
    
@@ -9502,7 +11026,9 @@ public class SqlGraphStore implements GraphStore {
         }
         
         // delete the file
-        if (!file.getFile().delete()) {
+        boolean deleted = file.getFile().delete();
+        MediaManifestCache.Invalidate(file.getFile().getParentFile().getParentFile());
+        if (!deleted) {
           throw new StoreException("Could not delete: " + file.getFile().getPath());
         }
       } catch (SQLException x) {
@@ -9516,14 +11042,37 @@ public class SqlGraphStore implements GraphStore {
   /**
    * Generates any media files that are not marked "on demand" and for which there are
    * available conversions.
-   * <p>This implementation starts conversion processes, and returns immediately, so new
-   * files may not exist immediately after the method returns.
+   * <p>This implementation queues conversions with priority, as if a user is waiting
+   * for them, and returns immediately, so new files may not exist immediately after the
+   * method returns.
    * @param id The transcript ID.
    * @throws StoreException If an error occurs.
    * @throws PermissionException If the operation is not permitted.
    * @throws GraphNotFoundException If the transcript was not found in the store.
+   * @see #generateMissingMedia(String,boolean)
    */
   public void generateMissingMedia(String id)
+    throws StoreException, PermissionException, GraphNotFoundException {
+    generateMissingMedia(id, true);
+  } // end of generateMissingMedia()
+
+  /**
+   * Generates any media files that are not marked "on demand" and for which there are
+   * available conversions.
+   * <p>If a {@link MediaConversionQueue} has been registered, conversions are added to
+   * it, along with the number of conversions to run at once specified by the
+   * "mediaConversionWorkers" system attribute. Otherwise conversion processes are
+   * started straight away. Either way, new files may not exist immediately after the
+   * method returns.
+   * @param id The transcript ID.
+   * @param interactive true if a user is waiting for the media, in which case the
+   * conversions are run before conversions queued in the background, false if the media
+   * is being generated in the background, e.g. during a bulk upload.
+   * @throws StoreException If an error occurs.
+   * @throws PermissionException If the operation is not permitted.
+   * @throws GraphNotFoundException If the transcript was not found in the store.
+   */
+  public void generateMissingMedia(String id, boolean interactive)
     throws StoreException, PermissionException, GraphNotFoundException {
     try {
       // for now only ffmpeg conversion is supported TODO
@@ -9586,6 +11135,11 @@ public class SqlGraphStore implements GraphStore {
         File corpusDir = new File(getFiles(), graph.first("corpus").getLabel());
         File episodeDir = new File(corpusDir, graph.first("episode").getLabel());
 
+        Integer workerCount = null;
+        try {
+          workerCount = Integer.valueOf(getSystemAttribute("mediaConversionWorkers"));
+        } catch(Exception exception) {} // not set, so use the default
+
         PreparedStatement sqlConversions = getConnection().prepareStatement(
           "SELECT from_mimetype, method, arguments FROM media_conversion"
           +" WHERE method = 'ffmpeg'" // TODO support other conversion methods
@@ -9619,17 +11173,25 @@ public class SqlGraphStore implements GraphStore {
                     + wantedFile.getFile().getParentFile().getPath() + " - failed");
                 }
               }
-              // convert
-              ParameterSet configuration = new ParameterSet();
-              configuration.addParameter(new Parameter("ffmpegPath", exe.getParentFile()));
-              configuration.addParameter(
-                new Parameter(
-                  "conversionCommandLine", rsConversions.getString("arguments")));
-              MediaConverter converter = new FfmpegConverter();
-              converter.configure(configuration);
-              MediaThread thread = converter.start(
-                fromMimeType, gotFile.getFile(), wantedFile.getMimeType(),
-                wantedFile.getFile());
+              MediaConversionQueue queue = GetMediaConversionQueue();
+              if (queue != null) { // queue the conversion
+                queue.add(
+                  gotFile.getFile(), fromMimeType,
+                  wantedFile.getFile(), wantedFile.getMimeType(),
+                  exe.getParentFile(), rsConversions.getString("arguments"),
+                  interactive, workerCount);
+              } else { // convert
+                ParameterSet configuration = new ParameterSet();
+                configuration.addParameter(new Parameter("ffmpegPath", exe.getParentFile()));
+                configuration.addParameter(
+                  new Parameter(
+                    "conversionCommandLine", rsConversions.getString("arguments")));
+                MediaConverter converter = new FfmpegConverter();
+                converter.configure(configuration);
+                MediaThread thread = converter.start(
+                  fromMimeType, gotFile.getFile(), wantedFile.getMimeType(),
+                  wantedFile.getFile());
+              }
               break;
             } // the source MIME type exists
           } // next conversion
@@ -9648,6 +11210,28 @@ public class SqlGraphStore implements GraphStore {
       
   } // end of generateMissingMedia()
 
+  /**
+   * The queue that media conversions are added to, if any.
+   * @see #GetMediaConversionQueue()
+   * @see #SetMediaConversionQueue(MediaConversionQueue)
+   */
+  protected static MediaConversionQueue mediaConversionQueue;
+  /**
+   * Getter for {@link #mediaConversionQueue}: The queue that media conversions are added
+   * to, if any.
+   * @return The queue that media conversions are added to, or null if conversions are
+   * started straight away.
+   */
+  public static MediaConversionQueue GetMediaConversionQueue() { return mediaConversionQueue; }
+  /**
+   * Setter for {@link #mediaConversionQueue}: The queue that media conversions are added
+   * to, if any.
+   * @param newMediaConversionQueue The queue that media conversions are added to, or
+   * null if conversions should be started straight away.
+   */
+  public static void SetMediaConversionQueue(MediaConversionQueue newMediaConversionQueue) {
+    mediaConversionQueue = newMediaConversionQueue; }
+
   /**
    * Deletes the given transcript, and all associated files.
    * @param id The ID transcript to delete.
@@ -9658,10 +11242,12 @@ public class SqlGraphStore implements GraphStore {
   public void deleteTranscript(String id)
     throws StoreException, PermissionException, GraphNotFoundException {
     requireEdit();
+    SearchResultsCache.Invalidate();
     try {
       String[] layers = { "corpus", "episode" };
       Graph graph = getTranscript(id, layers);
       int iAgId = ((Integer)graph.get("@ag_id")).intValue();
+      invalidateSnapshots(iAgId);
 
       // media
       for (MediaFile media : getAvailableMedia(graph.getId())) {
@@ -9669,6 +11255,7 @@ public class SqlGraphStore implements GraphStore {
             && !media.getFile().delete()) {
           System.err.println("Could not delete " + media.getFile().getPath());
         }
+        MediaManifestCache.Invalidate(media.getFile().getParentFile().getParentFile());
       } // next media file
 
       if (graph.first("corpus") != null && graph.first("episode") != null) {
@@ -9769,6 +11356,7 @@ public class SqlGraphStore implements GraphStore {
   public void deleteParticipant(String id)
     throws StoreException, PermissionException, GraphNotFoundException {
     requireEdit();
+    SearchResultsCache.Invalidate();
     if (id == null) {
       throw new StoreException("No participant specified"); // TODO i18n
     } else {
@@ -9832,32 +11420,22 @@ public class SqlGraphStore implements GraphStore {
       System.err.println("SQL error: " + exception);
       exception.printStackTrace(System.err);
       throw new StoreException("Invalid query."); // TODO i18n
+      } finally {
+        GraphSnapshotCache.Invalidate(); // many transcripts may have changed
       }
     }
   }
    
   /**
    * Gets the value of a system attribute.
+   * <p> Values are served from {@link SystemAttributeCache}, so this doesn't usually
+   * involve a database query.
    * @param name Attribute name.
    * @return The value of the system attribute, or null if there is no value.
    * @throws SQLException
    */
   public String getSystemAttribute(String name) throws SQLException {
-    String value = null;
-    PreparedStatement sql = getConnection().prepareStatement(
-      "SELECT value FROM system_attribute WHERE name = ?");
-    sql.setString(1, name);
-    try {
-      ResultSet rs = sql.executeQuery();
-      try {
-        if (rs.next()) value = rs.getString("value");
-      } finally {
-        rs.close();
-      }
-    } finally {
-      sql.close();
-    }
-    return value;
+    return SystemAttributeCache.Get(name, getConnection());
   } // end of getSystemAttribute()
 
   /**
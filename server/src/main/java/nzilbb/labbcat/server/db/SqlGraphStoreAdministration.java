@@ -321,6 +321,8 @@ public class SqlGraphStoreAdministration
    */
   public Layer saveLayer(Layer layer) throws StoreException, PermissionException {
     requireAdmin();
+    GraphSnapshotCache.Invalidate(); // transcript snapshots may include the layer
+    SearchResultsCache.SchemaChanged();
     try {
       Layer oldVersion = getLayer(layer.getId());
       if (oldVersion == null) throw new StoreException("Invalid layer ID: " + layer.getId());
@@ -797,6 +799,7 @@ public class SqlGraphStoreAdministration
    */
   public Layer newLayer(Layer layer) throws StoreException, PermissionException {
     requireAdmin();
+    SearchResultsCache.SchemaChanged();
 
     // validate ID
     if (layer.getId() == null || layer.getId().trim().length() == 0) {
@@ -1349,6 +1352,8 @@ public class SqlGraphStoreAdministration
   public void deleteLayer(String id) throws StoreException, PermissionException {
     requireAdmin();
     if (id == null) throw new StoreException("Deleting layer: no ID specified");
+    GraphSnapshotCache.Invalidate(); // transcript snapshots may include the layer
+    SearchResultsCache.SchemaChanged();
     try {
       Schema schema = getSchema();
       if (id.equals(schema.getWordLayerId())
@@ -54,6 +54,31 @@ public class SqlSearchResults implements SearchResults {
    * @param newId The database key of the search/results rows.
    */
   public SqlSearchResults setId(long newId) { id = newId; return this; }
+
+  /**
+   * Whether the results rows are shared with other searches (e.g. via
+   * {@link SearchResultsCache}), in which case they're copied before any are removed.
+   * @see #getShared()
+   * @see #setShared(boolean)
+   */
+  protected boolean shared = false;
+  /**
+   * Getter for {@link #shared}: Whether the results rows are shared with other searches.
+   * @return Whether the results rows are shared with other searches.
+   */
+  public boolean getShared() { return shared; }
+  /**
+   * Setter for {@link #shared}: Whether the results rows are shared with other searches.
+   * @param newShared Whether the results rows are shared with other searches.
+   */
+  public SqlSearchResults setShared(boolean newShared) { shared = newShared; return this; }
+
+  /**
+   * Whether this object has registered as a reader of its rows with
+   * {@link SearchResultsCache#Acquire(long)}, so they're not deleted until
+   * {@link #close()} is called.
+   */
+  protected boolean acquired = false;
   
   /**
    * Name of result set.
@@ -173,13 +198,75 @@ public class SqlSearchResults implements SearchResults {
    **/
   public void remove() throws UnsupportedOperationException, IllegalStateException {
     try {
-      if (lastMatchId != null) rsIterator.deleteRow();
+      if (lastMatchId != null) {
+        if (shared) copyOnWrite();
+        rsIterator.deleteRow();
+      }
     } catch(SQLException exception) {
       throw (NoSuchElementException)(new NoSuchElementException(exception.toString())
                                      .initCause(exception));
     }
   }
   
+  /**
+   * Copies the search and all its results rows to a new search, so that removing results
+   * doesn't affect other searches sharing the rows. The iterator is repositioned at the
+   * copy of the last match returned by {@link #next()}.
+   * @throws SQLException
+   */
+  protected void copyOnWrite() throws SQLException {
+    long copyId = -1;
+    PreparedStatement sql = connection.prepareStatement(
+      "INSERT INTO search (name, who, target_layer_id, context_words, definition)"
+      +" SELECT name, who, target_layer_id, context_words, definition"
+      +" FROM search WHERE search_id = ?");
+    try {
+      sql.setLong(1, id);
+      sql.executeUpdate();
+    } finally {
+      sql.close();
+    }
+    sql = connection.prepareStatement("SELECT LAST_INSERT_ID()");
+    try {
+      ResultSet rs = sql.executeQuery();
+      try {
+        rs.next();
+        copyId = rs.getLong(1);
+      } finally {
+        rs.close();
+      }
+    } finally {
+      sql.close();
+    }
+    sql = connection.prepareStatement(
+      "INSERT INTO result (search_id," + COPIED_COLUMNS + ")"
+      +" SELECT ?," + COPIED_COLUMNS + " FROM result WHERE search_id = ? ORDER BY match_id");
+    try {
+      sql.setLong(1, copyId);
+      sql.setLong(2, id);
+      sql.executeUpdate();
+    } finally {
+      sql.close();
+    }
+    release();
+    id = copyId;
+    shared = false;
+
+    // reposition the iterator on the copy of the current row
+    int currentRow = nextRow - 1;
+    try { if (rsIterator != null) rsIterator.close(); } catch(SQLException exception) {}
+    rsIterator = null;
+    checkIterator(currentRow);
+    rsIterator.next();
+    nextRow = currentRow + 1;
+  } // end of copyOnWrite()
+
+  /** Columns of <tt>result</tt> copied by {@link #copyOnWrite()} */
+  static final String COPIED_COLUMNS =
+    "ag_id,speaker_number,start_anchor_id,end_anchor_id,defining_annotation_id,"
+    +"segment_annotation_id,target_annotation_id,first_matched_word_annotation_id,"
+    +"last_matched_word_annotation_id,complete,target_annotation_uid";
+  
   /**
    * The ID of the last match the iterator returned from {@link #next()}
    * @see #getLastMatchId()
@@ -260,6 +347,18 @@ public class SqlSearchResults implements SearchResults {
     sqlLastId.close();
   }
 
+  /**
+   * Constructor that provides access to an existing search record.
+   * @param id The database key of the search/results rows.
+   * @param name The name of the result set.
+   * @param connection A valid database connection.
+   */
+  public SqlSearchResults(long id, String name, Connection connection) {    
+    this.connection = connection;
+    this.id = id;
+    this.name = name;
+  }
+
   /**
    * Constructor that provides access to an existing search record based on the given results.
    * @param results The existing search results collection.
@@ -269,6 +368,8 @@ public class SqlSearchResults implements SearchResults {
     this.connection = connection;
     this.id = results.id;
     this.name = results.name;
+    this.shared = results.shared;
+    acquire();
   }
 
   /**
@@ -283,6 +384,8 @@ public class SqlSearchResults implements SearchResults {
     this.graphId = graphId;
     this.id = results.id;
     this.name = results.name;
+    this.shared = results.shared;
+    acquire();
   }
   
   /**
@@ -349,12 +452,91 @@ public class SqlSearchResults implements SearchResults {
     }    
   } // end of totalUtteranceDuration()
 
+  /**
+   * Whether the <tt>search</tt> table has a <tt>profile</tt> column, or null if this
+   * isn't yet known.
+   */
+  private static Boolean profileColumnExists = null;
+
+  /**
+   * Saves the execution profile of the search in the <tt>profile</tt> column of its
+   * <tt>search</tt> row.
+   * <p> The column is added by the database upgrader, so databases that haven't been
+   * upgraded don't have it, in which case profiles aren't saved.
+   * @param profile A JSON representation of the execution profile.
+   * @return true if the profile was saved, false otherwise.
+   */
+  public boolean saveProfile(String profile) {
+    try {
+      if (profileColumnExists == null) {
+        ResultSet rs = connection.getMetaData().getColumns(
+          connection.getCatalog(), null, "search", "profile");
+        try {
+          profileColumnExists = rs.next();
+        } finally {
+          rs.close();
+        }
+        if (!profileColumnExists) {
+          System.err.println(
+            "SqlSearchResults.saveProfile: search.profile column doesn't exist,"
+            +" so search profiles will not be saved");
+        }
+      }
+      if (!profileColumnExists) return false;
+      updateProfile(profile);
+      return true;
+    } catch(SQLException exception) {
+      System.err.println("SqlSearchResults.saveProfile: " + exception.getMessage());
+      return false;
+    }
+  } // end of saveProfile()
+
+  /**
+   * Updates the <tt>profile</tt> column of the <tt>search</tt> row.
+   * @param profile A JSON representation of the execution profile.
+   * @throws SQLException
+   */
+  private void updateProfile(String profile) throws SQLException {
+    PreparedStatement sql = connection.prepareStatement(
+      "UPDATE search SET profile = ? WHERE search_id = ?");
+    try {
+      sql.setString(1, profile);
+      sql.setLong(2, id);
+      sql.executeUpdate();
+    } finally {
+      sql.close();
+    }
+  } // end of updateProfile()
+
   /**
    * Close all open resources.
    */
   public void close() {
     try { if (rsIterator != null) rsIterator.close(); } catch(SQLException exception) {}
     try { if (sqlIterator != null) sqlIterator.close(); } catch(SQLException exception) {}
+    release();
   } // end of close()
 
+  /**
+   * Registers this object as a reader of its rows, so that the
+   * {@link SearchResultsCache} doesn't delete them while they're being read.
+   */
+  protected void acquire() {
+    if (!acquired) {
+      SearchResultsCache.Acquire(id);
+      acquired = true;
+    }
+  } // end of acquire()
+
+  /**
+   * Unregisters this object as a reader of its rows, if it was registered by
+   * {@link #acquire()}.
+   */
+  protected void release() {
+    if (acquired) {
+      SearchResultsCache.Release(id);
+      acquired = false;
+    }
+  } // end of release()
+
 }
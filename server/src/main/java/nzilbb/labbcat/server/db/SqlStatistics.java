@@ -0,0 +1,488 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.ToLongFunction;
+import java.util.regex.Pattern;
+import nzilbb.labbcat.server.metrics.MetricRegistry;
+
+/**
+ * In-process statistics about the SQL statements executed on connections from an
+ * {@link InstrumentedConnectionFactory}.
+ * <p> Statements are grouped by <em>shape</em> - the SQL with literal values and bind
+ * parameter lists normalized away - and by <em>tag</em>, which identifies what executed
+ * them; generally the API endpoint path for request threads, or the task class name for
+ * task threads (see {@link #SetTag(String)}).
+ * <p> For each shape/tag combination, call count, error count, row count, total and
+ * maximum execution time, and a histogram of execution times are kept.
+ * <p> Statements that take longer than {@link #GetSlowThresholdMs()} are also logged,
+ * optionally with their bind parameters and the output of <tt>EXPLAIN</tt>, and the
+ * most recent of these are kept for reporting. Bind parameters may include
+ * participant or transcript data, so they're only logged if
+ * {@link #GetLogSlowStatementParameters()} is true.
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+public class SqlStatistics {
+
+  /** Upper bounds (inclusive) of execution time histogram buckets, in milliseconds. */
+  public static final long[] BUCKET_MS = {
+    1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000 };
+
+  /** Statistics for one statement shape executed with one tag. */
+  public static class Shape {
+    final String tag;
+    final String sql;
+    final AtomicLong calls = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+    final AtomicLong rows = new AtomicLong();
+    final AtomicLong totalNanos = new AtomicLong();
+    final AtomicLong maxNanos = new AtomicLong();
+    /** Counts per bucket; the last bucket is for times greater than all of BUCKET_MS. */
+    final AtomicLongArray buckets = new AtomicLongArray(BUCKET_MS.length + 1);
+
+    Shape(String tag, String sql) {
+      this.tag = tag;
+      this.sql = sql;
+    }
+
+    /**
+     * Getter for tag: What executed the statements.
+     * @return What executed the statements.
+     */
+    public String getTag() { return tag; }
+    /**
+     * Getter for sql: The normalized SQL of the statements.
+     * @return The normalized SQL of the statements.
+     */
+    public String getSql() { return sql; }
+    /**
+     * Getter for calls: The number of times the statement was executed.
+     * @return The number of times the statement was executed.
+     */
+    public long getCalls() { return calls.get(); }
+    /**
+     * Getter for errors: The number of executions that failed.
+     * @return The number of executions that failed.
+     */
+    public long getErrors() { return errors.get(); }
+    /**
+     * Getter for rows: The total number of rows returned or updated.
+     * @return The total number of rows returned or updated.
+     */
+    public long getRows() { return rows.get(); }
+    /**
+     * Getter for totalNanos: The total execution time, in milliseconds.
+     * @return The total execution time, in milliseconds.
+     */
+    public double getTotalMs() { return totalNanos.get() / 1000000.0; }
+    /**
+     * Getter for maxNanos: The longest execution time, in milliseconds.
+     * @return The longest execution time, in milliseconds.
+     */
+    public double getMaxMs() { return maxNanos.get() / 1000000.0; }
+    /**
+     * The mean execution time.
+     * @return The mean execution time in milliseconds, or 0 if there have been no calls.
+     */
+    public double getMeanMs() {
+      long count = calls.get();
+      return count == 0? 0.0 : getTotalMs() / count;
+    } // end of getMeanMs()
+    /**
+     * The execution time histogram.
+     * @return The number of executions that took up to each of {@link #BUCKET_MS}
+     * milliseconds (but more than the previous bucket), followed by the number that took
+     * longer than the last bucket.
+     */
+    public long[] getBuckets() {
+      long[] counts = new long[buckets.length()];
+      for (int b = 0; b < counts.length; b++) counts[b] = buckets.get(b);
+      return counts;
+    } // end of getBuckets()
+
+    /**
+     * Records one execution.
+     * @param nanos Execution time in nanoseconds.
+     * @param error Whether execution failed.
+     */
+    void record(long nanos, boolean error) {
+      calls.incrementAndGet();
+      if (error) errors.incrementAndGet();
+      totalNanos.addAndGet(nanos);
+      maxNanos.accumulateAndGet(nanos, Math::max);
+      long ms = nanos / 1000000;
+      int b = 0;
+      while (b < BUCKET_MS.length && ms > BUCKET_MS[b]) b++;
+      buckets.incrementAndGet(b);
+    } // end of record()
+
+    /**
+     * Records rows returned or updated.
+     * @param count The number of rows.
+     */
+    void addRows(long count) {
+      rows.addAndGet(count);
+    } // end of addRows()
+  } // end of class Shape
+
+  /** A statement that took longer than {@link #slowThresholdMs}. */
+  public static class SlowStatement {
+    final Date executed = new Date();
+    final String tag;
+    final String sql;
+    final String parameters;
+    final double ms;
+    final String explanation;
+
+    SlowStatement(String tag, String sql, String parameters, double ms, String explanation) {
+      this.tag = tag;
+      this.sql = sql;
+      this.parameters = parameters;
+      this.ms = ms;
+      this.explanation = explanation;
+    }
+
+    /**
+     * Getter for executed: When the statement finished executing.
+     * @return When the statement finished executing.
+     */
+    public Date getExecuted() { return executed; }
+    /**
+     * Getter for tag: What executed the statement.
+     * @return What executed the statement.
+     */
+    public String getTag() { return tag; }
+    /**
+     * Getter for sql: The SQL of the statement.
+     * @return The SQL of the statement.
+     */
+    public String getSql() { return sql; }
+    /**
+     * Getter for parameters: The bind parameter values.
+     * @return The bind parameter values, or null if there were none.
+     */
+    public String getParameters() { return parameters; }
+    /**
+     * Getter for ms: The execution time in milliseconds.
+     * @return The execution time in milliseconds.
+     */
+    public double getMs() { return ms; }
+    /**
+     * Getter for explanation: The output of EXPLAIN for the statement.
+     * @return The output of EXPLAIN for the statement, or null if it wasn't explained.
+     */
+    public String getExplanation() { return explanation; }
+  } // end of class SlowStatement
+
+  /** Statistics keyed by tag and shape. */
+  private static final ConcurrentHashMap<String,Shape> shapes
+  = new ConcurrentHashMap<String,Shape>();
+
+  /** The most recent slow statements, oldest first. */
+  private static final LinkedList<SlowStatement> slowStatements
+  = new LinkedList<SlowStatement>();
+
+  /** What's executing statements on the current thread. */
+  private static final InheritableThreadLocal<String> tag
+  = new InheritableThreadLocal<String>();
+
+  static {
+    // statement metrics are aggregated by tag when metrics are requested
+    MetricRegistry.Sampled(
+      "labbcat_sql_statements_total", "SQL statements executed, by endpoint or task.",
+      "counter", () -> ByTag(shape -> shape.getCalls()));
+    MetricRegistry.Sampled(
+      "labbcat_sql_statement_errors_total", "SQL statements that failed, by endpoint or task.",
+      "counter", () -> ByTag(shape -> shape.getErrors()));
+    MetricRegistry.Sampled(
+      "labbcat_sql_statement_seconds_total",
+      "Time spent executing SQL statements, by endpoint or task.",
+      "counter", () -> {
+        HashMap<String,Double> seconds = new HashMap<String,Double>();
+        for (Shape shape : shapes.values()) {
+          seconds.merge(MetricRegistry.Labels("tag", shape.getTag()),
+                        shape.totalNanos.get() / 1e9, Double::sum);
+        }
+        return seconds;
+      });
+  }
+
+  /**
+   * Totals the given statistic of all shapes by tag.
+   * @param statistic The statistic to total.
+   * @return The totals, keyed by metric label string.
+   */
+  static Map<String,Long> ByTag(ToLongFunction<Shape> statistic) {
+    HashMap<String,Long> totals = new HashMap<String,Long>();
+    for (Shape shape : shapes.values()) {
+      totals.merge(MetricRegistry.Labels("tag", shape.getTag()),
+                   statistic.applyAsLong(shape), Long::sum);
+    }
+    return totals;
+  } // end of ByTag()
+
+  /**
+   * The maximum number of distinct shapes to keep statistics for. Once this is reached,
+   * statistics for new shapes are aggregated under a single shape, so that statements with
+   * unexpectedly variable SQL can't use up memory.
+   * @see #GetMaxShapes()
+   * @see #SetMaxShapes(int)
+   */
+  private static volatile int maxShapes = 2000;
+  /**
+   * Getter for {@link #maxShapes}: The maximum number of distinct shapes to keep
+   * statistics for.
+   * @return The maximum number of distinct shapes to keep statistics for.
+   */
+  public static int GetMaxShapes() { return maxShapes; }
+  /**
+   * Setter for {@link #maxShapes}: The maximum number of distinct shapes to keep
+   * statistics for.
+   * @param newMaxShapes The maximum number of distinct shapes to keep statistics for.
+   */
+  public static void SetMaxShapes(int newMaxShapes) { maxShapes = newMaxShapes; }
+
+  /**
+   * Statements that take longer than this number of milliseconds are logged. 0 or less
+   * means no statements are logged.
+   * @see #GetSlowThresholdMs()
+   * @see #SetSlowThresholdMs(long)
+   */
+  private static volatile long slowThresholdMs = 2000;
+  /**
+   * Getter for {@link #slowThresholdMs}: Statements that take longer than this number of
+   * milliseconds are logged.
+   * @return Statements that take longer than this number of milliseconds are logged.
+   */
+  public static long GetSlowThresholdMs() { return slowThresholdMs; }
+  /**
+   * Setter for {@link #slowThresholdMs}: Statements that take longer than this number of
+   * milliseconds are logged.
+   * @param newSlowThresholdMs Statements that take longer than this number of
+   * milliseconds are logged. 0 or less means no statements are logged.
+   */
+  public static void SetSlowThresholdMs(long newSlowThresholdMs) {
+    slowThresholdMs = newSlowThresholdMs;
+  }
+
+  /**
+   * Whether slow SELECT statements are logged with the output of <tt>EXPLAIN</tt>.
+   * @see #GetExplainSlowStatements()
+   * @see #SetExplainSlowStatements(boolean)
+   */
+  private static volatile boolean explainSlowStatements = false;
+  /**
+   * Getter for {@link #explainSlowStatements}: Whether slow SELECT statements are logged
+   * with the output of <tt>EXPLAIN</tt>.
+   * @return Whether slow SELECT statements are logged with the output of <tt>EXPLAIN</tt>.
+   */
+  public static boolean GetExplainSlowStatements() { return explainSlowStatements; }
+  /**
+   * Setter for {@link #explainSlowStatements}: Whether slow SELECT statements are logged
+   * with the output of <tt>EXPLAIN</tt>.
+   * @param newExplainSlowStatements Whether slow SELECT statements are logged with the
+   * output of <tt>EXPLAIN</tt>.
+   */
+  public static void SetExplainSlowStatements(boolean newExplainSlowStatements) {
+    explainSlowStatements = newExplainSlowStatements;
+  }
+
+  /**
+   * Whether slow statements are logged with their bind parameter values.
+   * @see #GetLogSlowStatementParameters()
+   * @see #SetLogSlowStatementParameters(boolean)
+   */
+  private static volatile boolean logSlowStatementParameters = false;
+  /**
+   * Getter for {@link #logSlowStatementParameters}: Whether slow statements are logged
+   * with their bind parameter values.
+   * @return Whether slow statements are logged with their bind parameter values.
+   */
+  public static boolean GetLogSlowStatementParameters() { return logSlowStatementParameters; }
+  /**
+   * Setter for {@link #logSlowStatementParameters}: Whether slow statements are logged
+   * with their bind parameter values.
+   * @param newLogSlowStatementParameters Whether slow statements are logged with their
+   * bind parameter values.
+   */
+  public static void SetLogSlowStatementParameters(boolean newLogSlowStatementParameters) {
+    logSlowStatementParameters = newLogSlowStatementParameters;
+  }
+
+  /**
+   * The maximum number of slow statements kept for reporting.
+   * @see #GetMaxSlowStatements()
+   * @see #SetMaxSlowStatements(int)
+   */
+  private static volatile int maxSlowStatements = 50;
+  /**
+   * Getter for {@link #maxSlowStatements}: The maximum number of slow statements kept for
+   * reporting.
+   * @return The maximum number of slow statements kept for reporting.
+   */
+  public static int GetMaxSlowStatements() { return maxSlowStatements; }
+  /**
+   * Setter for {@link #maxSlowStatements}: The maximum number of slow statements kept for
+   * reporting.
+   * @param newMaxSlowStatements The maximum number of slow statements kept for reporting.
+   */
+  public static void SetMaxSlowStatements(int newMaxSlowStatements) {
+    maxSlowStatements = newMaxSlowStatements;
+  }
+
+  /**
+   * Identifies what's executing statements on the current thread (and any threads it
+   * subsequently creates), e.g. the API endpoint path, or the task class name.
+   * @param newTag The tag, or null for none.
+   */
+  public static void SetTag(String newTag) {
+    tag.set(newTag);
+  } // end of SetTag()
+
+  /**
+   * Identifies what's executing statements on the current thread.
+   * @return The tag set by {@link #SetTag(String)}, or "" if none has been set.
+   */
+  public static String GetTag() {
+    String currentTag = tag.get();
+    return currentTag == null? "" : currentTag;
+  } // end of GetTag()
+
+  private static final Pattern stringLiteral = Pattern.compile(
+    "'(?:[^'\\\\]|\\\\.|'')*'|\"(?:[^\"\\\\]|\\\\.|\"\")*\"");
+  private static final Pattern numberLiteral = Pattern.compile(
+    "(?<![\\w.`])-?\\d+(?:\\.\\d+)?(?:[eE][-+]?\\d+)?(?![\\w`])");
+  private static final Pattern parameterList = Pattern.compile(
+    "\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+  private static final Pattern valueLists = Pattern.compile(
+    "(\\(\\?(?:, \\.\\.\\.)?\\))(?:\\s*,\\s*\\(\\?(?:, \\.\\.\\.)?\\))+");
+  private static final Pattern whitespace = Pattern.compile("\\s+");
+
+  /**
+   * Normalizes the given SQL, so that statements that differ only in literal values or
+   * the number of bind parameters in lists have the same shape.
+   * <p> Literal strings and numbers are replaced with <q>?</q>, lists of parameters
+   * like <q>(?,?,?)</q> are replaced with <q>(?, ...)</q>, multiple value lists are
+   * collapsed into one, and whitespace is normalized.
+   * @param sql The SQL.
+   * @return The shape of the SQL.
+   */
+  public static String Normalize(String sql) {
+    if (sql == null) return "";
+    sql = stringLiteral.matcher(sql).replaceAll("?");
+    sql = numberLiteral.matcher(sql).replaceAll("?");
+    sql = whitespace.matcher(sql).replaceAll(" ").trim();
+    sql = parameterList.matcher(sql).replaceAll("(?, ...)");
+    sql = valueLists.matcher(sql).replaceAll("$1, ...");
+    return sql;
+  } // end of Normalize()
+
+  /**
+   * Gets the statistics for the given SQL executed with the current thread's tag,
+   * creating them if necessary.
+   * @param sql The SQL, which will be normalized.
+   * @return Statistics for the shape of the SQL.
+   */
+  public static Shape Get(String sql) {
+    String currentTag = GetTag();
+    String shape = Normalize(sql);
+    String key = currentTag + "\n" + shape;
+    Shape statistics = shapes.get(key);
+    if (statistics == null) {
+      if (shapes.size() >= maxShapes) { // too many shapes
+        shape = "(other)";
+        key = currentTag + "\n" + shape;
+      }
+      final String finalShape = shape;
+      statistics = shapes.computeIfAbsent(key, k -> new Shape(currentTag, finalShape));
+    }
+    return statistics;
+  } // end of Get()
+
+  /**
+   * Lists the statistics for all statement shapes.
+   * @return Statistics for each tag/shape combination, in descending order of total
+   * execution time.
+   */
+  public static List<Shape> Shapes() {
+    Vector<Shape> list = new Vector<Shape>(shapes.values());
+    list.sort((a, b) -> Long.compare(b.totalNanos.get(), a.totalNanos.get()));
+    return list;
+  } // end of Shapes()
+
+  /**
+   * Records a slow statement, logging it to stderr.
+   * <p> The bind parameters are kept for reporting, but only logged if
+   * {@link #GetLogSlowStatementParameters()} is true.
+   * @param sql The SQL of the statement.
+   * @param parameters The bind parameter values, or null if there were none.
+   * @param nanos The execution time in nanoseconds.
+   * @param explanation The output of EXPLAIN for the statement, or null.
+   */
+  public static void Slow(String sql, String parameters, long nanos, String explanation) {
+    SlowStatement slow = new SlowStatement(
+      GetTag(), sql, parameters, nanos / 1000000.0, explanation);
+    System.err.println(
+      "SqlStatistics: slow statement (" + Math.round(slow.getMs()) + "ms"
+      + (slow.getTag().length() > 0? " " + slow.getTag() : "") + "): " + sql
+      + (parameters != null && logSlowStatementParameters? " " + parameters : "")
+      + (explanation != null? "\n" + explanation : ""));
+    synchronized (slowStatements) {
+      slowStatements.add(slow);
+      while (slowStatements.size() > Math.max(0, maxSlowStatements)) {
+        slowStatements.removeFirst();
+      }
+    }
+  } // end of Slow()
+
+  /**
+   * Lists the most recent slow statements.
+   * @return The most recent slow statements, most recent first.
+   */
+  public static List<SlowStatement> SlowStatements() {
+    Vector<SlowStatement> list = new Vector<SlowStatement>();
+    synchronized (slowStatements) {
+      for (SlowStatement slow : slowStatements) list.add(0, slow);
+    }
+    return list;
+  } // end of SlowStatements()
+
+  /**
+   * Discards all statistics and slow statements.
+   */
+  public static void Reset() {
+    shapes.clear();
+    synchronized (slowStatements) {
+      slowStatements.clear();
+    }
+  } // end of Reset()
+
+} // end of class SqlStatistics
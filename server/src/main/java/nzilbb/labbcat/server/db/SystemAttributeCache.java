@@ -0,0 +1,148 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process cache of the <tt>system_attribute</tt> table.
+ * <p> System attributes are configuration values that are read often (e.g. on every
+ * transcript save or results export) but change rarely, so the whole table is loaded
+ * into memory the first time any attribute is requested, and subsequent requests are
+ * answered without a database round trip.
+ * <p> Anything that updates <tt>system_attribute</tt> must call {@link #Invalidate()}
+ * (which happens automatically when
+ * {@link nzilbb.labbcat.server.api.APIRequestContext#cacheNotification(String)} is
+ * called with "system_attribute"). As a safeguard against updates made by other
+ * processes, cached values are also reloaded once they are older than
+ * {@link #GetMaxAgeMs()}.
+ * <p> Attributes are cached separately for each database URL, so that stores connected
+ * to different databases don't share values.
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+public class SystemAttributeCache {
+
+  /** Snapshot of the system_attribute table for one database. */
+  static class Snapshot {
+    final Map<String,String> values;
+    final long loaded;
+    Snapshot(Map<String,String> values) {
+      this.values = Collections.unmodifiableMap(values);
+      this.loaded = System.currentTimeMillis();
+    }
+  }
+
+  /** Cached attribute values, keyed by database URL. */
+  private static final ConcurrentHashMap<String,Snapshot> snapshots
+  = new ConcurrentHashMap<String,Snapshot>();
+
+  /**
+   * Maximum age of cached values in milliseconds, after which they are reloaded even if
+   * there has been no invalidation notification.
+   * @see #GetMaxAgeMs()
+   * @see #SetMaxAgeMs(long)
+   */
+  private static volatile long maxAgeMs = 5 * 60 * 1000;
+  /**
+   * Getter for {@link #maxAgeMs}: Maximum age of cached values in milliseconds.
+   * @return Maximum age of cached values in milliseconds.
+   */
+  public static long GetMaxAgeMs() { return maxAgeMs; }
+  /**
+   * Setter for {@link #maxAgeMs}: Maximum age of cached values in milliseconds.
+   * @param newMaxAgeMs Maximum age of cached values in milliseconds. 0 or less means
+   * values are never cached.
+   */
+  public static void SetMaxAgeMs(long newMaxAgeMs) { maxAgeMs = newMaxAgeMs; }
+
+  /**
+   * Gets the value of a system attribute, loading all attributes from the database if
+   * they're not already cached.
+   * @param name Attribute name.
+   * @param db A connection to the database the attribute comes from.
+   * @return The value of the system attribute, or null if there is no value.
+   * @throws SQLException
+   */
+  public static String Get(String name, Connection db) throws SQLException {
+    String key = db.getMetaData().getURL();
+    if (key == null) key = "";
+    Snapshot snapshot = snapshots.get(key);
+    if (snapshot == null
+        || System.currentTimeMillis() - snapshot.loaded > maxAgeMs) {
+      snapshot = Load(db);
+      if (maxAgeMs > 0) snapshots.put(key, snapshot);
+    }
+    return snapshot.values.get(name);
+  } // end of Get()
+
+  /**
+   * Reads all system attributes from the database.
+   * @param db A database connection.
+   * @return A snapshot of all values.
+   * @throws SQLException
+   */
+  private static Snapshot Load(Connection db) throws SQLException {
+    HashMap<String,String> values = new HashMap<String,String>();
+    PreparedStatement sql = db.prepareStatement(
+      "SELECT name, value FROM system_attribute");
+    try {
+      ResultSet rs = sql.executeQuery();
+      try {
+        while (rs.next()) values.put(rs.getString("name"), rs.getString("value"));
+      } finally {
+        rs.close();
+      }
+    } finally {
+      sql.close();
+    }
+    return new Snapshot(values);
+  } // end of Load()
+
+  /**
+   * Flushes all cached values, so that they're re-read from the database next time
+   * they're needed. This must be called whenever <tt>system_attribute</tt> is updated.
+   */
+  public static void Invalidate() {
+    snapshots.clear();
+  } // end of Invalidate()
+
+  /**
+   * Flushes cached values that were loaded before the given time. This allows
+   * timestamped notifications, which may have been raised by components that don't call
+   * {@link #Invalidate()} directly, to flush stale values.
+   * @param updated The time at which the system attributes were last updated.
+   */
+  public static void InvalidateIfOlderThan(Date updated) {
+    if (updated == null) return;
+    long time = updated.getTime();
+    snapshots.values().removeIf(snapshot -> snapshot.loaded <= time);
+  } // end of InvalidateIfOlderThan()
+
+} // end of class SystemAttributeCache
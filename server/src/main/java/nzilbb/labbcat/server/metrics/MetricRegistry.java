@@ -0,0 +1,380 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Server-wide registry of metrics, which can be written in the
+ * <a href="https://prometheus.io/docs/instrumenting/exposition_formats/">Prometheus text
+ * exposition format</a>.
+ * <p> Metrics are grouped into <em>families</em> identified by name, each of which has
+ * a series for each distinct set of label values. There are three kinds of series:
+ * <ul>
+ *  <li> counters and gauges recorded with {@link #Counter(String,String,String...)} and
+ *       {@link #Gauge(String,String,String...)}, </li>
+ *  <li> histograms recorded with {@link #Histogram(String,String,double[],String...)},
+ *       and </li>
+ *  <li> values that are sampled only when the metrics are written, registered with
+ *       {@link #Sampled(String,String,String,Supplier)}. </li>
+ * </ul>
+ * <p> Recording a value doesn't take any locks; after the first time a series is
+ * recorded, it involves two hash lookups and an update of a {@link LongAdder}.
+ * <p> Percentiles are not computed by the server; latency distributions are exposed as
+ * cumulative histogram buckets, from which Prometheus can compute any quantile with
+ * <tt>histogram_quantile()</tt>.
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+public class MetricRegistry {
+
+  /** Default histogram bucket upper bounds for durations, in seconds. */
+  public static final double[] DURATION_BUCKETS = {
+    0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300, 1800 };
+
+  /** Content type of the text exposition format. */
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  /** A histogram series, whose buckets are updated without locking. */
+  public static class Histogram {
+    final double[] bounds;
+    final LongAdder[] counts;
+    final DoubleAdder sum = new DoubleAdder();
+
+    /**
+     * Constructor.
+     * @param bounds Upper bounds of the buckets, in ascending order.
+     */
+    Histogram(double[] bounds) {
+      this.bounds = bounds;
+      counts = new LongAdder[bounds.length + 1];
+      for (int b = 0; b < counts.length; b++) counts[b] = new LongAdder();
+    }
+
+    /**
+     * Records an observation.
+     * @param value The observed value.
+     */
+    public void observe(double value) {
+      int b = 0;
+      while (b < bounds.length && value > bounds[b]) b++;
+      counts[b].increment();
+      sum.add(value);
+    } // end of observe()
+
+    /**
+     * Records a duration.
+     * @param nanos The duration in nanoseconds, which is recorded in seconds.
+     */
+    public void observeNanos(long nanos) {
+      observe(nanos / 1e9);
+    } // end of observeNanos()
+
+    /**
+     * Gets the cumulative count of observations for each bucket, the last being the
+     * count of all observations.
+     * @return The cumulative bucket counts.
+     */
+    public long[] getCumulativeCounts() {
+      long[] cumulative = new long[counts.length];
+      long total = 0;
+      for (int b = 0; b < counts.length; b++) {
+        total += counts[b].sum();
+        cumulative[b] = total;
+      }
+      return cumulative;
+    } // end of getCumulativeCounts()
+
+    /**
+     * Gets the total number of observations.
+     * @return The total number of observations.
+     */
+    public long getCount() {
+      long[] cumulative = getCumulativeCounts();
+      return cumulative[cumulative.length - 1];
+    } // end of getCount()
+
+    /**
+     * Gets the sum of all observations.
+     * @return The sum of all observations.
+     */
+    public double getSum() {
+      return sum.sum();
+    } // end of getSum()
+  } // end of class Histogram
+
+  /** A metric family. */
+  static class Family {
+    final String name;
+    final String help;
+    final String type;
+    final double[] buckets;
+    final Supplier<Map<String,? extends Number>> sampler;
+    /** Series, keyed by label string. */
+    final ConcurrentHashMap<String,Object> series = new ConcurrentHashMap<String,Object>();
+    Family(String name, String help, String type, double[] buckets,
+           Supplier<Map<String,? extends Number>> sampler) {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+      this.buckets = buckets;
+      this.sampler = sampler;
+    }
+  } // end of class Family
+
+  /** Registered metric families, keyed by name. */
+  static final ConcurrentHashMap<String,Family> families
+  = new ConcurrentHashMap<String,Family>();
+
+  /**
+   * Gets the named family, creating it if necessary.
+   * @param name The metric name.
+   * @param help The metric description.
+   * @param type The metric type - "counter", "gauge", or "histogram".
+   * @param buckets Bucket upper bounds for histograms, or null.
+   * @return The family.
+   */
+  static Family Family(String name, String help, String type, double[] buckets) {
+    Family family = families.get(name);
+    if (family == null) {
+      family = families.computeIfAbsent(
+        name, n -> new Family(n, help, type, buckets, null));
+    }
+    return family;
+  } // end of Family()
+
+  /**
+   * Gets a counter series, which should only be incremented.
+   * @param name The metric name, which should end in "_total".
+   * @param help The metric description.
+   * @param labels Alternating label names and values.
+   * @return The counter.
+   */
+  public static LongAdder Counter(String name, String help, String... labels) {
+    return (LongAdder)Family(name, help, "counter", null)
+      .series.computeIfAbsent(Labels(labels), l -> new LongAdder());
+  } // end of Counter()
+
+  /**
+   * Gets a gauge series, which can be incremented or decremented.
+   * @param name The metric name.
+   * @param help The metric description.
+   * @param labels Alternating label names and values.
+   * @return The gauge.
+   */
+  public static LongAdder Gauge(String name, String help, String... labels) {
+    return (LongAdder)Family(name, help, "gauge", null)
+      .series.computeIfAbsent(Labels(labels), l -> new LongAdder());
+  } // end of Gauge()
+
+  /**
+   * Gets a histogram series.
+   * @param name The metric name.
+   * @param help The metric description.
+   * @param buckets Bucket upper bounds, in ascending order, which are used only when the
+   * metric is first created.
+   * @param labels Alternating label names and values.
+   * @return The histogram.
+   */
+  public static Histogram Histogram(
+    String name, String help, double[] buckets, String... labels) {
+    Family family = Family(name, help, "histogram", buckets);
+    return (Histogram)family.series.computeIfAbsent(
+      Labels(labels), l -> new Histogram(family.buckets));
+  } // end of Histogram()
+
+  /**
+   * Registers a metric whose values are sampled only when metrics are written. This
+   * replaces any previously registered metric with the same name.
+   * @param name The metric name.
+   * @param help The metric description.
+   * @param type The metric type - "counter" or "gauge".
+   * @param sampler Supplies values keyed by label string - see {@link #Labels(String...)}.
+   */
+  public static void Sampled(
+    String name, String help, String type, Supplier<Map<String,? extends Number>> sampler) {
+    families.put(name, new Family(name, help, type, null, sampler));
+  } // end of Sampled()
+
+  /**
+   * Records a handled HTTP request.
+   * @param endpoint The endpoint that handled the request - i.e. its servlet path.
+   * @param method The request method.
+   * @param status The response status code.
+   * @param nanos The time taken to handle the request, in nanoseconds.
+   * @param bytes The number of bytes in the response body, or -1 if it's not known - see
+   * {@link #ContentLength(String)}.
+   */
+  public static void Request(
+    String endpoint, String method, int status, long nanos, long bytes) {
+    Counter("labbcat_http_requests_total", "HTTP requests handled.",
+            "endpoint", endpoint, "method", method, "status", String.valueOf(status))
+      .increment();
+    Histogram("labbcat_http_request_duration_seconds", "Time taken to handle HTTP requests.",
+              DURATION_BUCKETS, "endpoint", endpoint)
+      .observeNanos(nanos);
+    if (bytes >= 0) {
+      Counter("labbcat_http_response_bytes_total",
+              "Bytes in HTTP response bodies with a declared Content-Length.",
+              "endpoint", endpoint)
+        .add(bytes);
+    }
+  } // end of Request()
+
+  /**
+   * Parses the Content-Length header of a response, for
+   * {@link #Request(String,String,int,long,long)}.
+   * <p> Responses are not wrapped to count the bytes actually written, so response sizes
+   * are only known when the handler declares them.
+   * @param header The value of the response's Content-Length header, which may be null.
+   * @return The number of bytes in the response body, or -1 if it's not known.
+   */
+  public static long ContentLength(String header) {
+    if (header == null) return -1;
+    try {
+      return Long.parseLong(header.trim());
+    } catch(NumberFormatException exception) {
+      return -1;
+    }
+  } // end of ContentLength()
+
+  /**
+   * Gets the gauge of requests currently being handled.
+   * @return The gauge of requests currently being handled.
+   */
+  public static LongAdder RequestsInFlight() {
+    return Gauge("labbcat_http_requests_in_flight", "HTTP requests currently being handled.");
+  } // end of RequestsInFlight()
+
+  /**
+   * Formats the given label names and values as a label string.
+   * @param labels Alternating label names and values.
+   * @return The labels in exposition format, without enclosing braces,
+   * e.g. <tt>endpoint="/api/store",method="GET"</tt>
+   */
+  public static String Labels(String... labels) {
+    if (labels.length == 0) return "";
+    StringBuilder s = new StringBuilder();
+    for (int l = 0; l + 1 < labels.length; l += 2) {
+      if (l > 0) s.append(",");
+      s.append(labels[l]).append("=\"");
+      String value = labels[l+1] == null? "" : labels[l+1];
+      for (int c = 0; c < value.length(); c++) {
+        char ch = value.charAt(c);
+        switch (ch) {
+          case '\\': s.append("\\\\"); break;
+          case '"': s.append("\\\""); break;
+          case '\n': s.append("\\n"); break;
+          default: s.append(ch);
+        }
+      } // next character
+      s.append("\"");
+    } // next label
+    return s.toString();
+  } // end of Labels()
+
+  /**
+   * Writes all metrics in Prometheus text exposition format.
+   * @param out The writer to write to.
+   * @throws IOException If an IO error occurs.
+   */
+  public static void Write(Writer out) throws IOException {
+    for (Family family : new TreeMap<String,Family>(families).values()) {
+      Map<String,?> series = family.series;
+      if (family.sampler != null) {
+        try {
+          series = family.sampler.get();
+        } catch(Throwable t) {
+          System.err.println("MetricRegistry: " + family.name + " failed: " + t);
+          continue;
+        }
+      }
+      if (series.size() == 0) continue;
+      out.write("# HELP " + family.name + " "
+                + family.help.replace("\\", "\\\\").replace("\n", "\\n") + "\n");
+      out.write("# TYPE " + family.name + " " + family.type + "\n");
+      for (Map.Entry<String,?> entry : new TreeMap<String,Object>(series).entrySet()) {
+        String labels = entry.getKey();
+        Object value = entry.getValue();
+        if (value instanceof Histogram) {
+          Histogram histogram = (Histogram)value;
+          long[] cumulative = histogram.getCumulativeCounts();
+          String prefix = labels.length() == 0? "" : labels + ",";
+          for (int b = 0; b < cumulative.length; b++) {
+            out.write(family.name + "_bucket{" + prefix + "le=\""
+                      + (b < histogram.bounds.length? Format(histogram.bounds[b]) : "+Inf")
+                      + "\"} " + cumulative[b] + "\n");
+          } // next bucket
+          out.write(Series(family.name + "_sum", labels)
+                    + " " + Format(histogram.getSum()) + "\n");
+          out.write(Series(family.name + "_count", labels)
+                    + " " + cumulative[cumulative.length - 1] + "\n");
+        } else {
+          String formatted = value instanceof LongAdder? String.valueOf(((LongAdder)value).sum())
+            : value instanceof Double || value instanceof Float?
+            Format(((Number)value).doubleValue())
+            : String.valueOf(value);
+          out.write(Series(family.name, labels) + " " + formatted + "\n");
+        }
+      } // next series
+    } // next family
+    out.flush();
+  } // end of Write()
+
+  /**
+   * Formats a series name with its labels.
+   * @param name The name.
+   * @param labels The label string.
+   * @return The series name, including labels if there are any.
+   */
+  static String Series(String name, String labels) {
+    return labels.length() == 0? name : name + "{" + labels + "}";
+  } // end of Series()
+
+  /**
+   * Formats a floating point value.
+   * @param value The value.
+   * @return The value, without a fractional part if it's a whole number.
+   */
+  static String Format(double value) {
+    if (Double.isNaN(value)) return "NaN";
+    if (Double.isInfinite(value)) return value > 0? "+Inf" : "-Inf";
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      return String.valueOf((long)value);
+    }
+    return String.valueOf(value);
+  } // end of Format()
+
+  /**
+   * Discards all recorded series. Sampled metrics remain registered.
+   */
+  public static void Reset() {
+    for (Family family : families.values()) family.series.clear();
+  } // end of Reset()
+
+} // end of class MetricRegistry
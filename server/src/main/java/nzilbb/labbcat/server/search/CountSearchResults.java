@@ -0,0 +1,194 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.search;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Search results for searches that only count matches, without identifying them.
+ * <p> {@link #size()} returns the number of matches, but there are no match IDs to
+ * iterate through.
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+public class CountSearchResults implements SearchResults {
+
+  /**
+   * Name of result set.
+   * @see #getName()
+   * @see #setName(String)
+   */
+  protected String name;
+  /**
+   * SearchResults method: A descriptive name for the collection.
+   * @return A descriptive name for the collection.
+   */
+  public String getName() { return name; }
+  /**
+   * Setter for {@link #name}: Name of result set.
+   * @param newName Name of result set.
+   */
+  public CountSearchResults setName(String newName) { name = newName; return this; }
+
+  /**
+   * The number of matches.
+   * @see #size()
+   */
+  protected int matchCount;
+
+  /**
+   * The number of transcripts that contain matches.
+   * @see #getTranscriptCount()
+   */
+  protected int transcriptCount;
+  /**
+   * Getter for {@link #transcriptCount}: The number of transcripts that contain matches.
+   * @return The number of transcripts that contain matches.
+   */
+  public int getTranscriptCount() { return transcriptCount; }
+
+  /**
+   * The number of participants who have matches, or null if this is unknown.
+   * @see #getParticipantCount()
+   */
+  protected Integer participantCount;
+  /**
+   * Getter for {@link #participantCount}: The number of participants who have matches,
+   * or null if this is unknown.
+   * @return The number of participants who have matches, or null if this is unknown.
+   */
+  public Integer getParticipantCount() { return participantCount; }
+
+  /**
+   * Whether the counts are estimates based on a sample of transcripts, rather than exact
+   * counts.
+   * @see #getEstimated()
+   */
+  protected boolean estimated;
+  /**
+   * Getter for {@link #estimated}: Whether the counts are estimates based on a sample of
+   * transcripts, rather than exact counts.
+   * @return Whether the counts are estimates.
+   */
+  public boolean getEstimated() { return estimated; }
+
+  /**
+   * The maximum number of results to return from {@link #next()}, or 0 for no maximum.
+   * @see #getPageLength()
+   * @see #setPageLength(int)
+   */
+  protected int pageLength = 0;
+  /**
+   * Getter for {@link #pageLength}: The maximum number of results to return from {@link #next()},
+   * or 0 for no maximum.
+   * @return The maximum number of results to return from {@link #next()}, or 0 for no maximum.
+   */
+  public int getPageLength() { return pageLength; }
+  /**
+   * Setter for {@link #pageLength}: The maximum number of results to return from {@link #next()},
+   * or 0 for no maximum.
+   * @param newPageLength The maximum number of results to return from {@link #next()}, or 0 for
+   * no maximum.
+   */
+  public SearchResults setPageLength(int newPageLength) { pageLength = newPageLength; return this; }
+
+  /**
+   * Constructor.
+   * @param matchCount The number of matches.
+   * @param transcriptCount The number of transcripts that contain matches.
+   * @param participantCount The number of participants who have matches, or null if
+   * this is unknown.
+   * @param estimated Whether the counts are estimates.
+   */
+  public CountSearchResults(
+    int matchCount, int transcriptCount, Integer participantCount, boolean estimated) {
+    this.matchCount = matchCount;
+    this.transcriptCount = transcriptCount;
+    this.participantCount = participantCount;
+    this.estimated = estimated;
+  } // end of constructor
+
+  /**
+   * A summary of the counts, e.g. "approximately 120 matches in 12 transcripts".
+   * @return A summary of the counts.
+   */
+  public String getSummary() {
+    return (estimated?"approximately ":"")
+      + matchCount + " match" + (matchCount != 1?"es":"")
+      + " in " + transcriptCount + " transcript" + (transcriptCount != 1?"s":"")
+      + (participantCount == null?""
+         :" by " + participantCount + " participant" + (participantCount != 1?"s":""));
+  } // end of getSummary()
+
+  /**
+   * SearchResults method: Resets the iterator to the beginning of the list
+   */
+  public void reset() {
+  }
+
+  /**
+   * SearchResults method: Returns the number of matches.
+   * @return The number of matches.
+   */
+  public int size() {
+    return matchCount;
+  }
+
+  /**
+   * Go to the nth item in the list; individual matches are not available, so this always
+   * returns false.
+   * @param n The number of the item to seek to.
+   * @return false.
+   */
+  public boolean seek(int n) {
+    return false;
+  }
+
+  /**
+   * SearchResults method: The ID of the last match the iterator returned, which is
+   * always null as individual matches are not available.
+   * @return null.
+   */
+  public String getLastMatchId() { return null; }
+
+  /**
+   * Iterator method: Returns false, as individual matches are not available.
+   * @return false.
+   */
+  public boolean hasNext() {
+    return false;
+  } // end of hasNext()
+
+  /**
+   * Iterator method: Always throws NoSuchElementException, as individual matches are
+   * not available.
+   * @return Nothing.
+   */
+  public String next() {
+    throw new NoSuchElementException();
+  } // end of next()
+
+  /**
+   * Close all open resources (there are none).
+   */
+  public void close() {
+  } // end of close()
+} // end of class CountSearchResults
@@ -30,6 +30,7 @@ import javax.json.JsonArray;
 import javax.json.JsonObject;
 import nzilbb.labbcat.server.task.Task;
 import nzilbb.labbcat.server.db.SqlGraphStore;
+import nzilbb.labbcat.server.metrics.MetricRegistry;
 import nzilbb.util.CloneableBean;
 import nzilbb.util.ClonedProperty;
 
@@ -304,7 +305,15 @@ public abstract class SearchTask extends Task {
         setStatus(validationError);
       } else {
 
-        search();
+        long searchStart = System.nanoTime();
+        try {
+          search();
+        } finally {
+          MetricRegistry.Histogram(
+            "labbcat_search_duration_seconds", "Time taken to execute searches.",
+            MetricRegistry.DURATION_BUCKETS, "class", getClass().getSimpleName())
+            .observeNanos(System.nanoTime() - searchStart);
+        }
         
         if (results == null) {
           setStatus("No results available.");
@@ -318,7 +327,11 @@ public abstract class SearchTask extends Task {
             setResultText("Display results");
           }
           
-          setStatus("Found " + results.size() + " result" + (results.size() != 1?"s":""));
+          if (results instanceof CountSearchResults) {
+            setStatus("Found " + ((CountSearchResults)results).getSummary());
+          } else {
+            setStatus("Found " + results.size() + " result" + (results.size() != 1?"s":""));
+          }
         }
         iPercentComplete = 100;
       }
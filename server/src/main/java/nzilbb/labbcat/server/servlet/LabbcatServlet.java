@@ -125,8 +125,9 @@ public class LabbcatServlet extends HttpServlet {
         connectionURL = xpath.evaluate("//Realm/@connectionURL", doc);
         connectionName = xpath.evaluate("//Realm/@connectionName", doc);
         connectionPassword = xpath.evaluate("//Realm/@connectionPassword", doc);
-        connectionFactory = new MySQLConnectionFactory(
-          connectionURL, connectionName, connectionPassword);
+        // record statistics about statements executed
+        connectionFactory = new InstrumentedConnectionFactory(
+          new MySQLConnectionFactory(connectionURL, connectionName, connectionPassword));
 
         // ensure it's registered with the driver manager
         Class.forName(driverName).getConstructor().newInstance();
@@ -359,19 +360,7 @@ public class LabbcatServlet extends HttpServlet {
    * @throws SQLException
    */
   public static String GetSystemAttribute(String name, Connection db) throws SQLException {
-    PreparedStatement sql = db.prepareStatement(
-      "SELECT value FROM system_attribute WHERE name = ?");
-    sql.setString(1, name);
-    ResultSet rs = sql.executeQuery();
-    try {
-      if (rs.next()) {
-        return rs.getString(1);
-      }
-      return null;
-    } finally {
-      rs.close();
-      sql.close();
-    }
+    return SystemAttributeCache.Get(name, db);
   } // end of getSystemAttribute()
   
   /**
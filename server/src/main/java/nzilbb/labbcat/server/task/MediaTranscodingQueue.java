@@ -0,0 +1,645 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.task;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Vector;
+import nzilbb.configure.Parameter;
+import nzilbb.configure.ParameterSet;
+import nzilbb.labbcat.server.db.MediaConversionQueue;
+import nzilbb.labbcat.server.db.MediaManifestCache;
+import nzilbb.media.MediaConverter;
+import nzilbb.media.MediaThread;
+import nzilbb.media.ffmpeg.FfmpegConverter;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+
+/**
+ * A queue of media conversions, which are run by a bounded number of worker threads.
+ * <p> Jobs for the same source file and destination type are only queued once, and jobs
+ * for media a user is waiting for ({@link Job#getInteractive()}) are run before jobs
+ * queued in the background, e.g. during bulk uploads.
+ * <p> Queued jobs are saved to a state file, so that if the server restarts before they're
+ * finished, they can be resumed when the server starts - see {@link #Resume(File)}.
+ * <p> {@link #ForStores(File)} adds conversions requested by
+ * {@link nzilbb.labbcat.server.db.SqlGraphStore} to the queue.
+ * <p> Conversions are written to a temporary file, which is moved to the destination
+ * when the conversion succeeds, so the destination never contains a partial conversion.
+ * <p> The queue is a {@link Task}, so its progress is visible with other tasks. Once
+ * all jobs are finished, the task finishes, and a new one is started when more jobs are
+ * added.
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+public class MediaTranscodingQueue extends Task {
+
+  /**
+   * A media conversion.
+   */
+  public static class Job {
+    /**
+     * The file to convert.
+     * @see #getSource()
+     * @see #setSource(File)
+     */
+    protected File source;
+    /**
+     * Getter for {@link #source}: The file to convert.
+     * @return The file to convert.
+     */
+    public File getSource() { return source; }
+    /**
+     * Setter for {@link #source}: The file to convert.
+     * @param newSource The file to convert.
+     */
+    public Job setSource(File newSource) { source = newSource; return this; }
+
+    /**
+     * The MIME type of the source file.
+     * @see #getSourceType()
+     * @see #setSourceType(String)
+     */
+    protected String sourceType;
+    /**
+     * Getter for {@link #sourceType}: The MIME type of the source file.
+     * @return The MIME type of the source file.
+     */
+    public String getSourceType() { return sourceType; }
+    /**
+     * Setter for {@link #sourceType}: The MIME type of the source file.
+     * @param newSourceType The MIME type of the source file.
+     */
+    public Job setSourceType(String newSourceType) { sourceType = newSourceType; return this; }
+
+    /**
+     * The file to create.
+     * @see #getDestination()
+     * @see #setDestination(File)
+     */
+    protected File destination;
+    /**
+     * Getter for {@link #destination}: The file to create.
+     * @return The file to create.
+     */
+    public File getDestination() { return destination; }
+    /**
+     * Setter for {@link #destination}: The file to create.
+     * @param newDestination The file to create.
+     */
+    public Job setDestination(File newDestination) { destination = newDestination; return this; }
+
+    /**
+     * The MIME type of the destination file.
+     * @see #getDestinationType()
+     * @see #setDestinationType(String)
+     */
+    protected String destinationType;
+    /**
+     * Getter for {@link #destinationType}: The MIME type of the destination file.
+     * @return The MIME type of the destination file.
+     */
+    public String getDestinationType() { return destinationType; }
+    /**
+     * Setter for {@link #destinationType}: The MIME type of the destination file.
+     * @param newDestinationType The MIME type of the destination file.
+     */
+    public Job setDestinationType(String newDestinationType) { destinationType = newDestinationType; return this; }
+
+    /**
+     * The directory containing the ffmpeg executable.
+     * @see #getFfmpegPath()
+     * @see #setFfmpegPath(File)
+     */
+    protected File ffmpegPath;
+    /**
+     * Getter for {@link #ffmpegPath}: The directory containing the ffmpeg executable.
+     * @return The directory containing the ffmpeg executable.
+     */
+    public File getFfmpegPath() { return ffmpegPath; }
+    /**
+     * Setter for {@link #ffmpegPath}: The directory containing the ffmpeg executable.
+     * @param newFfmpegPath The directory containing the ffmpeg executable.
+     */
+    public Job setFfmpegPath(File newFfmpegPath) { ffmpegPath = newFfmpegPath; return this; }
+
+    /**
+     * The ffmpeg command line arguments for the conversion.
+     * @see #getArguments()
+     * @see #setArguments(String)
+     */
+    protected String arguments = "";
+    /**
+     * Getter for {@link #arguments}: The ffmpeg command line arguments for the conversion.
+     * @return The ffmpeg command line arguments for the conversion.
+     */
+    public String getArguments() { return arguments; }
+    /**
+     * Setter for {@link #arguments}: The ffmpeg command line arguments for the conversion.
+     * @param newArguments The ffmpeg command line arguments for the conversion.
+     */
+    public Job setArguments(String newArguments) { arguments = newArguments==null?"":newArguments; return this; }
+
+    /**
+     * Whether a user is waiting for the result, in which case the job is run before
+     * background jobs.
+     * @see #getInteractive()
+     * @see #setInteractive(boolean)
+     */
+    protected boolean interactive = false;
+    /**
+     * Getter for {@link #interactive}: Whether a user is waiting for the result.
+     * @return Whether a user is waiting for the result.
+     */
+    public boolean getInteractive() { return interactive; }
+    /**
+     * Setter for {@link #interactive}: Whether a user is waiting for the result.
+     * @param newInteractive Whether a user is waiting for the result.
+     */
+    public Job setInteractive(boolean newInteractive) { interactive = newInteractive; return this; }
+
+    /**
+     * Identifies jobs that produce the same result.
+     * @return The source file path and the destination MIME type.
+     */
+    public String key() {
+      return source.getPath() + "|" + destinationType;
+    } // end of key()
+
+    /**
+     * Represents the job as a string.
+     * @return The source file name and destination MIME type.
+     */
+    public String toString() {
+      return source.getName() + " → " + destinationType;
+    } // end of toString()
+  } // end of class Job
+
+  /** Queues that have been created, keyed by the path of their state file. */
+  private static HashMap<String,MediaTranscodingQueue> queues
+  = new HashMap<String,MediaTranscodingQueue>();
+
+  /**
+   * Adds conversions requested by {@link nzilbb.labbcat.server.db.SqlGraphStore} to the
+   * queue for the given state file.
+   * @param stateFile The file in which queued jobs are saved, which should not be in a
+   * web-accessible directory, as it includes server paths and ffmpeg arguments.
+   * @return An object to pass to
+   * {@link nzilbb.labbcat.server.db.SqlGraphStore#SetMediaConversionQueue(MediaConversionQueue)}.
+   */
+  public static MediaConversionQueue ForStores(final File stateFile) {
+    return new MediaConversionQueue() {
+      public void add(
+        File source, String sourceType, File destination, String destinationType,
+        File ffmpegPath, String arguments, boolean interactive, Integer workerCount) {
+        Add(stateFile,
+            new Job()
+            .setSource(source)
+            .setSourceType(sourceType)
+            .setDestination(destination)
+            .setDestinationType(destinationType)
+            .setFfmpegPath(ffmpegPath)
+            .setArguments(arguments)
+            .setInteractive(interactive),
+            workerCount);
+      }
+    };
+  } // end of ForStores()
+
+  /** State files whose queues have been resumed since the server started. */
+  private static HashSet<String> resumed = new HashSet<String>();
+
+  /** Column headers of the state file. */
+  private static final String[] STATE_HEADERS = {
+    "interactive", "source", "sourceType", "destination", "destinationType",
+    "ffmpegPath", "arguments" };
+
+  // Attributes:
+
+  private LinkedList<Job> pending = new LinkedList<Job>();
+  private Vector<Job> running = new Vector<Job>();
+  private int liveWorkers = 0;
+  private boolean finished = false;
+  private int completedCount = 0;
+  private int failedCount = 0;
+
+  /**
+   * The file in which queued jobs are saved, so that they survive a restart.
+   * @see #getStateFile()
+   */
+  protected File stateFile;
+  /**
+   * Getter for {@link #stateFile}: The file in which queued jobs are saved, so that they
+   * survive a restart.
+   * @return The file in which queued jobs are saved.
+   */
+  public File getStateFile() { return stateFile; }
+
+  /**
+   * The maximum number of conversions to run at once. The default is half the number of
+   * available processors, but at least one.
+   * @see #getWorkerCount()
+   * @see #setWorkerCount(int)
+   */
+  protected int workerCount = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+  /**
+   * Getter for {@link #workerCount}: The maximum number of conversions to run at once.
+   * @return The maximum number of conversions to run at once.
+   */
+  public int getWorkerCount() { return workerCount; }
+  /**
+   * Setter for {@link #workerCount}: The maximum number of conversions to run at once.
+   * @param newWorkerCount The maximum number of conversions to run at once.
+   */
+  public MediaTranscodingQueue setWorkerCount(int newWorkerCount) {
+    workerCount = Math.max(1, newWorkerCount);
+    startWorkers();
+    return this;
+  }
+
+  // Methods:
+
+  /**
+   * Constructor, which loads any jobs saved in the state file.
+   * @param stateFile The file in which queued jobs are saved.
+   */
+  protected MediaTranscodingQueue(File stateFile) {
+    this.stateFile = stateFile;
+    setWaitToDieMilliseconds(10000);
+    load();
+  } // end of constructor
+
+  /**
+   * Gets the queue that saves its state in the given file, creating it if necessary.
+   * @param stateFile The file in which queued jobs are saved.
+   * @return The queue, which may have finished all its jobs.
+   */
+  protected static synchronized MediaTranscodingQueue ForStateFile(File stateFile) {
+    MediaTranscodingQueue queue = queues.get(stateFile.getPath());
+    if (queue == null || queue.isFinished()) {
+      queue = new MediaTranscodingQueue(stateFile);
+      queues.put(stateFile.getPath(), queue);
+    }
+    return queue;
+  } // end of ForStateFile()
+
+  /**
+   * Adds a job to the queue that saves its state in the given file, and starts the queue
+   * if necessary.
+   * <p> If there's already a job queued or running for the same source and destination
+   * type, the job is not added again, but it's moved ahead of background jobs if the new
+   * job is interactive.
+   * @param stateFile The file in which queued jobs are saved.
+   * @param job The job to add.
+   * @param workerCount The maximum number of conversions to run at once, or null to leave
+   * the setting unchanged.
+   * @return The queue.
+   */
+  public static synchronized MediaTranscodingQueue Add(
+    File stateFile, Job job, Integer workerCount) {
+    MediaTranscodingQueue queue = ForStateFile(stateFile);
+    if (workerCount != null) queue.setWorkerCount(workerCount);
+    if (!queue.add(job)) { // it finished in the meantime
+      queues.remove(stateFile.getPath());
+      queue = ForStateFile(stateFile);
+      if (workerCount != null) queue.setWorkerCount(workerCount);
+      queue.add(job);
+    }
+    if (queue.getState() == State.NEW) queue.start();
+    return queue;
+  } // end of Add()
+
+  /**
+   * Resumes jobs saved in the given state file, if this hasn't already been done since
+   * the server started.
+   * @param stateFile The file in which queued jobs are saved.
+   * @return The queue, or null if there was nothing to resume.
+   */
+  public static synchronized MediaTranscodingQueue Resume(File stateFile) {
+    if (!resumed.add(stateFile.getPath())) return null; // already done
+    if (!stateFile.exists()) return null;
+    MediaTranscodingQueue queue = ForStateFile(stateFile);
+    if (queue.getQueuedCount() == 0) return null;
+    if (queue.getState() == State.NEW) queue.start();
+    return queue;
+  } // end of Resume()
+
+  /**
+   * Adds a job to the queue.
+   * @param job The job to add.
+   * @return false if the queue has finished and won't run any more jobs, true otherwise.
+   */
+  protected synchronized boolean add(Job job) {
+    if (finished) return false;
+    String key = job.key();
+    for (Job runningJob : running) {
+      if (runningJob.key().equals(key)) return true; // already running
+    }
+    for (ListIterator<Job> jobs = pending.listIterator(); jobs.hasNext(); ) {
+      Job pendingJob = jobs.next();
+      if (pendingJob.key().equals(key)) { // already queued
+        if (!job.getInteractive() || pendingJob.getInteractive()) return true;
+        // remove it so that it can be queued with higher priority
+        jobs.remove();
+        break;
+      }
+    } // next pending job
+    enqueue(job);
+    save();
+    startWorkers();
+    notifyAll();
+    return true;
+  } // end of add()
+
+  /**
+   * Adds the job to the pending list, after other jobs with the same or higher priority.
+   * @param job The job.
+   */
+  private void enqueue(Job job) {
+    if (!job.getInteractive()) {
+      pending.addLast(job);
+    } else {
+      // insert before the first background job
+      ListIterator<Job> jobs = pending.listIterator();
+      while (jobs.hasNext()) {
+        if (!jobs.next().getInteractive()) {
+          jobs.previous();
+          break;
+        }
+      } // next pending job
+      jobs.add(job);
+    }
+  } // end of enqueue()
+
+  /**
+   * Determines whether the queue has finished all its jobs, and won't run any more.
+   * @return true if the queue has finished, false otherwise.
+   */
+  public synchronized boolean isFinished() {
+    return finished;
+  } // end of isFinished()
+
+  /**
+   * Gets the number of jobs that are queued or running.
+   * @return The number of jobs that are queued or running.
+   */
+  public synchronized int getQueuedCount() {
+    return pending.size() + running.size();
+  } // end of getQueuedCount()
+
+  /**
+   * Gets the number of jobs that have finished successfully.
+   * @return The number of jobs that have finished successfully.
+   */
+  public synchronized int getCompletedCount() {
+    return completedCount;
+  } // end of getCompletedCount()
+
+  /**
+   * Gets the number of jobs that have failed.
+   * @return The number of jobs that have failed.
+   */
+  public synchronized int getFailedCount() {
+    return failedCount;
+  } // end of getFailedCount()
+
+  /**
+   * Loads saved jobs from the state file.
+   */
+  protected synchronized void load() {
+    if (!stateFile.exists()) return;
+    try (CSVParser in = new CSVParser(
+           new FileReader(stateFile), CSVFormat.EXCEL.withFirstRecordAsHeader())) {
+      for (CSVRecord record : in) {
+        Job job = new Job()
+          .setInteractive(Boolean.parseBoolean(record.get("interactive")))
+          .setSource(new File(record.get("source")))
+          .setSourceType(record.get("sourceType"))
+          .setDestination(new File(record.get("destination")))
+          .setDestinationType(record.get("destinationType"))
+          .setFfmpegPath(new File(record.get("ffmpegPath")))
+          .setArguments(record.get("arguments"));
+        enqueue(job);
+      } // next record
+    } catch(Exception exception) {
+      System.err.println(
+        "MediaTranscodingQueue: Could not load " + stateFile.getPath() + ": " + exception);
+    }
+  } // end of load()
+
+  /**
+   * Saves the queued and running jobs to the state file, or deletes the state file if
+   * there are none.
+   */
+  protected synchronized void save() {
+    try {
+      if (pending.size() == 0 && running.size() == 0) {
+        if (stateFile.exists()) stateFile.delete();
+        return;
+      }
+      // write to a temporary file, so that the state file is never only partially written
+      File newState = new File(stateFile.getPath() + ".new");
+      try (CSVPrinter out = new CSVPrinter(
+             new FileWriter(newState), CSVFormat.EXCEL.withHeader(STATE_HEADERS))) {
+        // running jobs first, as they were next
+        Vector<Job> jobs = new Vector<Job>(running);
+        jobs.addAll(pending);
+        for (Job job : jobs) {
+          out.printRecord(
+            job.getInteractive(), job.getSource().getPath(), job.getSourceType(),
+            job.getDestination().getPath(), job.getDestinationType(),
+            job.getFfmpegPath().getPath(), job.getArguments());
+        } // next job
+      }
+      Files.move(newState.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch(IOException exception) {
+      System.err.println(
+        "MediaTranscodingQueue: Could not save " + stateFile.getPath() + ": " + exception);
+    }
+  } // end of save()
+
+  /**
+   * Starts enough worker threads to run pending jobs, up to {@link #workerCount}.
+   */
+  protected synchronized void startWorkers() {
+    if (finished || bCancelling) return;
+    while (liveWorkers < workerCount && liveWorkers - running.size() < pending.size()) {
+      liveWorkers++;
+      Thread worker = new Thread(() -> work(), getName() + "-worker-" + liveWorkers);
+      worker.setDaemon(true);
+      worker.start();
+    } // next worker
+  } // end of startWorkers()
+
+  /**
+   * Worker thread loop: runs pending jobs until there are none left.
+   */
+  protected void work() {
+    while (true) {
+      Job job = null;
+      synchronized (this) {
+        if (bCancelling || pending.size() == 0 || liveWorkers > workerCount) {
+          liveWorkers--;
+          notifyAll();
+          return;
+        }
+        job = pending.removeFirst();
+        running.add(job);
+        updateStatus();
+      } // synchronized
+
+      Exception error = null;
+      try {
+        if (!job.getDestination().exists()) { // (it may be left over from a restart)
+          convert(job);
+        }
+      } catch(Exception exception) {
+        error = exception;
+      } catch(Throwable t) {
+        error = new Exception(t.toString(), t);
+      }
+
+      synchronized (this) {
+        running.remove(job);
+        if (error == null) {
+          completedCount++;
+        } else {
+          failedCount++;
+          setLastException(error);
+          setStatus("Could not convert " + job + ": " + error.getMessage());
+          System.err.println("MediaTranscodingQueue: " + job + ": " + error);
+        }
+        save();
+        updateStatus();
+        notifyAll();
+      } // synchronized
+    } // next job
+  } // end of work()
+
+  /**
+   * Converts the source file of the given job, writing the result to its destination.
+   * @param job The job.
+   * @throws Exception If the conversion fails.
+   */
+  protected void convert(Job job) throws Exception {
+    ParameterSet configuration = new ParameterSet();
+    configuration.addParameter(new Parameter("ffmpegPath", job.getFfmpegPath()));
+    configuration.addParameter(new Parameter("conversionCommandLine", job.getArguments()));
+    MediaConverter converter = new FfmpegConverter();
+    converter.configure(configuration);
+
+    // convert into a temporary directory, so the destination is never partially written
+    File dir = Files.createTempDirectory("MediaTranscodingQueue-").toFile();
+    File conversion = new File(dir, job.getDestination().getName());
+    try {
+      MediaThread thread = converter.start(
+        job.getSourceType(), job.getSource(), job.getDestinationType(), conversion);
+      thread.join();
+      if (thread.getLastError() != null) {
+        throw new IOException(thread.getLastError().getMessage(), thread.getLastError());
+      }
+      if (!conversion.exists() || conversion.length() == 0) {
+        throw new IOException("No file produced: " + conversion.getName());
+      }
+      File destinationDir = job.getDestination().getParentFile();
+      if (!destinationDir.exists() && !destinationDir.mkdirs()) {
+        throw new IOException("Could not create " + destinationDir.getPath());
+      }
+      Files.move(conversion.toPath(), job.getDestination().toPath(),
+                 StandardCopyOption.REPLACE_EXISTING);
+      // the episode's media has changed
+      MediaManifestCache.Invalidate(destinationDir.getParentFile());
+    } finally {
+      conversion.delete();
+      dir.delete();
+    }
+  } // end of convert()
+
+  /**
+   * Updates the task status and progress. Must be called while synchronized.
+   */
+  private void updateStatus() {
+    int total = completedCount + failedCount + running.size() + pending.size();
+    if (total > 0) {
+      iPercentComplete = Math.max(1, ((completedCount + failedCount) * 100) / total);
+    }
+    StringBuilder status = new StringBuilder();
+    status.append(running.size()).append(" running, ")
+      .append(pending.size()).append(" queued, ")
+      .append(completedCount).append(" finished");
+    if (failedCount > 0) status.append(", ").append(failedCount).append(" failed");
+    if (running.size() > 0) {
+      status.append(": ");
+      for (int j = 0; j < running.size(); j++) {
+        if (j > 0) status.append(", ");
+        status.append(running.get(j));
+      }
+    }
+    setStatus(status.toString());
+  } // end of updateStatus()
+
+  /**
+   * Cancels the queue; running conversions are finished, but queued jobs are discarded.
+   */
+  @Override public void cancel() {
+    super.cancel();
+    synchronized (this) {
+      pending.clear();
+      save();
+      notifyAll();
+    }
+  } // end of cancel()
+
+  /**
+   * Runs jobs until there are none left.
+   */
+  public void run() {
+    runStart();
+    try {
+      synchronized (this) {
+        updateStatus();
+        startWorkers();
+        while (liveWorkers > 0 || (pending.size() > 0 && !bCancelling)) {
+          try { wait(1000); } catch(InterruptedException x) { break; }
+          startWorkers();
+        } // wait for workers to finish
+        finished = true;
+        iPercentComplete = 100;
+        setStatus(completedCount + " finished"
+                  + (failedCount > 0? ", " + failedCount + " failed" : ""));
+      } // synchronized
+    } finally {
+      runEnd();
+    }
+    waitToDie();
+  } // end of run()
+
+} // end of class MediaTranscodingQueue
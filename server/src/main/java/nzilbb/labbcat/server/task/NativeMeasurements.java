@@ -0,0 +1,495 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.task;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Acoustic measurements made directly from PCM WAV files, without Praat.
+ * <p> The algorithms follow those of the Praat commands used by {@link ProcessWithPraat},
+ * with the aim that the results agree with Praat's. This has not yet been validated
+ * against measurements made by Praat itself, so these measurements are only used if
+ * {@link ProcessWithPraat#setUseNativeMeasurements(boolean)} is explicitly enabled.
+ * The algorithms are:
+ * <ul>
+ *  <li> {@link #extractPart(double,double)} - <q>LongSound: Extract part...</q> (without
+ *       preserving times) </li>
+ *  <li> {@link #MaximumIntensity(Sound,double,double,double)} - <q>Sound: To
+ *       Intensity... <var>minimumPitch</var> 0 yes</q> then <q>Intensity: Get
+ *       maximum... <var>tmin</var> <var>tmax</var> Parabolic</q> </li>
+ *  <li> {@link #CentreOfGravity(Sound,double)} - <q>Sound: To Spectrum... yes</q> then
+ *       <q>Spectrum: Get centre of gravity... <var>power</var></q> </li>
+ * </ul>
+ * <p> Only the samples required for each extract are read from the file, using a
+ * memory-mapped buffer.
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+public class NativeMeasurements implements Closeable {
+
+  /** A section of audio, equivalent to a Praat Sound object. */
+  public static class Sound {
+    /** Samples, indexed by channel, then sample, with values between -1 and 1. */
+    public final double[][] samples;
+    /** Time of the first sample, relative to the start of the extract. */
+    public final double x1;
+    /** Time between samples. */
+    public final double dx;
+    /** Duration of the extract. */
+    public final double xmax;
+    /**
+     * Constructor.
+     * @param samples Samples, indexed by channel, then sample.
+     * @param x1 Time of the first sample, relative to the start of the extract.
+     * @param dx Time between samples.
+     * @param xmax Duration of the extract.
+     */
+    public Sound(double[][] samples, double x1, double dx, double xmax) {
+      this.samples = samples;
+      this.x1 = x1;
+      this.dx = dx;
+      this.xmax = xmax;
+    }
+    /**
+     * The number of samples.
+     * @return The number of samples.
+     */
+    public int size() { return samples[0].length; }
+  } // end of class Sound
+
+  // Attributes:
+
+  private RandomAccessFile file;
+  private FileChannel channel;
+  private long dataOffset;
+  private long sampleCount;
+  private int blockAlign;
+  private int bytesPerSample;
+  private boolean floatingPoint;
+
+  /**
+   * The number of channels.
+   * @see #getChannelCount()
+   */
+  protected int channelCount;
+  /**
+   * Getter for {@link #channelCount}: The number of channels.
+   * @return The number of channels.
+   */
+  public int getChannelCount() { return channelCount; }
+
+  /**
+   * The sample rate in Hz.
+   * @see #getSampleRate()
+   */
+  protected int sampleRate;
+  /**
+   * Getter for {@link #sampleRate}: The sample rate in Hz.
+   * @return The sample rate in Hz.
+   */
+  public int getSampleRate() { return sampleRate; }
+
+  // Methods:
+
+  /**
+   * Constructor, which reads the WAV header.
+   * @param wav The WAV file.
+   * @throws IOException If the file can't be read, or is not an uncompressed 8, 16, 24,
+   * or 32 bit integer, or 32 bit floating point, WAV file.
+   */
+  public NativeMeasurements(File wav) throws IOException {
+    file = new RandomAccessFile(wav, "r");
+    try {
+      channel = file.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+      channel.read(header, 0);
+      header.flip();
+      if (header.remaining() < 12
+          || header.getInt(0) != 0x46464952 // "RIFF"
+          || header.getInt(8) != 0x45564157) { // "WAVE"
+        throw new IOException("Not a WAV file: " + wav.getName());
+      }
+      // find the fmt and data chunks
+      long position = 12;
+      int format = -1;
+      ByteBuffer chunk = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+      while (position + 8 <= channel.size()) {
+        chunk.clear();
+        channel.read(chunk, position);
+        long chunkSize = chunk.getInt(4) & 0xffffffffL;
+        if (chunk.getInt(0) == 0x20746d66) { // "fmt "
+          format = chunk.getShort(8) & 0xffff;
+          channelCount = chunk.getShort(10) & 0xffff;
+          sampleRate = chunk.getInt(12);
+          blockAlign = chunk.getShort(20) & 0xffff;
+          int bitsPerSample = chunk.getShort(22) & 0xffff;
+          if (format == 0xfffe && chunkSize >= 40) { // WAVE_FORMAT_EXTENSIBLE
+            format = chunk.getShort(32) & 0xffff;
+          }
+          bytesPerSample = bitsPerSample / 8;
+        } else if (chunk.getInt(0) == 0x61746164) { // "data"
+          dataOffset = position + 8;
+          if (blockAlign > 0) {
+            sampleCount = Math.min(chunkSize, channel.size() - dataOffset) / blockAlign;
+          }
+          break;
+        }
+        position += 8 + chunkSize + (chunkSize % 2); // chunks are word-aligned
+      } // next chunk
+      if (dataOffset == 0 || channelCount < 1 || sampleRate < 1) {
+        throw new IOException("Invalid WAV file: " + wav.getName());
+      }
+      floatingPoint = format == 3;
+      if (!(format == 1 && bytesPerSample >= 1 && bytesPerSample <= 4)
+          && !(floatingPoint && bytesPerSample == 4)
+          || blockAlign != bytesPerSample * channelCount) {
+        throw new IOException("Unsupported WAV format: " + wav.getName());
+      }
+    } catch(IOException exception) {
+      file.close();
+      throw exception;
+    }
+  } // end of constructor
+
+  /**
+   * The duration of the recording in seconds.
+   * @return The duration of the recording in seconds.
+   */
+  public double getDuration() {
+    return (double)sampleCount / sampleRate;
+  } // end of getDuration()
+
+  /**
+   * Extracts the samples between the given times, like Praat's <q>LongSound: Extract
+   * part...</q> with <var>preserveTimes</var> false.
+   * @param tmin The start time in seconds.
+   * @param tmax The end time in seconds.
+   * @return The extracted sound.
+   * @throws IOException If the samples can't be read, or there are none in the window.
+   */
+  public Sound extractPart(double tmin, double tmax) throws IOException {
+    double dx = 1.0 / sampleRate;
+    double x1 = 0.5 * dx;
+    if (tmin < 0.0) tmin = 0.0;
+    if (tmax > sampleCount * dx) tmax = sampleCount * dx;
+    // Sampled_getWindowSamples
+    long imin = Math.max(1, 1 + (long)Math.ceil((tmin - x1) / dx));
+    long imax = Math.min(sampleCount, 1 + (long)Math.floor((tmax - x1) / dx));
+    if (imin > imax) throw new IOException("Less than 1 sample in window.");
+    int n = (int)(imax - imin + 1);
+    double[][] samples = new double[channelCount][n];
+    MappedByteBuffer buffer = channel.map(
+      FileChannel.MapMode.READ_ONLY, dataOffset + (imin - 1) * blockAlign, (long)n * blockAlign);
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < n; i++) {
+      for (int c = 0; c < channelCount; c++) {
+        samples[c][i] = readSample(buffer);
+      } // next channel
+    } // next sample
+    return new Sound(samples, x1 + (imin - 1) * dx - tmin, dx, tmax - tmin);
+  } // end of extractPart()
+
+  /**
+   * Reads one sample from the buffer, normalized to the range -1 to 1.
+   * @param buffer The buffer.
+   * @return The sample value.
+   */
+  private double readSample(ByteBuffer buffer) {
+    if (floatingPoint) return buffer.getFloat();
+    switch (bytesPerSample) {
+      case 1: return ((buffer.get() & 0xff) - 128) / 128.0; // 8 bit is unsigned
+      case 2: return buffer.getShort() / 32768.0;
+      case 3: {
+        int value = (buffer.get() & 0xff) | ((buffer.get() & 0xff) << 8) | (buffer.get() << 16);
+        return value / 8388608.0;
+      }
+      default: return buffer.getInt() / 2147483648.0;
+    }
+  } // end of readSample()
+
+  /**
+   * Closes the file.
+   * @throws IOException
+   */
+  public void close() throws IOException {
+    file.close();
+  } // end of close()
+
+  /**
+   * Computes the maximum intensity of the given sound between the given times, like
+   * Praat's <q>Sound: To Intensity... <var>minimumPitch</var> 0 yes</q> followed by
+   * <q>Intensity: Get maximum... <var>tmin</var> <var>tmax</var> Parabolic</q>.
+   * @param sound The sound.
+   * @param minimumPitch The minimum pitch, in Hz, which determines the window size.
+   * @param tmin The start of the range, relative to the start of the sound.
+   * @param tmax The end of the range, relative to the start of the sound. If this is
+   * not greater than <var>tmin</var>, the whole sound is used.
+   * @return The maximum intensity in dB, or NaN if it's undefined.
+   * @throws IllegalArgumentException If the sound is too short for the analysis window.
+   */
+  public static double MaximumIntensity(
+    Sound sound, double minimumPitch, double tmin, double tmax) {
+    double timeStep = 0.8 / minimumPitch;
+    double windowDuration = 6.4 / minimumPitch;
+    double halfWindowDuration = 0.5 * windowDuration;
+    int halfWindowSamples = (int)Math.floor(halfWindowDuration / sound.dx);
+    double[] window = new double[2 * halfWindowSamples + 1];
+    for (int i = -halfWindowSamples; i <= halfWindowSamples; i++) {
+      double x = i * sound.dx / halfWindowDuration;
+      double root = 1 - x * x;
+      window[i + halfWindowSamples] = root <= 0.0? 0.0
+        : BesselI0((2 * Math.PI * Math.PI + 0.5) * Math.sqrt(root));
+    } // next window sample
+
+    // Sampled_shortTermAnalysis
+    int nx = sound.size();
+    double duration = sound.dx * nx;
+    if (windowDuration > duration) {
+      throw new IllegalArgumentException(
+        "Sound too short for intensity analysis with minimum pitch " + minimumPitch + "Hz");
+    }
+    int frameCount = (int)Math.floor((duration - windowDuration) / timeStep) + 1;
+    double midTime = sound.x1 - 0.5 * sound.dx + 0.5 * duration;
+    double t1 = midTime - 0.5 * frameCount * timeStep + 0.5 * timeStep;
+
+    double[] intensity = new double[frameCount];
+    double[] amplitude = new double[window.length];
+    for (int f = 0; f < frameCount; f++) {
+      double t = t1 + f * timeStep;
+      int midSample = (int)Math.floor((t - sound.x1) / sound.dx + 0.5); // 0-based
+      int left = Math.max(0, midSample - halfWindowSamples);
+      int right = Math.min(nx - 1, midSample + halfWindowSamples);
+      double sumxw = 0.0;
+      double sumw = 0.0;
+      for (double[] channel : sound.samples) {
+        double sum = 0.0;
+        for (int i = left; i <= right; i++) sum += channel[i];
+        double mean = sum / (right - left + 1);
+        for (int i = left; i <= right; i++) {
+          double a = channel[i] - mean;
+          double w = window[i - midSample + halfWindowSamples];
+          sumxw += a * a * w;
+          sumw += w;
+        } // next sample
+      } // next channel
+      double power = sumxw / sumw / 4e-10;
+      intensity[f] = power < 1e-30? -300.0 : 10.0 * Math.log10(power);
+    } // next frame
+
+    return MaximumParabolic(intensity, t1, timeStep, 0.0, sound.xmax, tmin, tmax);
+  } // end of MaximumIntensity()
+
+  /**
+   * Finds the maximum of a sampled function within a range, with parabolic interpolation,
+   * like Praat's <q>Get maximum...</q> for Vector objects.
+   * @param y The values.
+   * @param x1 The x value of the first value.
+   * @param dx The x distance between values.
+   * @param xmin The start of the function's domain.
+   * @param xmax The end of the function's domain.
+   * @param tmin The start of the range.
+   * @param tmax The end of the range. If this is not greater than <var>tmin</var>, the
+   * whole domain is used.
+   * @return The maximum value, or NaN if it's undefined.
+   */
+  static double MaximumParabolic(
+    double[] y, double x1, double dx, double xmin, double xmax, double tmin, double tmax) {
+    if (tmin >= tmax) { // Function_unidirectionalAutowindow
+      tmin = xmin;
+      tmax = xmax;
+    }
+    int n = y.length;
+    // Sampled_getWindowSamples (1-based)
+    int imin = (int)Math.max(1, 1 + Math.ceil((tmin - x1) / dx));
+    int imax = (int)Math.min(n, 1 + Math.floor((tmax - x1) / dx));
+    if (imin > imax) { // no frames in range, so use values at the edges
+      double left = ValueAtX(y, x1, dx, tmin);
+      double right = ValueAtX(y, x1, dx, tmax);
+      if (Double.isNaN(left)) return right;
+      if (Double.isNaN(right)) return left;
+      return Math.max(left, right);
+    }
+    double maximum = Math.max(y[imin - 1], y[imax - 1]);
+    if (imin == 1) imin++;
+    if (imax == n) imax--;
+    for (int i = imin; i <= imax; i++) {
+      double previous = y[i - 2];
+      double current = y[i - 1];
+      double next = y[i];
+      if (current > previous && current >= next) {
+        double dy = 0.5 * (next - previous);
+        double d2y = 2 * current - previous - next;
+        double localMaximum = current + 0.5 * dy * dy / d2y;
+        if (localMaximum > maximum) maximum = localMaximum;
+      }
+    } // next value
+    return maximum;
+  } // end of MaximumParabolic()
+
+  /**
+   * Linearly interpolates a sampled function at the given x value.
+   * @param y The values.
+   * @param x1 The x value of the first value.
+   * @param dx The x distance between values.
+   * @param x The x value.
+   * @return The interpolated value, or NaN if <var>x</var> is outside the function.
+   */
+  static double ValueAtX(double[] y, double x1, double dx, double x) {
+    double leftEdge = x1 - 0.5 * dx;
+    double rightEdge = leftEdge + y.length * dx;
+    if (x < leftEdge || x > rightEdge) return Double.NaN;
+    double index = (x - x1) / dx; // 0-based
+    int left = (int)Math.floor(index);
+    if (left < 0) return y[0];
+    if (left >= y.length - 1) return y[y.length - 1];
+    double fraction = index - left;
+    return y[left] + fraction * (y[left + 1] - y[left]);
+  } // end of ValueAtX()
+
+  /**
+   * Computes the spectral centre of gravity of the given sound, like Praat's <q>Sound: To
+   * Spectrum... yes</q> followed by <q>Spectrum: Get centre of gravity...
+   * <var>power</var></q>.
+   * @param sound The sound. If it has more than one channel, the channels are averaged.
+   * @param power The power to which the spectral magnitude is raised - e.g. 2 for
+   * weighting by power, 1 for weighting by magnitude.
+   * @return The centre of gravity in Hz, or NaN if it's undefined (e.g. silence).
+   */
+  public static double CentreOfGravity(Sound sound, double power) {
+    return CentreOfGravity(Spectrum(sound), 0.5 / sound.dx, power);
+  } // end of CentreOfGravity()
+
+  /**
+   * Computes the spectral centre of gravity of the given power spectrum.
+   * @param spectrum The power (squared magnitude) of each frequency bin from 0 Hz to the
+   * Nyquist frequency, as returned by {@link #Spectrum(Sound)}.
+   * @param nyquist The Nyquist frequency.
+   * @param power The power to which the spectral magnitude is raised.
+   * @return The centre of gravity in Hz, or NaN if it's undefined (e.g. silence).
+   */
+  public static double CentreOfGravity(double[] spectrum, double nyquist, double power) {
+    double df = nyquist / (spectrum.length - 1);
+    double halfPower = 0.5 * power;
+    double sumEnergy = 0.0;
+    double sumFrequencyEnergy = 0.0;
+    for (int i = 0; i < spectrum.length; i++) {
+      double energy = halfPower == 1.0? spectrum[i] : Math.pow(spectrum[i], halfPower);
+      sumEnergy += energy;
+      sumFrequencyEnergy += i * df * energy;
+    } // next bin
+    return sumEnergy == 0.0? Double.NaN : sumFrequencyEnergy / sumEnergy;
+  } // end of CentreOfGravity()
+
+  /**
+   * Computes the power spectrum of the given sound, zero-padded to a power of two, like
+   * Praat's <q>Sound: To Spectrum... yes</q>. The overall scaling is arbitrary.
+   * @param sound The sound. If it has more than one channel, the channels are averaged.
+   * @return The squared magnitude of each frequency bin from 0 Hz to the Nyquist
+   * frequency.
+   */
+  public static double[] Spectrum(Sound sound) {
+    int nx = sound.size();
+    int n = 2;
+    while (n < nx) n *= 2;
+    double[] re = new double[n];
+    double[] im = new double[n];
+    for (double[] channel : sound.samples) {
+      for (int i = 0; i < nx; i++) re[i] += channel[i];
+    } // next channel
+    if (sound.samples.length > 1) {
+      for (int i = 0; i < nx; i++) re[i] /= sound.samples.length;
+    }
+    FFT(re, im);
+    double[] spectrum = new double[n / 2 + 1];
+    for (int i = 0; i < spectrum.length; i++) spectrum[i] = re[i] * re[i] + im[i] * im[i];
+    return spectrum;
+  } // end of Spectrum()
+
+  /**
+   * In-place iterative radix-2 fast Fourier transform.
+   * @param re The real parts, whose length must be a power of two.
+   * @param im The imaginary parts, the same length as <var>re</var>.
+   */
+  public static void FFT(double[] re, double[] im) {
+    int n = re.length;
+    // bit-reversal permutation
+    for (int i = 1, j = 0; i < n; i++) {
+      int bit = n >> 1;
+      for (; (j & bit) != 0; bit >>= 1) j ^= bit;
+      j ^= bit;
+      if (i < j) {
+        double t = re[i]; re[i] = re[j]; re[j] = t;
+        t = im[i]; im[i] = im[j]; im[j] = t;
+      }
+    } // next index
+    for (int length = 2; length <= n; length <<= 1) {
+      double angle = -2 * Math.PI / length;
+      double wRe = Math.cos(angle);
+      double wIm = Math.sin(angle);
+      int half = length >> 1;
+      for (int start = 0; start < n; start += length) {
+        double uRe = 1.0;
+        double uIm = 0.0;
+        for (int k = 0; k < half; k++) {
+          int a = start + k;
+          int b = a + half;
+          double tRe = re[b] * uRe - im[b] * uIm;
+          double tIm = re[b] * uIm + im[b] * uRe;
+          re[b] = re[a] - tRe;
+          im[b] = im[a] - tIm;
+          re[a] += tRe;
+          im[a] += tIm;
+          double nextRe = uRe * wRe - uIm * wIm;
+          uIm = uRe * wIm + uIm * wRe;
+          uRe = nextRe;
+        } // next butterfly
+      } // next block
+    } // next stage
+  } // end of FFT()
+
+  /**
+   * Modified Bessel function of the first kind, order 0, using the polynomial
+   * approximations of Abramowitz and Stegun (9.8.1 and 9.8.2), as Praat does.
+   * @param x The argument.
+   * @return I0(x)
+   */
+  static double BesselI0(double x) {
+    if (x < 0.0) x = -x;
+    if (x < 3.75) {
+      double t = x / 3.75;
+      double t2 = t * t;
+      return 1.0 + t2 * (3.5156229 + t2 * (3.0899424 + t2 * (1.2067492
+        + t2 * (0.2659732 + t2 * (0.0360768 + t2 * 0.0045813)))));
+    }
+    double t = 3.75 / x;
+    return Math.exp(x) / Math.sqrt(x) * (0.39894228 + t * (0.01328592
+      + t * (0.00225319 + t * (-0.00157565 + t * (0.00916281 + t * (-0.02057706
+      + t * (0.02635537 + t * (-0.01647633 + t * 0.00392377))))))));
+  } // end of BesselI0()
+
+} // end of class NativeMeasurements
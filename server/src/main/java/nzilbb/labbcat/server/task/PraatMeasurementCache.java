@@ -0,0 +1,167 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.task;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * In-process cache of acoustic measurements made by {@link ProcessWithPraat}, so that
+ * re-running the same measurements on the same intervals doesn't require Praat.
+ * <p> Measurements are keyed by {@link #Key(File,Double,Double,String)}, which includes
+ * the media file, its modification time and size, the interval, and a hash of the
+ * settings that determine what the Praat script does, so that changing the media or any
+ * setting means the measurements are made again.
+ * <p> When there are more than {@link #GetMaxEntries()} entries, the least recently used
+ * are evicted.
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+public class PraatMeasurementCache {
+
+  /** Cached measurements, in access order, keyed by {@link #Key(File,Double,Double,String)}. */
+  private static final LinkedHashMap<String,Vector<String>> entries
+  = new LinkedHashMap<String,Vector<String>>(16, 0.75f, true);
+
+  /**
+   * Maximum number of intervals to cache measurements for. 0 or less disables caching.
+   * @see #GetMaxEntries()
+   * @see #SetMaxEntries(int)
+   */
+  private static volatile int maxEntries = 100000;
+  /**
+   * Getter for {@link #maxEntries}: Maximum number of intervals to cache measurements for.
+   * @return Maximum number of intervals to cache measurements for.
+   */
+  public static int GetMaxEntries() { return maxEntries; }
+  /**
+   * Setter for {@link #maxEntries}: Maximum number of intervals to cache measurements for.
+   * @param newMaxEntries Maximum number of intervals to cache measurements for. 0 or
+   * less disables caching.
+   */
+  public static void SetMaxEntries(int newMaxEntries) {
+    maxEntries = newMaxEntries;
+    Trim();
+  }
+
+  /**
+   * Generates a hash of the given script settings.
+   * @param settings A representation of all the settings that determine the measurements
+   * - e.g. the Praat script that would be generated for a canonical interval.
+   * @return A hexadecimal SHA-256 hash of the settings.
+   */
+  public static String SettingsHash(String settings) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      StringBuilder hash = new StringBuilder();
+      for (byte b : digest.digest(settings.getBytes(StandardCharsets.UTF_8))) {
+        hash.append(String.format("%02x", b));
+      }
+      return hash.toString();
+    } catch(NoSuchAlgorithmException impossible) { // all JVMs support SHA-256
+      return "" + settings.hashCode();
+    }
+  } // end of SettingsHash()
+
+  /**
+   * Generates the cache key for the measurements of the given interval.
+   * @param wav The media file.
+   * @param start The start time of the interval.
+   * @param end The end time of the interval.
+   * @param settingsHash The hash of the script settings, as returned by
+   * {@link #SettingsHash(String)}.
+   * @return The key for the measurements.
+   */
+  public static String Key(File wav, Double start, Double end, String settingsHash) {
+    return wav.getPath()
+      + "|" + wav.lastModified()
+      + "|" + wav.length()
+      + "|" + start
+      + "|" + end
+      + "|" + settingsHash;
+  } // end of Key()
+
+  /**
+   * Looks up previously made measurements.
+   * @param key The key, as returned by {@link #Key(File,Double,Double,String)}.
+   * @return A copy of the cached measurements, or null if there are none.
+   */
+  public static Vector<String> Lookup(String key) {
+    if (maxEntries <= 0) return null;
+    synchronized (entries) {
+      Vector<String> measurements = entries.get(key);
+      return measurements == null? null : new Vector<String>(measurements);
+    }
+  } // end of Lookup()
+
+  /**
+   * Adds measurements to the cache, evicting the least recently used entries if there
+   * are too many.
+   * @param key The key, as returned by {@link #Key(File,Double,Double,String)}.
+   * @param measurements The measurements, which are copied.
+   */
+  public static void Add(String key, Vector<String> measurements) {
+    if (maxEntries <= 0) return;
+    synchronized (entries) {
+      entries.put(key, new Vector<String>(measurements));
+    }
+    Trim();
+  } // end of Add()
+
+  /**
+   * Evicts least recently used entries until there are no more than {@link #maxEntries}.
+   */
+  private static void Trim() {
+    synchronized (entries) {
+      Iterator<Map.Entry<String,Vector<String>>> lru = entries.entrySet().iterator();
+      while (entries.size() > Math.max(0, maxEntries) && lru.hasNext()) {
+        lru.next();
+        lru.remove();
+      } // next least-recently-used entry
+    }
+  } // end of Trim()
+
+  /**
+   * Gets the number of intervals whose measurements are cached.
+   * @return The number of cached entries.
+   */
+  public static int Size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  } // end of Size()
+
+  /**
+   * Removes all cached measurements.
+   */
+  public static void Clear() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  } // end of Clear()
+
+} // end of class PraatMeasurementCache
@@ -0,0 +1,278 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.task;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import nzilbb.util.IO;
+
+/**
+ * A long-lived Praat process that runs scripts on request, so that many batches can be
+ * processed without starting Praat for each one.
+ * <p> Praat scripts cannot read from stdin, so requests are made through the file system:
+ * <ol>
+ *  <li> Praat is started with a driver script, in its own working directory, which polls
+ *       for a file called <tt>request.txt</tt> in the same directory. </li>
+ *  <li> To run a script, its path is written to <tt>request.txt</tt> (via a rename, so
+ *       the driver never reads a partial request). </li>
+ *  <li> The driver deletes the request, runs the script with <tt>runScript</tt>, and
+ *       then prints {@link #SENTINEL} on a line of its own, so the output of each
+ *       script can be distinguished on Praat's stdout. </li>
+ *  <li> The request <q>quit</q> ends the driver. </li>
+ * </ol>
+ * <p> Objects left in Praat's object list by a script are removed after it finishes, so
+ * that memory use doesn't grow with the number of requests.
+ * <p> Praat's stderr is merged into its stdout, so that anything a script writes to
+ * stderr is read before the sentinel that follows it, and so is never mistaken for the
+ * output of the next request. Non-fatal messages on stderr are therefore included in the
+ * output returned by {@link #execute(File)}.
+ * <p> If a script fails, Praat exits, and the error is thrown by
+ * {@link #execute(File)}. The worker must then be restarted with {@link #start()}.
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+public class PraatWorker {
+
+  /** Line printed by the driver after each script finishes. */
+  public static final String SENTINEL = "<<LaBB-CAT-Praat-worker-done>>";
+
+  /** Shared timer for timing out requests. */
+  private static Timer watchdog = new Timer("PraatWorker-watchdog", true);
+
+  // Attributes:
+
+  private Process process;
+  private BufferedReader stdout;
+
+  /**
+   * The Praat executable.
+   * @see #getExecutable()
+   */
+  protected File executable;
+  /**
+   * Getter for {@link #executable}: The Praat executable.
+   * @return The Praat executable.
+   */
+  public File getExecutable() { return executable; }
+
+  /**
+   * Working directory for the driver script and requests.
+   * @see #getWorkingDirectory()
+   */
+  protected File workingDirectory;
+  /**
+   * Getter for {@link #workingDirectory}: Working directory for the driver script and
+   * requests.
+   * @return Working directory for the driver script and requests.
+   */
+  public File getWorkingDirectory() { return workingDirectory; }
+
+  /**
+   * Maximum time, in milliseconds, to wait for a script to finish before killing the
+   * worker, or 0 for no maximum. The default is 0.
+   * @see #getTimeout()
+   * @see #setTimeout(long)
+   */
+  protected long timeout = 0;
+  /**
+   * Getter for {@link #timeout}: Maximum time, in milliseconds, to wait for a script to
+   * finish before killing the worker, or 0 for no maximum.
+   * @return Maximum time, in milliseconds, to wait for a script to finish.
+   */
+  public long getTimeout() { return timeout; }
+  /**
+   * Setter for {@link #timeout}: Maximum time, in milliseconds, to wait for a script to
+   * finish before killing the worker, or 0 for no maximum.
+   * @param newTimeout Maximum time, in milliseconds, to wait for a script to finish.
+   */
+  public PraatWorker setTimeout(long newTimeout) { timeout = newTimeout; return this; }
+
+  /**
+   * The number of scripts executed by the current process.
+   * @see #getRequestCount()
+   */
+  protected int requestCount = 0;
+  /**
+   * Getter for {@link #requestCount}: The number of scripts executed by the current process.
+   * @return The number of scripts executed by the current process.
+   */
+  public int getRequestCount() { return requestCount; }
+
+  // Methods:
+
+  /**
+   * Constructor.
+   * @param executable The Praat executable.
+   */
+  public PraatWorker(File executable) {
+    this.executable = executable;
+  } // end of constructor
+
+  /**
+   * Starts (or restarts) the Praat process.
+   * @return This worker.
+   * @throws IOException If the process cannot be started.
+   */
+  public synchronized PraatWorker start() throws IOException {
+    if (process != null) close();
+    workingDirectory = Files.createTempDirectory("PraatWorker-").toFile();
+    File driver = new File(workingDirectory, "driver.praat");
+    PrintWriter writer = new PrintWriter(driver, "UTF-8");
+    try {
+      writer.println("# LaBB-CAT Praat worker: runs each script named in request.txt");
+      writer.println("request$ = \"" + new File(workingDirectory, "request.txt").getPath() + "\"");
+      writer.println("while 1");
+      writer.println("  if fileReadable (request$)");
+      writer.println("    script$ = readFile$ (request$)");
+      writer.println("    deleteFile: request$");
+      writer.println("    script$ = replace$ (script$, newline$, \"\", 0)");
+      writer.println("    if script$ = \"quit\"");
+      writer.println("      exitScript ()");
+      writer.println("    endif");
+      writer.println("    if script$ <> \"\"");
+      writer.println("      runScript: script$");
+      writer.println("    endif");
+      // don't let objects accumulate between requests
+      writer.println("    select all");
+      writer.println("    if numberOfSelected () > 0");
+      writer.println("      Remove");
+      writer.println("    endif");
+      writer.println("    appendInfoLine: newline$, \"" + SENTINEL + "\"");
+      writer.println("  else");
+      writer.println("    sleep (0.01)");
+      writer.println("  endif");
+      writer.println("endwhile");
+    } finally {
+      writer.close();
+    }
+
+    Vector<String> command = new Vector<String>();
+    command.add(executable.getPath());
+    command.add("--no-pref-files");
+    if (System.getProperty("os.name").startsWith("Windows")) command.add("-a");
+    command.add("--run");
+    command.add(driver.getPath());
+    process = new ProcessBuilder(command).directory(workingDirectory)
+      .redirectErrorStream(true) // so stderr is ordered with the sentinel
+      .start();
+    process.getOutputStream().close(); // Praat doesn't read stdin
+    stdout = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+    requestCount = 0;
+    return this;
+  } // end of start()
+
+  /**
+   * Determines whether the Praat process is running.
+   * @return true if the process is running, false otherwise.
+   */
+  public boolean isAlive() {
+    return process != null && process.isAlive();
+  } // end of isAlive()
+
+  /**
+   * Runs the given script in the Praat process, and returns its output.
+   * @param script The script to execute.
+   * @return Output of the script.
+   * @throws Exception If the script fails, or the process fails.
+   */
+  public synchronized String execute(File script) throws Exception {
+    if (!isAlive()) throw new IOException("Praat worker is not running");
+
+    // make the request
+    File tempRequest = new File(workingDirectory, "request.tmp");
+    Files.write(tempRequest.toPath(), script.getPath().getBytes("UTF-8"));
+    Files.move(
+      tempRequest.toPath(), new File(workingDirectory, "request.txt").toPath(),
+      StandardCopyOption.ATOMIC_MOVE);
+
+    // kill the process if it takes too long
+    final Process p = process;
+    TimerTask kill = null;
+    if (timeout > 0) {
+      kill = new TimerTask() { public void run() { p.destroyForcibly(); } };
+      watchdog.schedule(kill, timeout);
+    }
+    StringBuilder output = new StringBuilder();
+    try {
+      String line = stdout.readLine();
+      while (line != null) {
+        if (line.endsWith(SENTINEL)) { // finished
+          output.append(line.substring(0, line.length() - SENTINEL.length()));
+          break;
+        }
+        output.append(line).append("\n");
+        line = stdout.readLine();
+      } // next line
+      if (line == null) { // the process ended
+        process.waitFor();
+        // the output includes the error message, as stderr is merged into stdout
+        String error = output.toString().trim();
+        if (error.length() == 0) error = "Praat worker exited unexpectedly";
+        throw new Exception(error);
+      }
+    } finally {
+      if (kill != null) kill.cancel();
+    }
+    requestCount++;
+
+    return output.toString()
+      // one Windows (only) Praat (after about v6.4.12) prints to stderr something like:
+      // ########## Running Praat script ...ProcessWithPraat-9058942534519729287.praat
+      // This is *not* output, so we ignore it:
+      .replaceAll("#+ Running Praat script.*?\\.praat\n?","");
+  } // end of execute()
+
+  /**
+   * Stops the Praat process and deletes the working directory.
+   */
+  public synchronized void close() {
+    if (process != null) {
+      if (process.isAlive()) {
+        try {
+          File tempRequest = new File(workingDirectory, "request.tmp");
+          Files.write(tempRequest.toPath(), "quit".getBytes("UTF-8"));
+          Files.move(
+            tempRequest.toPath(), new File(workingDirectory, "request.txt").toPath(),
+            StandardCopyOption.ATOMIC_MOVE);
+          process.waitFor(2, TimeUnit.SECONDS);
+        } catch(Exception exception) {
+        }
+        if (process.isAlive()) process.destroyForcibly();
+      }
+      try { stdout.close(); } catch(IOException exception) {}
+      process = null;
+    }
+    if (workingDirectory != null) {
+      IO.RecursivelyDelete(workingDirectory);
+      workingDirectory = null;
+    }
+  } // end of close()
+
+} // end of class PraatWorker
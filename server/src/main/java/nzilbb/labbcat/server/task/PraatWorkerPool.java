@@ -0,0 +1,203 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.task;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Vector;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A fixed-size pool of {@link PraatWorker}s, which are started when first needed, and
+ * restarted if they crash.
+ * <p> Usage:
+ * <pre>
+ * PraatWorkerPool pool = new PraatWorkerPool(praatExe, 4);
+ * if (pool.healthCheck(10000)) {
+ *   PraatWorker worker = pool.acquire();
+ *   try {
+ *     String output = worker.execute(script);
+ *   } finally {
+ *     pool.release(worker);
+ *   }
+ * }
+ * pool.close();
+ * </pre>
+ * @author Robert Fromont robert@fromont.net.nz
+ */
+public class PraatWorkerPool {
+
+  // Attributes:
+
+  private LinkedBlockingQueue<PraatWorker> idle = new LinkedBlockingQueue<PraatWorker>();
+  private Vector<PraatWorker> all = new Vector<PraatWorker>();
+  private boolean closed = false;
+
+  /**
+   * The Praat executable.
+   * @see #getExecutable()
+   */
+  protected File executable;
+  /**
+   * Getter for {@link #executable}: The Praat executable.
+   * @return The Praat executable.
+   */
+  public File getExecutable() { return executable; }
+
+  /**
+   * The number of workers in the pool.
+   * @see #getSize()
+   */
+  protected int size;
+  /**
+   * Getter for {@link #size}: The number of workers in the pool.
+   * @return The number of workers in the pool.
+   */
+  public int getSize() { return size; }
+
+  /**
+   * Maximum time, in milliseconds, that a worker can take to run a script, or 0 for no
+   * maximum. The default is 0.
+   * @see #getTimeout()
+   * @see #setTimeout(long)
+   */
+  protected long timeout = 0;
+  /**
+   * Getter for {@link #timeout}: Maximum time, in milliseconds, that a worker can take to
+   * run a script, or 0 for no maximum.
+   * @return Maximum time, in milliseconds, that a worker can take to run a script.
+   */
+  public long getTimeout() { return timeout; }
+  /**
+   * Setter for {@link #timeout}: Maximum time, in milliseconds, that a worker can take to
+   * run a script, or 0 for no maximum.
+   * @param newTimeout Maximum time, in milliseconds, that a worker can take to run a script.
+   */
+  public PraatWorkerPool setTimeout(long newTimeout) { timeout = newTimeout; return this; }
+
+  /**
+   * The number of times a worker has been restarted after crashing.
+   * @see #getRestartCount()
+   */
+  protected int restartCount = 0;
+  /**
+   * Getter for {@link #restartCount}: The number of times a worker has been restarted
+   * after crashing.
+   * @return The number of times a worker has been restarted after crashing.
+   */
+  public int getRestartCount() { return restartCount; }
+
+  // Methods:
+
+  /**
+   * Constructor.
+   * @param executable The Praat executable.
+   * @param size The number of workers in the pool.
+   */
+  public PraatWorkerPool(File executable, int size) {
+    this.executable = executable;
+    this.size = Math.max(1, size);
+    for (int w = 0; w < this.size; w++) {
+      PraatWorker worker = new PraatWorker(executable);
+      all.add(worker);
+      idle.add(worker);
+    } // next worker
+  } // end of constructor
+
+  /**
+   * Checks that a worker can be started, and that it runs an (empty) script
+   * successfully within the given time.
+   * <p> If this returns false, scripts should be executed some other way.
+   * @param maxMilliseconds The maximum time to wait for the worker to respond.
+   * @return true if the worker ran the script, false otherwise.
+   */
+  public boolean healthCheck(long maxMilliseconds) {
+    PraatWorker worker = null;
+    File ping = null;
+    try {
+      worker = acquire();
+      ping = File.createTempFile("PraatWorkerPool-", ".praat");
+      long originalTimeout = worker.getTimeout();
+      worker.setTimeout(maxMilliseconds);
+      try {
+        worker.execute(ping);
+      } finally {
+        worker.setTimeout(originalTimeout);
+      }
+      return true;
+    } catch(Exception exception) {
+      System.err.println("PraatWorkerPool: health check failed: " + exception.getMessage());
+      return false;
+    } finally {
+      if (ping != null) ping.delete();
+      if (worker != null) release(worker);
+    }
+  } // end of healthCheck()
+
+  /**
+   * Gets a worker that's not in use, waiting until one is available. The worker is
+   * (re)started if it's not running.
+   * <p> The worker must be returned with {@link #release(PraatWorker)} when it's no
+   * longer needed.
+   * @return A running worker.
+   * @throws IOException If the worker's process cannot be started.
+   * @throws InterruptedException If interrupted while waiting for a worker.
+   */
+  public PraatWorker acquire() throws IOException, InterruptedException {
+    if (closed) throw new IOException("Praat worker pool is closed");
+    PraatWorker worker = idle.take();
+    try {
+      if (!worker.isAlive()) {
+        if (worker.getWorkingDirectory() != null) { // it crashed
+          synchronized (this) { restartCount++; }
+        }
+        worker.start();
+      }
+      worker.setTimeout(timeout);
+      return worker;
+    } catch(IOException exception) {
+      idle.add(worker);
+      throw exception;
+    }
+  } // end of acquire()
+
+  /**
+   * Returns a worker to the pool.
+   * @param worker A worker obtained with {@link #acquire()}.
+   */
+  public void release(PraatWorker worker) {
+    if (closed) {
+      worker.close();
+    } else {
+      idle.add(worker);
+    }
+  } // end of release()
+
+  /**
+   * Stops all workers.
+   */
+  public void close() {
+    closed = true;
+    for (PraatWorker worker : all) worker.close();
+  } // end of close()
+
+} // end of class PraatWorkerPool
@@ -24,11 +24,13 @@ package nzilbb.labbcat.server.task;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
@@ -41,10 +43,12 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Vector;
@@ -748,7 +752,7 @@ public class ProcessWithPraat extends Task {
    * @see #getScriptIntensity()
    * @see #setScriptIntensity(String)
    */
-  protected String scriptIntensity = "To Intensity... intensityPitchFloor 0 yes";
+  protected String scriptIntensity = DEFAULT_SCRIPT_INTENSITY;
   /**
    * Getter for {@link #scriptIntensity}: Command to send to Praat for creating an
    * intensity track. 
@@ -860,7 +864,7 @@ public class ProcessWithPraat extends Task {
    * @see #getScriptSpectrum()
    * @see #setScriptSpectrum(String)
    */
-  protected String scriptSpectrum = "To Spectrum... yes";
+  protected String scriptSpectrum = DEFAULT_SCRIPT_SPECTRUM;
   /**
    * Getter for {@link #scriptSpectrum}: Command to send to Praat for creating a spectrum object.
    * @return Command to send to Praat for creating a spectrum object.
@@ -1581,8 +1585,158 @@ public class ProcessWithPraat extends Task {
     return this;
   }
 
+  /**
+   * Maximum number of records to process in one Praat script. Records for the same
+   * transcript and participant are split into batches no larger than this, so that they
+   * can be processed in parallel. If unset, the batch size is chosen so that all
+   * {@link #simultaneousThreadCount} threads have work to do.
+   * @see #getMaxBatchSize()
+   * @see #setMaxBatchSize(Integer)
+   */
+  protected Integer maxBatchSize;
+  /**
+   * Getter for {@link #maxBatchSize}: Maximum number of records to process in one Praat
+   * script. If unset, the batch size is chosen so that all threads have work to do.
+   * @return Maximum number of records to process in one Praat script.
+   */
+  public Integer getMaxBatchSize() { return maxBatchSize; }
+  /**
+   * Setter for {@link #maxBatchSize}: Maximum number of records to process in one Praat
+   * script.
+   * @param newMaxBatchSize Maximum number of records to process in one Praat script, or
+   * null to choose a batch size automatically.
+   * <p> If <var>newMaxBatchSize</var> &lt; 1 then 1 is used instead.
+   */
+  public ProcessWithPraat setMaxBatchSize(Integer newMaxBatchSize) {
+    if (newMaxBatchSize != null && newMaxBatchSize < 1) {
+      newMaxBatchSize = Integer.valueOf(1);
+    }
+    maxBatchSize = newMaxBatchSize;
+    return this;
+  }
+
+  /**
+   * Whether to run scripts in long-lived Praat processes, rather than starting Praat for
+   * each batch. The default is true. If the Praat processes can't be started, or don't
+   * respond, Praat is started for each batch anyway.
+   * @see #getUsePersistentWorkers()
+   * @see #setUsePersistentWorkers(boolean)
+   */
+  protected boolean usePersistentWorkers = true;
+  /**
+   * Getter for {@link #usePersistentWorkers}: Whether to run scripts in long-lived Praat
+   * processes, rather than starting Praat for each batch.
+   * @return Whether to run scripts in long-lived Praat processes.
+   */
+  public boolean getUsePersistentWorkers() { return usePersistentWorkers; }
+  /**
+   * Setter for {@link #usePersistentWorkers}: Whether to run scripts in long-lived Praat
+   * processes, rather than starting Praat for each batch.
+   * @param newUsePersistentWorkers Whether to run scripts in long-lived Praat processes.
+   */
+  public ProcessWithPraat setUsePersistentWorkers(boolean newUsePersistentWorkers) { usePersistentWorkers = newUsePersistentWorkers; return this; }
+
+  /**
+   * Whether to reuse measurements made previously with the same media, interval, and
+   * settings, instead of running Praat again. The default is true. Measurements are
+   * never cached if the custom script accesses files.
+   * @see #getUseMeasurementCache()
+   * @see #setUseMeasurementCache(boolean)
+   * @see PraatMeasurementCache
+   */
+  protected boolean useMeasurementCache = true;
+  /**
+   * Getter for {@link #useMeasurementCache}: Whether to reuse measurements made
+   * previously with the same media, interval, and settings.
+   * @return Whether to reuse previous measurements.
+   */
+  public boolean getUseMeasurementCache() { return useMeasurementCache; }
+  /**
+   * Setter for {@link #useMeasurementCache}: Whether to reuse measurements made
+   * previously with the same media, interval, and settings.
+   * @param newUseMeasurementCache Whether to reuse previous measurements.
+   */
+  public ProcessWithPraat setUseMeasurementCache(boolean newUseMeasurementCache) { useMeasurementCache = newUseMeasurementCache; return this; }
+
+  /**
+   * Whether to make measurements without Praat, when only measurements that
+   * {@link NativeMeasurements} supports are requested (maximum intensity and centre of
+   * gravity, with the default intensity and spectrum commands). The default is false,
+   * as native measurements have not yet been checked against Praat's output.
+   * @see #getUseNativeMeasurements()
+   * @see #setUseNativeMeasurements(boolean)
+   * @see #nativeMeasurementsSupported()
+   */
+  protected boolean useNativeMeasurements = false;
+  /**
+   * Getter for {@link #useNativeMeasurements}: Whether to make measurements without
+   * Praat, when only supported measurements are requested.
+   * @return Whether to make measurements without Praat where possible.
+   */
+  public boolean getUseNativeMeasurements() { return useNativeMeasurements; }
+  /**
+   * Setter for {@link #useNativeMeasurements}: Whether to make measurements without
+   * Praat, when only supported measurements are requested.
+   * @param newUseNativeMeasurements Whether to make measurements without Praat where possible.
+   */
+  public ProcessWithPraat setUseNativeMeasurements(boolean newUseNativeMeasurements) { useNativeMeasurements = newUseNativeMeasurements; return this; }
+
+  /** Pool of running Praat processes, if {@link #usePersistentWorkers} is true. */
+  private PraatWorkerPool workerPool;
+
   private Vector<FutureTask<File>> batchTasks = new Vector<FutureTask<File>>();
   private final int ALL_TASKS_FINISHED_PERCENTAGE = 95;
+  /** Default Praat command for creating an intensity track. */
+  private static final String DEFAULT_SCRIPT_INTENSITY
+  = "To Intensity... intensityPitchFloor 0 yes";
+  /** Default Praat command for creating a spectrum object. */
+  private static final String DEFAULT_SCRIPT_SPECTRUM = "To Spectrum... yes";
+  /**
+   * The smallest batch size used when {@link #maxBatchSize} is unset, so that small
+   * inputs aren't split into many tiny scripts.
+   */
+  private static final int MINIMUM_AUTOMATIC_BATCH_SIZE = 20;
+  /**
+   * The maximum number of transcript/participant spool files that are open at once while
+   * input records are grouped.
+   */
+  private static final int MAX_OPEN_SPOOL_FILES = 16;
+
+  /** Input records for one transcript/participant, spooled to a file. */
+  private static class RecordGroup {
+    String transcript;
+    String participant;
+    /** File the group's records are spooled to. */
+    File file;
+    /** The input row index of each record in the group. */
+    int[] rows = new int[16];
+    /** The number of records in the group. */
+    int size = 0;
+    RecordGroup(String transcript, String participant, File file) {
+      this.transcript = transcript;
+      this.participant = participant;
+      this.file = file;
+    }
+    /** Adds the record with the given input row index to the group. */
+    void add(int row) {
+      if (size == rows.length) rows = Arrays.copyOf(rows, size * 2);
+      rows[size++] = row;
+    }
+  } // end of class RecordGroup
+
+  /** A consecutive range of records from one {@link RecordGroup}. */
+  private static class RecordBatch {
+    RecordGroup group;
+    /** The index in the group of the first record. */
+    int first;
+    /** The number of records. */
+    int size;
+    RecordBatch(RecordGroup group, int first, int size) {
+      this.group = group;
+      this.first = first;
+      this.size = size;
+    }
+  } // end of class RecordBatch
 
   // Methods:
       
@@ -1756,82 +1910,179 @@ public class ProcessWithPraat extends Task {
           +" WHERE speaker.name = ?" // name, e.g. "BR178LK_MargaretSpencer"
           +" OR CONCAT('p_', speaker.speaker_number) = ?"); // Annotation ID, e.g. "p_30"
       
-      String currentFile = null;
-      String currentSpeaker = null;
-      Vector<CSVRecord> currentBatch = new Vector<CSVRecord>();
-      batchTasks = new Vector<FutureTask<File>>();
-      try {
-        while (records.hasNext()) {
-          if (bCancelling) break;
-          
-          CSVRecord record = records.next();
-          
-          // detect change in file or speaker
-          String transcript = record.get(transcriptIdColumn);
-          String speaker = record.get(participantNameColumn);
-          if (!transcript.equals(currentFile)
-              || !speaker.equals(currentSpeaker)) {
-            if (currentFile != null && currentSpeaker != null) {
-              batchTasks.add(
-                processBatch(
-                  currentFile, currentSpeaker, sqlSpeakerAttribute, currentBatch, format));
-            }
-            currentFile = transcript;
-            currentSpeaker = speaker;
-            currentBatch = new Vector<CSVRecord>();
-          }
-          currentBatch.add(record);
-        } // next line
-        if (!bCancelling) {
-          batchTasks.add(
-            processBatch(
-              currentFile, currentSpeaker, sqlSpeakerAttribute, currentBatch, format));
-        }
-      } finally {
-        sqlSpeakerAttribute.close();
-      }
-      iPercentComplete = ALL_TASKS_FINISHED_PERCENTAGE;
       if (simultaneousThreadCount == null) {
         setSimultaneousThreadCount(Runtime.getRuntime().availableProcessors());
       }
-      setStatus("Starting scripts ("+getSimultaneousThreadCount()+" at once)...");
-      ExecutorService executor = Executors.newFixedThreadPool(getSimultaneousThreadCount());
-      // submit all tasks
-      for (FutureTask<File> batchTask : batchTasks) {
-        if (bCancelling) break;
-        executor.submit(batchTask);
-      }
-        
-      BufferedWriter w = new BufferedWriter(new FileWriter(outputFile, true));
+
+      // group records by transcript/participant, even if they're not contiguous; records
+      // are spooled to a file per group, so that they're not all held in memory
+      LinkedHashMap<String,RecordGroup> groups = new LinkedHashMap<String,RecordGroup>();
+      // only the most recently used groups' files are kept open
+      LinkedHashMap<RecordGroup,CSVPrinter> spoolers
+        = new LinkedHashMap<RecordGroup,CSVPrinter>(16, 0.75f, true);
+      int recordCount = 0;
       try {
+        try {
+          while (records.hasNext()) {
+            if (bCancelling) break;
+            CSVRecord record = records.next();
+            String key = record.get(transcriptIdColumn)
+              + "\t" + record.get(participantNameColumn);
+            RecordGroup group = groups.get(key);
+            if (group == null) {
+              group = new RecordGroup(
+                record.get(transcriptIdColumn), record.get(participantNameColumn),
+                File.createTempFile("ProcessWithPraat-", ".csv"));
+              groups.put(key, group);
+            }
+            CSVPrinter spooler = spoolers.get(group);
+            if (spooler == null) {
+              if (spoolers.size() >= MAX_OPEN_SPOOL_FILES) { // close the least recently used
+                Iterator<CSVPrinter> leastRecentlyUsed = spoolers.values().iterator();
+                leastRecentlyUsed.next().close();
+                leastRecentlyUsed.remove();
+              }
+              spooler = new CSVPrinter(new FileWriter(group.file, true), format);
+              spoolers.put(group, spooler);
+            }
+            spooler.printRecord(record);
+            group.add(recordCount++);
+          } // next line
+        } finally {
+          for (CSVPrinter spooler : spoolers.values()) spooler.close();
+        }
+
+        // split large groups so that all threads have work to do
+        int batchSize = maxBatchSize != null? maxBatchSize
+          : Math.max(MINIMUM_AUTOMATIC_BATCH_SIZE,
+                     (recordCount + getSimultaneousThreadCount() - 1)
+                     / getSimultaneousThreadCount());
+        final Vector<RecordBatch> batches = new Vector<RecordBatch>();
+        for (RecordGroup group : groups.values()) {
+          Vector<Integer> positions = new Vector<Integer>();
+          for (int r = 0; r < group.size; r++) positions.add(r);
+          for (List<Integer> batch : SplitBatch(positions, batchSize)) {
+            batches.add(new RecordBatch(group, batch.get(0), batch.size()));
+          }
+        } // next group
+      
+        batchTasks = new Vector<FutureTask<File>>();
+        try {
+          for (RecordBatch batch : batches) {
+            if (bCancelling) break;
+            batchTasks.add(
+              processBatch(
+                batch.group.transcript, batch.group.participant, sqlSpeakerAttribute,
+                batch.group.file, batch.first, batch.size, format));
+          } // next batch
+        } finally {
+          sqlSpeakerAttribute.close();
+        }
+        iPercentComplete = ALL_TASKS_FINISHED_PERCENTAGE;
+        if (usePersistentWorkers && !bCancelling && !nativeMeasurementsSupported()) {
+          setStatus("Starting Praat...");
+          workerPool = new PraatWorkerPool(praatExecutable(), getSimultaneousThreadCount());
+          if (!workerPool.healthCheck(30000)) {
+            setStatus("Praat could not be kept running, so it will be started for each batch.");
+            workerPool.close();
+            workerPool = null;
+          }
+        }
+        setStatus("Starting " + batchTasks.size() + " batch" + (batchTasks.size()==1?"":"es")
+                  + " of " + recordCount + " records ("+getSimultaneousThreadCount()+" at once)...");
+        ExecutorService executor = Executors.newFixedThreadPool(getSimultaneousThreadCount());
+        // submit all tasks, largest first, so that no long batch is left until last
+        Vector<Integer> schedule = new Vector<Integer>();
+        for (int b = 0; b < batchTasks.size(); b++) schedule.add(b);
+        schedule.sort((a, b) -> batches.get(b).size - batches.get(a).size);
+        for (Integer b : schedule) {
+          if (bCancelling) break;
+          executor.submit(batchTasks.get(b));
+        }
 
-        for (FutureTask<File> batchTask : batchTasks) {
+        // reassemble results in the original record order: batches are collated one at a
+        // time into a single file, noting where each record's result is, and then results
+        // are copied from there into the output file in order
+        long[] resultOffsets = new long[recordCount];
+        int[] resultLengths = new int[recordCount];
+        Arrays.fill(resultOffsets, -1L);
+        boolean[] collated = new boolean[batchTasks.size()];
+        CSVFormat batchFormat = format.withIgnoreEmptyLines(true);
+        File resultsFile = File.createTempFile("ProcessWithPraat-", ".results");
+        RandomAccessFile results = new RandomAccessFile(resultsFile, "rw");
+        try {
+          for (int b = 0; b < batchTasks.size(); b++) {
+            if (bCancelling) break;
+            collated[b] = true;
+            File batchFile = null;
+            try {
+              batchFile = batchTasks.get(b).get(); // will wait until it's finished
+            } catch (CancellationException cancelled) {
+            }
+            if (batchFile == null) continue; // batch failed, so skip its records
+            setStatus("Collating measurements from " + batchFile.getName() + "...");
+            RecordBatch batch = batches.get(b);
+            ByteArrayOutputStream collatedBatch = new ByteArrayOutputStream();
+            long offset = results.getFilePointer();
+            CSVParser batchResults = new CSVParser(new FileReader(batchFile), batchFormat);
+            try {
+              int r = batch.first;
+              for (CSVRecord result : batchResults) {
+                if (r >= batch.first + batch.size) break;
+                Vector<String> values = new Vector<String>();
+                for (String value : result) values.add(value);
+                byte[] line = format.format(values.toArray()).getBytes("UTF-8");
+                int row = batch.group.rows[r++];
+                resultOffsets[row] = offset + collatedBatch.size();
+                resultLengths[row] = line.length;
+                collatedBatch.write(line);
+              } // next result
+            } finally {
+              batchResults.close();
+              batchFile.delete();
+            }
+            results.write(collatedBatch.toByteArray());
+          } // next batch
+        
+          BufferedWriter w = new BufferedWriter(new FileWriter(outputFile, true));
           try {
-            
-            File batchFile = batchTask.get(); // will wait until it's finished
-            if (batchFile != null) {
-              if (!bCancelling) { // only append the file if we're not cancelling
-                setStatus("Appending measurements from " + batchFile.getName() + "...");
-                BufferedReader reader =  new BufferedReader(new FileReader(batchFile));
-                String line = reader.readLine();
-                while (line != null) {
-                  if (line.length() > 0) { // skip blank lines
-                    w.newLine();
-                    w.write(line);
-                  }
-                  line = reader.readLine();
-                } // next line
+            for (int row = 0; row < recordCount; row++) {
+              if (bCancelling) break;
+              if (resultOffsets[row] < 0) continue; // batch failed
+              byte[] line = new byte[resultLengths[row]];
+              results.seek(resultOffsets[row]);
+              results.readFully(line);
+              w.write(format.getRecordSeparator());
+              w.write(new String(line, "UTF-8"));
+            } // next record
+          } finally {
+            w.close();
+          }
+        } finally {
+          results.close();
+          resultsFile.delete();
+          executor.shutdown();
+          // delete any batch files that weren't used (e.g. because we're cancelling)
+          for (int b = 0; b < batchTasks.size(); b++) {
+            if (!collated[b]) {
+              try {
+                File batchFile = batchTasks.get(b).get();
+                if (batchFile != null) batchFile.delete();
+              } catch (CancellationException cancelled) {
               }
-              // delete the file whether we're cancelling or not
-              batchFile.delete();
-            } // there was an output file
-            
-          } catch (CancellationException cancelled) {
+            }
+          } // next batch
+          if (workerPool != null) {
+            if (workerPool.getRestartCount() > 0) {
+              setStatus("Praat was restarted " + workerPool.getRestartCount() + " time"
+                        + (workerPool.getRestartCount()==1?"":"s") + " after errors.");
+            }
+            workerPool.close();
+            workerPool = null;
           }
-        } // next batch output file
+        }
       } finally {
-        w.close();
-        executor.shutdown();
+        for (RecordGroup group : groups.values()) group.file.delete();
       }
       if (bCancelling) {
         setStatus("Cancelled.");
@@ -1879,6 +2130,29 @@ public class ProcessWithPraat extends Task {
     dataFile.delete();
   }
 
+  /**
+   * Splits a list of records into batches of roughly equal size, none of which is larger
+   * than the given maximum.
+   * @param records The records to split.
+   * @param maxBatchSize The maximum number of records per batch.
+   * @return The batches, in order, which will be the same as <var>records</var> if it's
+   * not longer than <var>maxBatchSize</var>.
+   */
+  public static <T> List<List<T>> SplitBatch(List<T> records, int maxBatchSize) {
+    Vector<List<T>> batches = new Vector<List<T>>();
+    maxBatchSize = Math.max(1, maxBatchSize);
+    int batchCount = (records.size() + maxBatchSize - 1) / maxBatchSize;
+    if (batchCount <= 1) {
+      batches.add(records);
+    } else {
+      for (int b = 0; b < batchCount; b++) {
+        batches.add(
+          records.subList(b * records.size() / batchCount, (b+1) * records.size() / batchCount));
+      } // next batch
+    }
+    return batches;
+  } // end of SplitBatch()
+
   /**
    * Create a Callable that will process a list of lines, all from the same transcript
    * file.
@@ -1892,7 +2166,9 @@ public class ProcessWithPraat extends Task {
    * @param sqlSpeakerAttribute Prepared query that returns a 'label' field that
    * identifies a given participant attribute (parameter 1) given a participant name
    * (parameters 2 and 3). 
-   * @param batch Collection of source CSV records that make up this batch.
+   * @param records File of source CSV records that includes those in this batch.
+   * @param firstRecord The index in <var>records</var> of the first record in this batch.
+   * @param recordCount The number of records in this batch.
    * @param format Output CSV format.
    * @return A task that will produce a header-less CSV file with the results for this
    * batch, which the caller should delete when finished. 
@@ -1900,8 +2176,8 @@ public class ProcessWithPraat extends Task {
    */
   public FutureTask<File> processBatch(
     String transcript, String speaker, PreparedStatement sqlSpeakerAttribute,
-    Vector<CSVRecord> batch, CSVFormat format) throws Exception {
-    setStatus(transcript+" ("+speaker+") : "+batch.size()+" records");
+    File records, int firstRecord, int recordCount, CSVFormat format) throws Exception {
+    setStatus(transcript+" ("+speaker+") : "+recordCount+" records");
     
     // get media file
     final File baseDir = getStore().getFiles();
@@ -1950,6 +2226,7 @@ public class ProcessWithPraat extends Task {
       new Callable<File>() {
         public File call() {
           if (bCancelling) return null;
+          long started = System.currentTimeMillis();
           try {    
             File outputFile = File.createTempFile(transcript + "-", ".csv", baseDir);
             setStatus(
@@ -1957,6 +2234,20 @@ public class ProcessWithPraat extends Task {
             CSVPrinter out = new CSVPrinter(new FileWriter(outputFile), format);
             
             try {
+              // read this batch's records
+              Vector<CSVRecord> batch = new Vector<CSVRecord>();
+              CSVParser in = new CSVParser(new FileReader(records), format);
+              try {
+                Iterator<CSVRecord> iterator = in.iterator();
+                for (int r = 0; r < firstRecord + recordCount && iterator.hasNext(); r++) {
+                  CSVRecord record = iterator.next();
+                  if (r >= firstRecord) batch.add(record);
+                } // next record
+              } finally {
+                in.close();
+              }
+              
+
               // participant-differentiatable parameters...
               int formantCeiling = formantCeilingDefault;
               if (formantDifferentiationLayerId != null
@@ -2112,16 +2403,19 @@ public class ProcessWithPraat extends Task {
             } catch (Exception xx) {}
             return null;
           } finally {
-            setStatus("Finished with "+transcript+".");
+            setStatus("Finished with "+transcript+" ("+speaker+"): "+recordCount+" records in "
+                      +(System.currentTimeMillis() - started)+"ms.");
           }
         }
       });
   } // end of processBatch()
       
   /**
-   * Extracts the formants at the given times for the given WAV file
+   * Extracts the formants at the given times for the given WAV file, using previously
+   * cached measurements where possible, and running Praat only for the targets that
+   * have not been measured before.
    * @param wav
-   * @param vTargets
+   * @param targets
    * @param formantCeiling
    * @param pitchFloor
    * @param pitchCeiling
@@ -2133,8 +2427,138 @@ public class ProcessWithPraat extends Task {
    * @return An array lines, where each line contains a string for each extraction
    * datum. e.g. two strings - F1 and F2 
    * @throws Exception
+   * @see PraatMeasurementCache
    */
   protected Vector<Vector<String>> measurementsFromFile(
+    File wav, Vector<Vector<Double>> targets, Integer formantCeiling,
+    Integer pitchFloor, Integer pitchCeiling, Double voicingThreshold,
+    Integer intensityPitchFloor, Integer fastTrackLowestAnalysisFrequency,
+    Integer fastTrackHighestAnalysisFrequency,
+    HashMap<String,String> attributeValues,
+    File baseDir)
+    throws Exception {
+    if (wav == null || !useMeasurementCache || PraatMeasurementCache.GetMaxEntries() <= 0
+        || filesAccessed()) {
+      return measurementsUncached(
+        wav, targets, formantCeiling, pitchFloor, pitchCeiling, voicingThreshold,
+        intensityPitchFloor, fastTrackLowestAnalysisFrequency,
+        fastTrackHighestAnalysisFrequency, attributeValues, baseDir);
+    }
+    
+    // the script for a canonical interval captures all resolved settings
+    StringWriter settings = new StringWriter();
+    PrintWriter settingsWriter = new PrintWriter(settings);
+    Vector<Double> canonicalTarget = new Vector<Double>();
+    canonicalTarget.add(Double.valueOf(1.0));
+    canonicalTarget.add(Double.valueOf(2.0));
+    Vector<Vector<Double>> canonicalTargets = new Vector<Vector<Double>>();
+    canonicalTargets.add(canonicalTarget);
+    generateScript(
+      settingsWriter, new File("temp"), new File("sound.wav"), canonicalTargets,
+      formantCeiling, pitchFloor, pitchCeiling, voicingThreshold, intensityPitchFloor,
+      fastTrackLowestAnalysisFrequency, fastTrackHighestAnalysisFrequency, attributeValues);
+    settingsWriter.close();
+    // native and Praat measurements may differ slightly, so they're cached separately
+    String settingsHash = PraatMeasurementCache.SettingsHash(
+      settings.toString() + "\n" + customScriptHeaders
+      + "\n" + (nativeMeasurementsSupported()? "native" : "praat"));
+
+    // look up cached measurements
+    Vector<Vector<String>> results = new Vector<Vector<String>>();
+    Vector<String> keys = new Vector<String>();
+    Vector<Vector<Double>> uncachedTargets = new Vector<Vector<Double>>();
+    for (Vector<Double> tuple : targets) {
+      String key = PraatMeasurementCache.Key(
+        wav, tuple.elementAt(0), tuple.elementAt(1), settingsHash);
+      keys.add(key);
+      Vector<String> cached = PraatMeasurementCache.Lookup(key);
+      results.add(cached);
+      if (cached == null) uncachedTargets.add(tuple);
+    } // next target
+    if (uncachedTargets.size() < targets.size()) {
+      setStatus(wav.getName() + ": " + (targets.size() - uncachedTargets.size())
+                + " of " + targets.size() + " measurements from cache");
+    }
+    if (uncachedTargets.size() == 0) return results;
+
+    // measure the rest
+    Vector<Vector<String>> measured = measurementsUncached(
+      wav, uncachedTargets, formantCeiling, pitchFloor, pitchCeiling, voicingThreshold,
+      intensityPitchFloor, fastTrackLowestAnalysisFrequency,
+      fastTrackHighestAnalysisFrequency, attributeValues, baseDir);
+    // if the script failed, the error is only reported on the first result, so only
+    // cache results if there are no errors at all
+    boolean failed = measured.stream()
+      .anyMatch(result -> result.size() == 0 || result.lastElement().length() > 0);
+    Iterator<Vector<String>> newResults = measured.iterator();
+    for (int t = 0; t < targets.size(); t++) {
+      if (results.elementAt(t) == null) {
+        Vector<String> result = newResults.next();
+        results.set(t, result);
+        if (!failed && targets.elementAt(t).elementAt(0) >= 0.0) { // valid interval
+          PraatMeasurementCache.Add(keys.elementAt(t), result);
+        }
+      }
+    } // next target
+    return results;
+  } // end of measurementsFromFile()
+  
+  /**
+   * Makes the measurements at the given times for the given WAV file, with
+   * {@link #measurementsNatively(File,Vector,Integer)} if possible, or with
+   * {@link #measurementsFromPraat(File,Vector,Integer,Integer,Integer,Double,Integer,Integer,Integer,HashMap,File)}
+   * otherwise.
+   * @param wav
+   * @param targets
+   * @param formantCeiling
+   * @param pitchFloor
+   * @param pitchCeiling
+   * @param voicingThreshold
+   * @param intensityPitchFloor
+   * @param fastTrackLowestAnalysisFrequency
+   * @param fastTrackHighestAnalysisFrequency
+   * @param attributeValues Attribute names (keys) and values for this batch.
+   * @return An array lines, where each line contains a string for each extraction
+   * datum. e.g. two strings - F1 and F2 
+   * @throws Exception
+   */
+  protected Vector<Vector<String>> measurementsUncached(
+    File wav, Vector<Vector<Double>> targets, Integer formantCeiling,
+    Integer pitchFloor, Integer pitchCeiling, Double voicingThreshold,
+    Integer intensityPitchFloor, Integer fastTrackLowestAnalysisFrequency,
+    Integer fastTrackHighestAnalysisFrequency,
+    HashMap<String,String> attributeValues,
+    File baseDir)
+    throws Exception {
+    if (wav != null && nativeMeasurementsSupported()) {
+      Vector<Vector<String>> results = measurementsNatively(wav, targets, intensityPitchFloor);
+      if (results != null) return results;
+      // otherwise the format isn't supported, so fall back to Praat
+    }
+    return measurementsFromPraat(
+      wav, targets, formantCeiling, pitchFloor, pitchCeiling, voicingThreshold,
+      intensityPitchFloor, fastTrackLowestAnalysisFrequency,
+      fastTrackHighestAnalysisFrequency, attributeValues, baseDir);
+  } // end of measurementsUncached()
+  
+  /**
+   * Extracts the formants at the given times for the given WAV file by running a Praat
+   * script.
+   * @param wav
+   * @param vTargets
+   * @param formantCeiling
+   * @param pitchFloor
+   * @param pitchCeiling
+   * @param voicingThreshold
+   * @param intensityPitchFloor
+   * @param fastTrackLowestAnalysisFrequency
+   * @param fastTrackHighestAnalysisFrequency
+   * @param attributeValues Attribute names (keys) and values for this batch.
+   * @return An array lines, where each line contains a string for each extraction
+   * datum. e.g. two strings - F1 and F2 
+   * @throws Exception
+   */
+  protected Vector<Vector<String>> measurementsFromPraat(
     File wav, Vector<Vector<Double>> targets, Integer formantCeiling,
     Integer pitchFloor, Integer pitchCeiling, Double voicingThreshold,
     Integer intensityPitchFloor, Integer fastTrackLowestAnalysisFrequency,
@@ -2301,7 +2725,133 @@ public class ProcessWithPraat extends Task {
       } // next target
     }
     return results;
-  } // end of measurementsFromFile()
+  } // end of measurementsFromPraat()
+  
+  /**
+   * Determines whether the requested measurements can all be made by
+   * {@link NativeMeasurements}, without running Praat. This is the case when
+   * {@link #useNativeMeasurements} is true, and the only measurements are maximum
+   * intensity and/or centre of gravity, using the default Praat commands.
+   * @return true if measurements can be made without Praat, false otherwise.
+   */
+  public boolean nativeMeasurementsSupported() {
+    return useNativeMeasurements
+      && !extractF1 && !extractF2 && !extractF3
+      && !extractMinimumPitch && !extractMeanPitch && !extractMaximumPitch
+      && (customScript == null || customScript.trim().length() == 0)
+      && (extractMaximumIntensity || extractCOG1 || extractCOG2 || extractCOG23)
+      && (!extractMaximumIntensity
+          || scriptIntensity.trim().replaceAll("\\s+"," ").equals(DEFAULT_SCRIPT_INTENSITY))
+      && (!(extractCOG1 || extractCOG2 || extractCOG23)
+          || scriptSpectrum.trim().replaceAll("\\s+"," ").equals(DEFAULT_SCRIPT_SPECTRUM));
+  } // end of nativeMeasurementsSupported()
+  
+  /**
+   * Makes the measurements at the given times for the given WAV file, using
+   * {@link NativeMeasurements} instead of Praat.
+   * <p> Windows are calculated, and values formatted, the same way as in the generated
+   * Praat script, so that results are the same as those returned by
+   * {@link #measurementsFromPraat(File,Vector,Integer,Integer,Integer,Double,Integer,Integer,Integer,HashMap,File)}.
+   * Unlike the Praat script, a sample that's too short for intensity analysis results in
+   * an error for that sample only.
+   * @param wav WAV file to analyse.
+   * @param targets Start/end times of the targets.
+   * @param intensityPitchFloor Minimum pitch for intensity analysis.
+   * @return An array lines, where each line contains a string for each extraction datum,
+   * followed by an error, or null if the WAV file format is not supported.
+   */
+  protected Vector<Vector<String>> measurementsNatively(
+    File wav, Vector<Vector<Double>> targets, Integer intensityPitchFloor) {
+    NativeMeasurements audio = null;
+    try {
+      audio = new NativeMeasurements(wav);
+    } catch(IOException exception) {
+      return null;
+    }
+    try {
+      Vector<Vector<String>> results = new Vector<Vector<String>>();
+      for (Vector<Double> tuple : targets) {
+        Double startTime = tuple.elementAt(0);
+        Double endTime = tuple.elementAt(1);
+        Vector<String> result = new Vector<String>();
+        String error = "";
+        if (startTime >= 0.0) {
+          // the same (rounded) values as the script uses
+          double startWindow = Math.max(startTime - windowOffset, 0.0);
+          double endWindow = endTime + windowOffset;
+          double relativeStartTime = ScriptValue(startTime - startWindow);
+          double relativeEndTime = ScriptValue(endTime - startWindow);
+          try {
+            NativeMeasurements.Sound sample = audio.extractPart(
+              ScriptValue(startWindow), ScriptValue(endWindow));
+            if (extractMaximumIntensity) {
+              try {
+                result.add(PraatNumber(NativeMeasurements.MaximumIntensity(
+                                         sample, intensityPitchFloor,
+                                         relativeStartTime, relativeEndTime), -1));
+              } catch(IllegalArgumentException tooShort) {
+                result.add("");
+                error = tooShort.getMessage();
+              }
+            }
+            if (extractCOG1 || extractCOG2 || extractCOG23) {
+              double[] spectrum = NativeMeasurements.Spectrum(sample);
+              double nyquist = 0.5 / sample.dx;
+              if (extractCOG1) {
+                result.add(PraatNumber(
+                             NativeMeasurements.CentreOfGravity(spectrum, nyquist, 1.0), 0));
+              }
+              if (extractCOG2) {
+                result.add(PraatNumber(
+                             NativeMeasurements.CentreOfGravity(spectrum, nyquist, 2.0), 0));
+              }
+              if (extractCOG23) {
+                result.add(PraatNumber(
+                             NativeMeasurements.CentreOfGravity(spectrum, nyquist, 2.0/3.0), 0));
+              }
+            }
+          } catch(IOException exception) {
+            result.clear();
+            error = exception.getMessage();
+          }
+        }
+        // pad with blanks if there was an error
+        int measurementCount = (extractMaximumIntensity?1:0)
+          + (extractCOG1?1:0) + (extractCOG2?1:0) + (extractCOG23?1:0);
+        while (result.size() < measurementCount) result.add("");
+        result.add(error);
+        results.add(result);
+      } // next target
+      return results;
+    } finally {
+      try { audio.close(); } catch(IOException exception) {}
+    }
+  } // end of measurementsNatively()
+
+  /**
+   * Rounds the given time to the precision that's used in generated Praat scripts.
+   * @param time The time in seconds.
+   * @return The time rounded to the nearest millisecond, in the same way as
+   * <tt>{0,number,#.###}</tt> in a {@link MessageFormat}.
+   */
+  static double ScriptValue(double time) {
+    return new java.math.BigDecimal(time)
+      .setScale(3, java.math.RoundingMode.HALF_EVEN).doubleValue();
+  } // end of ScriptValue()
+
+  /**
+   * Formats a number the way a Praat script prints it.
+   * @param value The value.
+   * @param decimals The number of decimal places - e.g. 0 for <tt>''result:0''</tt> - or
+   * -1 for Praat's default format (15 significant digits), as for <tt>''result''</tt>.
+   * @return The formatted value, or "--undefined--" if the value is NaN.
+   */
+  static String PraatNumber(double value, int decimals) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) return "--undefined--";
+    if (decimals >= 0) return String.format(Locale.UK, "%." + decimals + "f", value);
+    return new java.math.BigDecimal(value).round(new java.math.MathContext(15))
+      .stripTrailingZeros().toPlainString();
+  } // end of PraatNumber()
   
   /**
    * Determines whether the user-customizable parts of the Praat script include operations
@@ -2642,14 +3192,12 @@ public class ProcessWithPraat extends Task {
   }
   
   /**
-   * Executes the given script in Praat.
-   * @param script The script to execute.
-   * @return Output of the script
+   * Determines the location of the Praat executable, based on the <tt>praatPath</tt>
+   * system attribute and the operating system.
+   * @return The Praat executable.
    * @throws Exception
    */
-  protected String executeScript(File script) throws Exception {
-    
-    // set up Praat execution
+  protected File praatExecutable() throws Exception {
     File praatPath = new File(getStore().getSystemAttribute("praatPath"));
     File executableFile = new File(praatPath, "praat");
     String osName = java.lang.System.getProperty("os.name");
@@ -2659,9 +3207,32 @@ public class ProcessWithPraat extends Task {
       executableFile = new File(
         new File(new File(new File(praatPath, "Praat.app"), "Contents"), "MacOS"), "Praat");
     }
-    Execution praat = new Execution().setExe(executableFile);
+    return executableFile;
+  } // end of praatExecutable()
+  
+  /**
+   * Executes the given script in Praat.
+   * <p> If there is a pool of running Praat processes, the script is run by one of
+   * them. Otherwise, Praat is started to run the script.
+   * @param script The script to execute.
+   * @return Output of the script
+   * @throws Exception
+   */
+  protected String executeScript(File script) throws Exception {
+    PraatWorkerPool pool = workerPool;
+    if (pool != null) {
+      PraatWorker worker = pool.acquire();
+      try {
+        return worker.execute(script);
+      } finally {
+        pool.release(worker);
+      }
+    }
+    
+    // set up Praat execution
+    Execution praat = new Execution().setExe(praatExecutable());
     praat.arg("--no-pref-files");
-    if (osName.startsWith("Windows")) praat.arg("-a");
+    if (java.lang.System.getProperty("os.name").startsWith("Windows")) praat.arg("-a");
     praat.arg("--run");
     praat.arg(script.getPath());
 
@@ -337,9 +337,11 @@ public class SerializeFragmentsTask extends Task {
         ? new FragmentSeries(utterances, store, layersToLoad)
         .setPrefixNames(getPrefixNames())
         .setTagTarget(getTagTarget())
+        .prefetching()
         : new ResultSeries(searchId, store, layersToLoad)
         .setPrefixNames(getPrefixNames())
-        .setTagTarget(getTagTarget());
+        .setTagTarget(getTagTarget())
+        .prefetching();
       setStatus("Converting "+fragmentSource.getExactSizeIfKnown()
                 + " fragment"+(fragmentSource.getExactSizeIfKnown()==1?"":"s")
                 + " to " + sMimeType + "...");
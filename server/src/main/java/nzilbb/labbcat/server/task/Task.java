@@ -24,6 +24,7 @@ package nzilbb.labbcat.server.task;
 import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
@@ -31,7 +32,9 @@ import java.util.ResourceBundle;
 import java.util.Set;
 import java.util.stream.Collectors;
 import nzilbb.labbcat.server.db.SqlGraphStore;
+import nzilbb.labbcat.server.db.SqlStatistics;
 import nzilbb.labbcat.server.db.StoreCache;
+import nzilbb.labbcat.server.metrics.MetricRegistry;
 import nzilbb.util.MonitorableTask;
 
 /**
@@ -49,6 +52,22 @@ public class Task extends Thread implements MonitorableTask {
     return tasks.toArray(new Task[0]);
   } // end of getTasks()  
 
+  static {
+    // the number of tasks in each state is sampled when metrics are requested
+    MetricRegistry.Sampled(
+      "labbcat_tasks", "Registered tasks, by class and state.", "gauge", () -> {
+        HashMap<String,Integer> counts = new HashMap<String,Integer>();
+        for (Task task : getTasksArray()) {
+          String state = task.lStartTime == 0? "queued"
+            : task.bRunning? "running" : "finished";
+          counts.merge(
+            MetricRegistry.Labels("class", task.getClass().getSimpleName(), "state", state),
+            1, Integer::sum);
+        } // next task
+        return counts;
+      });
+  }
+
   private static SimpleDateFormat logTimeFormat = new SimpleDateFormat("dd MMM HH:mm:ss");
 
   /** Determines how far through the task is. */
@@ -420,6 +439,8 @@ public class Task extends Thread implements MonitorableTask {
     bRunning = true;
     bCancelling = false;
     lStartTime = new java.util.Date().getTime();
+    // statements executed by the task are tagged with its class
+    SqlStatistics.SetTag(getClass().getSimpleName());
   } // end of runStart()
 
   /**
@@ -429,6 +450,12 @@ public class Task extends Thread implements MonitorableTask {
     // set final duration
     getDuration();
     bRunning = false;
+    if (lStartTime != 0) {
+      MetricRegistry.Histogram(
+        "labbcat_task_duration_seconds", "Time taken to run tasks.",
+        MetricRegistry.DURATION_BUCKETS, "class", getClass().getSimpleName())
+        .observe(lDuration / 1000.0);
+    }
 
     if (storeCache != null && store != null) {
       // return the store to the cache
@@ -8,7 +8,7 @@
     import = "javax.json.JsonWriter" 
 %><%@ include file="../base.jsp" %><%!
     File tempDir;
-%><%{
+%><%long started = requestStarted(); try {
     if (tempDir == null || !tempDir.exists()) {
       try {
         tempDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
@@ -49,4 +49,4 @@
     } else {
       response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
     }
-}%>
+} finally { requestFinished(request, response, started); }%>
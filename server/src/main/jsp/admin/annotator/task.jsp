@@ -12,7 +12,7 @@ HashMap<String,HashMap<String,AnnotatorDescriptor>> activeAnnotators
 = new HashMap<String,HashMap<String,AnnotatorDescriptor>>();
 // cached descriptors are removed after a while so they don't linger in memory
 Timer annotatorDeactivator = new Timer("admin/annotator/task");
-%><%@ include file="../../base.jsp" %><%{
+%><%@ include file="../../base.jsp" %><%long started = requestStarted(); try {
     if ("GET".equals(request.getMethod())
         || "POST".equals(request.getMethod())
         || "PUT".equals(request.getMethod())
@@ -35,4 +35,4 @@ Timer annotatorDeactivator = new Timer("admin/annotator/task");
     } else {
       response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
     }
-}%>
+} finally { requestFinished(request, response, started); }%>
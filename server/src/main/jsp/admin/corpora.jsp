@@ -1,6 +1,6 @@
 <%@ page info="Corpora" isErrorPage="true"
     import = "nzilbb.labbcat.server.api.admin.Corpora" 
-%><%@ include file="../base.jsp" %><%{
+%><%@ include file="../base.jsp" %><%long started = requestStarted(); try {
     Corpora handler = new Corpora();
     initializeHandler(handler, request);
     if ("GET".equals(request.getMethod())) {
@@ -39,4 +39,4 @@
     } else {
       response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
     }
-}%>
+} finally { requestFinished(request, response, started); }%>
@@ -0,0 +1,16 @@
+<%@ page info="Metrics" isErrorPage="true"
+    import = "nzilbb.labbcat.server.api.admin.Metrics" 
+%><%@ include file="../base.jsp" %><%long started = requestStarted(); try {
+    Metrics handler = new Metrics();
+    initializeHandler(handler, request);
+    if ("GET".equals(request.getMethod())) {
+      handler.get(
+        response.getOutputStream(),
+        (contentType)->response.setContentType(contentType),
+        (status)->response.setStatus(status));
+    } else if ("OPTIONS".equals(request.getMethod())) {
+      response.addHeader("Allow", "OPTIONS, GET");
+    } else {
+      response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+    }
+} finally { requestFinished(request, response, started); }%>
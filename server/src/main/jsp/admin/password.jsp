@@ -4,7 +4,7 @@
     import = "javax.json.Json" 
     import = "javax.json.JsonObject" 
     import = "javax.json.JsonWriter" 
-%><%@ include file="../base.jsp" %><%{
+%><%@ include file="../base.jsp" %><%long started = requestStarted(); try {
     if ("PUT".equals(request.getMethod())) { // PUT only
       Password handler = new Password();
       initializeHandler(handler, request);
@@ -20,4 +20,4 @@
     } else {
       response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
     }
-}%>
+} finally { requestFinished(request, response, started); }%>
@@ -0,0 +1,27 @@
+<%@ page info="SQL Statistics" isErrorPage="true"
+    contentType = "application/json;charset=UTF-8"
+    import = "nzilbb.labbcat.server.api.admin.Sql" 
+    import = "javax.json.Json" 
+    import = "javax.json.JsonObject" 
+    import = "javax.json.JsonWriter" 
+%><%@ include file="../base.jsp" %><%long started = requestStarted(); try {
+    Sql handler = new Sql();
+    initializeHandler(handler, request);
+    if ("GET".equals(request.getMethod())) {
+      handler.get(
+        Json.createGenerator(out), (status)->response.setStatus(status));
+    } else if ("PUT".equals(request.getMethod()) || "DELETE".equals(request.getMethod())) {
+      JsonObject json = "PUT".equals(request.getMethod())?
+        handler.put(request.getInputStream(), (status)->response.setStatus(status))
+        : handler.delete((status)->response.setStatus(status));
+      if (json != null) {
+        JsonWriter writer = Json.createWriter(response.getWriter());
+        writer.writeObject(json);   
+        writer.close();
+      }
+    } else if ("OPTIONS".equals(request.getMethod())) {
+      response.addHeader("Allow", "OPTIONS, GET, PUT, DELETE");
+    } else {
+      response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+    }
+} finally { requestFinished(request, response, started); }%>
@@ -6,7 +6,8 @@
     import = "javax.json.Json" 
     import = "javax.json.JsonObject" 
     import = "javax.json.JsonWriter" 
-%><%@ include file="../base.jsp" %><%{
+    import = "javax.json.stream.JsonGenerator" 
+%><%@ include file="../base.jsp" %><%long started = requestStarted(); try {
     RequestParameters parameters = new RequestParameters();
     if (!request.getPathInfo().toLowerCase().endsWith("savetranscript")
         && !request.getPathInfo().toLowerCase().endsWith("newlayer")
@@ -28,9 +29,11 @@
         || "PUT".equals(request.getMethod())) { // GET/POST/PUT
       Store handler = new Store();
       initializeHandler(handler, request);
+      // large results are streamed to jsonOut, others are returned
+      JsonGenerator jsonOut = Json.createGenerator(response.getWriter());
       JsonObject json = handler.get(
         request.getRequestURI(), request.getMethod(), request.getPathInfo(),
-        request.getQueryString(), parameters, request.getInputStream(),
+        request.getQueryString(), parameters, request.getInputStream(), jsonOut,
         (status)->response.setStatus(status),
         (redirectUrl)->{
           try {
@@ -49,4 +52,4 @@
     } else {
       response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
     }
-}%>
+} finally { requestFinished(request, response, started); }%>
@@ -1,6 +1,6 @@
 <%@ page info="Corpus access agreement" isErrorPage="true"
     import = "nzilbb.labbcat.server.api.Agreement" 
-%><%@ include file="base.jsp" %><%{
+%><%@ include file="base.jsp" %><%long started = requestStarted(); try {
     Agreement handler = new Agreement();
     initializeHandler(handler, request);
     if ("GET".equals(request.getMethod())) {
@@ -53,4 +53,4 @@
     } else {
       response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
     }
-}%>
+} finally { requestFinished(request, response, started); }%>
@@ -3,7 +3,7 @@
     import = "javax.json.Json" 
     import = "javax.json.JsonObject" 
     import = "javax.json.JsonWriter" 
-%><%@ include file="../base.jsp" %><%{
+%><%@ include file="../base.jsp" %><%long started = requestStarted(); try {
     if ("GET".equals(request.getMethod()) || "POST".equals(request.getMethod())) { // GET/POST only
       Data handler = new Data();
       initializeHandler(handler, request);
@@ -21,4 +21,4 @@
     } else {
       response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
     }
-}%>
+} finally { requestFinished(request, response, started); }%>
@@ -10,7 +10,7 @@
 HashMap<String,AnnotatorDescriptor> activeAnnotators = new HashMap<String,AnnotatorDescriptor>();
 // cached descriptors are removed after a while so they don't linger in memory
 Timer annotatorDeactivator = new Timer("annotator/ext");
-%><%@ include file="../base.jsp" %><%{
+%><%@ include file="../base.jsp" %><%long started = requestStarted(); try {
     if ("GET".equals(request.getMethod())
         || "POST".equals(request.getMethod())
         || "PUT".equals(request.getMethod())
@@ -33,4 +33,4 @@ Timer annotatorDeactivator = new Timer("annotator/ext");
     } else {
       response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
     }
-}%>
+} finally { requestFinished(request, response, started); }%>
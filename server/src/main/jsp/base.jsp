@@ -29,6 +29,8 @@
     import = "nzilbb.labbcat.server.api.APIRequestContext"
     import = "nzilbb.labbcat.server.api.APIRequestHandler"
     import = "nzilbb.labbcat.server.api.RequestParameters"
+    import = "nzilbb.labbcat.server.metrics.MetricRegistry"
+    import = "nzilbb.labbcat.server.task.MediaTranscodingQueue"
     import = "nzilbb.sql.ConnectionFactory"
     import = "nzilbb.sql.mysql.MySQLConnectionFactory"
     import = "nzilbb.util.IO"
@@ -94,8 +96,40 @@
         connectionURL = xpath.evaluate("//Realm/@connectionURL", doc);
         connectionName = xpath.evaluate("//Realm/@connectionName", doc);
         connectionPassword = xpath.evaluate("//Realm/@connectionPassword", doc);
-        connectionFactory = new MySQLConnectionFactory(
-          connectionURL, connectionName, connectionPassword);
+        // record statistics about statements executed
+        connectionFactory = new InstrumentedConnectionFactory(
+          new MySQLConnectionFactory(connectionURL, connectionName, connectionPassword));
+        String slowStatementMs = getServletContext().getInitParameter("slowStatementMs");
+        if (slowStatementMs != null && slowStatementMs.length() > 0) {
+          SqlStatistics.SetSlowThresholdMs(Long.parseLong(slowStatementMs));
+        }
+        if ("true".equalsIgnoreCase(
+              getServletContext().getInitParameter("explainSlowStatements"))) {
+          SqlStatistics.SetExplainSlowStatements(true);
+        }
+        // bind parameters may contain participant data, so are only logged for debugging
+        if ("true".equalsIgnoreCase(
+              getServletContext().getInitParameter("logSlowStatementParameters"))) {
+          SqlStatistics.SetLogSlowStatementParameters(true);
+        }
+        // optionally cache snapshots of frequently loaded transcripts
+        try {
+          GraphSnapshotCache.Configure(
+            getServletContext().getInitParameter("graphCacheMemoryMB"),
+            getServletContext().getInitParameter("graphCacheDiskMB"),
+            new File((File)getServletContext().getAttribute("javax.servlet.context.tempdir"),
+                     "graph-snapshots"));
+        } catch(NumberFormatException exception) {
+          log("Invalid graph cache size: " + exception);
+        }
+
+        // media conversions are queued, and resumed if they were interrupted by a restart
+        // (the queue's state file includes server paths, so it's kept out of /files)
+        File mediaQueueState = new File(
+          getServletContext().getRealPath("/WEB-INF"), "media-transcoding-queue.csv");
+        SqlGraphStore.SetMediaConversionQueue(
+          MediaTranscodingQueue.ForStores(mediaQueueState));
+        MediaTranscodingQueue.Resume(mediaQueueState);
 
         // ensure it's registered with the driver manager
         Class.forName(driverName).getConstructor().newInstance();
@@ -107,6 +141,34 @@
     } 
   }
 
+  /**
+   * Records that a request has started, in {@link MetricRegistry}.
+   * <p> JSP pages can't override <tt>service</tt>, so each page calls this before handling
+   * the request, and {@link #requestFinished(HttpServletRequest,HttpServletResponse,long)}
+   * in a <tt>finally</tt> block afterward.
+   * @return The time the request started, in nanoseconds.
+   */
+  long requestStarted() {
+    MetricRegistry.RequestsInFlight().increment();
+    return System.nanoTime();
+  } // end of requestStarted()
+
+  /**
+   * Records the duration, status, and declared size of a handled request in
+   * {@link MetricRegistry}.
+   * @param request The request.
+   * @param response The response.
+   * @param started The value returned by {@link #requestStarted()}.
+   */
+  void requestFinished(
+    HttpServletRequest request, HttpServletResponse response, long started) {
+    MetricRegistry.RequestsInFlight().decrement();
+    MetricRegistry.Request(
+      request.getServletPath(), request.getMethod(), response.getStatus(),
+      System.nanoTime() - started,
+      MetricRegistry.ContentLength(response.getHeader("Content-Length")));
+  } // end of requestFinished()
+
   /**
    * Initialize the given request handler.
    * @param handler The API request handler.
@@ -114,6 +176,13 @@
    * @return The handler.
    */
   APIRequestHandler initializeHandler(APIRequestHandler handler, HttpServletRequest request) {
+    // flush cached system attributes if another component has updated them
+    Object systemAttributesDirty = getServletContext().getAttribute("system_attribute dirty");
+    if (systemAttributesDirty instanceof java.util.Date) {
+      SystemAttributeCache.InvalidateIfOlderThan((java.util.Date)systemAttributesDirty);
+    }
+    // statements executed by this request are tagged with its endpoint
+    SqlStatistics.SetTag(request.getServletPath());
     handler.init(new APIRequestContext() {
         
         /**
@@ -199,6 +268,7 @@
           // servlet context attribute
           // use a timestamp so servlets can know if the notification is old
           getServletContext().setAttribute(name+" dirty", new java.util.Date());
+          if ("system_attribute".equals(name)) SystemAttributeCache.Invalidate();
         }
   
         /**
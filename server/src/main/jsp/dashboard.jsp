@@ -2,7 +2,7 @@
     contentType = "application/json;charset=UTF-8"
     import = "nzilbb.labbcat.server.api.Dashboard" 
     import = "javax.json.Json" 
-%><%@ include file="base.jsp" %><%{
+%><%@ include file="base.jsp" %><%long started = requestStarted(); try {
     if ("GET".equals(request.getMethod())) { // GET only
       Dashboard handler = new Dashboard();
       initializeHandler(handler, request);
@@ -22,4 +22,4 @@
     } else {
       response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
     }
-}%>
+} finally { requestFinished(request, response, started); }%>
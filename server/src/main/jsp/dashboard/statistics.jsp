@@ -2,7 +2,7 @@
     contentType = "application/json;charset=UTF-8"
     import = "nzilbb.labbcat.server.api.dashboard.Statistics" 
     import = "javax.json.Json" 
-%><%@ include file="../base.jsp" %><%{
+%><%@ include file="../base.jsp" %><%long started = requestStarted(); try {
     if ("GET".equals(request.getMethod())) { // GET only
       Statistics handler = new Statistics();
       initializeHandler(handler, request);
@@ -22,4 +22,4 @@
     } else {
       response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
     }
-}%>
+} finally { requestFinished(request, response, started); }%>
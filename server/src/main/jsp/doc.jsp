@@ -1,6 +1,6 @@
 <%@ page info="Corpus access agreement" isErrorPage="true"
     import = "nzilbb.labbcat.server.api.Doc" 
-%><%@ include file="base.jsp" %><%{
+%><%@ include file="base.jsp" %><%long started = requestStarted(); try {
     Doc handler = new Doc();
     initializeHandler(handler, request);
     if ("GET".equals(request.getMethod())) {
@@ -64,4 +64,4 @@
     } else {
       response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
     }
-}%>
+} finally { requestFinished(request, response, started); }%>
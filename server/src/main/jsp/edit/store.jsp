@@ -6,14 +6,16 @@
     import = "javax.json.Json" 
     import = "javax.json.JsonObject" 
     import = "javax.json.JsonWriter" 
-%><%@ include file="../base.jsp" %><%{
+    import = "javax.json.stream.JsonGenerator" 
+%><%@ include file="../base.jsp" %><%long started = requestStarted(); try {
     try {
       RequestParameters parameters = new RequestParameters();
       if ("GET".equals(request.getMethod())) { // no request body, parse URL parameters
         parameters = parseParameters(request);
       } else if ("POST".equals(request.getMethod()) // request body will be parameters
                  // unless it's a request that has a JSON-encoded body
-                 && !request.getPathInfo().toLowerCase().endsWith("savetranscript")) {
+                 && !request.getPathInfo().toLowerCase().endsWith("savetranscript")
+                 && !request.getPathInfo().toLowerCase().endsWith("editannotations")) {
         // load multipart request parameters - the implementation depends on the servlet container:
         // Server info something like "Apache Tomcat/9.0.58 (Ubuntu)" or "Apache Tomcat/10.1.36"
         boolean tomcat9 = application.getServerInfo().matches(".*Tomcat/9.*");
@@ -27,9 +29,11 @@
       if ("GET".equals(request.getMethod()) || "POST".equals(request.getMethod())) { // GET/POST
         Store handler = new Store();
         initializeHandler(handler, request);
+        // large results are streamed to jsonOut, others are returned
+        JsonGenerator jsonOut = Json.createGenerator(response.getWriter());
         JsonObject json = handler.get(
           request.getRequestURI(), request.getMethod(), request.getPathInfo(),
-          request.getQueryString(), parameters, request.getInputStream(),
+          request.getQueryString(), parameters, request.getInputStream(), jsonOut,
           (status)->response.setStatus(status),
           (redirectUrl)->{
             try {
@@ -51,4 +55,4 @@
     } catch (Throwable t) {
       jsonError(t, response);
     }
-}%>
+} finally { requestFinished(request, response, started); }%>
@@ -1,7 +1,7 @@
 <%@ page info="Keep session/task alive" isErrorPage="true"
     contentType = "text/plain;charset=UTF-8"
     import = "nzilbb.labbcat.server.api.KeepAlive" 
-%><%@ include file="base.jsp" %><%{
+%><%@ include file="base.jsp" %><%long started = requestStarted(); try {
     if ("GET".equals(request.getMethod())) {
       KeepAlive handler = new KeepAlive();
       initializeHandler(handler, request);
@@ -13,4 +13,4 @@
     } else {
       response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
     }
-}%>
+} finally { requestFinished(request, response, started); }%>
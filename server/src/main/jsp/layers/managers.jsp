@@ -1,6 +1,6 @@
 <%@ page info="Layer Managers" isErrorPage="true"
     import = "nzilbb.labbcat.server.api.layers.Managers" 
-%><%@ include file="../base.jsp" %><%{
+%><%@ include file="../base.jsp" %><%long started = requestStarted(); try {
     Managers handler = new Managers();
     initializeHandler(handler, request);
     if ("GET".equals(request.getMethod())) {
@@ -20,4 +20,4 @@
     } else {
       response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
     }
-}%>
+} finally { requestFinished(request, response, started); }%>
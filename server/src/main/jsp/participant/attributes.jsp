@@ -2,7 +2,7 @@
     contentType = "text/csv;charset=UTF-8"
     import = "nzilbb.labbcat.server.api.participant.Attributes" 
     import = "javax.json.Json" 
-%><%@ include file="../base.jsp" %><%{
+%><%@ include file="../base.jsp" %><%long started = requestStarted(); try {
     if ("GET".equals(request.getMethod()) || "POST".equals(request.getMethod())) { // GET/POST only
       Attributes handler = new Attributes();
       initializeHandler(handler, request);
@@ -15,4 +15,4 @@
     } else {
       response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
     }
-}%>
+} finally { requestFinished(request, response, started); }%>
@@ -4,7 +4,7 @@
     import = "javax.json.Json" 
     import = "javax.json.JsonObject" 
     import = "javax.json.JsonWriter"
-%><%@ include file="../base.jsp" %><%{
+%><%@ include file="../base.jsp" %><%long started = requestStarted(); try {
       if ("POST".equals(request.getMethod())) { // POST uploads files
         // load multipart request parameters - the implementation depends on the servlet container:
         // Server info something like "Apache Tomcat/9.0.58 (Ubuntu)" or "Apache Tomcat/10.1.36"
@@ -30,4 +30,4 @@
       } else {
         response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
       }
-}%>
+} finally { requestFinished(request, response, started); }%>
@@ -4,13 +4,16 @@
     import = "javax.json.Json" 
     import = "javax.json.JsonObject" 
     import = "javax.json.JsonWriter" 
-%><%@ include file="base.jsp" %><%{
+    import = "javax.json.stream.JsonGenerator" 
+%><%@ include file="base.jsp" %><%long started = requestStarted(); try {
     if ("GET".equals(request.getMethod())) { // GET only
       Store handler = new Store();
       initializeHandler(handler, request);
+      // large results are streamed to jsonOut, others are returned
+      JsonGenerator jsonOut = Json.createGenerator(response.getWriter());
       JsonObject json = handler.get(
         request.getRequestURI(), request.getMethod(), request.getPathInfo(),
-        request.getQueryString(), parseParameters(request), request.getInputStream(),
+        request.getQueryString(), parseParameters(request), request.getInputStream(), jsonOut,
         (status)->response.setStatus(status),
         (redirectUrl)->{
           try {
@@ -29,4 +32,4 @@
     } else {
       response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
     }
-}%>
+} finally { requestFinished(request, response, started); }%>
@@ -1,6 +1,6 @@
 <%@ page info="System Attributes" isErrorPage="true"
     import = "nzilbb.labbcat.server.api.SystemAttributes" 
-%><%@ include file="base.jsp" %><%{
+%><%@ include file="base.jsp" %><%long started = requestStarted(); try {
     SystemAttributes handler = new SystemAttributes();
     initializeHandler(handler, request);
     if ("GET".equals(request.getMethod())) {
@@ -20,4 +20,4 @@
     } else {
       response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
     }
-}%>
+} finally { requestFinished(request, response, started); }%>
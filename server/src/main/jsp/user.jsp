@@ -2,7 +2,7 @@
     contentType = "application/json;charset=UTF-8"
     import = "nzilbb.labbcat.server.api.User" 
     import = "javax.json.Json" 
-%><%@ include file="base.jsp" %><%{
+%><%@ include file="base.jsp" %><%long started = requestStarted(); try {
     if ("GET".equals(request.getMethod())) { // GET only
       User handler = new User();
       initializeHandler(handler, request);
@@ -12,4 +12,4 @@
     } else {
       response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
     }
-}%>
+} finally { requestFinished(request, response, started); }%>
@@ -33,6 +33,7 @@ import java.util.Set;
 import java.util.stream.Collectors;
 import nzilbb.ag.Anchor;
 import nzilbb.ag.Annotation;
+import nzilbb.ag.Graph;
 import nzilbb.ag.Layer;
 import nzilbb.ag.MediaFile;
 import nzilbb.ag.MediaTrackDefinition;
@@ -66,7 +67,7 @@ public class TestStore
    }
 
   /** Test basic store info and query operations. */
-  @Test public void store() throws Exception { // TODO test getTranscript, getFragment
+  @Test public void store() throws Exception { // TODO test getFragment
       
       String id = l.getId();
       assertEquals("getId: ID matches the url",
@@ -195,6 +196,12 @@ public class TestStore
           1, annotation.getOrdinal());
       }
 
+      Graph transcript = l.getTranscript(graphId, new String[] { "word" });
+      assertEquals("getTranscript: Correct transcript",
+                   graphId, transcript.getId());
+      assertTrue("getTranscript: Includes words",
+                 transcript.all("word").length > 0);
+
       String url = l.getMedia(graphId, "", "audio/wav");
       assertNotNull("getMedia: There is some media",
                     url);
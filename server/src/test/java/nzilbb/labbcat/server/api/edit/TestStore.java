@@ -31,6 +31,10 @@ import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
 import nzilbb.ag.Anchor;
 import nzilbb.ag.Annotation;
 import nzilbb.ag.Constants;
@@ -45,6 +49,7 @@ import nzilbb.labbcat.LabbcatAdmin;
 import nzilbb.labbcat.model.*;
 import nzilbb.labbcat.ResponseException;
 import nzilbb.labbcat.http.HttpRequestGet;
+import nzilbb.labbcat.http.HttpRequestPostMultipart;
 import nzilbb.labbcat.model.Match;
 
 /**
@@ -324,6 +329,345 @@ public class TestStore
     }
   }
   
+  /** Ensure bulk tagging produces the same tags as tagging annotations one at a time */
+  @Test public void tagMatchingAnnotationsBulkMatchesOneAtATime() throws Exception {
+    String[] ids = l.getMatchingTranscriptIds("/AP511.+\\.eaf/.test(id)", 1, 0);
+    assertTrue("Some graph IDs are returned",
+               ids.length > 0);
+    String graphId = ids[0];
+    // tag parents (word), peers (orthography) and multiple peers per parent (segment)
+    String[] expressions = {
+      "graph.id == '"+graphId+"' && layer.id == 'word' && /^[aeiou].*/.test(label)",
+      "graph.id == '"+graphId+"' && layer.id == 'orthography' && /^[aeiou].*/.test(label)",
+      "graph.id == '"+graphId+"' && layer.id == 'segment' && /^[aeiou]$/.test(label)"
+    };
+    for (String expression : expressions) {
+      if (l.countMatchingAnnotations(expression) == 0) continue;
+      for (boolean peers : new boolean[] { true, false }) {
+        Layer bulkLayer = new Layer("TestStore-bulk", "Bulk tags")
+          .setParentId("word")
+          .setAlignment(Constants.ALIGNMENT_NONE)
+          .setPeers(peers)
+          .setPeersOverlap(true)
+          .setParentIncludes(true)
+          .setSaturated(true)
+          .setType(Constants.TYPE_STRING);
+        Layer oneAtATimeLayer = new Layer("TestStore-one-at-a-time", "One-at-a-time tags")
+          .setParentId("word")
+          .setAlignment(Constants.ALIGNMENT_NONE)
+          .setPeers(peers)
+          .setPeersOverlap(true)
+          .setParentIncludes(true)
+          .setSaturated(true)
+          .setType(Constants.TYPE_STRING);
+        l.newLayer(bulkLayer);
+        try {
+          l.newLayer(oneAtATimeLayer);
+          try {
+            // tag twice, so tagging with existing tags is also compared
+            for (int pass = 1; pass <= 2; pass++) {
+              int bulkCount = tagMatchingAnnotations(
+                expression, bulkLayer.getId(), "tag-" + pass, false);
+              int oneAtATimeCount = tagMatchingAnnotations(
+                expression, oneAtATimeLayer.getId(), "tag-" + pass, true);
+              assertEquals("Same count - " + expression + " peers: " + peers + " pass " + pass,
+                           oneAtATimeCount, bulkCount);
+              assertEquals("Same tags - " + expression + " peers: " + peers + " pass " + pass,
+                           describeTags(oneAtATimeLayer.getId()),
+                           describeTags(bulkLayer.getId()));
+            } // next pass
+          } finally {
+            l.deleteLayer(oneAtATimeLayer.getId());
+          }
+        } finally {
+          l.deleteLayer(bulkLayer.getId());
+        }
+      } // next peers setting
+    } // next expression
+  }
+
+  /** Ensure dictionary tagging produces the same tags as tagging each entry separately. */
+  @Test public void tagFromDictionaryMatchesTagMatchingAnnotations() throws Exception {
+    String[][] dictionary = {
+      { "the", "D@", "Di" },
+      { "and", "{nd" },
+      { "a", "@", "eI" }
+    };
+    for (boolean peers : new boolean[] { true, false }) {
+      Layer dictionaryLayer = new Layer("TestStore-dictionary", "Dictionary tags")
+        .setParentId("word")
+        .setAlignment(Constants.ALIGNMENT_NONE)
+        .setPeers(peers)
+        .setPeersOverlap(true)
+        .setParentIncludes(true)
+        .setSaturated(true)
+        .setType(Constants.TYPE_STRING);
+      Layer matchingLayer = new Layer("TestStore-matching", "Matching tags")
+        .setParentId("word")
+        .setAlignment(Constants.ALIGNMENT_NONE)
+        .setPeers(peers)
+        .setPeersOverlap(true)
+        .setParentIncludes(true)
+        .setSaturated(true)
+        .setType(Constants.TYPE_STRING);
+      l.newLayer(dictionaryLayer);
+      try {
+        l.newLayer(matchingLayer);
+        try {
+          // JSON dictionary with peers, tab-separated dictionary without
+          StringBuilder content = new StringBuilder();
+          if (peers) {
+            content.append("{");
+            for (String[] entry : dictionary) {
+              if (content.length() > 1) content.append(",");
+              content.append("\"").append(entry[0]).append("\":[");
+              for (int t = 1; t < entry.length; t++) {
+                if (t > 1) content.append(",");
+                content.append("\"").append(entry[t]).append("\"");
+              }
+              content.append("]");
+            } // next entry
+            content.append("}");
+          } else {
+            for (String[] entry : dictionary) {
+              content.append(String.join("\t", entry)).append("\n");
+            } // next entry
+          }
+          HttpRequestPostMultipart request = new HttpRequestPostMultipart(
+            new URL(labbcatUrl + "api/edit/store/tagFromDictionary"),
+            l.getRequiredHttpAuthorization())
+            .setParameter("sourceLayerId", "orthography")
+            .setParameter("tagLayerId", dictionaryLayer.getId())
+            .setParameter("confidence", "100")
+            .setParameter("dictionary", content.toString());
+          JsonObject counts = null;
+          try (JsonReader reader = Json.createReader(
+                 new InputStreamReader(request.post().getInputStream(), "UTF-8"))) {
+            JsonObject response = reader.readObject();
+            assertEquals("Tagging succeeded: " + response, 0, response.getInt("code"));
+            counts = response.getJsonObject("model");
+          }
+          assertEquals("Entries counted - peers: " + peers, 5, counts.getInt("entries"));
+          
+          // tag the same entries one expression at a time
+          for (String[] entry : dictionary) {
+            // without peers, only the first tag label is used
+            for (int t = 1; t < (peers?entry.length:2); t++) {
+              tagMatchingAnnotations(
+                "layer.id == 'orthography' && label == '"+entry[0]+"'",
+                matchingLayer.getId(), entry[t], false);
+            } // next tag label
+          } // next entry
+          assertEquals("Same tag count - peers: " + peers,
+                       l.countMatchingAnnotations("layer.id == '"+matchingLayer.getId()+"'"),
+                       counts.getInt("tags"));
+          assertEquals("Same tags - peers: " + peers,
+                       describeTags(matchingLayer.getId()),
+                       describeTags(dictionaryLayer.getId()));
+        } finally {
+          l.deleteLayer(matchingLayer.getId());
+        }
+      } finally {
+        l.deleteLayer(dictionaryLayer.getId());
+      }
+    } // next peers setting
+  }
+
+  /** Ensure batches of edits are applied in order, and invalid batches change nothing. */
+  @Test public void editAnnotations() throws Exception {
+    String[] ids = l.getMatchingTranscriptIds("/AP511.+\\.eaf/.test(id)", 1, 0);
+    assertTrue("Some graph IDs are returned",
+               ids.length > 0);
+    Annotation[] words = l.getMatchingAnnotations(
+      "graph.id == '"+ids[0]+"' && layer.id == 'word'", 3, 0);
+    assertEquals("Some words are returned", 3, words.length);
+    Layer layer = new Layer("TestStore-edit", "Batch edits")
+      .setParentId("word")
+      .setAlignment(Constants.ALIGNMENT_NONE)
+      .setPeers(true)
+      .setPeersOverlap(true)
+      .setParentIncludes(true)
+      .setSaturated(true)
+      .setType(Constants.TYPE_STRING);
+    l.newLayer(layer);
+    try {
+      // create some tags
+      JsonObject response = editAnnotations(
+        "[" + createEdit(words[0].getId(), "a")
+        + "," + createEdit(words[1].getId(), "b")
+        + "," + createEdit(words[2].getId(), "c") + "]");
+      assertEquals("Edits succeeded: " + response, 0, response.getInt("code"));
+      JsonArray created = response.getJsonArray("model");
+      assertEquals("One ID per edit", 3, created.size());
+      for (int e = 0; e < 3; e++) {
+        assertFalse("New ID returned for create " + e, created.isNull(e));
+      }
+      assertEquals("Tags created", "a\tb\tc", tagLabels(layer.getId()));
+      
+      // update, destroy, and create
+      response = editAnnotations(
+        "[{\"operation\":\"update\",\"annotationId\":\""+created.getString(0)+"\","
+        + "\"label\":\"A\",\"confidence\":100},"
+        + "{\"operation\":\"destroy\",\"annotationId\":\""+created.getString(1)+"\"},"
+        + createEdit(words[2].getId(), "d") + "]");
+      assertEquals("Edits succeeded: " + response, 0, response.getInt("code"));
+      JsonArray model = response.getJsonArray("model");
+      assertEquals("One ID per edit", 3, model.size());
+      assertTrue("No ID for update", model.isNull(0));
+      assertTrue("No ID for destroy", model.isNull(1));
+      assertFalse("New ID for create", model.isNull(2));
+      assertEquals("Tags edited", "A\tc\td", tagLabels(layer.getId()));
+      
+      // an invalid edit means nothing changes
+      response = editAnnotations(
+        "[{\"operation\":\"update\",\"annotationId\":\""+created.getString(0)+"\","
+        + "\"label\":\"X\",\"confidence\":100},"
+        + "{\"operation\":\"destroy\",\"annotationId\":\"ew_0_0\"}]");
+      assertEquals("Invalid batch fails: " + response, 1, response.getInt("code"));
+      assertEquals("Nothing changed", "A\tc\td", tagLabels(layer.getId()));
+    } finally {
+      l.deleteLayer(layer.getId());
+    }
+  }
+
+  /** Ensure a run of creates on a layer without peers leaves one tag per parent. */
+  @Test public void editAnnotationsWithoutPeers() throws Exception {
+    String[] ids = l.getMatchingTranscriptIds("/AP511.+\\.eaf/.test(id)", 1, 0);
+    assertTrue("Some graph IDs are returned",
+               ids.length > 0);
+    Annotation[] words = l.getMatchingAnnotations(
+      "graph.id == '"+ids[0]+"' && layer.id == 'word'", 2, 0);
+    assertEquals("Some words are returned", 2, words.length);
+    Layer layer = new Layer("TestStore-edit", "Batch edits")
+      .setParentId("word")
+      .setAlignment(Constants.ALIGNMENT_NONE)
+      .setPeers(false)
+      .setPeersOverlap(false)
+      .setParentIncludes(true)
+      .setSaturated(true)
+      .setType(Constants.TYPE_STRING);
+    l.newLayer(layer);
+    try {
+      // an existing tag that the run must replace
+      JsonObject response = editAnnotations("[" + createEdit(words[1].getId(), "x") + "]");
+      assertEquals("Edit succeeded: " + response, 0, response.getInt("code"));
+
+      // parents p1, p2, p1
+      response = editAnnotations(
+        "[" + createEdit(words[0].getId(), "a")
+        + "," + createEdit(words[1].getId(), "b")
+        + "," + createEdit(words[0].getId(), "c") + "]");
+      assertEquals("Edits succeeded: " + response, 0, response.getInt("code"));
+      JsonArray model = response.getJsonArray("model");
+      assertEquals("One ID per edit", 3, model.size());
+      assertTrue("No ID for superseded create", model.isNull(0));
+      assertFalse("New ID for second parent", model.isNull(1));
+      assertFalse("New ID for later create", model.isNull(2));
+
+      Map<String,String> tags = Arrays.stream(
+        l.getMatchingAnnotations("layer.id == '"+layer.getId()+"'"))
+        .collect(Collectors.groupingBy(
+                   tag -> tag.getParentId(),
+                   Collectors.mapping(tag -> tag.getLabel(), Collectors.joining("\t"))));
+      assertEquals("One tag per parent: " + tags, 2, tags.size());
+      assertEquals("Later tag replaces earlier one", "c", tags.get(words[0].getId()));
+      assertEquals("Existing tag replaced", "b", tags.get(words[1].getId()));
+    } finally {
+      l.deleteLayer(layer.getId());
+    }
+  }
+
+  /**
+   * Generates a JSON-encoded edit for creating a tag on the TestStore-edit layer.
+   * @param parentId The ID of the parent annotation.
+   * @param label The label of the tag.
+   * @return The JSON-encoded edit.
+   */
+  String createEdit(String parentId, String label) {
+    return "{\"operation\":\"create\",\"layerId\":\"TestStore-edit\","
+      + "\"parentId\":\""+parentId+"\",\"label\":\""+label+"\",\"confidence\":100}";
+  } // end of createEdit()
+  
+  /**
+   * Posts a batch of edits to /api/edit/store/editAnnotations.
+   * @param body JSON-encoded array of edits.
+   * @return The response.
+   * @throws Exception
+   */
+  JsonObject editAnnotations(String body) throws Exception {
+    HttpURLConnection connection = (HttpURLConnection)new URL(
+      labbcatUrl + "api/edit/store/editAnnotations").openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
+    if (l.getRequiredHttpAuthorization() != null) {
+      connection.setRequestProperty("Authorization", l.getRequiredHttpAuthorization());
+    }
+    try (OutputStream out = connection.getOutputStream()) {
+      out.write(body.getBytes("UTF-8"));
+    }
+    InputStream in = connection.getResponseCode() < 400?
+      connection.getInputStream() : connection.getErrorStream();
+    try (JsonReader reader = Json.createReader(new InputStreamReader(in, "UTF-8"))) {
+      return reader.readObject();
+    }
+  } // end of editAnnotations()
+
+  /**
+   * Lists the labels of all tags on the given layer, in alphabetical order.
+   * @param layerId The tag layer.
+   * @return The tab-separated labels.
+   * @throws Exception
+   */
+  String tagLabels(String layerId) throws Exception {
+    return Arrays.stream(l.getMatchingAnnotations("layer.id == '"+layerId+"'"))
+      .map(tag -> tag.getLabel())
+      .sorted()
+      .collect(Collectors.joining("\t"));
+  } // end of tagLabels()
+
+  /**
+   * Tags annotations via /api/edit/store/tagMatchingAnnotations.
+   * @param expression Expression identifying annotations to tag.
+   * @param layerId Layer to create tags on.
+   * @param label Label of the tags.
+   * @param oneAtATime Whether to create tags one at a time, or in bulk.
+   * @return The number of annotations tagged.
+   * @throws Exception
+   */
+  int tagMatchingAnnotations(
+    String expression, String layerId, String label, boolean oneAtATime) throws Exception {
+    // (the edit store only accepts POST requests)
+    HttpRequestPostMultipart request = new HttpRequestPostMultipart(
+      new URL(labbcatUrl + "api/edit/store/tagMatchingAnnotations"),
+      l.getRequiredHttpAuthorization())
+      .setParameter("expression", expression)
+      .setParameter("layerId", layerId)
+      .setParameter("label", label)
+      .setParameter("confidence", "100");
+    if (oneAtATime) request.setParameter("oneAtATime", "true");
+    try (JsonReader reader = Json.createReader(
+           new InputStreamReader(request.post().getInputStream(), "UTF-8"))) {
+      JsonObject response = reader.readObject();
+      assertEquals("Tagging succeeded: " + response, 0, response.getInt("code"));
+      return response.getInt("model");
+    }
+  } // end of tagMatchingAnnotations()
+
+  /**
+   * Lists all tags on the given layer, excluding their IDs, in a canonical order.
+   * @param layerId The tag layer.
+   * @return A description of each tag's parent, ordinal, label, confidence, and anchors.
+   * @throws Exception
+   */
+  String describeTags(String layerId) throws Exception {
+    return Arrays.stream(l.getMatchingAnnotations("layer.id == '"+layerId+"'"))
+      .map(tag -> tag.getParentId() + "\t" + tag.getOrdinal() + "\t" + tag.getLabel()
+           + "\t" + tag.getConfidence() + "\t" + tag.getStartId() + "\t" + tag.getEndId())
+      .sorted()
+      .collect(Collectors.joining("\n"));
+  } // end of describeTags()
+  
   /**
    * Directory for text files.
    * @see #getDir()
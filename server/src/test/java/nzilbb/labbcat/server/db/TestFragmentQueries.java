@@ -0,0 +1,194 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import nzilbb.ag.Annotation;
+import nzilbb.ag.Graph;
+import nzilbb.sql.mysql.MySQLConnectionFactory;
+
+/**
+ * Tests the number of queries used to load fragments.
+ * <p> These tests assume that there is a LaBB-CAT database called "labbcat" on the local
+ * MySQL server, accessible with the username "labbcat" and password "labbcat", that has
+ * transcripts with word tokens and orthography and phonemes annotations. They're
+ * skipped if the database isn't available.
+ */
+public class TestFragmentQueries {
+
+  static String connectString = "jdbc:mysql://localhost/labbcat";
+  static String username = "labbcat";
+  static String password = "labbcat";
+  static SqlGraphStore store;
+
+  /** The number of statements executed on the store's connection. */
+  static int queryCount = 0;
+
+  @BeforeClass public static void connect() throws Exception {
+    try {
+      store = new SqlGraphStore(
+        "http://localhost:8080/labbcat/", new File(System.getProperty("java.io.tmpdir")),
+        new MySQLConnectionFactory(connectString, username, password), null);
+    } catch(Exception exception) {
+      Assume.assumeNoException("No database: " + connectString, exception);
+    }
+    store.setConnection(Counting(store.getConnection()));
+  }
+
+  /**
+   * Ensure the number of queries required to load a fragment doesn't depend on the number
+   * of annotations in it.
+   */
+  @Test public void queriesPerFragment() throws Exception {
+    String[] layerIds = { "word", "orthography", "phonemes" };
+    Annotation[] utterances = utterances();
+
+    // load once first, so that schema etc. are already cached
+    for (Annotation utterance : utterances) {
+      store.getFragment(utterance.getGraph().getId(), utterance.getId(), layerIds);
+    }
+
+    // word count -> query count
+    TreeMap<Integer,Integer> queries = new TreeMap<Integer,Integer>();
+    for (Annotation utterance : utterances) {
+      queryCount = 0;
+      Graph fragment = store.getFragment(
+        utterance.getGraph().getId(), utterance.getId(), layerIds);
+      int wordCount = fragment.all("word").length;
+      // with no words, there are no word-child queries at all
+      if (wordCount > 0) queries.put(wordCount, queryCount);
+    } // next utterance
+    Assume.assumeTrue("Utterances have different numbers of words", queries.size() > 1);
+
+    assertEquals("Query count doesn't depend on number of words: " + queries,
+                 queries.firstEntry().getValue(), queries.lastEntry().getValue());
+  }
+
+  /**
+   * Ensure fragments loaded together are the same as fragments loaded one at a time, and
+   * the number of queries required doesn't depend on the number of fragments.
+   */
+  @Test public void batchedFragments() throws Exception {
+    String[] layerIds = { "word", "orthography", "phonemes" };
+    Annotation[] utterances = utterances();
+    String transcriptId = utterances[0].getGraph().getId();
+    String[] annotationIds = new String[utterances.length];
+    for (int u = 0; u < utterances.length; u++) annotationIds[u] = utterances[u].getId();
+
+    queryCount = 0;
+    Graph[] fragments = store.getFragments(transcriptId, annotationIds, layerIds);
+    int allFragmentsQueries = queryCount;
+    // compare with a single fragment that has words, so that all layers are queried
+    for (int u = 0; u < fragments.length; u++) {
+      if (fragments[u].all("word").length > 0) {
+        queryCount = 0;
+        store.getFragments(transcriptId, new String[] { annotationIds[u] }, layerIds);
+        assertEquals("Query count doesn't depend on number of fragments",
+                     queryCount, allFragmentsQueries);
+        break;
+      }
+    } // next fragment
+
+    assertEquals(utterances.length, fragments.length);
+    for (int u = 0; u < utterances.length; u++) {
+      Graph fragment = store.getFragment(transcriptId, annotationIds[u], layerIds);
+      assertEquals("fragment order", fragment.getId(), fragments[u].getId());
+      assertEquals(fragment.getId() + " annotations",
+                   new TreeSet<String>(fragment.getAnnotationsById().keySet()),
+                   new TreeSet<String>(fragments[u].getAnnotationsById().keySet()));
+      assertEquals(fragment.getId() + " anchors",
+                   new TreeSet<String>(fragment.getAnchors().keySet()),
+                   new TreeSet<String>(fragments[u].getAnchors().keySet()));
+    } // next utterance
+  }
+
+  /**
+   * Gets up to 50 utterances from a transcript that has words.
+   * @return The utterances.
+   */
+  Annotation[] utterances() throws Exception {
+    Annotation[] utterances = store.getMatchingAnnotations(
+      "layer.id == 'utterance' && graph.id == '"
+      + store.getMatchingTranscriptIds("all('word').length > 0", 1, 0)[0] + "'", 50, 0);
+    Assume.assumeTrue("There are utterances", utterances.length > 1);
+    return utterances;
+  } // end of utterances()
+
+  /**
+   * Wraps the given connection so that statements executed on it are counted in
+   * {@link #queryCount}.
+   * @param connection The connection to wrap.
+   * @return A connection that counts executed statements.
+   */
+  static Connection Counting(Connection connection) {
+    return (Connection)Proxy.newProxyInstance(
+      Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+      (proxy, method, args) -> {
+        Object result = Invoke(connection, method, args);
+        if (result instanceof Statement) {
+          Statement statement = (Statement)result;
+          Class<?> type = method.getReturnType();
+          return Proxy.newProxyInstance(
+            type.getClassLoader(), new Class<?>[] { type },
+            (statementProxy, statementMethod, statementArgs) -> {
+              if (statementMethod.getName().startsWith("execute")) queryCount++;
+              return Invoke(statement, statementMethod, statementArgs);
+            });
+        }
+        return result;
+      });
+  } // end of Counting()
+
+  /**
+   * Invokes the given method, rethrowing whatever exception it throws.
+   * @param target The object to invoke the method on.
+   * @param method The method.
+   * @param args The arguments.
+   * @return The method's return value.
+   */
+  static Object Invoke(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch(InvocationTargetException exception) {
+      throw exception.getCause();
+    }
+  } // end of Invoke()
+
+  @AfterClass public static void disconnect() throws Exception {
+    if (store != null) store.getConnection().close();
+  }
+
+  public static void main(String args[])  {
+    org.junit.runner.JUnitCore.main("nzilbb.labbcat.server.db.TestFragmentQueries");
+  }
+
+}
@@ -0,0 +1,178 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import nzilbb.ag.Anchor;
+import nzilbb.ag.Annotation;
+import nzilbb.ag.Constants;
+import nzilbb.ag.Graph;
+import nzilbb.ag.Layer;
+
+public class TestGraphSnapshotCache {
+
+  File directory;
+  String[] layerIds = { "word" };
+
+  @Before public void configure() throws Exception {
+    directory = Files.createTempDirectory("TestGraphSnapshotCache-").toFile();
+    GraphSnapshotCache.Invalidate();
+  }
+
+  /** Ensure a snapshot restores the anchors and annotations it was taken from. */
+  @Test public void roundTrip() throws Exception {
+    Graph graph = graph(5);
+    GraphSnapshot snapshot = GraphSnapshot.Of(graph, Collections.singleton("transcript"));
+    assertEquals(Arrays.asList("participant", "word"), snapshot.getLayerIds());
+    assertEquals(6, snapshot.annotationCount());
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    snapshot.write(new DataOutputStream(bytes));
+    GraphSnapshot read = GraphSnapshot.Read(
+      new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(snapshot.getSizeInBytes(), read.getSizeInBytes());
+
+    Graph restored = read.restore(new Graph(), layers(read));
+    assertEquals(graph.getAnchors().size(), restored.getAnchors().size());
+    Anchor start = restored.getAnchors().get("n_1");
+    assertEquals(Double.valueOf(0.0), start.getOffset());
+    assertEquals(Integer.valueOf(Constants.CONFIDENCE_MANUAL), start.getConfidence());
+    assertNull(restored.getAnchors().get("n_2").getOffset());
+
+    assertEquals(graph.getAnnotationsById().size(), restored.getAnnotationsById().size());
+    for (Annotation original : graph.getAnnotationsById().values()) {
+      Annotation copy = restored.getAnnotationsById().get(original.getId());
+      assertNotNull(original.getId(), copy);
+      assertEquals(original.getId(), original.getLabel(), copy.getLabel());
+      assertEquals(original.getId(), original.getLayerId(), copy.getLayerId());
+      assertEquals(original.getId(), original.getParentId(), copy.getParentId());
+      assertEquals(original.getId(), original.getStartId(), copy.getStartId());
+      assertEquals(original.getId(), original.getEndId(), copy.getEndId());
+      assertEquals(original.getId(), original.getOrdinal(), copy.getOrdinal());
+      assertEquals(original.getId(), original.getWhen(), copy.getWhen());
+    } // next annotation
+    assertArrayEquals(new byte[] { 1, 2, 3 },
+                      (byte[])restored.getAnnotationsById().get("ew_0_3").get("data"));
+  }
+
+  /** Ensure keys change when a transcript is invalidated, and old snapshots are dropped. */
+  @Test public void invalidation() throws Exception {
+    GraphSnapshotCache.SetMaxMemoryBytes(1024 * 1024);
+    GraphSnapshot snapshot = GraphSnapshot.Of(graph(5), Collections.singleton("transcript"));
+    String key1 = GraphSnapshotCache.Key("db", 1, false, layerIds);
+    String key2 = GraphSnapshotCache.Key("db", 2, false, layerIds);
+    assertNotEquals("public-only users get different snapshots",
+                    key1, GraphSnapshotCache.Key("db", 1, true, layerIds));
+    GraphSnapshotCache.Put(key1, snapshot);
+    GraphSnapshotCache.Put(key2, snapshot);
+    assertSame(snapshot, GraphSnapshotCache.Get(key1));
+
+    GraphSnapshotCache.Invalidate("db", 1);
+    assertNotEquals("key changes after edit",
+                    key1, GraphSnapshotCache.Key("db", 1, false, layerIds));
+    assertNull("edited transcript dropped", GraphSnapshotCache.Get(key1));
+    assertSame("other transcript kept", snapshot, GraphSnapshotCache.Get(key2));
+
+    GraphSnapshotCache.Invalidate();
+    assertNull("all dropped", GraphSnapshotCache.Get(key2));
+    assertEquals(0, GraphSnapshotCache.MemoryBytes());
+  }
+
+  /** Ensure least recently used snapshots spill to disk, and are read back from there. */
+  @Test public void eviction() throws Exception {
+    GraphSnapshot snapshot = GraphSnapshot.Of(graph(5), Collections.singleton("transcript"));
+    GraphSnapshotCache.SetMaxMemoryBytes(snapshot.getSizeInBytes() * 2);
+    GraphSnapshotCache.SetDirectory(directory);
+    GraphSnapshotCache.SetMaxDiskBytes(1024 * 1024);
+    String key1 = GraphSnapshotCache.Key("db", 1, false, layerIds);
+    String key2 = GraphSnapshotCache.Key("db", 2, false, layerIds);
+    String key3 = GraphSnapshotCache.Key("db", 3, false, layerIds);
+    GraphSnapshotCache.Put(key1, snapshot);
+    GraphSnapshotCache.Put(key2, snapshot);
+    assertEquals(0, GraphSnapshotCache.DiskBytes());
+    GraphSnapshotCache.Put(key3, snapshot);
+    assertTrue("memory budget respected",
+               GraphSnapshotCache.MemoryBytes() <= snapshot.getSizeInBytes() * 2);
+    assertTrue("least recently used spilled to disk", GraphSnapshotCache.DiskBytes() > 0);
+    assertEquals(1, directory.listFiles().length);
+
+    GraphSnapshot fromDisk = GraphSnapshotCache.Get(key1);
+    assertNotNull("read from disk", fromDisk);
+    assertNotSame(snapshot, fromDisk);
+    assertEquals(snapshot.annotationCount(), fromDisk.annotationCount());
+    assertEquals(snapshot.getSizeInBytes(), fromDisk.getSizeInBytes());
+  }
+
+  @After public void reset() {
+    GraphSnapshotCache.Invalidate();
+    GraphSnapshotCache.SetMaxMemoryBytes(0);
+    GraphSnapshotCache.SetMaxDiskBytes(0);
+    GraphSnapshotCache.SetDirectory(null);
+    directory.delete();
+  }
+
+  /** A transcript with a participant and the given number of words. */
+  Graph graph(int wordCount) {
+    Graph graph = new Graph();
+    graph.addLayer(new Layer("participant", "Speakers"));
+    graph.addLayer(new Layer("word", "Words"));
+    Anchor start = new Anchor("n_1", 0.0);
+    start.setConfidence(Constants.CONFIDENCE_MANUAL);
+    graph.addAnchor(start);
+    graph.addAnchor(new Anchor("n_2", null));
+    graph.addAnnotation(new Annotation("m_-2_1", "Ada", "participant", "n_1", "n_2"));
+    // add words in reverse order, to ensure ordinals survive re-ordering
+    for (int w = wordCount; w > 0; w--) {
+      Annotation word = new Annotation(
+        "ew_0_" + w, w % 2 == 0? "the" : "cat", "word", "n_1", "n_2", "m_-2_1");
+      word.setOrdinal(w);
+      word.setWhen(new Timestamp(w * 1000L));
+      if (w == 3) word.put("data", new byte[] { 1, 2, 3 });
+      graph.addAnnotation(word);
+    } // next word
+    return graph;
+  }
+
+  /** The layers of the given snapshot, keyed by ID. */
+  Map<String,Layer> layers(GraphSnapshot snapshot) {
+    Map<String,Layer> layers = new HashMap<String,Layer>();
+    for (String id : snapshot.getLayerIds()) layers.put(id, new Layer(id, id));
+    return layers;
+  }
+
+  public static void main(String args[]) {
+    org.junit.runner.JUnitCore.main("nzilbb.labbcat.server.db.TestGraphSnapshotCache");
+  }
+}
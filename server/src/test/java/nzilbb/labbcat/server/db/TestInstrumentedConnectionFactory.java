@@ -0,0 +1,213 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Tests SQL instrumentation, using a stand-in connection whose queries return three rows
+ * after a short delay, and whose updates update two rows.
+ */
+public class TestInstrumentedConnectionFactory {
+
+  @Before public void reset() {
+    SqlStatistics.Reset();
+    SqlStatistics.SetTag("test");
+  }
+
+  /** Ensure statements that differ only in literals and parameter lists have the same
+   * shape. */
+  @Test public void normalize() throws Exception {
+    assertEquals("SELECT * FROM annotation_layer_12 WHERE ag_id = ? AND label = ?",
+                 SqlStatistics.Normalize(
+                   "SELECT *  FROM annotation_layer_12\n WHERE ag_id = 123 AND label = 'it''s'"));
+    assertEquals("identifiers with digits are unchanged",
+                 "SELECT t1.label FROM anchor t1 WHERE t1.offset > ?",
+                 SqlStatistics.Normalize("SELECT t1.label FROM anchor t1 WHERE t1.offset > 1.5"));
+    assertEquals("parameter lists are collapsed",
+                 SqlStatistics.Normalize("SELECT * FROM anchor WHERE anchor_id IN (?,?,?)"),
+                 SqlStatistics.Normalize("SELECT * FROM anchor WHERE anchor_id IN (?, ?)"));
+    assertEquals("multiple value lists are collapsed",
+                 "INSERT INTO anchor (ag_id, offset) VALUES (?, ...), ...",
+                 SqlStatistics.Normalize(
+                   "INSERT INTO anchor (ag_id, offset) VALUES (?,?), (?,?), (1, 2.5)"));
+  }
+
+  /** Ensure calls, rows, errors, and times are recorded per shape and tag. */
+  @Test public void statistics() throws Exception {
+    Connection connection = InstrumentedConnectionFactory.Instrument(standIn());
+    for (int id = 1; id <= 3; id++) {
+      PreparedStatement sql = connection.prepareStatement(
+        "SELECT label FROM annotation WHERE ag_id = ? AND layer_id = " + id);
+      sql.setInt(1, id);
+      ResultSet rs = sql.executeQuery();
+      while (rs.next()) {}
+      rs.close();
+      sql.close();
+    }
+    SqlStatistics.SetTag("other");
+    assertEquals(2, connection.createStatement().executeUpdate(
+                   "UPDATE annotation SET label = 'x' WHERE ag_id = 1"));
+    try {
+      connection.createStatement().executeQuery("SELECT fail");
+      fail("error rethrown");
+    } catch(SQLException exception) {
+    }
+
+    List<SqlStatistics.Shape> shapes = SqlStatistics.Shapes();
+    assertEquals("shapes: " + shapes.size(), 3, shapes.size());
+    SqlStatistics.Shape select = shape("test", "SELECT label FROM annotation");
+    assertEquals(3, select.getCalls());
+    assertEquals("rows read", 9, select.getRows());
+    assertEquals(0, select.getErrors());
+    assertTrue("time recorded: " + select.getTotalMs(), select.getTotalMs() >= 30);
+    assertTrue("max: " + select.getMaxMs(), select.getMaxMs() >= 10);
+    long histogramTotal = 0;
+    for (long count : select.getBuckets()) histogramTotal += count;
+    assertEquals(3, histogramTotal);
+    assertEquals(SqlStatistics.BUCKET_MS.length + 1, select.getBuckets().length);
+    assertEquals("rows updated", 2, shape("other", "UPDATE").getRows());
+    assertEquals(1, shape("other", "SELECT fail").getErrors());
+  }
+
+  /** Ensure slow statements are logged with their parameters. */
+  @Test public void slowStatements() throws Exception {
+    long threshold = SqlStatistics.GetSlowThresholdMs();
+    try {
+      SqlStatistics.SetSlowThresholdMs(5);
+      Connection connection = InstrumentedConnectionFactory.Instrument(standIn());
+      PreparedStatement sql = connection.prepareStatement(
+        "SELECT label FROM annotation WHERE ag_id = ? AND label = ?");
+      sql.setInt(1, 123);
+      sql.setString(2, "needle");
+      sql.executeQuery().close();
+      assertEquals(1, SqlStatistics.SlowStatements().size());
+      SqlStatistics.SlowStatement slow = SqlStatistics.SlowStatements().get(0);
+      assertEquals("test", slow.getTag());
+      assertEquals("SELECT label FROM annotation WHERE ag_id = ? AND label = ?",
+                   slow.getSql());
+      assertEquals("[123, needle]", slow.getParameters());
+      assertTrue("time: " + slow.getMs(), slow.getMs() >= 5);
+
+      SqlStatistics.SetSlowThresholdMs(0);
+      sql.executeQuery().close();
+      assertEquals("not logged when threshold is 0",
+                   1, SqlStatistics.SlowStatements().size());
+    } finally {
+      SqlStatistics.SetSlowThresholdMs(threshold);
+    }
+  }
+
+  /** Ensure slow statement parameters are only logged when explicitly enabled. */
+  @Test public void slowStatementParametersLogged() throws Exception {
+    PrintStream err = System.err;
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    try {
+      System.setErr(new PrintStream(log, true, "UTF-8"));
+      SqlStatistics.Slow("SELECT * FROM speaker WHERE name = ?", "[secret]", 10000000L, null);
+      assertTrue("statement logged: " + log,
+                 log.toString("UTF-8").contains("SELECT * FROM speaker WHERE name = ?"));
+      assertFalse("parameters not logged by default: " + log,
+                  log.toString("UTF-8").contains("secret"));
+      assertEquals("parameters still kept for reporting",
+                   "[secret]", SqlStatistics.SlowStatements().get(0).getParameters());
+      
+      SqlStatistics.SetLogSlowStatementParameters(true);
+      log.reset();
+      SqlStatistics.Slow("SELECT * FROM speaker WHERE name = ?", "[secret]", 10000000L, null);
+      assertTrue("parameters logged when enabled: " + log,
+                 log.toString("UTF-8").contains("[secret]"));
+    } finally {
+      SqlStatistics.SetLogSlowStatementParameters(false);
+      System.setErr(err);
+    }
+  }
+
+  /**
+   * Finds statistics for the given tag and SQL prefix.
+   * @param tag The tag.
+   * @param sqlPrefix The start of the normalized SQL.
+   * @return The statistics.
+   */
+  SqlStatistics.Shape shape(String tag, String sqlPrefix) {
+    for (SqlStatistics.Shape shape : SqlStatistics.Shapes()) {
+      if (shape.getTag().equals(tag) && shape.getSql().startsWith(sqlPrefix)) return shape;
+    }
+    fail("No shape for " + tag + ": " + sqlPrefix);
+    return null;
+  } // end of shape()
+
+  /**
+   * Creates a stand-in connection. Queries take 10ms and return three rows, updates update
+   * two rows, and queries containing "fail" throw an exception.
+   * @return The connection.
+   */
+  static Connection standIn() {
+    return (Connection)Proxy.newProxyInstance(
+      Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+      (proxy, method, args) -> {
+        if (method.getName().equals("close")) return null;
+        final String prepared = args != null && args.length > 0? (String)args[0] : null;
+        Class<?> type = method.getReturnType();
+        return Proxy.newProxyInstance(
+          type.getClassLoader(), new Class<?>[] { type },
+          (statement, statementMethod, statementArgs) -> {
+            String sql = statementArgs != null && statementArgs.length > 0
+              && statementArgs[0] instanceof String? (String)statementArgs[0] : prepared;
+            switch (statementMethod.getName()) {
+              case "executeUpdate":
+                return 2;
+              case "executeQuery":
+                if (sql.contains("fail")) throw new SQLException("Failed: " + sql);
+                Thread.sleep(10);
+                int[] row = { 0 };
+                return Proxy.newProxyInstance(
+                  ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                  (rs, rsMethod, rsArgs) ->
+                  rsMethod.getName().equals("next")? ++row[0] <= 3 : null);
+              default:
+                return null;
+            }
+          });
+      });
+  } // end of standIn()
+
+  @AfterClass public static void resetStatistics() {
+    SqlStatistics.Reset();
+    SqlStatistics.SetTag(null);
+  }
+
+  public static void main(String args[])  {
+    org.junit.runner.JUnitCore.main("nzilbb.labbcat.server.db.TestInstrumentedConnectionFactory");
+  }
+
+}
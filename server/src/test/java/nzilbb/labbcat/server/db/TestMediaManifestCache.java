@@ -0,0 +1,90 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Vector;
+
+public class TestMediaManifestCache {
+
+  File episodeDir;
+
+  @Before public void createEpisode() throws Exception {
+    episodeDir = Files.createTempDirectory("TestMediaManifestCache-").toFile();
+    new File(episodeDir, "wav").mkdir();
+    new File(episodeDir, "mp4").mkdir();
+    new File(new File(episodeDir, "wav"), "transcript.wav").createNewFile();
+    new File(episodeDir, "episode.txt").createNewFile();
+  }
+
+  /** Ensure the manifest lists subdirectories and their files, but not other files. */
+  @Test public void manifest() throws Exception {
+    MediaManifestCache.Manifest manifest = MediaManifestCache.Get(episodeDir);
+    assertEquals(Arrays.asList("mp4", "wav"), new Vector<String>(manifest.directories()));
+    assertTrue(manifest.contains("wav", "transcript.wav"));
+    assertFalse(manifest.contains("wav", "transcript_face.wav"));
+    assertFalse(manifest.contains("mp4", "transcript.mp4"));
+    assertFalse(manifest.contains("mp3", "transcript.mp3"));
+    assertTrue(MediaManifestCache.Exists(
+                 new File(new File(episodeDir, "wav"), "transcript.wav")));
+    assertFalse(MediaManifestCache.Exists(
+                  new File(new File(episodeDir, "mp4"), "transcript.mp4")));
+  }
+
+  /** Ensure manifests are cached until invalidated. */
+  @Test public void invalidation() throws Exception {
+    File mp4 = new File(new File(episodeDir, "mp4"), "transcript.mp4");
+    assertFalse(MediaManifestCache.Exists(mp4));
+    mp4.createNewFile();
+    assertFalse("manifest is cached", MediaManifestCache.Exists(mp4));
+    MediaManifestCache.Invalidate(episodeDir);
+    assertTrue("manifest is re-read after invalidation", MediaManifestCache.Exists(mp4));
+    mp4.delete();
+    assertTrue("manifest is cached", MediaManifestCache.Exists(mp4));
+    long maxAgeMs = MediaManifestCache.GetMaxAgeMs();
+    try {
+      MediaManifestCache.SetMaxAgeMs(0);
+      assertFalse("manifest is re-read when too old", MediaManifestCache.Exists(mp4));
+    } finally {
+      MediaManifestCache.SetMaxAgeMs(maxAgeMs);
+    }
+  }
+
+  @After public void deleteEpisode() {
+    MediaManifestCache.Invalidate(episodeDir);
+    for (File dir : episodeDir.listFiles()) {
+      if (dir.isDirectory()) for (File f : dir.listFiles()) f.delete();
+      dir.delete();
+    }
+    episodeDir.delete();
+  }
+
+  public static void main(String args[])  {
+    org.junit.runner.JUnitCore.main("nzilbb.labbcat.server.db.TestMediaManifestCache");
+  }
+
+}
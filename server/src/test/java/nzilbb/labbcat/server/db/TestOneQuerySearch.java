@@ -25,7 +25,10 @@ package nzilbb.labbcat.server.db;
 import org.junit.*;
 import static org.junit.Assert.*;
 
+import java.util.List;
 import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.stream.Collectors;
 import nzilbb.ag.Constants;
 import nzilbb.ag.Layer;
 import nzilbb.ag.Schema;
@@ -3918,6 +3921,143 @@ public class TestOneQuerySearch {
                  search.getDescription());
   }
   
+  /** Ensure transcripts are split into contiguous, evenly sized partitions. */
+  @Test public void partitionRanges() throws Exception {
+    Vector<Long> agIds = new Vector<Long>();
+    for (long agId = 1; agId <= 10; agId++) agIds.add(agId * 10);
+    
+    List<long[]> ranges = OneQuerySearch.PartitionRanges(agIds, 3);
+    assertEquals("number of partitions", 3, ranges.size());
+    assertEquals("first from", 10, ranges.get(0)[0]);
+    assertEquals("first to", 30, ranges.get(0)[1]);
+    assertEquals("second from", 40, ranges.get(1)[0]);
+    assertEquals("second to", 60, ranges.get(1)[1]);
+    assertEquals("third from", 70, ranges.get(2)[0]);
+    assertEquals("third to", 100, ranges.get(2)[1]);
+    
+    ranges = OneQuerySearch.PartitionRanges(agIds.subList(0, 2), 4);
+    assertEquals("no more partitions than transcripts", 2, ranges.size());
+    assertEquals("first from", 10, ranges.get(0)[0]);
+    assertEquals("first to", 10, ranges.get(0)[1]);
+    assertEquals("second from", 20, ranges.get(1)[0]);
+    assertEquals("second to", 20, ranges.get(1)[1]);
+    
+    assertEquals("no transcripts, no partitions",
+                 0, OneQuerySearch.PartitionRanges(new Vector<Long>(), 4).size());
+  }
+  
+  /** Ensure partition queries are restricted to their ag_id range and table. */
+  @Test public void partitionSql() throws Exception {
+    OneQuerySearch search = new OneQuerySearch();
+    search.setMatrix(
+      new Matrix().addColumn(
+        new Column().addLayerMatch(
+          new LayerMatch().setId("word").setPattern("needle").setTarget(true))));
+    Vector<Object> parameters = new Vector<Object>();
+    search.normalizeMatrix(getSchema());
+    String sql = search.generateSql(parameters, getSchema(), l -> false, p -> "", t -> "");
+    String partitionSql = OneQuerySearch.PartitionSql(sql, "_result_1_0", "turn.ag_id", 12, 34);
+    assertTrue("Inserts into partition table: " + partitionSql,
+               partitionSql.startsWith("INSERT INTO _result_1_0 (search_id,"));
+    assertTrue("Restricted to ag_id range, with original order: " + partitionSql,
+               partitionSql.endsWith(
+                 " /* subsequent columns */  AND turn.ag_id BETWEEN 12 AND 34"
+                 +" ORDER BY search_0_0.turn_annotation_id, search_0_0.ordinal_in_turn"));
+    assertEquals("Nothing else changes",
+                 sql.replace("INSERT INTO _result ", "INSERT INTO _result_1_0 "),
+                 partitionSql.replace("  AND turn.ag_id BETWEEN 12 AND 34", " "));
+  }
+
+  /** Ensure only partition tables are identified as candidates for orphan cleanup. */
+  @Test public void partitionTable() throws Exception {
+    Matcher partition = OneQuerySearch.PARTITION_TABLE.matcher("_result_123_4");
+    assertTrue("partition table", partition.matches());
+    assertEquals("search ID", "123", partition.group(1));
+    assertFalse("temporary result table",
+                OneQuerySearch.PARTITION_TABLE.matcher("_result").matches());
+    assertFalse("result table",
+                OneQuerySearch.PARTITION_TABLE.matcher("result").matches());
+    assertFalse("other table",
+                OneQuerySearch.PARTITION_TABLE.matcher("_result_123_x").matches());
+  }
+
+  /** Ensure duplicate targets are ignored by the main query, instead of deleted later. */
+  @Test public void ignoreDuplicates() throws Exception {
+    assertEquals("INSERT INTO _result (search_id) SELECT 1 ORDER BY 1"
+                 +" ON DUPLICATE KEY UPDATE"
+                 +" _result.target_annotation_uid = _result.target_annotation_uid",
+                 OneQuerySearch.IgnoreDuplicates(
+                   "INSERT INTO _result (search_id) SELECT 1 ORDER BY 1"));
+    assertEquals("Partition table is used",
+                 "INSERT INTO _result_1_0 SELECT 'INSERT INTO '"
+                 +" ON DUPLICATE KEY UPDATE"
+                 +" _result_1_0.target_annotation_uid = _result_1_0.target_annotation_uid",
+                 OneQuerySearch.IgnoreDuplicates("INSERT INTO _result_1_0 SELECT 'INSERT INTO '"));
+    assertFalse("Not INSERT IGNORE, which hides truncation warnings",
+                OneQuerySearch.IgnoreDuplicates("INSERT INTO _result SELECT 1")
+                .contains("IGNORE"));
+  }
+
+  /** Ensure count queries wrap the matching query without inserting anything. */
+  @Test public void countSql() throws Exception {
+    OneQuerySearch search = new OneQuerySearch();
+    search.setMatrix(
+      new Matrix().addColumn(
+        new Column().addLayerMatch(
+          new LayerMatch().setId("word").setPattern("needle").setTarget(true))));
+    Vector<Object> parameters = new Vector<Object>();
+    search.normalizeMatrix(getSchema());
+    String sql = search.generateSql(parameters, getSchema(), l -> false, p -> "", t -> "");
+    String select = sql.substring(sql.indexOf(" SELECT ") + 1);
+    assertEquals("Exact count",
+                 "SELECT COUNT(DISTINCT matches.target_annotation_uid) AS match_count,"
+                 +" COUNT(DISTINCT matches.ag_id) AS transcript_count,"
+                 +" COUNT(DISTINCT participant.label) AS participant_count"
+                 +" FROM (" + select + ") matches"
+                 +" INNER JOIN annotation_layer_11 participant"
+                 +" ON participant.annotation_id = matches.turn_annotation_id",
+                 OneQuerySearch.CountSql(sql, "turn.ag_id", 0));
+    String estimateSql = OneQuerySearch.CountSql(sql, "turn.ag_id", 10);
+    assertFalse("Nothing inserted: " + estimateSql, estimateSql.contains("INSERT"));
+    assertTrue("Sampled transcripts: " + estimateSql,
+               estimateSql.contains(
+                 " /* subsequent columns */  AND MOD(turn.ag_id, 100) < 10"
+                 +" ORDER BY search_0_0.turn_annotation_id, search_0_0.ordinal_in_turn)"
+                 +" matches"));
+  }
+
+  /** Ensure phases are profiled in order, including rows affected and SQL hashes. */
+  @Test public void phaseProfile() throws Exception {
+    OneQuerySearch search = new OneQuerySearch();
+    search.startPhase("sql");
+    String resume = search.startPhase("participants");
+    assertEquals("Interrupted phase returned", "sql", resume);
+    search.phaseRows(3);
+    search.startPhase(resume);
+    search.phaseSql("INSERT INTO _result SELECT 1");
+    search.startPhase("query");
+    search.phaseRows(10);
+    search.phaseRows(5);
+    search.endPhase();
+    assertEquals("Resumed phase is listed again",
+                 "sql participants sql query",
+                 search.getPhases().stream()
+                 .map(SearchPhase::getName).collect(Collectors.joining(" ")));
+    assertEquals("Resumed phase is merged in times",
+                 "[sql, participants, query]", search.getPhaseTimes().keySet().toString());
+    assertEquals("Rows", Long.valueOf(3), search.getPhases().get(1).getRows());
+    assertNull("No rows", search.getPhases().get(2).getRows());
+    assertEquals("Rows accumulate", Long.valueOf(15), search.getPhases().get(3).getRows());
+    assertEquals("SQL hash",
+                 SearchPhase.Hash("INSERT INTO _result SELECT 1"),
+                 search.getPhases().get(2).getSqlHash());
+    assertEquals("Hash is 16 hex digits", 16, search.getPhases().get(2).getSqlHash().length());
+    assertNotEquals("Different SQL, different hash",
+                    SearchPhase.Hash("INSERT INTO _result SELECT 1"),
+                    SearchPhase.Hash("INSERT INTO _result SELECT 2"));
+    assertNull("Nothing recorded outside a phase", search.startPhase(null));
+  }
+
   /**
    * Return a plausible schema, including SQL attributes.
    * @return A test schema.
@@ -0,0 +1,167 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+import nzilbb.ag.Graph;
+
+public class TestPrefetchingGraphSeries {
+
+  /** Ensure graphs loaded by several threads are returned in item order. */
+  @Test public void order() throws Exception {
+    PrefetchingGraphSeries<String> series = series(ids(50), 3, null);
+    assertEquals(50, series.estimateSize());
+    List<String> expected = ids(50);
+    expected.remove("7"); // no graph
+    assertEquals(expected, loadAll(series));
+    assertEquals(Integer.valueOf(100), series.getPercentComplete());
+  }
+
+  /** Ensure items with no graph are skipped, and errors are skipped or end the series. */
+  @Test public void errors() throws Exception {
+    Vector<String> failed = new Vector<String>();
+    PrefetchingGraphSeries<String> series = series(ids(10), 3, "3")
+      .setSkipErrors(true)
+      .setErrorHandler((id, exception) -> failed.add(id));
+    List<String> expected = ids(10);
+    expected.remove("3"); // error
+    expected.remove("7"); // no graph
+    assertEquals("errors skipped", expected, loadAll(series));
+    assertEquals("error reported", 1, failed.size());
+    assertEquals("error reported", "3", failed.get(0));
+
+    series = series(ids(10), 3, "3").setErrorHandler((id, exception) -> {});
+    assertEquals("error ends series", ids(3), loadAll(series));
+  }
+
+  /** Ensure graphs are loaded on demand when there are no background threads. */
+  @Test public void onDemand() throws Exception {
+    PrefetchingGraphSeries<String> series = series(ids(10), 0, null);
+    List<String> expected = ids(10);
+    expected.remove("7"); // no graph
+    assertEquals(expected, loadAll(series));
+  }
+
+  /** Ensure items are loaded in batches, and failed batches are loaded item by item. */
+  @Test public void batches() throws Exception {
+    for (int connections : new int[] { 0, 3 }) {
+      Vector<Integer> batchSizes = new Vector<Integer>();
+      Vector<String> failed = new Vector<String>();
+      PrefetchingGraphSeries<String> series = series(ids(30), connections, "13")
+        .setSkipErrors(true)
+        .setErrorHandler((id, exception) -> failed.add(id))
+        .setBatchSize(5)
+        .setBatchLoader((store, ids) -> {
+            batchSizes.add(ids.size());
+            if (ids.contains("13")) throw new Exception("Could not load batch");
+            Graph[] graphs = new Graph[ids.size()];
+            for (int i = 0; i < graphs.length; i++) {
+              if (ids.get(i).equals("7")) continue; // no graph
+              graphs[i] = new Graph();
+              graphs[i].setId(ids.get(i));
+            }
+            return graphs;
+          });
+      List<String> expected = ids(30);
+      expected.remove("13"); // error
+      expected.remove("7"); // no graph
+      assertEquals(connections + ": order", expected, loadAll(series));
+      assertEquals(connections + ": error reported for item, not batch",
+                   "13", failed.size() == 1? failed.get(0) : failed.toString());
+      for (int size : batchSizes) {
+        assertTrue(connections + ": batch size " + size, size > 1 && size <= 5);
+      }
+      assertTrue(connections + ": batches used: " + batchSizes, batchSizes.size() < 30);
+    } // next connection count
+  }
+
+  /**
+   * Ensure that if the background threads give up waiting for the consumer, the remaining
+   * graphs are still returned.
+   */
+  @Test public void idleTimeout() throws Exception {
+    PrefetchingGraphSeries<String> series = series(ids(20), 3, null).setIdleTimeout(50);
+    Vector<String> loaded = new Vector<String>();
+    assertTrue(series.tryAdvance(graph -> loaded.add(graph.getId())));
+    Thread.sleep(1500); // background threads time out
+    loaded.addAll(loadAll(series));
+    List<String> expected = ids(20);
+    expected.remove("7"); // no graph
+    assertEquals(expected, loaded);
+  }
+
+  /**
+   * Creates a series whose graphs are named after their IDs, and take a random amount of
+   * time to load. Item "7" produces no graph.
+   * @param ids The graph IDs.
+   * @param connections The number of background threads.
+   * @param failId The ID for which loading fails, or null.
+   * @return The series.
+   */
+  PrefetchingGraphSeries<String> series(List<String> ids, int connections, String failId) {
+    final Random random = new Random();
+    return new PrefetchingGraphSeries<String>(
+      new SqlGraphStore(), ids.iterator(), ids.size(), (store, id) -> {
+        Thread.sleep(random.nextInt(20));
+        if (id.equals(failId)) throw new Exception("Could not load " + id);
+        if (id.equals("7")) return null;
+        Graph graph = new Graph();
+        graph.setId(id);
+        return graph;
+      }) {
+      // no database connections are required
+      protected SqlGraphStore newWorkerStore() { return new SqlGraphStore(); }
+    }.setConnections(connections).setPrefetchCount(4);
+  } // end of series()
+
+  /**
+   * Generates a list of numeric IDs.
+   * @param count The number of IDs.
+   * @return The IDs "0", "1", ...
+   */
+  List<String> ids(int count) {
+    Vector<String> ids = new Vector<String>();
+    for (int i = 0; i < count; i++) ids.add(""+i);
+    return ids;
+  } // end of ids()
+
+  /**
+   * Loads all graphs from the series.
+   * @param series The series.
+   * @return The IDs of the graphs, in the order they were returned.
+   */
+  List<String> loadAll(PrefetchingGraphSeries<String> series) {
+    Vector<String> loaded = new Vector<String>();
+    while (series.tryAdvance(graph -> loaded.add(graph.getId()))) {}
+    return loaded;
+  } // end of loadAll()
+
+  public static void main(String args[])  {
+    org.junit.runner.JUnitCore.main("nzilbb.labbcat.server.db.TestPrefetchingGraphSeries");
+  }
+
+}
@@ -0,0 +1,134 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.db;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import nzilbb.labbcat.server.search.Column;
+import nzilbb.labbcat.server.search.LayerMatch;
+import nzilbb.labbcat.server.search.Matrix;
+import nzilbb.labbcat.server.search.SearchTask;
+
+public class TestSearchResultsCache {
+
+  /** Ensure canonical JSON doesn't depend on attribute order or null attributes. */
+  @Test public void canonical() throws Exception {
+    JsonObject a = Json.createObjectBuilder()
+      .add("pattern", "needle")
+      .add("id", "word")
+      .add("target", true)
+      .addNull("min")
+      .add("list", Json.createArrayBuilder().add(2).add(1))
+      .build();
+    JsonObject b = Json.createObjectBuilder()
+      .add("list", Json.createArrayBuilder().add(2).add(1))
+      .add("id", "word")
+      .add("target", true)
+      .add("pattern", "needle")
+      .build();
+    assertEquals(
+      "{\"id\":\"word\",\"list\":[2,1],\"pattern\":\"needle\",\"target\":true}",
+      SearchResultsCache.Canonical(a, new StringBuilder()).toString());
+    assertEquals("attribute order and nulls are ignored",
+                 SearchResultsCache.Canonical(a, new StringBuilder()).toString(),
+                 SearchResultsCache.Canonical(b, new StringBuilder()).toString());
+    assertEquals("strings are escaped",
+                 "{\"pattern\":\"\\\"quoted\\\" \\\\d\"}",
+                 SearchResultsCache.Canonical(
+                   Json.createObjectBuilder().add("pattern", "\"quoted\" \\d").build(),
+                   new StringBuilder()).toString());
+  }
+
+  /** Ensure keys are identical for identical searches, and differ for different searches. */
+  @Test public void key() throws Exception {
+    String key = key(search("needle"), "jdbc:test", "1", 1, null);
+    assertEquals("identical searches",
+                 key, key(search("needle"), "jdbc:test", "1", 1, null));
+    assertEquals("suppressResults is ignored",
+                 key, key(search("needle").setSuppressResults(true), "jdbc:test", "1", 1, null));
+    assertNotEquals("different pattern",
+                    key, key(search("haystack"), "jdbc:test", "1", 1, null));
+    assertNotEquals("different database",
+                    key, key(search("needle"), "jdbc:other", "1", 1, null));
+    assertNotEquals("different data version",
+                    key, key(search("needle"), "jdbc:test", "2", 1, null));
+    assertNotEquals("different schema version",
+                    key, key(search("needle"), "jdbc:test", "1", 2, null));
+    assertNotEquals("different access permissions",
+                    key, key(search("needle"), "jdbc:test", "1", 1, "t:corpus=QB;"));
+    assertNotEquals("different user restriction",
+                    key, key(search("needle").setRestrictByUser("someone"),
+                             "jdbc:test", "1", 1, null));
+    assertNotEquals("different main participant option",
+                    key, key(search("needle").setMainParticipantOnly(false),
+                             "jdbc:test", "1", 1, null));
+    assertNotEquals("different matches per transcript",
+                    key, key(search("needle").setMatchesPerTranscript(1),
+                             "jdbc:test", "1", 1, null));
+    assertNotEquals("different overlap threshold",
+                    key, key(search("needle").setOverlapThreshold(5),
+                             "jdbc:test", "1", 1, null));
+    assertNotEquals("different maximum matches",
+                    key, key(search("needle").setMaxMatches(10), "jdbc:test", "1", 1, null));
+  }
+
+  /** Ensure rows that are being read are in use until all their readers release them. */
+  @Test public void readers() throws Exception {
+    assertFalse("not in use", SearchResultsCache.InUse(-123));
+    SearchResultsCache.Acquire(-123);
+    SearchResultsCache.Acquire(-123);
+    assertTrue("acquired", SearchResultsCache.InUse(-123));
+    SearchResultsCache.Release(-123);
+    assertTrue("still acquired by another reader", SearchResultsCache.InUse(-123));
+    SearchResultsCache.Release(-123);
+    assertFalse("released by all readers", SearchResultsCache.InUse(-123));
+  }
+
+  /** Shorthand for {@link SearchResultsCache#Key(SearchTask,String,String,long,String)} */
+  String key(SearchTask task, String database, String dataVersion, long schemaVersion,
+             String accessRestriction) {
+    return SearchResultsCache.Key(task, database, dataVersion, schemaVersion, accessRestriction);
+  }
+
+  /**
+   * Creates a single-word search for the given pattern.
+   * @param pattern The word pattern.
+   * @return The search.
+   */
+  OneQuerySearch search(String pattern) {
+    OneQuerySearch search = new OneQuerySearch();
+    search.setMatrix(
+      new Matrix().addColumn(
+        new Column().addLayerMatch(
+          new LayerMatch().setId("word").setPattern(pattern).setTarget(true))));
+    search.setMainParticipantOnly(true);
+    return search;
+  } // end of search()
+
+  public static void main(String args[])  {
+    org.junit.runner.JUnitCore.main("nzilbb.labbcat.server.db.TestSearchResultsCache");
+  }
+
+}
@@ -0,0 +1,125 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.metrics;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.TreeMap;
+
+public class TestMetricRegistry {
+
+  @Before public void reset() {
+    MetricRegistry.Reset();
+  }
+
+  /** Ensure requests are recorded as counters and histograms in exposition format. */
+  @Test public void requests() throws Exception {
+    // durations are powers of two, so that their sum is exact
+    MetricRegistry.Request("/api/store", "GET", 200, 3906250L, 100); // 1/256 s
+    MetricRegistry.Request("/api/store", "GET", 200, 62500000L, 50); // 1/16 s
+    MetricRegistry.Request("/api/store", "POST", 400, 1953125L, 10); // 1/512 s
+    MetricRegistry.Request("/api/task", "GET", 200, 1953125L, -1); // size not known
+    String text = write();
+    assertTrue(text, text.contains(
+                 "# TYPE labbcat_http_requests_total counter\n"
+                 +"labbcat_http_requests_total{endpoint=\"/api/store\",method=\"GET\",status=\"200\"} 2\n"
+                 +"labbcat_http_requests_total{endpoint=\"/api/store\",method=\"POST\",status=\"400\"} 1\n"));
+    assertTrue(text, text.contains(
+                 "# TYPE labbcat_http_request_duration_seconds histogram\n"
+                 +"labbcat_http_request_duration_seconds_bucket{endpoint=\"/api/store\",le=\"0.005\"} 2\n"
+                 +"labbcat_http_request_duration_seconds_bucket{endpoint=\"/api/store\",le=\"0.01\"} 2\n"
+                 +"labbcat_http_request_duration_seconds_bucket{endpoint=\"/api/store\",le=\"0.025\"} 2\n"
+                 +"labbcat_http_request_duration_seconds_bucket{endpoint=\"/api/store\",le=\"0.05\"} 2\n"
+                 +"labbcat_http_request_duration_seconds_bucket{endpoint=\"/api/store\",le=\"0.1\"} 3\n"));
+    assertTrue(text, text.contains(
+                 "labbcat_http_request_duration_seconds_bucket{endpoint=\"/api/store\",le=\"+Inf\"} 3\n"
+                 +"labbcat_http_request_duration_seconds_sum{endpoint=\"/api/store\"} 0.068359375\n"
+                 +"labbcat_http_request_duration_seconds_count{endpoint=\"/api/store\"} 3\n"));
+    assertTrue(text, text.contains(
+                 "labbcat_http_response_bytes_total{endpoint=\"/api/store\"} 160\n"));
+    assertFalse("unknown sizes not recorded: " + text,
+                text.contains("labbcat_http_response_bytes_total{endpoint=\"/api/task\"}"));
+    assertEquals("each family is described once",
+                 text.indexOf("# HELP labbcat_http_requests_total"),
+                 text.lastIndexOf("# HELP labbcat_http_requests_total"));
+  }
+
+  /** Ensure sampled metrics are written when metrics are written, with escaped labels. */
+  @Test public void sampled() throws Exception {
+    MetricRegistry.Sampled("test_sampled", "Sampled values.", "gauge", () -> {
+        TreeMap<String,Number> values = new TreeMap<String,Number>();
+        values.put(MetricRegistry.Labels("name", "a \"quoted\"\\path\n"), 2);
+        values.put(MetricRegistry.Labels("name", "b"), 0.5);
+        return values;
+      });
+    String text = write();
+    assertTrue(text, text.contains(
+                 "# HELP test_sampled Sampled values.\n"
+                 +"# TYPE test_sampled gauge\n"
+                 +"test_sampled{name=\"a \\\"quoted\\\"\\\\path\\n\"} 2\n"
+                 +"test_sampled{name=\"b\"} 0.5\n"));
+    MetricRegistry.Reset();
+    assertTrue("sampled metrics survive reset", write().contains("test_sampled{name=\"b\"}"));
+  }
+
+  /** Ensure families without series aren't written, and gauges go up and down. */
+  @Test public void gauges() throws Exception {
+    MetricRegistry.RequestsInFlight().increment();
+    MetricRegistry.RequestsInFlight().increment();
+    MetricRegistry.RequestsInFlight().decrement();
+    String text = write();
+    assertTrue(text, text.contains(
+                 "# TYPE labbcat_http_requests_in_flight gauge\n"
+                 +"labbcat_http_requests_in_flight 1\n"));
+    assertFalse("empty families not written: " + text,
+                text.contains("labbcat_http_requests_total"));
+  }
+
+  /** Ensure declared response sizes are parsed, and missing ones are unknown. */
+  @Test public void contentLength() throws Exception {
+    assertEquals(1234, MetricRegistry.ContentLength("1234"));
+    assertEquals(-1, MetricRegistry.ContentLength(null));
+    assertEquals(-1, MetricRegistry.ContentLength("chunked"));
+  }
+
+  /**
+   * Writes the metrics to a string.
+   * @return The metrics in exposition format.
+   */
+  String write() throws Exception {
+    StringWriter s = new StringWriter();
+    MetricRegistry.Write(s);
+    return s.toString();
+  } // end of write()
+
+  @AfterClass public static void resetMetrics() {
+    MetricRegistry.Reset();
+    MetricRegistry.families.remove("test_sampled");
+  }
+
+  public static void main(String args[])  {
+    org.junit.runner.JUnitCore.main("nzilbb.labbcat.server.metrics.TestMetricRegistry");
+  }
+
+}
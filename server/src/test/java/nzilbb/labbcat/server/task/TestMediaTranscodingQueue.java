@@ -0,0 +1,210 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.task;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Tests the media transcoding queue, using a shell script that stands in for ffmpeg: it
+ * copies its input file to its output file (its last argument), after a short delay,
+ * logging the output file name, and how many conversions are running at the time.
+ */
+public class TestMediaTranscodingQueue {
+
+  static File dir;
+
+  @BeforeClass public static void createStandIn() throws Exception {
+    Assume.assumeFalse(
+      "Stand-in ffmpeg is a shell script",
+      System.getProperty("os.name").startsWith("Windows"));
+    dir = Files.createTempDirectory("TestMediaTranscodingQueue-").toFile();
+    new File(dir, "running").mkdir();
+    File standIn = new File(dir, "ffmpeg");
+    PrintWriter writer = new PrintWriter(standIn, "UTF-8");
+    writer.println("#!/bin/sh");
+    writer.println("case \" $* \" in *\" -version \"*) echo \"ffmpeg version stand-in\"; exit 0;; esac");
+    writer.println("previous=\"\"");
+    writer.println("for arg; do");
+    writer.println("  if [ \"$previous\" = \"-i\" ]; then input=\"$arg\"; fi");
+    writer.println("  previous=\"$arg\"; output=\"$arg\"");
+    writer.println("done");
+    writer.println("touch \"" + dir.getPath() + "/running/$$\"");
+    writer.println("ls \"" + dir.getPath() + "/running\" | wc -l >> \""
+                   + dir.getPath() + "/concurrency.txt\"");
+    writer.println("sleep 0.2");
+    writer.println("cp \"$input\" \"$output\"");
+    writer.println("basename \"$output\" >> \"" + dir.getPath() + "/order.txt\"");
+    writer.println("rm \"" + dir.getPath() + "/running/$$\"");
+    writer.close();
+    standIn.setExecutable(true);
+  }
+
+  @Before public void clearLogs() {
+    new File(dir, "concurrency.txt").delete();
+    new File(dir, "order.txt").delete();
+  }
+
+  /** Ensure no more than the given number of conversions run at once, and duplicates
+   * are ignored. */
+  @Test public void boundedAndDeduplicated() throws Exception {
+    File stateFile = new File(dir, "bounded.csv");
+    MediaTranscodingQueue queue = null;
+    for (int j = 0; j < 6; j++) {
+      queue = MediaTranscodingQueue.Add(stateFile, job("bounded" + j, false), 2);
+    }
+    assertEquals("duplicate ignored",
+                 queue, MediaTranscodingQueue.Add(stateFile, job("bounded5", true), 2));
+    waitFor(queue);
+
+    assertEquals(6, queue.getCompletedCount());
+    assertEquals(0, queue.getFailedCount());
+    for (int j = 0; j < 6; j++) {
+      File destination = new File(dir, "bounded" + j + ".mp3");
+      assertTrue("converted: " + destination.getName(), destination.exists());
+      assertEquals("content copied", "bounded" + j,
+                   new String(Files.readAllBytes(destination.toPath()), "UTF-8").trim());
+    }
+    assertEquals("each conversion run once", 6, lines("order.txt").size());
+    for (String concurrency : lines("concurrency.txt")) {
+      assertTrue("no more than 2 at once: " + concurrency,
+                 Integer.parseInt(concurrency.trim()) <= 2);
+    }
+    assertFalse("state file removed when finished", stateFile.exists());
+  }
+
+  /** Ensure interactive jobs are run before background jobs. */
+  @Test public void interactiveFirst() throws Exception {
+    File stateFile = new File(dir, "priority.csv");
+    MediaTranscodingQueue queue = MediaTranscodingQueue.Add(
+      stateFile, job("first", false), 1);
+    // wait until the first job is running, so that everything else is queued behind it
+    long timeout = System.currentTimeMillis() + 10000;
+    while (!queue.getStatus().startsWith("1 running")) {
+      assertTrue("first job started: " + queue.getStatus(),
+                 System.currentTimeMillis() < timeout);
+      Thread.sleep(10);
+    }
+    MediaTranscodingQueue.Add(stateFile, job("background1", false), 1);
+    MediaTranscodingQueue.Add(stateFile, job("background2", false), 1);
+    MediaTranscodingQueue.Add(stateFile, job("interactive", true), 1);
+    MediaTranscodingQueue.Add(stateFile, job("background2", true), 1); // promoted
+    waitFor(queue);
+
+    List<String> order = lines("order.txt");
+    assertEquals(4, order.size());
+    assertEquals("first.mp3", order.get(0));
+    assertEquals("interactive.mp3", order.get(1));
+    assertEquals("background2.mp3", order.get(2));
+    assertEquals("background1.mp3", order.get(3));
+  }
+
+  /** Ensure jobs saved in the state file are resumed. */
+  @Test public void resume() throws Exception {
+    File stateFile = new File(dir, "resume.csv");
+    File source = source("resumed");
+    PrintWriter writer = new PrintWriter(stateFile, "UTF-8");
+    writer.println("interactive,source,sourceType,destination,destinationType,ffmpegPath,arguments");
+    writer.println("false," + source.getPath() + ",audio/wav,"
+                   + new File(dir, "resumed.mp3").getPath() + ",audio/mpeg,"
+                   + dir.getPath() + ",");
+    writer.close();
+
+    MediaTranscodingQueue queue = MediaTranscodingQueue.Resume(stateFile);
+    assertNotNull("queue resumed", queue);
+    waitFor(queue);
+    assertTrue("converted", new File(dir, "resumed.mp3").exists());
+    assertFalse("state file removed when finished", stateFile.exists());
+    assertNull("only resumed once", MediaTranscodingQueue.Resume(stateFile));
+  }
+
+  /**
+   * Creates a job for converting a new source file.
+   * @param name The name of the source file, without extension, which is also its content.
+   * @param interactive Whether the job is interactive.
+   * @return The job.
+   */
+  MediaTranscodingQueue.Job job(String name, boolean interactive) throws Exception {
+    return new MediaTranscodingQueue.Job()
+      .setSource(source(name))
+      .setSourceType("audio/wav")
+      .setDestination(new File(dir, name + ".mp3"))
+      .setDestinationType("audio/mpeg")
+      .setFfmpegPath(dir)
+      .setInteractive(interactive);
+  } // end of job()
+
+  /**
+   * Creates a source file whose content is its name.
+   * @param name The name of the file, without extension.
+   * @return The file.
+   */
+  File source(String name) throws Exception {
+    File source = new File(dir, name + ".wav");
+    if (!source.exists()) {
+      PrintWriter writer = new PrintWriter(source, "UTF-8");
+      writer.println(name);
+      writer.close();
+    }
+    return source;
+  } // end of source()
+
+  /**
+   * Waits for the queue to finish all its jobs.
+   * @param queue The queue.
+   */
+  void waitFor(MediaTranscodingQueue queue) throws Exception {
+    long timeout = System.currentTimeMillis() + 30000;
+    while (!queue.isFinished()) {
+      assertTrue("finished in time: " + queue.getStatus(),
+                 System.currentTimeMillis() < timeout);
+      Thread.sleep(100);
+    }
+  } // end of waitFor()
+
+  /**
+   * Reads the lines of a log file written by the stand-in ffmpeg.
+   * @param name The name of the log file.
+   * @return The lines of the file.
+   */
+  List<String> lines(String name) throws Exception {
+    return Files.readAllLines(new File(dir, name).toPath());
+  } // end of lines()
+
+  @AfterClass public static void deleteStandIn() {
+    if (dir != null) {
+      new File(dir, "running").delete();
+      for (File f : dir.listFiles()) f.delete();
+      dir.delete();
+    }
+  }
+
+  public static void main(String args[])  {
+    org.junit.runner.JUnitCore.main("nzilbb.labbcat.server.task.TestMediaTranscodingQueue");
+  }
+
+}
@@ -0,0 +1,183 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.task;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * Tests measurements made without Praat, against baseline values in
+ * TestNativeMeasurements-baseline.csv for the recording TestNativeMeasurements.wav
+ * <p> The baseline values were not produced by Praat, but by a second implementation of
+ * the same algorithms, so these are regression tests; they don't validate agreement with
+ * Praat.
+ */
+public class TestNativeMeasurements {
+
+  /** Ensure the FFT agrees with a direct Fourier transform. */
+  @Test public void fft() throws Exception {
+    Random random = new Random(42);
+    int n = 64;
+    double[] re = new double[n];
+    double[] im = new double[n];
+    for (int i = 0; i < n; i++) re[i] = random.nextDouble() - 0.5;
+    double[] signal = re.clone();
+    NativeMeasurements.FFT(re, im);
+    for (int k = 0; k < n; k++) {
+      double expectedRe = 0.0;
+      double expectedIm = 0.0;
+      for (int i = 0; i < n; i++) {
+        expectedRe += signal[i] * Math.cos(-2 * Math.PI * k * i / n);
+        expectedIm += signal[i] * Math.sin(-2 * Math.PI * k * i / n);
+      }
+      assertEquals("re " + k, expectedRe, re[k], 1e-9);
+      assertEquals("im " + k, expectedIm, im[k], 1e-9);
+    } // next bin
+  }
+
+  /** Ensure measurements haven't changed from the baseline values. */
+  @Test public void baselineValues() throws Exception {
+    File wav = new File(getClass().getResource("TestNativeMeasurements.wav").toURI());
+    Vector<String[]> references = baseline();
+    NativeMeasurements audio = new NativeMeasurements(wav);
+    try {
+      assertEquals(16000, audio.getSampleRate());
+      assertEquals(1, audio.getChannelCount());
+      assertEquals(0.6, audio.getDuration(), 0.0001);
+      for (String[] reference : references) {
+        double start = Double.parseDouble(reference[0]);
+        double end = Double.parseDouble(reference[1]);
+        double startWindow = Math.max(start - 0.025, 0.0);
+        NativeMeasurements.Sound sample = audio.extractPart(
+          ProcessWithPraat.ScriptValue(startWindow), ProcessWithPraat.ScriptValue(end + 0.025));
+        String label = start + "-" + end;
+        if (reference[2].length() > 0) {
+          assertEquals(label + " max intensity", Double.parseDouble(reference[2]),
+                       NativeMeasurements.MaximumIntensity(
+                         sample, 60, ProcessWithPraat.ScriptValue(start - startWindow),
+                         ProcessWithPraat.ScriptValue(end - startWindow)),
+                       0.001);
+        } else {
+          try {
+            NativeMeasurements.MaximumIntensity(sample, 60, 0, 0);
+            fail(label + " too short for intensity");
+          } catch(IllegalArgumentException exception) {
+          }
+        }
+        assertEquals(label + " COG1", Double.parseDouble(reference[3]),
+                     NativeMeasurements.CentreOfGravity(sample, 1.0), 0.01);
+        assertEquals(label + " COG2", Double.parseDouble(reference[4]),
+                     NativeMeasurements.CentreOfGravity(sample, 2.0), 0.01);
+        assertEquals(label + " COG2/3", Double.parseDouble(reference[5]),
+                     NativeMeasurements.CentreOfGravity(sample, 2.0/3.0), 0.01);
+      } // next reference
+    } finally {
+      audio.close();
+    }
+  }
+
+  /** Ensure ProcessWithPraat can use native measurements, formatted like Praat output. */
+  @Test public void processWithPraat() throws Exception {
+    File wav = new File(getClass().getResource("TestNativeMeasurements.wav").toURI());
+    ProcessWithPraat task = new ProcessWithPraat()
+      .setExtractF1(false).setExtractF2(false)
+      .setExtractMaximumIntensity(true)
+      .setExtractCOG1(true).setExtractCOG2(true).setExtractCOG23(true)
+      .setWindowOffset(0.025);
+    assertFalse("not used by default", task.nativeMeasurementsSupported());
+    task.setUseNativeMeasurements(true);
+    assertTrue("native supported", task.nativeMeasurementsSupported());
+    assertFalse("not supported with formants",
+                new ProcessWithPraat().setExtractMaximumIntensity(true)
+                .nativeMeasurementsSupported());
+    assertFalse("not supported with custom intensity command",
+                new ProcessWithPraat().setExtractF1(false).setExtractF2(false)
+                .setExtractMaximumIntensity(true)
+                .setScriptIntensity("To Intensity... intensityPitchFloor 0 no")
+                .nativeMeasurementsSupported());
+
+    Vector<String[]> references = baseline();
+    Vector<Vector<Double>> targets = new Vector<Vector<Double>>();
+    for (String[] reference : references) {
+      Vector<Double> target = new Vector<Double>();
+      target.add(Double.valueOf(reference[0]));
+      target.add(Double.valueOf(reference[1]));
+      targets.add(target);
+    }
+    Vector<Vector<String>> results = task.measurementsNatively(wav, targets, 60);
+    assertEquals(references.size(), results.size());
+    for (int r = 0; r < references.size(); r++) {
+      String[] reference = references.get(r);
+      Vector<String> result = results.get(r);
+      String label = reference[0] + "-" + reference[1];
+      assertEquals(label + " result count", 5, result.size());
+      if (reference[2].length() > 0) {
+        assertEquals(label + " max intensity", Double.parseDouble(reference[2]),
+                     Double.parseDouble(result.get(0)), 0.001);
+        assertEquals(label + " no error", "", result.get(4));
+      } else {
+        assertEquals(label + " no max intensity", "", result.get(0));
+        assertTrue(label + " error: " + result.get(4), result.get(4).length() > 0);
+      }
+      assertEquals(label + " COG1", "" + Math.round(Double.parseDouble(reference[3])),
+                   result.get(1));
+      assertEquals(label + " COG2", "" + Math.round(Double.parseDouble(reference[4])),
+                   result.get(2));
+      assertEquals(label + " COG2/3", "" + Math.round(Double.parseDouble(reference[5])),
+                   result.get(3));
+    } // next reference
+  }
+
+  /**
+   * Reads the baseline values.
+   * @return Arrays of start, end, maxIntensity, COG1, COG2, and COG2/3 values.
+   */
+  Vector<String[]> baseline() throws Exception {
+    Vector<String[]> references = new Vector<String[]>();
+    BufferedReader reader = new BufferedReader(
+      new InputStreamReader(
+        getClass().getResourceAsStream("TestNativeMeasurements-baseline.csv"), "UTF-8"));
+    try {
+      String line = reader.readLine();
+      while (line != null) {
+        if (!line.startsWith("#") && line.trim().length() > 0) {
+          references.add(line.split(",", -1));
+        }
+        line = reader.readLine();
+      } // next line
+    } finally {
+      reader.close();
+    }
+    return references;
+  } // end of baseline()
+
+  public static void main(String args[])  {
+    org.junit.runner.JUnitCore.main("nzilbb.labbcat.server.task.TestNativeMeasurements");
+  }
+
+}
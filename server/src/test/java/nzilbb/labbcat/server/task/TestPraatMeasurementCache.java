@@ -0,0 +1,165 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.task;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Vector;
+
+public class TestPraatMeasurementCache {
+
+  File wav;
+
+  @Before public void setUp() throws Exception {
+    PraatMeasurementCache.Clear();
+    PraatMeasurementCache.SetMaxEntries(100000);
+    wav = File.createTempFile("TestPraatMeasurementCache-", ".wav");
+  }
+
+  @After public void tearDown() {
+    wav.delete();
+    PraatMeasurementCache.Clear();
+  }
+
+  /** Ensure keys change when the media file changes, and least recently used are evicted. */
+  @Test public void keysAndEviction() throws Exception {
+    String settings = PraatMeasurementCache.SettingsHash("settings");
+    assertEquals("hash is stable", settings, PraatMeasurementCache.SettingsHash("settings"));
+    assertNotEquals("hash depends on settings",
+                    settings, PraatMeasurementCache.SettingsHash("other settings"));
+
+    String key = PraatMeasurementCache.Key(wav, 1.0, 2.0, settings);
+    assertNotEquals("key depends on interval",
+                    key, PraatMeasurementCache.Key(wav, 1.0, 2.5, settings));
+    wav.setLastModified(wav.lastModified() - 60000);
+    assertNotEquals("key depends on modification time",
+                    key, PraatMeasurementCache.Key(wav, 1.0, 2.0, settings));
+
+    PraatMeasurementCache.SetMaxEntries(2);
+    PraatMeasurementCache.Add("a", result("1"));
+    PraatMeasurementCache.Add("b", result("2"));
+    assertEquals(result("1"), PraatMeasurementCache.Lookup("a")); // now b is least recent
+    PraatMeasurementCache.Add("c", result("3"));
+    assertEquals(2, PraatMeasurementCache.Size());
+    assertNull("least recently used evicted", PraatMeasurementCache.Lookup("b"));
+    assertNotNull(PraatMeasurementCache.Lookup("a"));
+    assertNotNull(PraatMeasurementCache.Lookup("c"));
+
+    PraatMeasurementCache.Lookup("a").set(0, "changed");
+    assertEquals("cached copy unchanged", result("1"), PraatMeasurementCache.Lookup("a"));
+  }
+
+  /** Ensure that only unmeasured intervals are sent to Praat, and failures aren't cached. */
+  @Test public void onlyUncachedMeasured() throws Exception {
+    Vector<Vector<Vector<Double>>> praatRuns = new Vector<Vector<Vector<Double>>>();
+    Vector<Boolean> fail = new Vector<Boolean>();
+    fail.add(Boolean.FALSE);
+    ProcessWithPraat task = new ProcessWithPraat() {
+        protected Vector<Vector<String>> measurementsFromPraat(
+          File wav, Vector<Vector<Double>> targets, Integer formantCeiling,
+          Integer pitchFloor, Integer pitchCeiling, Double voicingThreshold,
+          Integer intensityPitchFloor, Integer fastTrackLowestAnalysisFrequency,
+          Integer fastTrackHighestAnalysisFrequency,
+          HashMap<String,String> attributeValues, File baseDir) {
+          praatRuns.add(targets);
+          Vector<Vector<String>> results = new Vector<Vector<String>>();
+          for (Vector<Double> target : targets) {
+            results.add(fail.get(0)?result("", "error"):result(""+target.elementAt(0), ""));
+          }
+          return results;
+        }
+      };
+    task.setExtractF1(true);
+    HashMap<String,String> attributes = new HashMap<String,String>();
+
+    Vector<Vector<String>> results = task.measurementsFromFile(
+      wav, targets(1.0, 2.0), 5500, 30, 650, 0.5, 60, 4500, 7500, attributes, null);
+    assertEquals(1, praatRuns.size());
+    assertEquals(2, praatRuns.get(0).size());
+    assertEquals(result("1.0", ""), results.get(0));
+
+    // overlapping targets
+    results = task.measurementsFromFile(
+      wav, targets(2.0, 3.0), 5500, 30, 650, 0.5, 60, 4500, 7500, attributes, null);
+    assertEquals(2, praatRuns.size());
+    assertEquals("only new target measured", targets(3.0), praatRuns.get(1));
+    assertEquals(result("2.0", ""), results.get(0));
+    assertEquals(result("3.0", ""), results.get(1));
+
+    // different settings
+    task.measurementsFromFile(
+      wav, targets(2.0), 5000, 30, 650, 0.5, 60, 4500, 7500, attributes, null);
+    assertEquals("settings change means measuring again", 3, praatRuns.size());
+
+    // bypass
+    task.setUseMeasurementCache(false);
+    task.measurementsFromFile(
+      wav, targets(2.0), 5500, 30, 650, 0.5, 60, 4500, 7500, attributes, null);
+    assertEquals("cache bypassed", 4, praatRuns.size());
+    task.setUseMeasurementCache(true);
+
+    // failure
+    fail.set(0, Boolean.TRUE);
+    task.measurementsFromFile(
+      wav, targets(4.0), 5500, 30, 650, 0.5, 60, 4500, 7500, attributes, null);
+    fail.set(0, Boolean.FALSE);
+    results = task.measurementsFromFile(
+      wav, targets(4.0), 5500, 30, 650, 0.5, 60, 4500, 7500, attributes, null);
+    assertEquals("failure not cached", 6, praatRuns.size());
+    assertEquals(result("4.0", ""), results.get(0));
+  }
+
+  /**
+   * Creates a result.
+   * @param values The result values.
+   * @return The values as a Vector.
+   */
+  Vector<String> result(String... values) {
+    Vector<String> result = new Vector<String>();
+    for (String value : values) result.add(value);
+    return result;
+  } // end of result()
+
+  /**
+   * Creates a list of targets with the given start times, each one second long.
+   * @param starts Start times.
+   * @return Targets.
+   */
+  Vector<Vector<Double>> targets(double... starts) {
+    Vector<Vector<Double>> targets = new Vector<Vector<Double>>();
+    for (double start : starts) {
+      Vector<Double> target = new Vector<Double>();
+      target.add(start);
+      target.add(start + 1.0);
+      targets.add(target);
+    }
+    return targets;
+  } // end of targets()
+
+  public static void main(String args[])  {
+    org.junit.runner.JUnitCore.main("nzilbb.labbcat.server.task.TestPraatMeasurementCache");
+  }
+
+}
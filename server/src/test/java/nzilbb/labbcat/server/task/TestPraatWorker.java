@@ -0,0 +1,165 @@
+//
+// Copyright 2025 New Zealand Institute of Language, Brain and Behaviour,
+// University of Canterbury
+// Written by Robert Fromont - robert.fromont@canterbury.ac.nz
+//
+//    This file is part of LaBB-CAT.
+//
+//    LaBB-CAT is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU Affero General Public License as published by
+//    the Free Software Foundation; either version 3 of the License, or
+//    (at your option) any later version.
+//
+//    LaBB-CAT is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with LaBB-CAT; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package nzilbb.labbcat.server.task;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.PrintWriter;
+
+/**
+ * Tests the Praat worker protocol, using a shell script that stands in for Praat: it
+ * follows the driver protocol, 'running' a script by printing its contents followed by
+ * its own process ID, or exiting with an error if the script contains "crash". Scripts
+ * containing "warn" also print a message to stderr.
+ */
+public class TestPraatWorker {
+
+  static File dir;
+  static File standIn;
+
+  @BeforeClass public static void createStandIn() throws Exception {
+    Assume.assumeFalse(
+      "Stand-in Praat is a shell script",
+      System.getProperty("os.name").startsWith("Windows"));
+    dir = File.createTempFile("TestPraatWorker-", "");
+    dir.delete();
+    dir.mkdir();
+    standIn = new File(dir, "praat");
+    PrintWriter writer = new PrintWriter(standIn, "UTF-8");
+    writer.println("#!/bin/sh");
+    writer.println("for last; do driver=\"$last\"; done");
+    writer.println("request=\"$(dirname \"$driver\")/request.txt\"");
+    writer.println("while true; do");
+    writer.println("  if [ -f \"$request\" ]; then");
+    writer.println("    script=$(cat \"$request\"); rm \"$request\"");
+    writer.println("    if [ \"$script\" = \"quit\" ]; then exit 0; fi");
+    writer.println("    if grep -q crash \"$script\"; then echo \"Script crashed\" >&2; exit 1; fi");
+    writer.println("    if grep -q warn \"$script\"; then echo \"Warning\" >&2; fi");
+    writer.println("    cat \"$script\"");
+    writer.println("    echo \"pid $$\"");
+    writer.println("    echo \"\"");
+    writer.println("    echo \"" + PraatWorker.SENTINEL + "\"");
+    writer.println("  else");
+    writer.println("    sleep 0.01");
+    writer.println("  fi");
+    writer.println("done");
+    writer.close();
+    standIn.setExecutable(true);
+  }
+
+  /** Ensure script output is returned, and the same process runs successive scripts. */
+  @Test public void reuse() throws Exception {
+    PraatWorker worker = new PraatWorker(standIn).start();
+    try {
+      String first = worker.execute(script("first"));
+      assertTrue("output returned: " + first, first.startsWith("first\npid "));
+      String pid = first.substring(first.indexOf("pid "));
+      String second = worker.execute(script("second"));
+      assertTrue("output returned: " + second, second.startsWith("second\npid "));
+      assertEquals("same process", pid, second.substring(second.indexOf("pid ")));
+      assertEquals(2, worker.getRequestCount());
+    } finally {
+      worker.close();
+    }
+    assertFalse("stopped", worker.isAlive());
+  }
+
+  /** Ensure stderr is attributed to the script that produced it, not the next one. */
+  @Test public void stderrOrdering() throws Exception {
+    PraatWorker worker = new PraatWorker(standIn).start();
+    try {
+      for (int i = 0; i < 20; i++) {
+        String warned = worker.execute(script("warn"));
+        assertTrue("message included: " + warned, warned.startsWith("Warning\nwarn\n"));
+        String next = worker.execute(script("next"));
+        assertTrue("message not carried over: " + next, next.startsWith("next\npid "));
+      } // next pair
+    } finally {
+      worker.close();
+    }
+  }
+
+  /** Ensure a crash is reported, and the pool restarts the worker. */
+  @Test public void crashAndRestart() throws Exception {
+    PraatWorkerPool pool = new PraatWorkerPool(standIn, 1);
+    try {
+      assertTrue("health check", pool.healthCheck(10000));
+      PraatWorker worker = pool.acquire();
+      try {
+        worker.execute(script("crash"));
+        fail("crash is reported");
+      } catch(Exception exception) {
+        assertEquals("Script crashed", exception.getMessage());
+      } finally {
+        pool.release(worker);
+      }
+      assertFalse("worker died", worker.isAlive());
+      worker = pool.acquire();
+      try {
+        assertTrue("worker restarted", worker.isAlive());
+        assertTrue(worker.execute(script("after")).startsWith("after\n"));
+      } finally {
+        pool.release(worker);
+      }
+      assertEquals(1, pool.getRestartCount());
+    } finally {
+      pool.close();
+    }
+  }
+
+  /** Ensure the health check fails when the executable doesn't follow the protocol. */
+  @Test public void healthCheckFails() throws Exception {
+    PraatWorkerPool pool = new PraatWorkerPool(new File("/bin/true"), 1);
+    try {
+      assertFalse(pool.healthCheck(2000));
+    } finally {
+      pool.close();
+    }
+  }
+
+  /**
+   * Creates a script file with the given content.
+   * @param content The script content.
+   * @return The script file.
+   */
+  File script(String content) throws Exception {
+    File script = File.createTempFile("TestPraatWorker-", ".praat", dir);
+    PrintWriter writer = new PrintWriter(script, "UTF-8");
+    writer.println(content);
+    writer.close();
+    return script;
+  } // end of script()
+
+  @AfterClass public static void deleteStandIn() {
+    if (dir != null) {
+      for (File f : dir.listFiles()) f.delete();
+      dir.delete();
+    }
+  }
+
+  public static void main(String args[])  {
+    org.junit.runner.JUnitCore.main("nzilbb.labbcat.server.task.TestPraatWorker");
+  }
+
+}
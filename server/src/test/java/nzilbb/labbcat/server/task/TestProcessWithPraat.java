@@ -379,6 +379,28 @@ public class TestProcessWithPraat {
     }
   }
 
+  /** Ensure that large batches are split into balanced batches, in order. */
+  @Test public void splitBatch() throws Exception {
+    Vector<Integer> records = new Vector<Integer>();
+    for (int r = 0; r < 10; r++) records.add(r);
+
+    List<List<Integer>> batches = ProcessWithPraat.SplitBatch(records, 10);
+    assertEquals("small batch not split", 1, batches.size());
+    assertEquals("small batch not split", records, batches.get(0));
+
+    batches = ProcessWithPraat.SplitBatch(records, 4);
+    assertEquals("number of batches", 3, batches.size());
+    assertEquals("balanced", 3, batches.get(0).size());
+    assertEquals("balanced", 3, batches.get(1).size());
+    assertEquals("balanced", 4, batches.get(2).size());
+    Vector<Integer> rejoined = new Vector<Integer>();
+    for (List<Integer> batch : batches) rejoined.addAll(batch);
+    assertEquals("order preserved", records, rejoined);
+
+    batches = ProcessWithPraat.SplitBatch(records, 1);
+    assertEquals("one record per batch", 10, batches.size());
+  }
+
   /** Ensure that script fragments that read/write files on the server can be detected. */
   @Test public void fileAccessDetection() throws Exception {
     String[] fileAccessScripts = {